@@ -0,0 +1,67 @@
+package com.drimersion.spark_simple_api.benchmark;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 
+ * Respuesta http de prueba que descarta todo lo que se escribe, para medir la
+ * construcción de respuestas sin un servidor.
+ */
+final class DiscardingResponse {
+
+	/**
+	 * Constructor privado, clase de utilidades.
+	 */
+	private DiscardingResponse() {
+	}
+
+	/**
+	 * 
+	 * Crea una respuesta que descarta su contenido.
+	 * 
+	 * @return respuesta http
+	 */
+	static HttpServletResponse create() {
+		ServletOutputStream out = new ServletOutputStream() {
+
+			@Override
+			public void write(int b) throws IOException {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener writeListener) {
+			}
+
+		};
+
+		return (HttpServletResponse) Proxy.newProxyInstance(
+				DiscardingResponse.class.getClassLoader(),
+				new Class<?>[] { HttpServletResponse.class },
+				(proxy, method, args) -> {
+					Class<?> type = method.getReturnType();
+					if (type == ServletOutputStream.class) {
+						return out;
+					} else if (type == boolean.class) {
+						return false;
+					} else if (type == int.class) {
+						return 0;
+					}
+					return null;
+				});
+	}
+
+}
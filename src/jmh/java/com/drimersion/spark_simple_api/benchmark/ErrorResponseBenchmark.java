@@ -0,0 +1,59 @@
+package com.drimersion.spark_simple_api.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spark.RequestResponseFactory;
+import spark.Response;
+
+import com.drimersion.spark_simple_api.util.HttpStatusCode;
+import com.drimersion.spark_simple_api.util.SparkUtils;
+
+/**
+ * 
+ * Benchmarks de la construcción de respuestas de error.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ErrorResponseBenchmark {
+
+	/**
+	 * Respuesta de spark que descarta el contenido.
+	 */
+	private Response response;
+
+	/**
+	 * Prepara los datos del benchmark.
+	 */
+	@Setup
+	public void setup() {
+		response = RequestResponseFactory.create(DiscardingResponse.create());
+	}
+
+	/**
+	 * 
+	 * Construye la respuesta de un recurso no encontrado.
+	 * 
+	 * @return cuerpo retornado a la ruta
+	 */
+	@Benchmark
+	public Object buildNotFound() {
+		return SparkUtils.buildResponseWithErrors(response,
+				HttpStatusCode._404);
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.drimersion.spark_simple_api.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import spark.Spark;
+
+import com.drimersion.spark_simple_api.App;
+
+/**
+ *
+ * Benchmark de peticiones concurrentes que se bloquean esperando el disco,
+ * con el pool de hilos de Jetty limitado y con un hilo por petición. Con el
+ * pool limitado las peticiones por encima de su tamaño esperan en la cola,
+ * con un hilo por petición todas esperan el mismo commit del log. El modo
+ * virtual requiere Java 21 o superior.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionModeBenchmark {
+
+	/**
+	 * Tamaño del pool de hilos de Jetty en el modo platform.
+	 */
+	private static final int PLATFORM_THREADS = 16;
+
+	/**
+	 * Identificador del usuario del primer cliente.
+	 */
+	private static final int FIRST_ID = 1000;
+
+	/**
+	 * Modo de ejecución del servidor.
+	 */
+	@Param({ "platform", "virtual" })
+	private String mode;
+
+	/**
+	 * Peticiones concurrentes por operación.
+	 */
+	@Param({ "8", "64", "256" })
+	private int clients;
+
+	/**
+	 * Directorio de datos del servidor.
+	 */
+	private Path directory;
+
+	/**
+	 * Hilos de los clientes.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Url base del servidor.
+	 */
+	private String base;
+
+	/**
+	 *
+	 * Inicia el servidor con persistencia para que cada escritura espere el
+	 * commit del log.
+	 *
+	 * @throws IOException
+	 *             Si no es posible crear el directorio de datos
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("users");
+		System.setProperty("users.data", directory.toString());
+		System.setProperty("server.execution", mode);
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		System.setProperty("server.port", Integer.toString(port));
+		System.setProperty("server.threads.max",
+				Integer.toString(PLATFORM_THREADS));
+		App.main(new String[0]);
+		Spark.awaitInitialization();
+		base = "http://localhost:" + port + "/users";
+		executor = Executors.newFixedThreadPool(clients);
+		for (int client = 0; client < clients; client++) {
+			send("POST", base, FIRST_ID + client);
+		}
+	}
+
+	/**
+	 *
+	 * Detiene el servidor y elimina el directorio de datos.
+	 *
+	 * @throws IOException
+	 *             Si no es posible eliminar el directorio de datos
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		executor.shutdownNow();
+		Spark.stop();
+		Spark.awaitStop();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(
+					file -> file.toFile().delete());
+		}
+	}
+
+	/**
+	 *
+	 * Envía una petición de actualización por cliente y espera todas las
+	 * respuestas.
+	 *
+	 * @return suma de los códigos de respuesta
+	 * @throws Exception
+	 *             Si alguna petición falla
+	 */
+	@Benchmark
+	public int update() throws Exception {
+		List<Future<Integer>> responses = new ArrayList<>(clients);
+		for (int client = 0; client < clients; client++) {
+			int id = FIRST_ID + client;
+			responses.add(executor.submit(() -> send("PUT", base + "/" + id,
+					id)));
+		}
+		int result = 0;
+		for (Future<Integer> response : responses) {
+			try {
+				result += response.get();
+			} catch (ExecutionException e) {
+				throw (Exception) e.getCause();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * Envía un usuario al servidor.
+	 *
+	 * @param method
+	 *            método de la petición
+	 * @param url
+	 *            url de la petición
+	 * @param id
+	 *            identificador del usuario
+	 * @return código de la respuesta
+	 * @throws IOException
+	 *             Si la petición falla
+	 */
+	private static int send(String method, String url, int id)
+			throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url)
+				.openConnection();
+		connection.setRequestMethod(method);
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/json");
+		byte[] body = ("{\"id\":" + id + ",\"name\":\"Juan\",\"lastName\":\"Ramírez\","
+				+ "\"document\":\"" + (2000000000L + id) + "\"}")
+				.getBytes(StandardCharsets.UTF_8);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body);
+		}
+		int status = connection.getResponseCode();
+		try (InputStream in = status < 400 ? connection.getInputStream()
+				: connection.getErrorStream()) {
+			if (in != null) {
+				while (in.read() != -1) {
+					/* Se consume la respuesta para reutilizar la conexión */
+				}
+			}
+		}
+		return status;
+	}
+
+}
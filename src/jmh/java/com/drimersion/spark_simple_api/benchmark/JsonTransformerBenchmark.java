@@ -0,0 +1,181 @@
+package com.drimersion.spark_simple_api.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.response_transformer.JsonTransformer;
+
+/**
+ * 
+ * Benchmarks de la serialización y deserialización json de usuarios,
+ * comparada con la representación MessagePack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonTransformerBenchmark {
+
+	/**
+	 * Cantidad de usuarios de la colección.
+	 */
+	private static final int BULK_SIZE = 1000;
+
+	/**
+	 * Transformador a medir.
+	 */
+	private JsonTransformer json;
+
+	/**
+	 * Usuario individual.
+	 */
+	private User user;
+
+	/**
+	 * Colección de usuarios.
+	 */
+	private Map<Integer, User> users;
+
+	/**
+	 * Json de un usuario.
+	 */
+	private byte[] userJson;
+
+	/**
+	 * MessagePack de un usuario.
+	 */
+	private byte[] userMessagePack;
+
+	/**
+	 * Respuesta que descarta el contenido.
+	 */
+	private HttpServletResponse response;
+
+	/**
+	 * Prepara los datos del benchmark.
+	 */
+	@Setup
+	public void setup() {
+		json = new JsonTransformer();
+		user = new User(1, "Juan", "Ramírez", "1094891516");
+		users = new TreeMap<>();
+		for (int id = 0; id < BULK_SIZE; id++) {
+			users.put(id, new User(id, "Nombre " + id, "Apellido " + id,
+					Integer.toString(1094000000 + id)));
+		}
+		userJson = "{\"id\" : 7, \"name\" : \"juan\", \"lastName\" : \"test\", \"document\" : \"123\"}"
+				.getBytes(StandardCharsets.UTF_8);
+		userMessagePack = json.getMessagePack().toBytes(
+				new User(7, "juan", "test", "123"));
+		response = DiscardingResponse.create();
+	}
+
+	/**
+	 * 
+	 * Serializa un usuario como {@link String}.
+	 * 
+	 * @return json del usuario
+	 * @throws Exception
+	 *             Si falla la serialización
+	 */
+	@Benchmark
+	public String renderSingleUser() throws Exception {
+		return json.render(user);
+	}
+
+	/**
+	 * 
+	 * Serializa una colección de usuarios como {@link String}.
+	 * 
+	 * @return json de la colección
+	 * @throws Exception
+	 *             Si falla la serialización
+	 */
+	@Benchmark
+	public String renderBulkUsers() throws Exception {
+		return json.render(users);
+	}
+
+	/**
+	 * 
+	 * Serializa un usuario en el buffer del hilo y lo escribe en la respuesta.
+	 * 
+	 * @throws Exception
+	 *             Si falla la serialización
+	 */
+	@Benchmark
+	public void writeSingleUser() throws Exception {
+		json.write(user, false, response);
+	}
+
+	/**
+	 * 
+	 * Serializa una colección de usuarios en el buffer del hilo y la escribe
+	 * en la respuesta.
+	 * 
+	 * @throws Exception
+	 *             Si falla la serialización
+	 */
+	@Benchmark
+	public void writeBulkUsers() throws Exception {
+		json.write(users, false, response);
+	}
+
+	/**
+	 * 
+	 * Deserializa un usuario desde un flujo de bytes.
+	 * 
+	 * @return el usuario leído
+	 */
+	@Benchmark
+	public User readUser() {
+		return json.read(new ByteArrayInputStream(userJson), User.class);
+	}
+
+	/**
+	 * 
+	 * Codifica una colección de usuarios en MessagePack y la escribe en la
+	 * respuesta.
+	 * 
+	 * @throws Exception
+	 *             Si falla la escritura
+	 */
+	@Benchmark
+	public void writeBulkUsersMessagePack() throws Exception {
+		json.getMessagePack().write(users, response);
+	}
+
+	/**
+	 * 
+	 * Decodifica un usuario en MessagePack desde un flujo de bytes.
+	 * 
+	 * @return el usuario leído
+	 * @throws Exception
+	 *             Si el contenido no es válido
+	 */
+	@Benchmark
+	public User readUserMessagePack() throws Exception {
+		return json.getMessagePack().readUser(
+				new ByteArrayInputStream(userMessagePack));
+	}
+
+}
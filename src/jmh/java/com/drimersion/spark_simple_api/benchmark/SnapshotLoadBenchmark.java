@@ -0,0 +1,93 @@
+package com.drimersion.spark_simple_api.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.persistence.UserSnapshot;
+import com.drimersion.spark_simple_api.repository.InMemoryUserRepository;
+import com.drimersion.spark_simple_api.repository.UserRepository;
+
+/**
+ * 
+ * Benchmark de la carga de un snapshot de usuarios al iniciar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class SnapshotLoadBenchmark {
+
+	/**
+	 * Cantidad de usuarios del snapshot.
+	 */
+	@Param({ "1000000" })
+	private int users;
+
+	/**
+	 * Archivo del snapshot.
+	 */
+	private Path file;
+
+	/**
+	 * 
+	 * Escribe el snapshot que se carga en cada iteración.
+	 * 
+	 * @throws IOException
+	 *             Si no es posible escribir el snapshot
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		UserRepository repository = new InMemoryUserRepository(users);
+		for (int id = 0; id < users; id++) {
+			repository.createIfAbsent(id, new User(id, "Juan " + id,
+					"Ramírez", Integer.toString(1094891516 + id)));
+		}
+		file = Files.createTempFile("users", ".bin");
+		UserSnapshot.write(file, repository);
+	}
+
+	/**
+	 * 
+	 * Elimina el snapshot.
+	 * 
+	 * @throws IOException
+	 *             Si no es posible eliminar el snapshot
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * 
+	 * Carga el snapshot en un nuevo repositorio.
+	 * 
+	 * @return repositorio cargado
+	 * @throws IOException
+	 *             Si no es posible leer el snapshot
+	 */
+	@Benchmark
+	public UserRepository load() throws IOException {
+		return UserSnapshot.load(file);
+	}
+
+}
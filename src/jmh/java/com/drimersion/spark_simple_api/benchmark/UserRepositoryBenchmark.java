@@ -0,0 +1,207 @@
+package com.drimersion.spark_simple_api.benchmark;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.repository.InMemoryUserRepository;
+import com.drimersion.spark_simple_api.repository.UserRepository;
+
+/**
+ * 
+ * Benchmarks de las operaciones del repositorio de usuarios bajo contención,
+ * comparado con un {@link ConcurrentHashMap} de llaves {@link Integer}. Las
+ * subclases fijan la cantidad de hilos en 1, 4 y 16.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class UserRepositoryBenchmark {
+
+	/**
+	 * Cantidad de usuarios precargados, las llaves de creación y eliminación
+	 * están por encima de este rango.
+	 */
+	private static final int SIZE = 1 << 16;
+
+	/**
+	 * Almacenamiento a medir.
+	 */
+	@Param({ "repository", "concurrentHashMap" })
+	public String store;
+
+	/**
+	 * Operaciones del almacenamiento seleccionado.
+	 */
+	private Store users;
+
+	/**
+	 * Usuario de las escrituras.
+	 */
+	private final User user = new User("Juan", "Ramírez", "1094891516");
+
+	/**
+	 * Prepara el almacenamiento con los usuarios iniciales.
+	 */
+	@Setup
+	public void setup() {
+		users = "repository".equals(store) ? new RepositoryStore()
+				: new MapStore();
+		for (int id = 0; id < SIZE; id++) {
+			users.create(id, new User(id, "Nombre", "Apellido", "1"));
+		}
+	}
+
+	/**
+	 * 
+	 * Busca un usuario existente.
+	 * 
+	 * @return el usuario
+	 */
+	@Benchmark
+	public User get() {
+		return users.find(ThreadLocalRandom.current().nextInt(SIZE));
+	}
+
+	/**
+	 * 
+	 * Reemplaza un usuario existente.
+	 * 
+	 * @return el usuario anterior
+	 */
+	@Benchmark
+	public User replace() {
+		return users.replace(ThreadLocalRandom.current().nextInt(SIZE), user);
+	}
+
+	/**
+	 * 
+	 * Crea y elimina un usuario fuera del rango precargado.
+	 * 
+	 * @return el usuario eliminado
+	 */
+	@Benchmark
+	public User createAndRemove() {
+		int id = SIZE + ThreadLocalRandom.current().nextInt(SIZE);
+		users.create(id, user);
+		return users.remove(id);
+	}
+
+	/**
+	 * Ejecución con un hilo.
+	 */
+	@Threads(1)
+	public static class Threads1 extends UserRepositoryBenchmark {
+	}
+
+	/**
+	 * Ejecución con cuatro hilos.
+	 */
+	@Threads(4)
+	public static class Threads4 extends UserRepositoryBenchmark {
+	}
+
+	/**
+	 * Ejecución con dieciseis hilos.
+	 */
+	@Threads(16)
+	public static class Threads16 extends UserRepositoryBenchmark {
+	}
+
+	/**
+	 * Operaciones comunes de los almacenamientos comparados.
+	 */
+	private interface Store {
+
+		User find(int id);
+
+		User create(int id, User user);
+
+		User replace(int id, User user);
+
+		User remove(int id);
+
+	}
+
+	/**
+	 * Almacenamiento con el repositorio de la aplicación.
+	 */
+	private static final class RepositoryStore implements Store {
+
+		/**
+		 * Repositorio de usuarios.
+		 */
+		private final UserRepository users = new InMemoryUserRepository();
+
+		@Override
+		public User find(int id) {
+			return users.find(id);
+		}
+
+		@Override
+		public User create(int id, User user) {
+			return users.createIfAbsent(id, user);
+		}
+
+		@Override
+		public User replace(int id, User user) {
+			return users.replaceIfPresent(id, user);
+		}
+
+		@Override
+		public User remove(int id) {
+			return users.remove(id);
+		}
+
+	}
+
+	/**
+	 * Almacenamiento de referencia con llaves {@link Integer}.
+	 */
+	private static final class MapStore implements Store {
+
+		/**
+		 * Mapa de usuarios.
+		 */
+		private final ConcurrentHashMap<Integer, User> users = new ConcurrentHashMap<>();
+
+		@Override
+		public User find(int id) {
+			return users.get(id);
+		}
+
+		@Override
+		public User create(int id, User user) {
+			return users.putIfAbsent(id, user);
+		}
+
+		@Override
+		public User replace(int id, User user) {
+			return users.replace(id, user);
+		}
+
+		@Override
+		public User remove(int id) {
+			return users.remove(id);
+		}
+
+	}
+
+}
@@ -1,21 +1,68 @@
 package com.drimersion.spark_simple_api;
 
-import java.util.HashMap;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntPredicate;
+import java.util.function.IntSupplier;
 
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import spark.Request;
+import spark.Response;
 import spark.Spark;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 
+import com.drimersion.spark_simple_api.cache.ResponseCache;
+import com.drimersion.spark_simple_api.cluster.ConsistentHashRing;
+import com.drimersion.spark_simple_api.cluster.ShardClient;
+import com.drimersion.spark_simple_api.cluster.ShardRouter;
+import com.drimersion.spark_simple_api.codec.UserProjection;
+import com.drimersion.spark_simple_api.metrics.MetricsRegistry;
 import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.persistence.UserSnapshot;
+import com.drimersion.spark_simple_api.repository.DuplicateDocumentException;
+import com.drimersion.spark_simple_api.repository.ReadOnlyRepositoryException;
+import com.drimersion.spark_simple_api.repository.InMemoryUserRepository;
+import com.drimersion.spark_simple_api.repository.PersistentUserRepository;
+import com.drimersion.spark_simple_api.repository.UserRepository;
+import com.drimersion.spark_simple_api.replication.MutationLog;
+import com.drimersion.spark_simple_api.replication.ReplicaUserRepository;
+import com.drimersion.spark_simple_api.replication.ReplicatedUserRepository;
+import com.drimersion.spark_simple_api.replication.ReplicationClient;
+import com.drimersion.spark_simple_api.replication.ReplicationServer;
+import com.drimersion.spark_simple_api.response_transformer.GzipEncoder;
 import com.drimersion.spark_simple_api.response_transformer.JsonTransformer;
+import com.drimersion.spark_simple_api.response_transformer.MessagePackTransformer;
+import com.drimersion.spark_simple_api.route.BulkUserRoute;
+import com.drimersion.spark_simple_api.route.ChangeFeedRoute;
+import com.drimersion.spark_simple_api.server.LoadShedder;
+import com.drimersion.spark_simple_api.server.RateLimiter;
+import com.drimersion.spark_simple_api.server.TaskPerThreadPool;
+import com.drimersion.spark_simple_api.server.TunedJettyServer;
+import com.drimersion.spark_simple_api.util.AccessLog;
+import com.drimersion.spark_simple_api.util.Configuration;
+import com.drimersion.spark_simple_api.util.EntityTags;
 import com.drimersion.spark_simple_api.util.HttpStatusCode;
+import com.drimersion.spark_simple_api.util.RequestIdGenerator;
 import com.drimersion.spark_simple_api.util.SparkUtils;
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonSyntaxException;
 
 /**
@@ -27,6 +74,282 @@ import com.google.gson.JsonSyntaxException;
  */
 public class App {
 
+	/**
+	 * Tamaño máximo de una página de usuarios.
+	 */
+	private static final int MAX_PAGE_SIZE = 1000;
+
+	/**
+	 * Capacidad del buffer del log de acceso.
+	 */
+	private static final int ACCESS_LOG_CAPACITY = 8192;
+
+	/**
+	 * Header y atributo con el identificador de la petición.
+	 */
+	private static final String REQUEST_ID = "Request-Id";
+
+	/**
+	 * Atributo con el instante de inicio de la petición.
+	 */
+	private static final String START_ATTRIBUTE = "request.start";
+
+	/**
+	 * Header con la versión de la respuesta.
+	 */
+	private static final String ETAG = "ETag";
+
+	/**
+	 * Propiedad del sistema con el directorio de datos, si no se especifica
+	 * los usuarios solo se mantienen en memoria.
+	 */
+	private static final String DATA_DIRECTORY_PROPERTY = "users.data";
+
+	/**
+	 * Propiedad del sistema con un snapshot de usuarios que se carga al
+	 * iniciar en lugar de los usuarios por defecto.
+	 */
+	private static final String SEED_PROPERTY = "users.seed";
+
+	/**
+	 * Propiedad del sistema con el tamaño máximo en bytes de la cache de
+	 * respuestas, 0 la deshabilita.
+	 */
+	private static final String CACHE_BYTES_PROPERTY = "users.cache.bytes";
+
+	/**
+	 * Propiedad del sistema con el modo de ejecución de las peticiones:
+	 * platform usa el pool de hilos de Jetty y virtual un hilo virtual por
+	 * petición.
+	 */
+	private static final String EXECUTION_PROPERTY = "server.execution";
+
+	/**
+	 * Propiedad con el puerto del servidor.
+	 */
+	private static final String PORT_PROPERTY = "server.port";
+
+	/**
+	 * Puerto por defecto del servidor.
+	 */
+	private static final int DEFAULT_PORT = 4567;
+
+	/**
+	 * Propiedad con las url de los nodos del cluster separadas por comas, sin
+	 * ella la aplicación atiende todos los usuarios en un solo nodo.
+	 */
+	private static final String CLUSTER_NODES_PROPERTY = "cluster.nodes";
+
+	/**
+	 * Propiedad con la url de este nodo en la lista de nodos, por defecto
+	 * http://localhost con el puerto del servidor.
+	 */
+	private static final String CLUSTER_SELF_PROPERTY = "cluster.self";
+
+	/**
+	 * Propiedad con la cantidad de puntos virtuales de cada nodo en el anillo.
+	 */
+	private static final String CLUSTER_VIRTUAL_NODES_PROPERTY = "cluster.virtual.nodes";
+
+	/**
+	 * Propiedad con la forma de atender las peticiones de otro nodo: proxy
+	 * para reenviarlas o redirect para responder 307.
+	 */
+	private static final String CLUSTER_FORWARD_PROPERTY = "cluster.forward";
+
+	/**
+	 * Propiedad con el tiempo máximo en milisegundos de las peticiones a otro
+	 * nodo.
+	 */
+	private static final String CLUSTER_TIMEOUT_PROPERTY = "cluster.timeout";
+
+	/**
+	 * Propiedad con el secreto compartido que autentica las peticiones entre
+	 * los nodos, sin ella solo se aceptan desde la dirección de un nodo.
+	 */
+	private static final String CLUSTER_SECRET_PROPERTY = "cluster.secret";
+
+	/**
+	 * Propiedad con el rol del nodo en la replicación: none, primary para
+	 * enviar sus escrituras a las réplicas o replica para recibirlas y
+	 * atender solo lecturas.
+	 */
+	private static final String REPLICATION_ROLE_PROPERTY = "replication.role";
+
+	/**
+	 * Propiedad con la dirección en la que el primario recibe las réplicas.
+	 */
+	private static final String REPLICATION_HOST_PROPERTY = "replication.host";
+
+	/**
+	 * Propiedad con el puerto en el que el primario recibe las réplicas.
+	 */
+	private static final String REPLICATION_PORT_PROPERTY = "replication.port";
+
+	/**
+	 * Propiedad con la dirección host:puerto del primario de una réplica.
+	 */
+	private static final String REPLICATION_PRIMARY_PROPERTY = "replication.primary";
+
+	/**
+	 * Propiedad con la cantidad de registros que conserva el log del
+	 * primario para las réplicas atrasadas.
+	 */
+	private static final String REPLICATION_LOG_RECORDS_PROPERTY = "replication.log.records";
+
+	/**
+	 * Propiedad con la cantidad máxima de registros por lote.
+	 */
+	private static final String REPLICATION_BATCH_RECORDS_PROPERTY = "replication.batch.records";
+
+	/**
+	 * Propiedad con el intervalo en milisegundos de los lotes vacios que
+	 * informan el atraso a las réplicas.
+	 */
+	private static final String REPLICATION_HEARTBEAT_PROPERTY = "replication.heartbeat";
+
+	/**
+	 * Propiedad con el atraso máximo en milisegundos que una réplica acepta
+	 * por defecto para responder una lectura.
+	 */
+	private static final String REPLICATION_MAX_STALENESS_PROPERTY = "replication.max.staleness";
+
+	/**
+	 * Propiedad con el tiempo máximo en milisegundos sin enviar datos a un
+	 * suscriptor de cambios.
+	 */
+	private static final String CHANGES_HEARTBEAT_PROPERTY = "changes.heartbeat";
+
+	/**
+	 * Propiedad con la cantidad máxima de suscriptores de cambios
+	 * conectados, 0 o sin valor deshabilita la ruta de cambios.
+	 */
+	private static final String CHANGES_MAX_SUBSCRIBERS_PROPERTY = "changes.max.subscribers";
+
+	/**
+	 * Puerto por defecto de la replicación.
+	 */
+	private static final int DEFAULT_REPLICATION_PORT = 4600;
+
+	/**
+	 * Header con el atraso máximo en milisegundos que acepta el cliente en
+	 * una réplica.
+	 */
+	private static final String MAX_STALENESS = "Max-Staleness";
+
+	/**
+	 * Header con el atraso en milisegundos de la réplica que respondió.
+	 */
+	private static final String REPLICA_STALENESS = "Replica-Staleness";
+
+	/**
+	 * Propiedad con la cantidad mínima de hilos del pool.
+	 */
+	private static final String MIN_THREADS_PROPERTY = "server.threads.min";
+
+	/**
+	 * Propiedad con la cantidad máxima de hilos del pool, en el modo virtual
+	 * solo se usa para el límite de peticiones admitidas.
+	 */
+	private static final String MAX_THREADS_PROPERTY = "server.threads.max";
+
+	/**
+	 * Propiedad con la cantidad de peticiones que pueden esperar además de
+	 * las que están en proceso, si se especifica las peticiones por encima
+	 * del límite se responden con 503.
+	 */
+	private static final String QUEUE_PROPERTY = "server.queue";
+
+	/**
+	 * Propiedad con el límite mínimo de peticiones en proceso al que se
+	 * reduce el limitador de carga cuando aumenta la latencia, 0 mantiene el
+	 * límite fijo.
+	 */
+	private static final String CONCURRENCY_MIN_PROPERTY = "server.concurrency.min";
+
+	/**
+	 * Propiedad con las peticiones por segundo permitidas a cada cliente, 0
+	 * o sin valor deshabilita el límite.
+	 */
+	private static final String RATE_LIMIT_PROPERTY = "rate.limit";
+
+	/**
+	 * Propiedad con la cantidad de peticiones seguidas que puede hacer un
+	 * cliente antes de aplicar el límite por segundo.
+	 */
+	private static final String RATE_BURST_PROPERTY = "rate.burst";
+
+	/**
+	 * Propiedad con el header que identifica al cliente con una de las
+	 * claves de {@link #RATE_API_KEYS_PROPERTY}, si no se envía una clave
+	 * conocida se usa su dirección IP.
+	 */
+	private static final String RATE_KEY_HEADER_PROPERTY = "rate.key.header";
+
+	/**
+	 * Propiedad con las claves de los clientes separadas por comas, cada una
+	 * tiene su propio límite; sin ella los clientes se limitan por IP.
+	 */
+	private static final String RATE_API_KEYS_PROPERTY = "rate.api.keys";
+
+	/**
+	 * Propiedad con la cantidad máxima de clientes con su propio límite.
+	 */
+	private static final String RATE_MAX_CLIENTS_PROPERTY = "rate.max.clients";
+
+	/**
+	 * Propiedad con la cantidad de conexiones pendientes de aceptar.
+	 */
+	private static final String ACCEPT_QUEUE_PROPERTY = "server.accept.queue";
+
+	/**
+	 * Propiedad con el tiempo máximo de inactividad de una conexión en
+	 * milisegundos.
+	 */
+	private static final String IDLE_TIMEOUT_PROPERTY = "server.idle.timeout";
+
+	/**
+	 * Propiedad con el tamaño máximo de los headers de una petición.
+	 */
+	private static final String HEADER_BYTES_PROPERTY = "server.header.bytes";
+
+	/**
+	 * Propiedad con el tamaño máximo del cuerpo de una petición.
+	 */
+	private static final String BODY_BYTES_PROPERTY = "server.body.bytes";
+
+	/**
+	 * Propiedad con el tamaño mínimo en bytes de una respuesta para
+	 * comprimirla, negativo deshabilita la compresión.
+	 */
+	private static final String GZIP_THRESHOLD_PROPERTY = "server.gzip.threshold";
+
+	/**
+	 * Propiedad con el nivel de compresión gzip de 1 a 9.
+	 */
+	private static final String GZIP_LEVEL_PROPERTY = "server.gzip.level";
+
+	/**
+	 * Deflaters que se conservan para reutilizar.
+	 */
+	private static final int GZIP_POOL_SIZE = 32;
+
+	/**
+	 * Tiempo que un hilo del pool puede estar inactivo antes de terminar.
+	 */
+	private static final int THREAD_IDLE_MILLIS = 60000;
+
+	/**
+	 * Atributo con el instante en nanosegundos en que la petición fue
+	 * admitida por el limitador de carga.
+	 */
+	private static final String ADMITTED_ATTRIBUTE = "request.admitted";
+
+	/**
+	 * Ruta de la suscripción a los cambios de los usuarios.
+	 */
+	private static final String CHANGES_PATH = "/users/_changes";
+
 	/**
 	 * 
 	 * Inicia la aplicación, configura el comportamiento y describe cada uno de
@@ -39,33 +362,483 @@ public class App {
 	public static void main(String[] args) {
 		/* Creación de logger */
 		Logger logger = LoggerFactory.getLogger(App.class);
+		/* Configuración de la aplicación */
+		Configuration config;
+		try {
+			config = Configuration.load();
+		} catch (IOException e) {
+			throw new UncheckedIOException(
+					"No fue posible leer la configuración.", e);
+		}
+		/* Enrutamiento entre los nodos del cluster, null en un solo nodo */
+		ShardRouter router = configureCluster(config, logger);
+		/* Identificadores de los usuarios que pertenecen al nodo */
+		IntPredicate local = router == null ? id -> true : router::isLocal;
+		/* Rol del nodo en la replicación */
+		String role = config.get(REPLICATION_ROLE_PROPERTY, "none");
+		if (!"none".equalsIgnoreCase(role) && !"primary".equalsIgnoreCase(role)
+				&& !"replica".equalsIgnoreCase(role)) {
+			throw new IllegalArgumentException("Rol de replicación inválido: "
+					+ role);
+		}
+		int maxSubscribers = config.getInt(CHANGES_MAX_SUBSCRIBERS_PROPERTY, 0);
 		/* Referencia a los usuarios del sistema */
-		Map<Integer, User> users = initializeUsers();
-		/* Inicialización del objeto Gson para el parseo de formato json */
-		Gson gson = new Gson();
+		UserRepository users;
+		ReplicaUserRepository replica = null;
+		ReplicatedUserRepository replicated = null;
+		if ("replica".equalsIgnoreCase(role)) {
+			if (router != null) {
+				throw new IllegalArgumentException(
+						"Una réplica no puede ser un nodo del cluster.");
+			}
+			/* Los usuarios se reciben del primario */
+			replica = new ReplicaUserRepository();
+			users = replica;
+		} else if ("primary".equalsIgnoreCase(role) || maxSubscribers > 0) {
+			/*
+			 * Las escrituras se agregan al log que se envía a las réplicas y
+			 * a los suscriptores de cambios, solo si alguno lo usa.
+			 */
+			replicated = new ReplicatedUserRepository(initializeUsers(config,
+					local),
+					new MutationLog(config.getInt(
+							REPLICATION_LOG_RECORDS_PROPERTY,
+							MutationLog.DEFAULT_CAPACITY)));
+			users = replicated;
+		} else {
+			users = initializeUsers(config, local);
+		}
+		/* Recursos que se cierran al detener el servidor */
+		List<AutoCloseable> resources = new CopyOnWriteArrayList<>();
+		/* Log de acceso asíncrono */
+		AccessLog accessLog = new AccessLog(ACCESS_LOG_CAPACITY);
+		resources.add(accessLog);
+		/* Transformador json compartido por todas las rutas */
+		JsonTransformer json = new JsonTransformer(new GzipEncoder(
+				config.getInt(GZIP_THRESHOLD_PROPERTY,
+						GzipEncoder.DEFAULT_THRESHOLD), config.getInt(
+						GZIP_LEVEL_PROPERTY, 6), GZIP_POOL_SIZE));
+		GzipEncoder gzip = json.getGzip();
+		/* Cache de las respuestas serializadas */
+		ResponseCache cache = new ResponseCache(config.getLong(CACHE_BYTES_PROPERTY,
+				ResponseCache.DEFAULT_MAX_BYTES), users::version);
+		/* Registro de métricas de las rutas */
+		MetricsRegistry metrics = new MetricsRegistry();
+		metrics.gauge("users_store_size", "Usuarios almacenados.",
+				users::size);
+		metrics.counter("access_log_dropped_total",
+				"Entradas descartadas por el log de acceso.",
+				accessLog::getDropped);
+		metrics.counter("response_cache_hits_total",
+				"Respuestas encontradas en la cache.", cache::getHits);
+		metrics.counter("response_cache_misses_total",
+				"Respuestas que no estaban en la cache.", cache::getMisses);
+		metrics.counter("response_cache_evictions_total",
+				"Respuestas desalojadas de la cache por tamaño.",
+				cache::getEvictions);
+		metrics.gauge("response_cache_bytes",
+				"Tamaño estimado de la cache de respuestas.",
+				cache::getWeight);
+
+		if ("primary".equalsIgnoreCase(role)) {
+			ReplicationServer server = startReplicationServer(config, replicated,
+					logger);
+			metrics.gauge("replication_sequence",
+					"Secuencia del último registro enviado a las réplicas.",
+					replicated.getLog()::head);
+			metrics.gauge("replication_replicas",
+					"Réplicas conectadas al primario.",
+					server::getConnectedReplicas);
+		} else if (replica != null) {
+			/* Las escrituras del primario invalidan las respuestas guardadas */
+			replica.setChangeListener(cache::invalidate);
+			startReplicationClient(config, replica, logger);
+			metrics.gauge("replica_lag_records",
+					"Registros del primario que la réplica no ha aplicado.",
+					replica::getLagRecords);
+			metrics.gauge("replica_staleness_milliseconds",
+					"Atraso máximo de la réplica respecto al primario.",
+					replica::getStalenessMillis);
+			metrics.gauge("replica_applied_sequence",
+					"Secuencia del último registro aplicado por la réplica.",
+					replica::getAppliedSequence);
+		}
+
+		if (router != null) {
+			metrics.counter("shard_forwarded_total",
+					"Peticiones enviadas al nodo dueño del usuario.",
+					router::getForwarded);
+			metrics.counter("shard_failures_total",
+					"Peticiones sin respuesta de otro nodo del cluster.",
+					router::getFailures);
+		}
 
 		logger.info("Se inicia el proceso del servidor.");
+		LoadShedder shedder = configureServer(config, logger, resources);
+		long maxBodyBytes = config.getLong(BODY_BYTES_PROPERTY,
+				64L * 1024 * 1024);
+		RateLimiter limiter = configureRateLimit(config, logger);
+		if (limiter != null) {
+			/* El hilo que libera los clientes inactivos termina con el servidor */
+			resources.add(limiter);
+			metrics.counter("requests_rate_limited_total",
+					"Peticiones rechazadas por el límite de cada cliente.",
+					limiter::getLimited);
+			metrics.gauge("rate_limiter_clients",
+					"Clientes con su propio límite de peticiones.",
+					limiter::getClients);
+		}
 
 		/**
-		 * Configuración de toda respuesta
+		 * Configuración de toda respuesta, se realiza antes de procesar la ruta
+		 * para que también aplique a las respuestas enviadas por streaming.
 		 */
-		Spark.after((request, response) -> {
-			logger.info("Configuración de la respuesta después del procesado de la ruta.");
+		Spark.before((request, response) -> {
+			request.raw().setAttribute(START_ATTRIBUTE, System.nanoTime());
 
-			response.header("Request-Id", UUID.randomUUID().toString());
+			/* Se respeta el identificador de petición enviado por el cliente */
+			String requestId = RequestIdGenerator.resolve(request
+					.headers(REQUEST_ID));
+			request.raw().setAttribute(REQUEST_ID, requestId);
+			response.header(REQUEST_ID, requestId);
 			response.header("Accept",
 					"application/drimersion.test+json; version=1");
-			response.type("application/json; charset=UTF-8");
+			/* Representación negociada con el header Accept */
+			response.type(json.getMessagePack().accepts(request)
+					? MessagePackTransformer.CONTENT_TYPE
+					: JsonTransformer.CONTENT_TYPE);
+			/* La respuesta depende de Accept y de Accept-Encoding */
+			response.header("Vary", "Accept, Accept-Encoding");
+
+			/* El tamaño declarado del cuerpo no puede superar el límite */
+			if (maxBodyBytes > 0
+					&& request.raw().getContentLengthLong() > maxBodyBytes) {
+				SparkUtils.haltWithErrors(response, HttpStatusCode._413);
+			}
 		});
 
+		if (shedder != null) {
+			metrics.gauge("requests_concurrency_limit",
+					"Límite actual de peticiones en proceso según la latencia.",
+					shedder::getAdaptiveLimit);
+			metrics.gauge("requests_in_flight",
+					"Peticiones admitidas en proceso.", shedder::getInFlight);
+			metrics.counter("requests_shed_total",
+					"Peticiones rechazadas por el limitador de carga.",
+					shedder::getShed);
+
+			/**
+			 * Rechazo inmediato de las peticiones por encima del límite, antes
+			 * de procesar la ruta y después de configurar la respuesta para
+			 * que el 503 tenga su tipo de contenido e identificador de
+			 * petición.
+			 */
+			Spark.before((request, response) -> {
+				/* Las suscripciones a los cambios duran lo que el cliente quiera */
+				if (CHANGES_PATH.equals(request.pathInfo())) {
+					return;
+				}
+				if (!shedder.tryAcquire()) {
+					response.header("Retry-After", "1");
+					SparkUtils.haltWithErrors(response, HttpStatusCode._503);
+				}
+				request.raw().setAttribute(ADMITTED_ATTRIBUTE,
+						System.nanoTime());
+			});
+
+			/**
+			 * Se libera la petición aunque la ruta falle o se detenga, con su
+			 * latencia para ajustar el límite.
+			 */
+			Spark.afterAfter((request, response) -> {
+				Object admitted = request.raw().getAttribute(ADMITTED_ATTRIBUTE);
+				if (admitted != null) {
+					shedder.release(System.nanoTime() - (Long) admitted);
+				}
+			});
+		}
+
+		if (limiter != null) {
+			String keyHeader = config.get(RATE_KEY_HEADER_PROPERTY,
+					"X-Api-Key");
+			Set<String> apiKeys = new HashSet<>();
+			for (String key : config.get(RATE_API_KEYS_PROPERTY, "").split(",")) {
+				if (!key.trim().isEmpty()) {
+					apiKeys.add(key.trim());
+				}
+			}
+
+			/**
+			 * Rechazo de los clientes que superan su límite, después de
+			 * configurar la respuesta para que el 429 tenga su tipo de
+			 * contenido e identificador de petición. Solo una clave conocida
+			 * identifica al cliente, cualquier otra se ignora para que no se
+			 * pueda obtener un límite nuevo cambiando la clave. Las
+			 * peticiones reenviadas por otro nodo ya se limitaron en ese nodo.
+			 */
+			Spark.before((request, response) -> {
+				if (router != null && router.isForwarded(request)) {
+					return;
+				}
+				String key = request.headers(keyHeader);
+				long waitMillis = limiter.tryAcquire(key != null
+						&& apiKeys.contains(key) ? "key:" + key : "ip:"
+						+ request.ip());
+				if (waitMillis > 0) {
+					response.header("Retry-After",
+							Long.toString(Math.max(1, (waitMillis + 999) / 1000)));
+					SparkUtils.haltWithErrors(response, HttpStatusCode._429);
+				}
+			});
+		}
+
+		if (replica != null) {
+			replicaFilter(replica, config.getLong(
+					REPLICATION_MAX_STALENESS_PROPERTY, 10000));
+		}
+
+		/**
+		 * Registro de cada petición en el log de acceso asíncrono.
+		 */
+		Spark.after((request, response) -> {
+			HttpServletRequest raw = request.raw();
+			Long start = (Long) raw.getAttribute(START_ATTRIBUTE);
+			long duration = start == null ? 0 : System.nanoTime() - start;
+			accessLog.log(raw.getMethod(), raw.getRequestURI(), response.raw()
+					.getStatus(), duration, (String) raw
+					.getAttribute(REQUEST_ID));
+		});
+
+		/**
+		 * Métricas de las peticiones detenidas por los filtros, que no llegan
+		 * a la ruta que las mide.
+		 */
+		Spark.afterAfter(metrics.untimed(START_ATTRIBUTE));
+
+		/**
+		 * Servicio que responde la colección de usuarios del sistema, de manera
+		 * paginada con los parámetros limit y after, o por streaming con el
+		 * parámetro stream. Con los parámetros document o lastNamePrefix
+		 * responde los usuarios encontrados en los índices secundarios. En un
+		 * cluster la consulta se hace en todos los nodos y se combina. Con el
+		 * parámetro fields el json incluye solo esos campos de cada usuario.
+		 */
+		Spark.get("/users", metrics.timed("GET", "/users", json.wrap((
+				request, response) -> {
+			boolean sharded = router != null && !router.isForwarded(request);
+			String limitParam = request.queryParams("limit");
+			String afterParam = request.queryParams("after");
+			String document = request.queryParams("document");
+			String lastNamePrefix = request.queryParams("lastNamePrefix");
+			UserProjection fields = json.fields(request);
+			if (fields == null) {
+				return SparkUtils.buildResponseWithErrors(response,
+						HttpStatusCode._422);
+			}
+
+			if (document != null || lastNamePrefix != null) {
+				/*
+				 * Búsquedas por los índices secundarios, la respuesta tiene
+				 * la misma forma que la colección.
+				 */
+				int limit = limitParam == null ? MAX_PAGE_SIZE : SparkUtils
+						.parseId(limitParam);
+				if (limit < 1 || limit > MAX_PAGE_SIZE) {
+					return SparkUtils.buildResponseWithErrors(response,
+							HttpStatusCode._422);
+				}
+				Map<Integer, User> found;
+				if (document == null) {
+					found = users.findByLastNamePrefix(lastNamePrefix, limit);
+				} else {
+					User user = users.findByDocument(document);
+					found = user == null ? Collections.emptyMap() : Collections
+							.singletonMap(user.getId(), user);
+				}
+				if (!sharded) {
+					return found;
+				}
+				try {
+					return router.gather(request, found, limit,
+							document == null ? ShardRouter.BY_NAME
+									: ShardRouter.BY_ID);
+				} catch (IOException e) {
+					logger.warn("No fue posible consultar el cluster.", e);
+					return SparkUtils.buildResponseWithErrors(response,
+							HttpStatusCode._502);
+				}
+			}
+
+			boolean paged = limitParam != null || afterParam != null;
+
+			/* La colección completa se guarda en la cache con tamaño 0 */
+			int limit = 0;
+			int after = -1;
+			if (paged) {
+				/* Se valida el tamaño de la página y el cursor */
+				limit = limitParam == null ? MAX_PAGE_SIZE : SparkUtils
+						.parseId(limitParam);
+				after = afterParam == null ? -1 : SparkUtils
+						.parseId(afterParam);
+				if (limit < 1 || limit > MAX_PAGE_SIZE
+						|| (afterParam != null && after == SparkUtils.INVALID_ID)) {
+					return SparkUtils.buildResponseWithErrors(response,
+							HttpStatusCode._422);
+				}
+			}
+
+			/* La representación MessagePack no se guarda en la cache */
+			boolean binary = MessagePackTransformer.isMessagePack(response
+					.raw());
+			if (sharded) {
+				/*
+				 * Se combina la página de cada nodo, sin streaming ni cache ya
+				 * que la versión de la colección es de cada nodo.
+				 */
+				Map<Integer, User> merged;
+				try {
+					merged = router.gather(request, paged ? users.findPage(
+							after, limit) : users.findAll(), limit,
+							ShardRouter.BY_ID);
+				} catch (IOException e) {
+					logger.warn("No fue posible consultar el cluster.", e);
+					return SparkUtils.buildResponseWithErrors(response,
+							HttpStatusCode._502);
+				}
+				if (paged && merged.size() == limit) {
+					int lastKey = after;
+					for (int id : merged.keySet()) {
+						lastKey = id;
+					}
+					response.header("Link", "</users?limit=" + limit
+							+ "&after=" + lastKey + ">; rel=\"next\"");
+				}
+				return merged;
+			}
+
+			if (!paged && !binary
+					&& Boolean.parseBoolean(request.queryParams("stream"))) {
+				/*
+				 * Se escriben los usuarios directamente en la salida, la
+				 * respuesta se envía por partes a medida que se llena el buffer.
+				 */
+				/* El streaming solo tiene representación json */
+				response.type(JsonTransformer.CONTENT_TYPE);
+				try {
+					OutputStream out = response.raw().getOutputStream();
+					if (json.acceptsGzip(request)) {
+						/* El tamaño no se conoce, la colección se comprime */
+						response.header("Content-Encoding",
+								GzipEncoder.ENCODING);
+						try (OutputStream gzipped = gzip.stream(out)) {
+							json.stream(users, json.isPretty(request), fields,
+									gzipped);
+						}
+					} else {
+						json.stream(users, json.isPretty(request), fields, out);
+					}
+				} catch (IOException e) {
+					/* El cliente cerró la conexión durante el envío */
+					logger.warn("No fue posible enviar la colección de usuarios.", e);
+				}
+				/* La respuesta ya fue enviada y no se agrega contenido */
+				return null;
+			}
+
+			boolean pretty = json.isPretty(request);
+			/*
+			 * Una proyección se serializa en cada petición, sin cache ni ETag,
+			 * ya que su contenido no corresponde a la representación completa.
+			 */
+			boolean projected = !binary && !fields.isAll();
+			ResponseCache.Entry entry = binary || projected ? null : cache
+					.page(after, limit, pretty);
+			if (entry == null) {
+				/*
+				 * La versión de la colección solo es válida si no hay
+				 * escrituras en curso, y se vuelve a leer después de construir
+				 * la respuesta para no asociarla a un contenido que cambió
+				 * mientras tanto.
+				 */
+				long version = users.version();
+				if (version != -1 && !projected
+						&& notModified(request, response,
+								entityTag(response, version, pretty))) {
+					return null;
+				}
+
+				/* Se construye la página o la colección completa */
+				Map<Integer, User> content;
+				int lastKey = after;
+				boolean full = false;
+				if (paged) {
+					SortedMap<Integer, User> page = users.findPage(after, limit);
+					lastKey = page.isEmpty() ? after : page.lastKey();
+					full = page.size() == limit;
+					content = page;
+				} else {
+					content = users.findAll();
+				}
+				if (binary || projected) {
+					if (paged && full) {
+						response.header("Link", "</users?limit=" + limit
+								+ "&after=" + lastKey + ">; rel=\"next\"");
+					}
+					if (binary && version != -1 && users.version() == version) {
+						response.header(ETAG, entityTag(response, version,
+								pretty));
+					}
+					return content;
+				}
+				byte[] bytes = json.toBytes(content, pretty);
+				entry = cache.putPage(after, limit, pretty, version, lastKey,
+						full, bytes, gzip.compressIfLarge(bytes));
+			} else if (notModified(request, response,
+					EntityTags.format(entry.getVersion(), pretty))) {
+				/* Si el cliente ya tiene esta versión no se envía el contenido */
+				return null;
+			}
+
+			/* Se envía la respuesta con el enlace a la siguiente página */
+			if (paged && entry.isFull()) {
+				response.header("Link", "</users?limit=" + limit + "&after="
+						+ entry.getLastKey() + ">; rel=\"next\"");
+			}
+			writeCached(json, entry, pretty, request, response);
+			return null;
+		})));
+
+		if (replicated != null && maxSubscribers > 0) {
+			/**
+			 * Servicio que envía las escrituras de usuarios a medida que
+			 * ocurren, como Server-Sent Events o NDJSON. Se registra antes de
+			 * la ruta con identificador para que _changes no se tome como uno.
+			 */
+			ChangeFeedRoute changes = new ChangeFeedRoute(replicated.getLog(),
+					json, config.getLong(CHANGES_HEARTBEAT_PROPERTY, 15000),
+					maxSubscribers);
+			metrics.gauge("changes_subscribers",
+					"Suscriptores conectados a los cambios de usuarios.",
+					changes::getSubscribers);
+			Spark.get(CHANGES_PATH, metrics.timed("GET", CHANGES_PATH,
+					changes));
+		}
+
 		/**
-		 * Servicio que responde la colección de usuarios del sistema.
+		 * Servicios que crean, actualizan y eliminan muchos usuarios en una
+		 * sola petición, con un arreglo json o NDJSON. Se registran antes de
+		 * las rutas con identificador para que _bulk no se tome como uno. En
+		 * un cluster solo se aplican los usuarios del nodo.
 		 */
-		Spark.get("/users", (request, response) -> {
-			logger.info("Procesando ruta GET '/users'");
-			/* Se retorna la colección de usuarios */
-			return users;
-		}, new JsonTransformer());
+		Spark.post("/users/_bulk", metrics.timed("POST", "/users/_bulk",
+				new BulkUserRoute(users, cache,
+						BulkUserRoute.Operation.CREATE, local)));
+		Spark.put("/users/_bulk", metrics.timed("PUT", "/users/_bulk",
+				new BulkUserRoute(users, cache,
+						BulkUserRoute.Operation.UPDATE, local)));
+		Spark.delete("/users/_bulk", metrics.timed("DELETE", "/users/_bulk",
+				new BulkUserRoute(users, cache,
+						BulkUserRoute.Operation.DELETE, local)));
 
 		/**
 		 * Servicio que responde la representación de un recurso usuario en
@@ -73,37 +846,72 @@ public class App {
 		 */
 		Spark.get(
 				"/users/:id",
-				(request, response) -> {
-					logger.info("Procesando ruta GET '/users/:id'");
+				metrics.timed("GET", "/users/:id", json.wrap((
+						request, response) -> {
 					/* Inicialización del cuerpo del mensaje con un string vacio */
 					Object body = new String();
 
-					try {
+					/*
+					 * Se parsea el indetificador del recurso como entero, si
+					 * no es válido se asume que el recurso no existe
+					 */
+					int id = SparkUtils.parseId(request.params(":id"));
+					UserProjection fields = json.fields(request);
+					if (fields == null) {
+						return SparkUtils.buildResponseWithErrors(response,
+								HttpStatusCode._422);
+					}
+					/* El usuario de otro nodo se consulta en su dueño */
+					if (router != null
+							&& router.route(request, response, id, null)) {
+						return null;
+					}
+					User user = id == SparkUtils.INVALID_ID ? null : users
+							.find(id);
+
+					if (user == null) {
+						/* Si el recurso no existe se pone el status 404 */
+						body = SparkUtils.buildResponseWithErrors(response,
+								HttpStatusCode._404);
+					} else if (!fields.isAll()
+							&& !MessagePackTransformer.isMessagePack(response
+									.raw())) {
+						/* La proyección se serializa sin cache ni ETag */
+						body = user;
+					} else {
 						/*
-						 * Se intenta parsear el indetificador del recurso como
-						 * entero
+						 * Si el cliente ya tiene la versión del recurso se
+						 * responde 304 sin serializarlo.
 						 */
-						Integer id = Integer.parseInt(request.params(":id"));
-
-						if (users.get(id) == null) {
-							/* Si el recurso no existe se pone el status 404 */
-							body = SparkUtils.buildResponseWithErrors(response,
-									HttpStatusCode._404);
-						} else {
-							/* Si el recurso existe se carga el */
-							body = users.get(id);
+						boolean pretty = json.isPretty(request);
+						String etag = entityTag(response, user.getVersion(),
+								pretty);
+						if (notModified(request, response, etag)) {
+							return null;
+						}
+						if (MessagePackTransformer.isMessagePack(response
+								.raw())) {
+							/* La representación MessagePack no usa la cache */
+							response.header(ETAG, etag);
+							return user;
 						}
-					} catch (NumberFormatException e) {
 						/*
-						 * Si el identificador no es un entero se asume que el
-						 * recurso no existe
+						 * Si el recurso existe se responde el json guardado en
+						 * la cache para su versión o se serializa y se guarda.
 						 */
-						body = SparkUtils.buildResponseWithErrors(response,
-								HttpStatusCode._404);
+						ResponseCache.Entry entry = cache.user(id, pretty,
+								user.getVersion());
+						if (entry == null) {
+							byte[] bytes = json.toBytes(user, pretty);
+							entry = cache.putUser(id, pretty, user.getVersion(),
+									bytes, gzip.compressIfLarge(bytes));
+						}
+						writeCached(json, entry, pretty, request, response);
+						body = null;
 					}
 
 					return body;
-				}, new JsonTransformer());
+				})));
 
 		/**
 		 * Servicio que recibe un usuario en formato json y lo ingresa en el
@@ -111,28 +919,49 @@ public class App {
 		 */
 		Spark.post(
 				"/users",
-				(request, response) -> {
-					logger.info("Procesando la ruta POST '/users'");
+				metrics.timed("POST", "/users", json.wrap((
+						request, response) -> {
 					/* Inicialización del cuerpo del mensaje. */
 					Object body = new String();
 
 					try {
-						/* Se parsea el contenido del body. */
-						JsonObject data = gson.fromJson(request.body(),
-								JsonObject.class);
+						/*
+						 * Se parsea el contenido del body en una sola pasada,
+						 * incluyendo el identificador.
+						 */
+						byte[] bytes = null;
+						User user;
+						if (router == null) {
+							user = json.readUser(request);
+						} else {
+							/* Se conserva el cuerpo para reenviarlo */
+							bytes = ShardClient.readAll(request.raw()
+									.getInputStream());
+							user = json.readUser(request,
+									new ByteArrayInputStream(bytes));
+						}
 
 						/* se obtiene el identificador. */
-						Integer id = data.get("id").getAsInt();
-
-						/* si el valor ya existe se responde con 409. */
-						if (users.get(id) == null) {
-							/* se parsean los datos para el usuario. */
-							User user = gson.fromJson(request.body(),
-									User.class);
-							users.put(id, user);
+						int id = user.getId();
+						if (id < 0) {
+							throw new IllegalArgumentException(
+									"El identificador debe ser positivo.");
+						}
+						/* El usuario de otro nodo se crea en su dueño */
+						if (router != null
+								&& router.route(request, response, id, bytes)) {
+							return null;
+						}
 
-							response.header("Location",
-									"/users/" + id.intValue());
+						/*
+						 * Se crea el usuario de manera atómica, si el valor ya
+						 * existe se responde con 409.
+						 */
+						if (users.createIfAbsent(id, user) == null) {
+							cache.invalidate(id);
+							response.header("Location", "/users/" + id);
+							response.header(ETAG, entityTag(response,
+									user.getVersion(), json.isPretty(request)));
 							response.status(201);
 							body = user;
 						} else {
@@ -143,6 +972,14 @@ public class App {
 							body = SparkUtils.buildResponseWithErrors(response,
 									HttpStatusCode._409);
 						}
+					} catch (DuplicateDocumentException e) {
+						/* El documento pertenece a otro usuario */
+						body = SparkUtils.buildResponseWithErrors(response,
+								HttpStatusCode._409);
+					} catch (ReadOnlyRepositoryException e) {
+						/* El disco falló, el usuario no se creó */
+						body = SparkUtils.buildResponseWithErrors(response,
+								HttpStatusCode._503);
 					} catch (Exception e) {
 						/*
 						 * El request es válido pero contiene errores semánticos
@@ -153,15 +990,15 @@ public class App {
 					}
 
 					return body;
-				}, new JsonTransformer());
+				})));
 
 		/**
 		 * Servicio que recibe un usuario para ser actualizado en el sistema.
 		 */
 		Spark.put(
 				"/users/:id",
-				(request, response) -> {
-					logger.info("Procesando la ruta PUT '/users/:id'");
+				metrics.timed("PUT", "/users/:id", json.wrap((
+						request, response) -> {
 					/* Se inicializa el cuerpo del mensaje vacio. */
 					Object body = new String();
 					try {
@@ -169,28 +1006,68 @@ public class App {
 						 * Se obtiene el valor entero del indentificador del
 						 * recurso.
 						 */
-						Integer id = Integer.parseInt(request.params(":id"));
+						int id = SparkUtils.parseId(request.params(":id"));
+						/* El usuario de otro nodo se actualiza en su dueño */
+						if (router != null
+								&& router.route(request, response, id, null)) {
+							return null;
+						}
 						/* Se parsea el contenido de la petición. */
-						User user = gson.fromJson(request.body(), User.class);
+						User user = json.readUser(request);
 
-						/* Se garantiza que el recurso si exista. */
-						if (users.get(id) == null) {
-							/* En caso que el recurso no exista se responde 404 */
-							body = SparkUtils.buildResponseWithErrors(response,
-									HttpStatusCode._404);
-						} else {
+						if (user == null) {
+							/* Un cuerpo vacio no contiene un usuario. */
+							throw new JsonSyntaxException(
+									"El cuerpo de la petición está vacio.");
+						}
+						/* El identificador lo define la ruta. */
+						user.setId(id);
+
+						String ifMatch = request.headers("If-Match");
+						if (ifMatch != null) {
 							/*
-							 * En caso que el recurso exista se actualizan sus
-							 * valores.
+							 * Se reemplaza solo si la versión actual es la
+							 * esperada por el cliente y no cambia antes de
+							 * escribir.
 							 */
-							users.put(id, user);
+							User current = id == SparkUtils.INVALID_ID ? null
+									: users.find(id);
+							if (current == null
+									|| !EntityTags.matchesVersion(ifMatch,
+											current.getVersion())
+									|| !users.replaceIfCurrent(id, current, user)) {
+								return SparkUtils.buildResponseWithErrors(
+										response, HttpStatusCode._412);
+							}
+						} else if (id == SparkUtils.INVALID_ID
+								|| users.replaceIfPresent(id, user) == null) {
 							/*
-							 * Se asigna el usuario a la respuesta que se va a
-							 * dar en el cuerpo del mensaje.
+							 * Se actualizan los valores de manera atómica solo
+							 * si el recurso existe, en caso contrario se
+							 * responde 404.
 							 */
-							body = user;
+							return SparkUtils.buildResponseWithErrors(response,
+									HttpStatusCode._404);
 						}
-					} catch (JsonSyntaxException e) {
+
+						/*
+						 * Se invalidan las respuestas guardadas y se asigna el
+						 * usuario a la respuesta que se va a dar en el cuerpo
+						 * del mensaje.
+						 */
+						cache.invalidate(id);
+						response.header(ETAG, entityTag(response,
+								user.getVersion(), json.isPretty(request)));
+						body = user;
+					} catch (DuplicateDocumentException e) {
+						/* El documento pertenece a otro usuario */
+						body = SparkUtils.buildResponseWithErrors(response,
+								HttpStatusCode._409);
+					} catch (ReadOnlyRepositoryException e) {
+						/* El disco falló, el usuario no se actualizó */
+						body = SparkUtils.buildResponseWithErrors(response,
+								HttpStatusCode._503);
+					} catch (JsonParseException | IOException e) {
 						/*
 						 * En caso de no poder parsear el contenido del mensaje
 						 * en json, se responde con el error 422 indicando que
@@ -198,14 +1075,10 @@ public class App {
 						 */
 						body = SparkUtils.buildResponseWithErrors(response,
 								HttpStatusCode._422);
-					} catch (NumberFormatException e) {
-						/* En caso que el identificador no exista. */
-						body = SparkUtils.buildResponseWithErrors(response,
-								HttpStatusCode._404);
 					}
 
 					return body;
-				}, new JsonTransformer());
+				})));
 
 		/**
 		 * Servicio que remueve el usuario del sistema con el idenrificador
@@ -213,20 +1086,48 @@ public class App {
 		 */
 		Spark.delete(
 				"/users/:id",
-				(request, response) -> {
-					logger.info("Procesando la ruta DELETE '/users/:id'");
+				metrics.timed("DELETE", "/users/:id", json.wrap((
+						request, response) -> {
 					/* Inicialización del cuerpo de la respuesta. */
 					Object body = new String();
 
 					try {
 						/*
 						 * Se obtiene el valor entero del identificador del
-						 * recurso.
+						 * recurso, si no es válido se asume que el recurso no
+						 * existe.
 						 */
-						Integer id = Integer.parseInt(request.params(":id"));
+						int id = SparkUtils.parseId(request.params(":id"));
+						/* El usuario de otro nodo se elimina en su dueño */
+						if (router != null
+								&& router.route(request, response, id, null)) {
+							return null;
+						}
+
+						String ifMatch = request.headers("If-Match");
+						if (ifMatch != null) {
+							/*
+							 * Se elimina solo si la versión actual es la
+							 * esperada por el cliente y no cambia antes de
+							 * eliminarlo.
+							 */
+							User current = id == SparkUtils.INVALID_ID ? null
+									: users.find(id);
+							if (current == null
+									|| !EntityTags.matchesVersion(ifMatch,
+											current.getVersion())
+									|| !users.removeIfCurrent(id, current)) {
+								return SparkUtils.buildResponseWithErrors(
+										response, HttpStatusCode._412);
+							}
+							cache.invalidate(id);
+							return current;
+						}
 
-						/* Se verifica si el recurso existe. */
-						if (users.get(id) == null) {
+						/* Se elimina el recurso si existe. */
+						User user = id == SparkUtils.INVALID_ID ? null : users
+								.remove(id);
+						if (user == null) {
 							/*
 							 * El recurso no existe y se responde con el código
 							 * 404.
@@ -234,37 +1135,389 @@ public class App {
 							body = SparkUtils.buildResponseWithErrors(response,
 									HttpStatusCode._404);
 						} else {
-							/* Si el recurso existe se elimina. */
-							body = users.remove(id);
+							cache.invalidate(id);
+							body = user;
 						}
-					} catch (NumberFormatException e) {
-						/*
-						 * En caso de no poder parsea el identificador a entero
-						 * se responde 404.
-						 */
+					} catch (ReadOnlyRepositoryException e) {
+						/* El disco falló, el usuario no se eliminó */
 						body = SparkUtils.buildResponseWithErrors(response,
-								HttpStatusCode._404);
+								HttpStatusCode._503);
 					}
 					return body;
-				}, new JsonTransformer());
+				})));
+
+		/**
+		 * Servicio que responde las métricas de la aplicación en el formato de
+		 * texto de Prometheus.
+		 */
+		Spark.get("/metrics", (request, response) -> {
+			response.type(MetricsRegistry.CONTENT_TYPE);
+			return metrics.scrape();
+		});
+	}
+
+	/**
+	 * 
+	 * Escribe una respuesta guardada en la cache con su ETag, comprimida si
+	 * el cliente acepta gzip y la entrada tiene la versión comprimida.
+	 * 
+	 * @param json
+	 *            transformador json
+	 * @param entry
+	 *            respuesta serializada
+	 * @param pretty
+	 *            si la respuesta tiene indentación
+	 * @param request
+	 *            petición en proceso
+	 * @param response
+	 *            respuesta de la petición
+	 */
+	private static void writeCached(JsonTransformer json,
+			ResponseCache.Entry entry, boolean pretty, Request request,
+			Response response) {
+		boolean gzipped = entry.getGzip() != null && json.acceptsGzip(request);
+		if (entry.getVersion() != -1) {
+			response.header(ETAG, EntityTags.format(entry.getVersion(),
+					pretty, gzipped));
+		}
+		try {
+			json.write(gzipped ? entry.getGzip() : entry.getBytes(), gzipped,
+					response.raw());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * 
+	 * Construye el ETag de una versión para la representación negociada en la
+	 * respuesta.
+	 * 
+	 * @param response
+	 *            respuesta con el tipo de contenido negociado
+	 * @param version
+	 *            versión del recurso
+	 * @param pretty
+	 *            si la respuesta json tiene indentación
+	 * @return ETag con comillas
+	 */
+	private static String entityTag(Response response, long version,
+			boolean pretty) {
+		return MessagePackTransformer.isMessagePack(response.raw()) ? EntityTags
+				.formatMessagePack(version) : EntityTags.format(version, pretty);
+	}
+
+	/**
+	 * 
+	 * Responde 304 si el header If-None-Match de la petición coincide con el
+	 * ETag de la respuesta.
+	 * 
+	 * @param request
+	 *            petición con el header If-None-Match
+	 * @param response
+	 *            respuesta en la que se pone el status 304
+	 * @param etag
+	 *            ETag de la respuesta, null si no se conoce la versión
+	 * @return true si se respondió 304 y no se debe enviar el cuerpo
+	 */
+	private static boolean notModified(Request request, Response response,
+			String etag) {
+		if (etag == null
+				|| !EntityTags.matchesAny(request.headers("If-None-Match"), etag)) {
+			return false;
+		}
+		response.header(ETAG, etag);
+		response.status(304);
+		return true;
+	}
+
+	/**
+	 * 
+	 * Configura el servidor embebido con el puerto, el pool de hilos según el
+	 * modo de ejecución y los límites del conector; debe llamarse antes de
+	 * registrar la primera ruta.
+	 * 
+	 * @param config
+	 *            configuración de la aplicación
+	 * @param logger
+	 *            logger de la aplicación
+	 * @param resources
+	 *            recursos que se cierran al detener el servidor
+	 * @return limitador de carga o null si no se configuró la cola
+	 */
+	private static LoadShedder configureServer(Configuration config,
+			Logger logger, List<AutoCloseable> resources) {
+		int port = config.getInt(PORT_PROPERTY, DEFAULT_PORT);
+		int maxThreads = config.getInt(MAX_THREADS_PROPERTY, 200);
+		int minThreads = config.getInt(MIN_THREADS_PROPERTY,
+				Math.min(8, maxThreads));
+		int queue = config.getInt(QUEUE_PROPERTY, -1);
+		String mode = config.get(EXECUTION_PROPERTY, "platform");
+
+		ThreadPool pool;
+		IntSupplier queued;
+		if ("virtual".equalsIgnoreCase(mode)) {
+			/* No hay cola, cada petición tiene su hilo */
+			pool = TaskPerThreadPool.create();
+			logger.info("Las peticiones se ejecutan en un hilo virtual por "
+					+ "petición.");
+			queued = () -> 0;
+		} else if ("platform".equalsIgnoreCase(mode)) {
+			QueuedThreadPool threads = new QueuedThreadPool(maxThreads,
+					minThreads, THREAD_IDLE_MILLIS);
+			pool = threads;
+			queued = threads::getQueueSize;
+		} else {
+			throw new IllegalArgumentException("Modo de ejecución inválido: "
+					+ mode);
+		}
+
+		Spark.port(port);
+		/* Se registra siempre para reemplazar el de un inicio anterior */
+		EmbeddedServers.add(EmbeddedServers.defaultIdentifier(),
+				new EmbeddedJettyFactory(new TunedJettyServer(port,
+						config.getInt(ACCEPT_QUEUE_PROPERTY, 0),
+						config.getLong(IDLE_TIMEOUT_PROPERTY, 30000),
+						config.getInt(HEADER_BYTES_PROPERTY, 8192), resources))
+						.withThreadPool(pool));
+
+		if (queue < 0) {
+			return null;
+		}
+		int limit = maxThreads + queue;
+		return new LoadShedder(limit, queued, config.getInt(
+				CONCURRENCY_MIN_PROPERTY, Math.min(8, limit)));
+	}
+
+	/**
+	 * 
+	 * Crea el límite de peticiones por cliente si se indicó la cantidad de
+	 * peticiones por segundo.
+	 * 
+	 * @param config
+	 *            configuración de la aplicación
+	 * @param logger
+	 *            logger de la aplicación
+	 * @return límite de peticiones o null si no se configuró
+	 */
+	private static RateLimiter configureRateLimit(Configuration config,
+			Logger logger) {
+		String value = config.get(RATE_LIMIT_PROPERTY, "0");
+		double rate;
+		try {
+			rate = Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Valor inválido para "
+					+ RATE_LIMIT_PROPERTY + ": " + value, e);
+		}
+		if (rate <= 0) {
+			return null;
+		}
+		int burst = config.getInt(RATE_BURST_PROPERTY,
+				Math.max(1, (int) Math.ceil(rate)));
+		logger.info("Se limitan los clientes a {} peticiones por segundo con "
+				+ "ráfagas de {}.", rate, burst);
+		return new RateLimiter(rate, burst, config.getInt(
+				RATE_MAX_CLIENTS_PROPERTY, 100000));
+	}
+
+	/**
+	 * 
+	 * Configura el enrutamiento entre los nodos del cluster si se indicó la
+	 * lista de nodos.
+	 * 
+	 * @param config
+	 *            configuración de la aplicación
+	 * @param logger
+	 *            logger de la aplicación
+	 * @return enrutamiento del cluster o null si la aplicación tiene un solo
+	 *         nodo
+	 */
+	private static ShardRouter configureCluster(Configuration config,
+			Logger logger) {
+		String nodes = config.get(CLUSTER_NODES_PROPERTY);
+		if (nodes == null || nodes.trim().isEmpty()) {
+			return null;
+		}
+		String self = config.get(CLUSTER_SELF_PROPERTY, "http://localhost:"
+				+ config.getInt(PORT_PROPERTY, DEFAULT_PORT));
+		String forward = config.get(CLUSTER_FORWARD_PROPERTY, "proxy");
+		if (!"proxy".equalsIgnoreCase(forward)
+				&& !"redirect".equalsIgnoreCase(forward)) {
+			throw new IllegalArgumentException("Modo de reenvío inválido: "
+					+ forward);
+		}
+
+		ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList(nodes
+				.split(",")), config.getInt(CLUSTER_VIRTUAL_NODES_PROPERTY,
+				ConsistentHashRing.DEFAULT_VIRTUAL_NODES));
+		String secret = config.get(CLUSTER_SECRET_PROPERTY);
+		ShardRouter router = new ShardRouter(ring, self, new ShardClient(
+				ConsistentHashRing.normalize(self), secret, config.getInt(
+						CLUSTER_TIMEOUT_PROPERTY, 5000)),
+				"redirect".equalsIgnoreCase(forward), secret);
+		logger.info("El nodo {} atiende su parte de los usuarios del cluster {}.",
+				self, ring.getNodes());
+		return router;
+	}
+
+	/**
+	 * 
+	 * Inicia el servidor que envía el log de escrituras del primario a las
+	 * réplicas.
+	 * 
+	 * @param config
+	 *            configuración de la aplicación
+	 * @param users
+	 *            usuarios del primario con su log de escrituras
+	 * @param logger
+	 *            logger de la aplicación
+	 * @return servidor de replicación
+	 */
+	private static ReplicationServer startReplicationServer(
+			Configuration config, ReplicatedUserRepository users, Logger logger) {
+		String host = config.get(REPLICATION_HOST_PROPERTY, "127.0.0.1");
+		int port = config.getInt(REPLICATION_PORT_PROPERTY,
+				DEFAULT_REPLICATION_PORT);
+		try {
+			ReplicationServer server = new ReplicationServer(host, port,
+					users.getLog(), users, config.getInt(
+							REPLICATION_BATCH_RECORDS_PROPERTY, 1024),
+					config.getLong(REPLICATION_HEARTBEAT_PROPERTY, 250));
+			logger.info("El primario envía sus escrituras a las réplicas en {}:{}.",
+					host, server.getPort());
+			return server;
+		} catch (IOException e) {
+			throw new UncheckedIOException(
+					"No fue posible iniciar el servidor de replicación.", e);
+		}
+	}
+
+	/**
+	 * 
+	 * Inicia el cliente que recibe el log de escrituras del primario en una
+	 * réplica.
+	 * 
+	 * @param config
+	 *            configuración de la aplicación
+	 * @param replica
+	 *            usuarios de la réplica
+	 * @param logger
+	 *            logger de la aplicación
+	 */
+	private static void startReplicationClient(Configuration config,
+			ReplicaUserRepository replica, Logger logger) {
+		String primary = config.get(REPLICATION_PRIMARY_PROPERTY,
+				"127.0.0.1:" + DEFAULT_REPLICATION_PORT);
+		int separator = primary.lastIndexOf(':');
+		if (separator < 1) {
+			throw new IllegalArgumentException("Primario inválido: " + primary);
+		}
+		/* Sin mensajes durante varios intervalos se asume la conexión perdida */
+		int timeout = (int) Math.max(1000, 4 * config.getLong(
+				REPLICATION_HEARTBEAT_PROPERTY, 250));
+		new ReplicationClient(primary.substring(0, separator),
+				Integer.parseInt(primary.substring(separator + 1)), replica,
+				timeout).start();
+		logger.info("La réplica recibe las escrituras del primario {}.",
+				primary);
+	}
+
+	/**
+	 * 
+	 * Registra el filtro de una réplica: rechaza las escrituras con 405 y
+	 * responde las lecturas de usuarios solo si su atraso no supera el
+	 * máximo, indicado por el cliente con el header {@value #MAX_STALENESS} o
+	 * el de la configuración.
+	 * 
+	 * @param replica
+	 *            usuarios de la réplica
+	 * @param maxStaleness
+	 *            atraso máximo por defecto en milisegundos
+	 */
+	private static void replicaFilter(ReplicaUserRepository replica,
+			long maxStaleness) {
+		Spark.before((request, response) -> {
+			if (!"GET".equals(request.requestMethod())) {
+				/* Las escrituras se envían al primario */
+				response.header("Allow", "GET");
+				SparkUtils.haltWithErrors(response, HttpStatusCode._405);
+			}
+			if (!request.pathInfo().startsWith("/users")) {
+				return;
+			}
+
+			long bound = maxStaleness;
+			String header = request.headers(MAX_STALENESS);
+			if (header != null) {
+				bound = SparkUtils.parseId(header);
+				if (bound == SparkUtils.INVALID_ID) {
+					SparkUtils.haltWithErrors(response, HttpStatusCode._400);
+				}
+			}
+			long staleness = replica.getStalenessMillis();
+			if (staleness < 0 || staleness > bound) {
+				/* La réplica no está al día, el cliente puede reintentar */
+				response.header("Retry-After", "1");
+				SparkUtils.haltWithErrors(response, HttpStatusCode._503);
+			}
+			response.header(REPLICA_STALENESS, Long.toString(staleness));
+		});
 	}
 
 	/**
 	 * 
-	 * Realiza la inicialización del {@link List} de usuarios para el sistema.
+	 * Realiza la inicialización del {@link UserRepository} de usuarios para el
+	 * sistema. Si se especifica un directorio de datos los usuarios se
+	 * recuperan de él, y si se especifica un snapshot inicial se carga en
+	 * lugar de los usuarios por defecto.
 	 * 
-	 * @return {@link List} con usuarios creados por defecto para el sistema.
+	 * @param config
+	 *            configuración de la aplicación
+	 * @param local
+	 *            indica si un identificador pertenece a este nodo, solo se
+	 *            crean los usuarios por defecto de este nodo
+	 * @return {@link UserRepository} con usuarios creados por defecto para el
+	 *         sistema.
 	 */
-	private static Map<Integer, User> initializeUsers() {
-		/* Inicialización del arreglo de usuarios */
-		Map<Integer, User> users = new HashMap<>();
+	private static UserRepository initializeUsers(Configuration config,
+			IntPredicate local) {
+		/* Inicialización del repositorio de usuarios */
+		UserRepository users;
+		String directory = config.get(DATA_DIRECTORY_PROPERTY);
+		String seed = config.get(SEED_PROPERTY);
+		try {
+			if (directory != null) {
+				PersistentUserRepository persistent = PersistentUserRepository
+						.open(Paths.get(directory),
+								PersistentUserRepository.DEFAULT_SNAPSHOT_BYTES,
+								seed == null ? null : Paths.get(seed), local);
+				if (!persistent.isFresh()) {
+					return persistent;
+				}
+				users = persistent;
+			} else if (seed != null) {
+				/* Cada nodo del cluster carga solo los usuarios que le corresponden */
+				return UserSnapshot.load(Paths.get(seed), true, local);
+			} else {
+				users = new InMemoryUserRepository();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(
+					"No fue posible cargar los usuarios.", e);
+		}
 
 		/* se agrega cada uno de los usuarios de prueba */
-		users.put(1, new User("Juan", "Ramírez", "1094891516"));
-		users.put(2, new User("Daniel", "Arbelaez", "1094673845"));
-		users.put(3, new User("José", "Ortiz", "1094627938"));
-		users.put(4, new User("Carlos", "Ariza", "1090341289"));
-		users.put(5, new User("Yamit", "Ospina", "1087649032"));
+		for (User user : Arrays.asList(
+				new User(1, "Juan", "Ramírez", "1094891516"),
+				new User(2, "Daniel", "Arbelaez", "1094673845"),
+				new User(3, "José", "Ortiz", "1094627938"),
+				new User(4, "Carlos", "Ariza", "1090341289"),
+				new User(5, "Yamit", "Ospina", "1087649032"))) {
+			if (local.test(user.getId())) {
+				users.createIfAbsent(user.getId(), user);
+			}
+		}
 
 		return users;
 	}
@@ -0,0 +1,725 @@
+package com.drimersion.spark_simple_api.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ *
+ * Cache acotada de las respuestas json ya serializadas en UTF-8 de los
+ * usuarios y de las páginas de la colección.
+ *
+ * <p>
+ * Las respuestas de un usuario se guardan con la versión del usuario y solo
+ * se responden si coincide con la versión actual, por lo que una respuesta
+ * guardada después de una escritura concurrente nunca se responde. Las páginas
+ * guardan el rango de identificadores que cubren y se invalidan solo cuando se
+ * escribe un usuario dentro de ese rango; se indexan por bloques de
+ * identificadores, por lo que una escritura solo revisa las páginas de su
+ * bloque y las que no tienen fin, sin recorrer toda la cache.
+ * </p>
+ *
+ * <p>
+ * El desalojo usa el algoritmo CLOCK, una aproximación de LRU en la que cada
+ * acierto solo marca la entrada como referenciada, sin bloqueos; cuando se
+ * supera el tamaño máximo una manecilla recorre las entradas, quita la marca
+ * de las referenciadas y desaloja las que no lo están.
+ * </p>
+ */
+public class ResponseCache {
+
+	/**
+	 * Tamaño máximo por defecto de la cache en bytes.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * Bytes estimados de cada entrada además de la respuesta: la entrada, la
+	 * llave y el nodo del mapa.
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+
+	/**
+	 * Fracción máxima de la cache que puede ocupar una sola respuesta, para
+	 * que una colección grande no desaloje todas las demás entradas.
+	 */
+	private static final int MAX_ENTRY_FRACTION = 8;
+
+	/**
+	 * Bits de la llave de una página reservados para el tamaño y el formato.
+	 */
+	private static final int PAGE_KEY_SHIFT = 12;
+
+	/**
+	 * Bits del identificador que se descartan para obtener su bloque en el
+	 * índice de páginas.
+	 */
+	private static final int BUCKET_SHIFT = 10;
+
+	/**
+	 * Cantidad máxima de bloques en los que se indexa una página llena, las
+	 * que abarcan más se indexan como páginas sin fin.
+	 */
+	private static final int MAX_PAGE_BUCKETS = 16;
+
+	/**
+	 * Respuestas de los usuarios por identificador y formato.
+	 */
+	private final ConcurrentHashMap<Long, Entry> users = new ConcurrentHashMap<>();
+
+	/**
+	 * Respuestas de las páginas por cursor, tamaño y formato.
+	 */
+	private final ConcurrentHashMap<Long, Entry> pages = new ConcurrentHashMap<>();
+
+	/**
+	 * Versión actual del repositorio, -1 si hay escrituras en curso.
+	 */
+	private final LongSupplier version;
+
+	/**
+	 * Tamaño máximo de la cache en bytes.
+	 */
+	private final long maxBytes;
+
+	/**
+	 * Tamaño actual de la cache en bytes.
+	 */
+	private final AtomicLong weight = new AtomicLong();
+
+	/**
+	 * Páginas llenas de cada bloque de identificadores que cubren, protegidas
+	 * por {@link #indexLock}.
+	 */
+	private final Map<Integer, Set<Entry>> bucketPages = new HashMap<>();
+
+	/**
+	 * Páginas sin fin por llave, ordenadas por cursor, protegidas por
+	 * {@link #indexLock}. Una escritura invalida todas las que tienen un
+	 * cursor menor al usuario.
+	 */
+	private final TreeMap<Long, Set<Entry>> openPages = new TreeMap<>();
+
+	/**
+	 * Bloqueo del índice de páginas, solo lo toman las escrituras y las
+	 * páginas que se guardan.
+	 */
+	private final ReentrantLock indexLock = new ReentrantLock();
+
+	/**
+	 * Bloqueo del recorrido de desalojo.
+	 */
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	/**
+	 * Cantidad de aciertos.
+	 */
+	private final LongAdder hits = new LongAdder();
+
+	/**
+	 * Cantidad de fallos.
+	 */
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Cantidad de entradas desalojadas por tamaño.
+	 */
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Manecilla del desalojo, protegida por {@link #evictionLock}.
+	 */
+	private Iterator<Map.Entry<Long, Entry>> hand;
+
+	/**
+	 * Mapa que recorre la manecilla, protegido por {@link #evictionLock}.
+	 */
+	private ConcurrentHashMap<Long, Entry> handMap = pages;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param maxBytes
+	 *            tamaño máximo de la cache en bytes, 0 la deshabilita
+	 * @param version
+	 *            versión actual del repositorio, -1 si hay escrituras en curso
+	 */
+	public ResponseCache(long maxBytes, LongSupplier version) {
+		this.maxBytes = maxBytes;
+		this.version = version;
+	}
+
+	/**
+	 *
+	 * Busca la respuesta de un usuario.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param pretty
+	 *            si la respuesta tiene indentación
+	 * @param version
+	 *            versión actual del usuario
+	 * @return la respuesta o null si no está en la cache o es de otra versión
+	 */
+	public Entry user(int id, boolean pretty, long version) {
+		Entry entry = users.get(userKey(id, pretty));
+		return hit(entry != null && entry.version == version ? entry : null);
+	}
+
+	/**
+	 *
+	 * Guarda la respuesta de un usuario.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param pretty
+	 *            si la respuesta tiene indentación
+	 * @param version
+	 *            versión del usuario serializado
+	 * @param bytes
+	 *            respuesta serializada
+	 * @param gzip
+	 *            respuesta comprimida con gzip o null si no se comprime
+	 * @return la entrada con la respuesta
+	 */
+	public Entry putUser(int id, boolean pretty, long version, byte[] bytes,
+			byte[] gzip) {
+		Entry entry = new Entry(version, bytes, gzip, 0, 0, false, 0);
+		store(users, userKey(id, pretty), entry);
+		return entry;
+	}
+
+	/**
+	 *
+	 * Busca la respuesta de una página de la colección.
+	 *
+	 * @param after
+	 *            cursor de la página, -1 para la primera
+	 * @param limit
+	 *            tamaño de la página, 0 para la colección completa
+	 * @param pretty
+	 *            si la respuesta tiene indentación
+	 * @return la respuesta o null si no está en la cache
+	 */
+	public Entry page(int after, int limit, boolean pretty) {
+		return hit(pages.get(pageKey(after, limit, pretty)));
+	}
+
+	/**
+	 *
+	 * Guarda la respuesta de una página de la colección. La página solo se
+	 * guarda si el repositorio no cambió desde que se leyó la versión, y se
+	 * vuelve a verificar después de guardarla para no conservar una página que
+	 * una escritura concurrente ya invalidó.
+	 *
+	 * @param after
+	 *            cursor de la página, -1 para la primera
+	 * @param limit
+	 *            tamaño de la página, 0 para la colección completa
+	 * @param pretty
+	 *            si la respuesta tiene indentación
+	 * @param version
+	 *            versión del repositorio leída antes de construir la página
+	 * @param lastKey
+	 *            último identificador de la página, el cursor si está vacia
+	 * @param full
+	 *            si la página tiene limit usuarios y puede haber más
+	 * @param bytes
+	 *            respuesta serializada
+	 * @param gzip
+	 *            respuesta comprimida con gzip o null si no se comprime
+	 * @return la entrada con la respuesta, con versión -1 si el repositorio
+	 *         cambió y la respuesta no tiene una versión válida
+	 */
+	public Entry putPage(int after, int limit, boolean pretty, long version,
+			int lastKey, boolean full, byte[] bytes, byte[] gzip) {
+		Long key = pageKey(after, limit, pretty);
+		if (version == -1 || this.version.getAsLong() != version) {
+			return new Entry(-1, bytes, gzip, after, lastKey, full, key);
+		}
+
+		/* Se indexa antes de guardarla para que ninguna escritura la omita */
+		Entry entry = new Entry(version, bytes, gzip, after, lastKey, full,
+				key);
+		index(entry);
+		if (!store(pages, key, entry)) {
+			unindex(entry);
+		} else if (this.version.getAsLong() != version) {
+			remove(pages, key, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 *
+	 * Invalida las respuestas afectadas por la escritura de un usuario: las
+	 * del usuario y las de las páginas cuyo rango lo incluye. Solo se revisan
+	 * las páginas del bloque del usuario y las páginas sin fin con un cursor
+	 * menor. Se debe invocar después de completar la escritura.
+	 *
+	 * @param id
+	 *            identificador del usuario escrito
+	 */
+	public void invalidate(int id) {
+		remove(users, userKey(id, false), null);
+		remove(users, userKey(id, true), null);
+
+		List<Entry> affected = new ArrayList<>();
+		indexLock.lock();
+		try {
+			for (Set<Entry> open : openPages.headMap(
+					((long) id + 1) << PAGE_KEY_SHIFT).values()) {
+				affected.addAll(open);
+			}
+			Set<Entry> bucket = bucketPages.get(id >> BUCKET_SHIFT);
+			if (bucket != null) {
+				for (Entry entry : bucket) {
+					if (entry.covers(id)) {
+						affected.add(entry);
+					}
+				}
+			}
+		} finally {
+			indexLock.unlock();
+		}
+		for (Entry entry : affected) {
+			remove(pages, entry.key, entry);
+		}
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de aciertos.
+	 *
+	 * @return cantidad de aciertos
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de fallos.
+	 *
+	 * @return cantidad de fallos
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de entradas desalojadas por tamaño.
+	 *
+	 * @return cantidad de entradas desalojadas
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 *
+	 * Retorna el tamaño actual de la cache en bytes.
+	 *
+	 * @return tamaño actual en bytes
+	 */
+	public long getWeight() {
+		return weight.get();
+	}
+
+	/**
+	 *
+	 * Cuenta el resultado de una búsqueda y marca la entrada como
+	 * referenciada.
+	 *
+	 * @param entry
+	 *            entrada encontrada o null
+	 * @return la misma entrada
+	 */
+	private Entry hit(Entry entry) {
+		if (entry == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+			if (!entry.referenced) {
+				entry.referenced = true;
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 *
+	 * Guarda una entrada si su tamaño lo permite y desaloja entradas si se
+	 * supera el tamaño máximo.
+	 *
+	 * @param map
+	 *            mapa de la entrada
+	 * @param key
+	 *            llave de la entrada
+	 * @param entry
+	 *            entrada a guardar
+	 * @return true si la entrada se guardó
+	 */
+	private boolean store(ConcurrentHashMap<Long, Entry> map, Long key,
+			Entry entry) {
+		if (entry.weight() > maxBytes / MAX_ENTRY_FRACTION) {
+			return false;
+		}
+		Entry previous = map.put(key, entry);
+		weight.addAndGet(previous == null ? entry.weight() : entry.weight()
+				- previous.weight());
+		if (previous != null && map == pages) {
+			unindex(previous);
+		}
+		if (weight.get() > maxBytes) {
+			evict();
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * Elimina una entrada y descuenta su tamaño.
+	 *
+	 * @param map
+	 *            mapa de la entrada
+	 * @param key
+	 *            llave de la entrada
+	 * @param entry
+	 *            entrada esperada o null para eliminar cualquiera
+	 * @return true si se eliminó una entrada
+	 */
+	private boolean remove(ConcurrentHashMap<Long, Entry> map, Long key,
+			Entry entry) {
+		Entry removed = entry;
+		if (entry == null) {
+			removed = map.remove(key);
+		} else if (!map.remove(key, entry)) {
+			removed = null;
+		}
+		if (removed == null) {
+			return false;
+		}
+		weight.addAndGet(-removed.weight());
+		if (map == pages) {
+			unindex(removed);
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * Agrega una página al índice, en los bloques de su rango si está llena
+	 * y abarca pocos bloques, o en las páginas sin fin en otro caso.
+	 *
+	 * @param entry
+	 *            página a indexar
+	 */
+	private void index(Entry entry) {
+		indexLock.lock();
+		try {
+			if (entry.isBucketed()) {
+				for (int bucket = entry.firstBucket(); bucket <= entry
+						.lastBucket(); bucket++) {
+					bucketPages.computeIfAbsent(bucket, b -> new HashSet<>())
+							.add(entry);
+				}
+			} else {
+				openPages.computeIfAbsent(entry.key, k -> new HashSet<>())
+						.add(entry);
+			}
+		} finally {
+			indexLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * Quita una página del índice, los conjuntos vacios se eliminan.
+	 *
+	 * @param entry
+	 *            página a quitar
+	 */
+	private void unindex(Entry entry) {
+		indexLock.lock();
+		try {
+			if (entry.isBucketed()) {
+				for (int bucket = entry.firstBucket(); bucket <= entry
+						.lastBucket(); bucket++) {
+					bucketPages.computeIfPresent(bucket, (b, set) -> set
+							.remove(entry) && set.isEmpty() ? null : set);
+				}
+			} else {
+				openPages.computeIfPresent(entry.key, (k, set) -> set
+						.remove(entry) && set.isEmpty() ? null : set);
+			}
+		} finally {
+			indexLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * Avanza la manecilla sobre las entradas hasta que el tamaño de la cache
+	 * sea menor al máximo. Si otro hilo está desalojando no se espera, el
+	 * tamaño puede superar el máximo por un momento.
+	 */
+	private void evict() {
+		if (!evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			/* Recorridos seguidos sin entradas, evita ciclos con mapas vacios */
+			int empty = 0;
+			while (weight.get() > maxBytes && empty < 2) {
+				if (hand == null || !hand.hasNext()) {
+					handMap = handMap == users ? pages : users;
+					hand = handMap.entrySet().iterator();
+					empty = hand.hasNext() ? 0 : empty + 1;
+					continue;
+				}
+
+				Map.Entry<Long, Entry> e = hand.next();
+				Entry entry = e.getValue();
+				if (entry.referenced) {
+					/* Segunda oportunidad para la entrada usada recientemente */
+					entry.referenced = false;
+				} else if (remove(handMap, e.getKey(), entry)) {
+					evictions.increment();
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * Construye la llave de la respuesta de un usuario.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param pretty
+	 *            si la respuesta tiene indentación
+	 * @return llave de la respuesta
+	 */
+	private static Long userKey(int id, boolean pretty) {
+		return ((long) id << 1) | (pretty ? 1 : 0);
+	}
+
+	/**
+	 *
+	 * Construye la llave de la respuesta de una página.
+	 *
+	 * @param after
+	 *            cursor de la página
+	 * @param limit
+	 *            tamaño de la página, menor a 2048
+	 * @param pretty
+	 *            si la respuesta tiene indentación
+	 * @return llave de la respuesta
+	 */
+	private static Long pageKey(int after, int limit, boolean pretty) {
+		return (((long) after + 1) << PAGE_KEY_SHIFT) | (limit << 1)
+				| (pretty ? 1 : 0);
+	}
+
+	/**
+	 *
+	 * Respuesta serializada guardada en la cache.
+	 */
+	public static final class Entry {
+
+		/**
+		 * Versión del usuario o del repositorio de la respuesta.
+		 */
+		private final long version;
+
+		/**
+		 * Respuesta serializada en UTF-8.
+		 */
+		private final byte[] bytes;
+
+		/**
+		 * Respuesta comprimida con gzip, null si es menor al tamaño mínimo de
+		 * compresión.
+		 */
+		private final byte[] gzip;
+
+		/**
+		 * Cursor de la página.
+		 */
+		private final int after;
+
+		/**
+		 * Último identificador de la página.
+		 */
+		private final int lastKey;
+
+		/**
+		 * Si la página está llena y puede haber más usuarios.
+		 */
+		private final boolean full;
+
+		/**
+		 * Llave de la página en la cache, 0 para los usuarios.
+		 */
+		private final long key;
+
+		/**
+		 * Si la entrada se usó desde la última pasada de la manecilla.
+		 */
+		private volatile boolean referenced;
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param version
+		 *            versión de la respuesta
+		 * @param bytes
+		 *            respuesta serializada
+		 * @param gzip
+		 *            respuesta comprimida con gzip o null
+		 * @param after
+		 *            cursor de la página
+		 * @param lastKey
+		 *            último identificador de la página
+		 * @param full
+		 *            si la página está llena
+		 * @param key
+		 *            llave de la página, 0 para los usuarios
+		 */
+		Entry(long version, byte[] bytes, byte[] gzip, int after, int lastKey,
+				boolean full, long key) {
+			this.version = version;
+			this.bytes = bytes;
+			this.gzip = gzip;
+			this.after = after;
+			this.lastKey = lastKey;
+			this.full = full;
+			this.key = key;
+		}
+
+		/**
+		 *
+		 * Indica si la escritura de un usuario cambia la página: el usuario
+		 * está después del cursor y dentro de la página o la página no está
+		 * llena y un nuevo usuario se agregaría al final.
+		 *
+		 * @param id
+		 *            identificador del usuario escrito
+		 * @return true si la página cambia
+		 */
+		boolean covers(int id) {
+			return id > after && (id <= lastKey || !full);
+		}
+
+		/**
+		 *
+		 * Indica si la página se indexa en los bloques de su rango: está
+		 * llena y abarca pocos bloques.
+		 *
+		 * @return true si se indexa por bloques
+		 */
+		boolean isBucketed() {
+			return full && lastKey > after
+					&& lastBucket() - firstBucket() < MAX_PAGE_BUCKETS;
+		}
+
+		/**
+		 *
+		 * Retorna el bloque del primer identificador que cubre la página.
+		 *
+		 * @return primer bloque
+		 */
+		int firstBucket() {
+			return (int) (((long) after + 1) >> BUCKET_SHIFT);
+		}
+
+		/**
+		 *
+		 * Retorna el bloque del último identificador que cubre la página.
+		 *
+		 * @return último bloque
+		 */
+		int lastBucket() {
+			return lastKey >> BUCKET_SHIFT;
+		}
+
+		/**
+		 *
+		 * Retorna el tamaño estimado de la entrada.
+		 *
+		 * @return tamaño en bytes
+		 */
+		long weight() {
+			return bytes.length + (gzip == null ? 0 : gzip.length)
+					+ ENTRY_OVERHEAD;
+		}
+
+		/**
+		 *
+		 * Retorna el valor de la variable de instancia version
+		 *
+		 * @return valor para version
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 *
+		 * Retorna el valor de la variable de instancia bytes
+		 *
+		 * @return valor para bytes
+		 */
+		public byte[] getBytes() {
+			return bytes;
+		}
+
+		/**
+		 *
+		 * Retorna el valor de la variable de instancia gzip
+		 *
+		 * @return valor para gzip
+		 */
+		public byte[] getGzip() {
+			return gzip;
+		}
+
+		/**
+		 *
+		 * Retorna el valor de la variable de instancia lastKey
+		 *
+		 * @return valor para lastKey
+		 */
+		public int getLastKey() {
+			return lastKey;
+		}
+
+		/**
+		 *
+		 * Retorna el valor de la variable de instancia full
+		 *
+		 * @return valor para full
+		 */
+		public boolean isFull() {
+			return full;
+		}
+
+	}
+
+}
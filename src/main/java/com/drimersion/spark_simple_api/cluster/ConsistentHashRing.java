@@ -0,0 +1,178 @@
+package com.drimersion.spark_simple_api.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *
+ * Anillo de hashing consistente que asigna cada identificador de usuario a un
+ * nodo del cluster. Cada nodo ocupa varios puntos virtuales del anillo para
+ * repartir los identificadores de manera uniforme, y al agregar o quitar un
+ * nodo solo cambian de dueño los identificadores de sus puntos.
+ *
+ * <p>
+ * Los puntos se guardan en arreglos ordenados y la búsqueda es binaria, por
+ * lo que ubicar un identificador no crea objetos. Todos los nodos deben
+ * construir el anillo con la misma lista y la misma cantidad de puntos
+ * virtuales para coincidir en el dueño de cada identificador.
+ * </p>
+ */
+public class ConsistentHashRing {
+
+	/**
+	 * Cantidad de puntos virtuales por nodo por defecto.
+	 */
+	public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+	/**
+	 * Nodos del cluster en el orden configurado.
+	 */
+	private final List<String> nodes;
+
+	/**
+	 * Posiciones de los puntos virtuales, ordenadas.
+	 */
+	private final long[] points;
+
+	/**
+	 * Nodo dueño de cada punto virtual.
+	 */
+	private final String[] owners;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param nodes
+	 *            url base de cada nodo, por ejemplo http://localhost:4567
+	 * @param virtualNodes
+	 *            cantidad de puntos virtuales por nodo
+	 */
+	public ConsistentHashRing(List<String> nodes, int virtualNodes) {
+		if (virtualNodes < 1) {
+			throw new IllegalArgumentException(
+					"La cantidad de puntos virtuales debe ser positiva: "
+							+ virtualNodes);
+		}
+		Set<String> unique = new LinkedHashSet<>();
+		for (String node : nodes) {
+			String normalized = normalize(node);
+			if (normalized.isEmpty() || !unique.add(normalized)) {
+				throw new IllegalArgumentException("Nodo inválido o repetido: "
+						+ node);
+			}
+		}
+		if (unique.isEmpty()) {
+			throw new IllegalArgumentException("El cluster no tiene nodos.");
+		}
+		this.nodes = Collections.unmodifiableList(new ArrayList<>(unique));
+
+		/* Se ordenan los puntos, los empates se resuelven por nodo */
+		int size = this.nodes.size() * virtualNodes;
+		long[] hashes = new long[size];
+		Integer[] order = new Integer[size];
+		for (int n = 0; n < this.nodes.size(); n++) {
+			for (int v = 0; v < virtualNodes; v++) {
+				int index = n * virtualNodes + v;
+				hashes[index] = hash(this.nodes.get(n) + "#" + v);
+				order[index] = index;
+			}
+		}
+		Arrays.sort(order, Comparator.<Integer> comparingLong(
+				index -> hashes[index]).thenComparing(
+				index -> this.nodes.get(index / virtualNodes)));
+
+		this.points = new long[size];
+		this.owners = new String[size];
+		for (int i = 0; i < size; i++) {
+			points[i] = hashes[order[i]];
+			owners[i] = this.nodes.get(order[i] / virtualNodes);
+		}
+	}
+
+	/**
+	 *
+	 * Retorna el nodo dueño de un identificador: el del primer punto virtual
+	 * igual o posterior a su posición en el anillo.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @return url base del nodo dueño
+	 */
+	public String nodeFor(int id) {
+		int index = Arrays.binarySearch(points, mix(id));
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return owners[index == points.length ? 0 : index];
+	}
+
+	/**
+	 *
+	 * Retorna el valor de la variable de instancia nodes.
+	 *
+	 * @return valor para nodes
+	 */
+	public List<String> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 *
+	 * Normaliza la url de un nodo sin espacios ni barra final.
+	 *
+	 * @param node
+	 *            url del nodo
+	 * @return url normalizada
+	 */
+	public static String normalize(String node) {
+		String trimmed = node.trim();
+		while (trimmed.endsWith("/")) {
+			trimmed = trimmed.substring(0, trimmed.length() - 1);
+		}
+		return trimmed;
+	}
+
+	/**
+	 *
+	 * Calcula la posición de un punto virtual con FNV-1a de 64 bits, mezclada
+	 * para repartir los nombres parecidos.
+	 *
+	 * @param value
+	 *            nombre del punto virtual
+	 * @return posición en el anillo
+	 */
+	private static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 *
+	 * Mezcla final de MurmurHash3, reparte identificadores consecutivos en
+	 * todo el anillo.
+	 *
+	 * @param value
+	 *            valor a mezclar
+	 * @return posición en el anillo
+	 */
+	static long mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+
+}
@@ -0,0 +1,292 @@
+package com.drimersion.spark_simple_api.cluster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * Cliente HTTP entre los nodos del cluster. Envía una petición a otro nodo
+ * marcada con el header {@value #FORWARDED_HEADER}, para que el nodo que la
+ * recibe la atienda con sus propios datos sin volver a reenviarla, y retorna
+ * la respuesta completa con los headers que se copian al cliente. Si el
+ * cluster tiene un secreto compartido se envía en el header
+ * {@value #SECRET_HEADER}, para que el otro nodo no confíe en el header de
+ * reenvío de cualquier cliente.
+ */
+public class ShardClient {
+
+	/**
+	 * Header que marca una petición reenviada por otro nodo, con la url del
+	 * nodo que la reenvió.
+	 */
+	public static final String FORWARDED_HEADER = "X-Shard-Forwarded";
+
+	/**
+	 * Header con el secreto compartido del cluster.
+	 */
+	public static final String SECRET_HEADER = "X-Shard-Secret";
+
+	/**
+	 * Headers de la respuesta del otro nodo que se copian al cliente.
+	 */
+	private static final String[] RESPONSE_HEADERS = { "Content-Type",
+			"Content-Encoding", "ETag", "Location", "Link", "Retry-After" };
+
+	/**
+	 * Tamaño del buffer de lectura de las respuestas.
+	 */
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	/**
+	 * Url de este nodo, se envía en el header de reenvío.
+	 */
+	private final String self;
+
+	/**
+	 * Secreto compartido del cluster, null si no se configuró.
+	 */
+	private final String secret;
+
+	/**
+	 * Tiempo máximo de conexión y de lectura en milisegundos.
+	 */
+	private final int timeoutMillis;
+
+	/**
+	 * Hilos de las peticiones paralelas.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param self
+	 *            url de este nodo
+	 * @param timeoutMillis
+	 *            tiempo máximo de conexión y de lectura en milisegundos
+	 */
+	public ShardClient(String self, int timeoutMillis) {
+		this(self, null, timeoutMillis);
+	}
+
+	/**
+	 *
+	 * Constructor con el secreto compartido del cluster.
+	 *
+	 * @param self
+	 *            url de este nodo
+	 * @param secret
+	 *            secreto compartido del cluster, null si no se configuró
+	 * @param timeoutMillis
+	 *            tiempo máximo de conexión y de lectura en milisegundos
+	 */
+	public ShardClient(String self, String secret, int timeoutMillis) {
+		if (timeoutMillis < 1) {
+			throw new IllegalArgumentException(
+					"El tiempo de espera debe ser positivo: " + timeoutMillis);
+		}
+		this.self = self;
+		this.secret = secret;
+		this.timeoutMillis = timeoutMillis;
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory threads = runnable -> {
+			Thread thread = new Thread(runnable, "shard-"
+					+ count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		this.executor = Executors.newCachedThreadPool(threads);
+	}
+
+	/**
+	 *
+	 * Envía una petición a otro nodo y espera su respuesta.
+	 *
+	 * @param node
+	 *            url base del nodo
+	 * @param method
+	 *            método HTTP
+	 * @param uri
+	 *            ruta con los parámetros de la petición
+	 * @param headers
+	 *            headers de la petición
+	 * @param body
+	 *            cuerpo de la petición, null o vacio si no tiene
+	 * @return respuesta del nodo
+	 * @throws IOException
+	 *             Si el nodo no responde
+	 */
+	public Reply send(String node, String method, String uri,
+			Map<String, String> headers, byte[] body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(node + uri)
+				.openConnection();
+		/* La conexión no se cierra para reutilizarla con keep-alive */
+		connection.setConnectTimeout(timeoutMillis);
+		connection.setReadTimeout(timeoutMillis);
+		connection.setRequestMethod(method);
+		/* Las redirecciones y 304 se entregan tal cual al cliente */
+		connection.setInstanceFollowRedirects(false);
+		connection.setUseCaches(false);
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			connection.setRequestProperty(header.getKey(), header.getValue());
+		}
+		connection.setRequestProperty(FORWARDED_HEADER, self);
+		if (secret != null) {
+			connection.setRequestProperty(SECRET_HEADER, secret);
+		}
+		if (body != null && body.length > 0) {
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(body.length);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body);
+			}
+		}
+
+		int status = connection.getResponseCode();
+		Map<String, String> replyHeaders = new LinkedHashMap<>();
+		for (String name : RESPONSE_HEADERS) {
+			String value = connection.getHeaderField(name);
+			if (value != null) {
+				replyHeaders.put(name, value);
+			}
+		}
+		InputStream in = status >= 400 ? connection.getErrorStream()
+				: connection.getInputStream();
+		return new Reply(status, replyHeaders, in == null ? new byte[0]
+				: readAll(in));
+	}
+
+	/**
+	 *
+	 * Envía una petición GET a otro nodo en otro hilo, para consultar varios
+	 * nodos en paralelo.
+	 *
+	 * @param node
+	 *            url base del nodo
+	 * @param uri
+	 *            ruta con los parámetros de la petición
+	 * @param headers
+	 *            headers de la petición
+	 * @return respuesta futura del nodo
+	 */
+	public Future<Reply> get(String node, String uri,
+			Map<String, String> headers) {
+		return executor.submit(() -> send(node, "GET", uri, headers, null));
+	}
+
+	/**
+	 *
+	 * Retorna el valor de la variable de instancia timeoutMillis.
+	 *
+	 * @return valor para timeoutMillis
+	 */
+	public int getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 *
+	 * Lee todo el contenido de un flujo y lo cierra.
+	 *
+	 * @param in
+	 *            flujo a leer
+	 * @return contenido leído
+	 * @throws IOException
+	 *             Si no es posible leer el flujo
+	 */
+	public static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream input = in) {
+			byte[] buffer = new byte[READ_BUFFER_SIZE];
+			int count;
+			while ((count = input.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 *
+	 * Respuesta de otro nodo.
+	 */
+	public static final class Reply {
+
+		/**
+		 * Código de status.
+		 */
+		private final int status;
+
+		/**
+		 * Headers que se copian al cliente.
+		 */
+		private final Map<String, String> headers;
+
+		/**
+		 * Cuerpo de la respuesta.
+		 */
+		private final byte[] body;
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param status
+		 *            código de status
+		 * @param headers
+		 *            headers que se copian al cliente
+		 * @param body
+		 *            cuerpo de la respuesta
+		 */
+		Reply(int status, Map<String, String> headers, byte[] body) {
+			this.status = status;
+			this.headers = Collections.unmodifiableMap(headers);
+			this.body = body;
+		}
+
+		/**
+		 *
+		 * Retorna el valor de la variable de instancia status.
+		 *
+		 * @return valor para status
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+		/**
+		 *
+		 * Retorna el valor de la variable de instancia headers.
+		 *
+		 * @return valor para headers
+		 */
+		public Map<String, String> getHeaders() {
+			return headers;
+		}
+
+		/**
+		 *
+		 * Retorna el valor de la variable de instancia body.
+		 *
+		 * @return valor para body
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+
+	}
+
+}
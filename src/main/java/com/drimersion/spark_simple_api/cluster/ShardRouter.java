@@ -0,0 +1,454 @@
+package com.drimersion.spark_simple_api.cluster;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import spark.Request;
+import spark.Response;
+
+import com.drimersion.spark_simple_api.codec.MessagePackReader;
+import com.drimersion.spark_simple_api.codec.UserMessagePackCodec;
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.response_transformer.MessagePackTransformer;
+import com.drimersion.spark_simple_api.util.HttpStatusCode;
+import com.drimersion.spark_simple_api.util.SparkUtils;
+
+/**
+ *
+ * Enrutamiento de las peticiones entre los nodos del cluster. Las peticiones
+ * sobre un usuario se atienden en el nodo dueño de su identificador según el
+ * {@link ConsistentHashRing}: si es otro nodo se le reenvían, o se redirige
+ * al cliente con 307, y las consultas de la colección se envían en paralelo
+ * a todos los nodos y se combinan sus resultados.
+ *
+ * <p>
+ * Una petición reenviada por otro nodo siempre se atiende con los datos
+ * locales, por lo que un nodo con una lista de nodos distinta no produce
+ * ciclos sino respuestas incompletas. El header de reenvío solo se acepta
+ * si la petición trae el secreto compartido del cluster o, si no se
+ * configuró, si viene de la dirección de uno de los nodos; en otro caso se
+ * ignora y la petición se enruta como la de cualquier cliente.
+ * </p>
+ */
+public class ShardRouter {
+
+	/**
+	 * Orden de la colección de usuarios.
+	 */
+	public static final Comparator<User> BY_ID = Comparator
+			.comparingInt(User::getId);
+
+	/**
+	 * Orden de las búsquedas por apellido, el mismo del índice local.
+	 */
+	public static final Comparator<User> BY_NAME = Comparator
+			.comparing((User user) -> normalize(user.getLastName()))
+			.thenComparing(user -> normalize(user.getName())).thenComparing(BY_ID);
+
+	/**
+	 * Headers de la petición que se copian al reenviarla.
+	 */
+	private static final String[] REQUEST_HEADERS = { "Accept",
+			"Accept-Encoding", "Content-Type", "If-Match", "If-None-Match",
+			"Request-Id" };
+
+	/**
+	 * Logger de la clase.
+	 */
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(ShardRouter.class);
+
+	/**
+	 * Anillo con el dueño de cada identificador.
+	 */
+	private final ConsistentHashRing ring;
+
+	/**
+	 * Url de este nodo en el anillo.
+	 */
+	private final String self;
+
+	/**
+	 * Cliente de los otros nodos.
+	 */
+	private final ShardClient client;
+
+	/**
+	 * Si se redirige al cliente en lugar de reenviar la petición.
+	 */
+	private final boolean redirect;
+
+	/**
+	 * Secreto compartido del cluster en UTF-8, null si no se configuró.
+	 */
+	private final byte[] secret;
+
+	/**
+	 * Direcciones de los nodos, se usan si no hay secreto compartido.
+	 */
+	private final Set<InetAddress> peers;
+
+	/**
+	 * Peticiones reenviadas o redirigidas a otro nodo.
+	 */
+	private final LongAdder forwarded = new LongAdder();
+
+	/**
+	 * Peticiones que fallaron por no obtener la respuesta de otro nodo.
+	 */
+	private final LongAdder failures = new LongAdder();
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param ring
+	 *            anillo con el dueño de cada identificador
+	 * @param self
+	 *            url de este nodo, debe estar en el anillo
+	 * @param client
+	 *            cliente de los otros nodos
+	 * @param redirect
+	 *            si se redirige al cliente en lugar de reenviar la petición
+	 */
+	public ShardRouter(ConsistentHashRing ring, String self,
+			ShardClient client, boolean redirect) {
+		this(ring, self, client, redirect, null);
+	}
+
+	/**
+	 *
+	 * Constructor con el secreto compartido que autentica las peticiones
+	 * reenviadas.
+	 *
+	 * @param ring
+	 *            anillo con el dueño de cada identificador
+	 * @param self
+	 *            url de este nodo, debe estar en el anillo
+	 * @param client
+	 *            cliente de los otros nodos
+	 * @param redirect
+	 *            si se redirige al cliente en lugar de reenviar la petición
+	 * @param secret
+	 *            secreto compartido del cluster, null para aceptar las
+	 *            peticiones reenviadas desde la dirección de los nodos
+	 */
+	public ShardRouter(ConsistentHashRing ring, String self,
+			ShardClient client, boolean redirect, String secret) {
+		String normalized = ConsistentHashRing.normalize(self);
+		if (!ring.getNodes().contains(normalized)) {
+			throw new IllegalArgumentException("El nodo " + self
+					+ " no pertenece al cluster " + ring.getNodes());
+		}
+		this.ring = ring;
+		this.self = normalized;
+		this.client = client;
+		this.redirect = redirect;
+		this.secret = secret == null ? null : secret
+				.getBytes(StandardCharsets.UTF_8);
+		this.peers = secret == null ? resolve(ring.getNodes()) : Collections
+				.emptySet();
+	}
+
+	/**
+	 *
+	 * Indica si la petición fue reenviada por otro nodo y se debe atender con
+	 * los datos locales. El header de reenvío de una petición que no trae el
+	 * secreto, o que no viene de un nodo si no hay secreto, se ignora.
+	 *
+	 * @param request
+	 *            petición en proceso
+	 * @return true si la petición viene de otro nodo
+	 */
+	public boolean isForwarded(Request request) {
+		if (request.headers(ShardClient.FORWARDED_HEADER) == null) {
+			return false;
+		}
+		if (secret != null) {
+			String sent = request.headers(ShardClient.SECRET_HEADER);
+			/* Comparación en tiempo constante para no filtrar el secreto */
+			return sent != null
+					&& MessageDigest.isEqual(secret,
+							sent.getBytes(StandardCharsets.UTF_8));
+		}
+		try {
+			return peers.contains(InetAddress.getByName(request.ip()));
+		} catch (UnknownHostException e) {
+			return false;
+		}
+	}
+
+	/**
+	 *
+	 * Indica si un identificador pertenece a este nodo.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @return true si este nodo es el dueño
+	 */
+	public boolean isLocal(int id) {
+		return self.equals(ring.nodeFor(id));
+	}
+
+	/**
+	 *
+	 * Envía la petición sobre un usuario al nodo dueño de su identificador si
+	 * no es este nodo, y escribe su respuesta. Si el otro nodo no responde se
+	 * responde 502.
+	 *
+	 * @param request
+	 *            petición en proceso
+	 * @param response
+	 *            respuesta de la petición
+	 * @param id
+	 *            identificador del usuario
+	 * @param body
+	 *            cuerpo ya leído de la petición, o null para leerlo
+	 * @return true si la petición se atendió en otro nodo, false si se debe
+	 *         atender localmente
+	 */
+	public boolean route(Request request, Response response, int id,
+			byte[] body) {
+		if (id == SparkUtils.INVALID_ID || isForwarded(request)) {
+			return false;
+		}
+		String owner = ring.nodeFor(id);
+		if (self.equals(owner)) {
+			return false;
+		}
+
+		forwarded.increment();
+		if (redirect) {
+			/* 307 conserva el método y el cuerpo de la petición */
+			response.status(307);
+			response.header("Location", owner + uri(request));
+			response.raw().setContentLength(0);
+			return true;
+		}
+
+		try {
+			Map<String, String> headers = new LinkedHashMap<>();
+			for (String name : REQUEST_HEADERS) {
+				String value = request.headers(name);
+				if (value != null) {
+					headers.put(name, value);
+				}
+			}
+			ShardClient.Reply reply = client.send(owner, request
+					.requestMethod(), uri(request), headers, body != null ? body
+					: ShardClient.readAll(request.raw().getInputStream()));
+
+			HttpServletResponse raw = response.raw();
+			raw.setStatus(reply.getStatus());
+			for (Map.Entry<String, String> header : reply.getHeaders()
+					.entrySet()) {
+				raw.setHeader(header.getKey(), header.getValue());
+			}
+			raw.setContentLength(reply.getBody().length);
+			raw.getOutputStream().write(reply.getBody());
+		} catch (IOException e) {
+			failures.increment();
+			LOGGER.warn("No fue posible reenviar la petición al nodo {}.",
+					owner, e);
+			SparkUtils.buildResponseWithErrors(response, HttpStatusCode._502);
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * Consulta la misma colección en los demás nodos en paralelo y la combina
+	 * con el resultado local. Los nodos responden en MessagePack, que se
+	 * decodifica sin el costo de parsear json.
+	 *
+	 * @param request
+	 *            petición en proceso, se envía con sus mismos parámetros
+	 * @param local
+	 *            resultado de este nodo
+	 * @param limit
+	 *            cantidad máxima de usuarios, 0 para todos
+	 * @param order
+	 *            orden de los usuarios en el resultado
+	 * @return resultado combinado en el orden indicado
+	 * @throws IOException
+	 *             Si algún nodo no responde o su respuesta no es válida
+	 */
+	public Map<Integer, User> gather(Request request, Map<Integer, User> local,
+			int limit, Comparator<User> order) throws IOException {
+		Map<String, String> headers = new LinkedHashMap<>();
+		headers.put("Accept", MessagePackTransformer.CONTENT_TYPE);
+		String requestId = request.headers("Request-Id");
+		if (requestId != null) {
+			headers.put("Request-Id", requestId);
+		}
+		String uri = uri(request);
+		List<String> nodes = new ArrayList<>();
+		List<Future<ShardClient.Reply>> replies = new ArrayList<>();
+		for (String node : ring.getNodes()) {
+			if (!self.equals(node)) {
+				nodes.add(node);
+				replies.add(client.get(node, uri, headers));
+			}
+		}
+
+		List<User> users = new ArrayList<>(local.values());
+		long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(client.getTimeoutMillis());
+		try {
+			for (int i = 0; i < replies.size(); i++) {
+				ShardClient.Reply reply = await(nodes.get(i), replies.get(i),
+						deadline);
+				byte[] body = reply.getBody();
+				Map<Integer, User> remote = new LinkedHashMap<>();
+				UserMessagePackCodec.read(new MessagePackReader(body, 0,
+						body.length), remote);
+				users.addAll(remote.values());
+			}
+		} catch (IOException e) {
+			failures.increment();
+			for (Future<ShardClient.Reply> reply : replies) {
+				reply.cancel(true);
+			}
+			throw e;
+		}
+
+		users.sort(order);
+		int size = limit > 0 ? Math.min(limit, users.size()) : users.size();
+		Map<Integer, User> merged = new LinkedHashMap<>(size * 2);
+		for (int i = 0; i < size; i++) {
+			User user = users.get(i);
+			merged.put(user.getId(), user);
+		}
+		return merged;
+	}
+
+	/**
+	 *
+	 * Retorna el valor de la variable de instancia forwarded.
+	 *
+	 * @return valor para forwarded
+	 */
+	public long getForwarded() {
+		return forwarded.sum();
+	}
+
+	/**
+	 *
+	 * Retorna el valor de la variable de instancia failures.
+	 *
+	 * @return valor para failures
+	 */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 *
+	 * Espera la respuesta de un nodo hasta el plazo de la consulta.
+	 *
+	 * @param node
+	 *            url del nodo
+	 * @param reply
+	 *            respuesta futura del nodo
+	 * @param deadline
+	 *            plazo de la consulta en nanosegundos
+	 * @return respuesta exitosa del nodo
+	 * @throws IOException
+	 *             Si el nodo no responde a tiempo o responde un error
+	 */
+	private static ShardClient.Reply await(String node,
+			Future<ShardClient.Reply> reply, long deadline) throws IOException {
+		ShardClient.Reply result;
+		try {
+			result = reply.get(Math.max(0, deadline - System.nanoTime()),
+					TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Se interrumpió la consulta al nodo " + node,
+					e);
+		} catch (ExecutionException e) {
+			throw new IOException("El nodo " + node + " no respondió.",
+					e.getCause());
+		} catch (TimeoutException e) {
+			throw new IOException("El nodo " + node
+					+ " no respondió a tiempo.", e);
+		}
+		if (result.getStatus() != 200) {
+			throw new IOException("El nodo " + node + " respondió "
+					+ result.getStatus());
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * Retorna la ruta de la petición con sus parámetros.
+	 *
+	 * @param request
+	 *            petición en proceso
+	 * @return ruta y parámetros de la petición
+	 */
+	private static String uri(Request request) {
+		String query = request.raw().getQueryString();
+		return query == null ? request.raw().getRequestURI() : request.raw()
+				.getRequestURI() + "?" + query;
+	}
+
+	/**
+	 *
+	 * Resuelve las direcciones de los nodos del cluster.
+	 *
+	 * @param nodes
+	 *            url de los nodos
+	 * @return direcciones de los nodos que se pudieron resolver
+	 */
+	private static Set<InetAddress> resolve(List<String> nodes) {
+		Set<InetAddress> addresses = new HashSet<>();
+		for (String node : nodes) {
+			String host = URI.create(node).getHost();
+			try {
+				Collections.addAll(addresses, InetAddress.getAllByName(host));
+			} catch (UnknownHostException e) {
+				LOGGER.warn("No fue posible resolver el nodo {}, no se aceptan "
+						+ "sus peticiones reenviadas.", node);
+			}
+		}
+		return addresses;
+	}
+
+	/**
+	 *
+	 * Normaliza un valor para compararlo sin distinguir mayúsculas.
+	 *
+	 * @param value
+	 *            valor a normalizar, puede ser null
+	 * @return valor en minúsculas, vacio si es null
+	 */
+	private static String normalize(String value) {
+		return value == null ? "" : value.toLowerCase(Locale.ROOT);
+	}
+
+}
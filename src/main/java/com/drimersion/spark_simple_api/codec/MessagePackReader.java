@@ -0,0 +1,321 @@
+package com.drimersion.spark_simple_api.codec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *
+ * Lector del formato MessagePack sobre un arreglo. Lee los tipos que escribe
+ * {@link MessagePackWriter} y puede saltar cualquier valor para ignorar los
+ * campos desconocidos; el contenido inválido o incompleto produce una
+ * {@link IOException}, igual que un json mal formado.
+ */
+public class MessagePackReader {
+
+	/**
+	 * Bytes a leer.
+	 */
+	private final byte[] bytes;
+
+	/**
+	 * Posición de lectura.
+	 */
+	private int position;
+
+	/**
+	 * Posición final, exclusiva.
+	 */
+	private final int limit;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param bytes
+	 *            arreglo con el contenido
+	 * @param offset
+	 *            posición inicial
+	 * @param length
+	 *            tamaño del contenido
+	 */
+	public MessagePackReader(byte[] bytes, int offset, int length) {
+		this.bytes = bytes;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+
+	/**
+	 *
+	 * Indica si quedan bytes por leer.
+	 *
+	 * @return true si quedan bytes
+	 */
+	public boolean hasNext() {
+		return position < limit;
+	}
+
+	/**
+	 *
+	 * Indica si el siguiente valor es null, sin leerlo.
+	 *
+	 * @return true si el siguiente valor es null
+	 * @throws IOException
+	 *             Si no quedan bytes
+	 */
+	public boolean nextIsNil() throws IOException {
+		return peek() == 0xc0;
+	}
+
+	/**
+	 *
+	 * Lee el inicio de un mapa.
+	 *
+	 * @return cantidad de entradas del mapa
+	 * @throws IOException
+	 *             Si el siguiente valor no es un mapa
+	 */
+	public int readMapHeader() throws IOException {
+		int marker = next();
+		if ((marker & 0xf0) == 0x80) {
+			return marker & 0x0f;
+		} else if (marker == 0xde) {
+			return (int) get(2);
+		} else if (marker == 0xdf) {
+			return count(get(4));
+		}
+		throw invalid("mapa", marker);
+	}
+
+	/**
+	 *
+	 * Lee el inicio de un arreglo.
+	 *
+	 * @return cantidad de elementos del arreglo
+	 * @throws IOException
+	 *             Si el siguiente valor no es un arreglo
+	 */
+	public int readArrayHeader() throws IOException {
+		int marker = next();
+		if ((marker & 0xf0) == 0x90) {
+			return marker & 0x0f;
+		} else if (marker == 0xdc) {
+			return (int) get(2);
+		} else if (marker == 0xdd) {
+			return count(get(4));
+		}
+		throw invalid("arreglo", marker);
+	}
+
+	/**
+	 *
+	 * Lee un entero.
+	 *
+	 * @return entero leído
+	 * @throws IOException
+	 *             Si el siguiente valor no es un entero
+	 */
+	public long readLong() throws IOException {
+		int marker = next();
+		if (marker < 0x80) {
+			return marker;
+		} else if (marker >= 0xe0) {
+			return (byte) marker;
+		}
+		switch (marker) {
+		case 0xcc:
+			return get(1);
+		case 0xcd:
+			return get(2);
+		case 0xce:
+			return get(4);
+		case 0xcf:
+			return get(8);
+		case 0xd0:
+			return (byte) get(1);
+		case 0xd1:
+			return (short) get(2);
+		case 0xd2:
+			return (int) get(4);
+		case 0xd3:
+			return get(8);
+		default:
+			throw invalid("entero", marker);
+		}
+	}
+
+	/**
+	 *
+	 * Lee un entero de 32 bits.
+	 *
+	 * @return entero leído
+	 * @throws IOException
+	 *             Si el siguiente valor no es un entero de 32 bits
+	 */
+	public int readInt() throws IOException {
+		long value = readLong();
+		if (value != (int) value) {
+			throw new IOException("El entero no cabe en 32 bits: " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 *
+	 * Lee un texto o null.
+	 *
+	 * @return texto leído, puede ser null
+	 * @throws IOException
+	 *             Si el siguiente valor no es un texto
+	 */
+	public String readString() throws IOException {
+		int marker = next();
+		int length;
+		if ((marker & 0xe0) == 0xa0) {
+			length = marker & 0x1f;
+		} else if (marker == 0xd9) {
+			length = (int) get(1);
+		} else if (marker == 0xda) {
+			length = (int) get(2);
+		} else if (marker == 0xdb) {
+			length = count(get(4));
+		} else if (marker == 0xc0) {
+			return null;
+		} else {
+			throw invalid("texto", marker);
+		}
+		require(length);
+		String value = new String(bytes, position, length,
+				StandardCharsets.UTF_8);
+		position += length;
+		return value;
+	}
+
+	/**
+	 *
+	 * Salta el siguiente valor, incluyendo el contenido de mapas y arreglos.
+	 *
+	 * @throws IOException
+	 *             Si el valor es inválido
+	 */
+	public void skip() throws IOException {
+		int pending = 1;
+		while (pending-- > 0) {
+			int marker = peek();
+			if ((marker & 0xf0) == 0x80 || marker == 0xde || marker == 0xdf) {
+				pending += readMapHeader() * 2;
+			} else if ((marker & 0xf0) == 0x90 || marker == 0xdc
+					|| marker == 0xdd) {
+				pending += readArrayHeader();
+			} else if ((marker & 0xe0) == 0xa0 || (marker >= 0xd9
+					&& marker <= 0xdb)) {
+				readString();
+			} else if (marker == 0xc0 || marker == 0xc2 || marker == 0xc3) {
+				/* null y booleanos ocupan solo el marcador */
+				position++;
+			} else if (marker == 0xca) {
+				next();
+				require(4);
+				position += 4;
+			} else if (marker == 0xcb) {
+				next();
+				require(8);
+				position += 8;
+			} else {
+				readLong();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Retorna el siguiente byte sin avanzar.
+	 *
+	 * @return siguiente byte sin signo
+	 * @throws IOException
+	 *             Si no quedan bytes
+	 */
+	private int peek() throws IOException {
+		require(1);
+		return bytes[position] & 0xff;
+	}
+
+	/**
+	 *
+	 * Lee el siguiente byte.
+	 *
+	 * @return byte sin signo
+	 * @throws IOException
+	 *             Si no quedan bytes
+	 */
+	private int next() throws IOException {
+		require(1);
+		return bytes[position++] & 0xff;
+	}
+
+	/**
+	 *
+	 * Lee un valor sin signo en big-endian.
+	 *
+	 * @param length
+	 *            cantidad de bytes
+	 * @return valor leído
+	 * @throws IOException
+	 *             Si no quedan bytes suficientes
+	 */
+	private long get(int length) throws IOException {
+		require(length);
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			value = (value << 8) | (bytes[position++] & 0xff);
+		}
+		return value;
+	}
+
+	/**
+	 *
+	 * Valida un tamaño de 32 bits sin signo.
+	 *
+	 * @param value
+	 *            tamaño leído
+	 * @return tamaño como entero
+	 * @throws IOException
+	 *             Si supera los bytes disponibles
+	 */
+	private int count(long value) throws IOException {
+		if (value > limit - position) {
+			throw new IOException("El tamaño supera el contenido: " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 *
+	 * Verifica que queden bytes suficientes.
+	 *
+	 * @param length
+	 *            bytes requeridos
+	 * @throws IOException
+	 *             Si el contenido está incompleto
+	 */
+	private void require(int length) throws IOException {
+		if (length > limit - position) {
+			throw new IOException("El contenido MessagePack está incompleto.");
+		}
+	}
+
+	/**
+	 *
+	 * Construye el error de un tipo inesperado.
+	 *
+	 * @param expected
+	 *            tipo esperado
+	 * @param marker
+	 *            marcador leído
+	 * @return error del contenido
+	 */
+	private static IOException invalid(String expected, int marker) {
+		return new IOException("Se esperaba un " + expected
+				+ " y se encontró el marcador 0x" + Integer.toHexString(marker));
+	}
+
+}
@@ -0,0 +1,238 @@
+package com.drimersion.spark_simple_api.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ *
+ * Escritor del formato MessagePack sobre un arreglo que crece según se
+ * necesita. Solo implementa los tipos que usan las respuestas del servicio:
+ * mapas, arreglos, enteros, textos y null, siempre con la representación más
+ * corta del valor.
+ */
+public class MessagePackWriter {
+
+	/**
+	 * Tamaño inicial del arreglo.
+	 */
+	private static final int INITIAL_SIZE = 256;
+
+	/**
+	 * Bytes escritos.
+	 */
+	private byte[] bytes = new byte[INITIAL_SIZE];
+
+	/**
+	 * Cantidad de bytes escritos.
+	 */
+	private int size;
+
+	/**
+	 *
+	 * Escribe el inicio de un mapa, seguido de sus claves y valores.
+	 *
+	 * @param entries
+	 *            cantidad de entradas del mapa
+	 * @return este escritor
+	 */
+	public MessagePackWriter mapHeader(int entries) {
+		return header(entries, 0x80, 0xde, 0xdf);
+	}
+
+	/**
+	 *
+	 * Escribe el inicio de un arreglo, seguido de sus elementos.
+	 *
+	 * @param elements
+	 *            cantidad de elementos del arreglo
+	 * @return este escritor
+	 */
+	public MessagePackWriter arrayHeader(int elements) {
+		return header(elements, 0x90, 0xdc, 0xdd);
+	}
+
+	/**
+	 *
+	 * Escribe null.
+	 *
+	 * @return este escritor
+	 */
+	public MessagePackWriter nil() {
+		ensure(1);
+		bytes[size++] = (byte) 0xc0;
+		return this;
+	}
+
+	/**
+	 *
+	 * Escribe un entero.
+	 *
+	 * @param value
+	 *            entero a escribir
+	 * @return este escritor
+	 */
+	public MessagePackWriter integer(long value) {
+		ensure(9);
+		if (value >= 0) {
+			if (value < 0x80) {
+				bytes[size++] = (byte) value;
+			} else if (value <= 0xff) {
+				bytes[size++] = (byte) 0xcc;
+				put(value, 1);
+			} else if (value <= 0xffff) {
+				bytes[size++] = (byte) 0xcd;
+				put(value, 2);
+			} else if (value <= 0xffffffffL) {
+				bytes[size++] = (byte) 0xce;
+				put(value, 4);
+			} else {
+				bytes[size++] = (byte) 0xcf;
+				put(value, 8);
+			}
+		} else if (value >= -32) {
+			bytes[size++] = (byte) value;
+		} else if (value >= Byte.MIN_VALUE) {
+			bytes[size++] = (byte) 0xd0;
+			put(value, 1);
+		} else if (value >= Short.MIN_VALUE) {
+			bytes[size++] = (byte) 0xd1;
+			put(value, 2);
+		} else if (value >= Integer.MIN_VALUE) {
+			bytes[size++] = (byte) 0xd2;
+			put(value, 4);
+		} else {
+			bytes[size++] = (byte) 0xd3;
+			put(value, 8);
+		}
+		return this;
+	}
+
+	/**
+	 *
+	 * Escribe un texto en UTF-8, o null.
+	 *
+	 * @param value
+	 *            texto a escribir, puede ser null
+	 * @return este escritor
+	 */
+	public MessagePackWriter string(String value) {
+		if (value == null) {
+			return nil();
+		}
+		byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+		int length = utf8.length;
+		ensure(5 + length);
+		if (length < 32) {
+			bytes[size++] = (byte) (0xa0 | length);
+		} else if (length <= 0xff) {
+			bytes[size++] = (byte) 0xd9;
+			put(length, 1);
+		} else if (length <= 0xffff) {
+			bytes[size++] = (byte) 0xda;
+			put(length, 2);
+		} else {
+			bytes[size++] = (byte) 0xdb;
+			put(length, 4);
+		}
+		System.arraycopy(utf8, 0, bytes, size, length);
+		size += length;
+		return this;
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de bytes escritos.
+	 *
+	 * @return bytes escritos
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * Retorna una copia de los bytes escritos.
+	 *
+	 * @return bytes escritos
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, size);
+	}
+
+	/**
+	 *
+	 * Escribe los bytes escritos en un flujo sin copiarlos.
+	 *
+	 * @param out
+	 *            flujo de salida
+	 * @throws IOException
+	 *             Si no es posible escribir en el flujo
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(bytes, 0, size);
+	}
+
+	/**
+	 *
+	 * Escribe el inicio de un mapa o arreglo.
+	 *
+	 * @param count
+	 *            cantidad de elementos
+	 * @param fix
+	 *            prefijo de la representación corta
+	 * @param marker16
+	 *            marcador con tamaño de 16 bits
+	 * @param marker32
+	 *            marcador con tamaño de 32 bits
+	 * @return este escritor
+	 */
+	private MessagePackWriter header(int count, int fix, int marker16,
+			int marker32) {
+		if (count < 0) {
+			throw new IllegalArgumentException("Tamaño inválido: " + count);
+		}
+		ensure(5);
+		if (count < 16) {
+			bytes[size++] = (byte) (fix | count);
+		} else if (count <= 0xffff) {
+			bytes[size++] = (byte) marker16;
+			put(count, 2);
+		} else {
+			bytes[size++] = (byte) marker32;
+			put(count, 4);
+		}
+		return this;
+	}
+
+	/**
+	 *
+	 * Escribe un valor en big-endian.
+	 *
+	 * @param value
+	 *            valor a escribir
+	 * @param length
+	 *            cantidad de bytes
+	 */
+	private void put(long value, int length) {
+		for (int shift = (length - 1) * 8; shift >= 0; shift -= 8) {
+			bytes[size++] = (byte) (value >>> shift);
+		}
+	}
+
+	/**
+	 *
+	 * Asegura espacio para la cantidad de bytes indicada.
+	 *
+	 * @param needed
+	 *            bytes que se van a escribir
+	 */
+	private void ensure(int needed) {
+		if (size + needed > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size
+					+ needed));
+		}
+	}
+
+}
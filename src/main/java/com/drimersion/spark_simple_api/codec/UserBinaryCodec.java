@@ -0,0 +1,145 @@
+package com.drimersion.spark_simple_api.codec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.drimersion.spark_simple_api.model.User;
+
+/**
+ *
+ * Codificador binario de {@link User} usado por el log de escritura y los
+ * snapshots. Un usuario se codifica como su identificador entero seguido de
+ * los campos de texto en UTF-8, cada uno precedido por su longitud en bytes o
+ * por -1 si el campo es null.
+ */
+public class UserBinaryCodec {
+
+	/**
+	 * Longitud que representa un campo null.
+	 */
+	private static final int NULL_LENGTH = -1;
+
+	/**
+	 *
+	 * Codifica un usuario con el identificador especificado.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param user
+	 *            usuario a codificar
+	 * @return el usuario codificado
+	 */
+	public static byte[] encode(int id, User user) {
+		byte[] name = utf8(user.getName());
+		byte[] lastName = utf8(user.getLastName());
+		byte[] document = utf8(user.getDocument());
+
+		ByteBuffer out = ByteBuffer.allocate(Integer.BYTES + size(name)
+				+ size(lastName) + size(document));
+		out.putInt(id);
+		putString(out, name);
+		putString(out, lastName);
+		putString(out, document);
+		return out.array();
+	}
+
+	/**
+	 *
+	 * Decodifica un usuario desde la posición actual del buffer y avanza la
+	 * posición hasta el final del usuario.
+	 *
+	 * @param in
+	 *            buffer con el usuario codificado
+	 * @return el usuario decodificado
+	 * @throws IllegalArgumentException
+	 *             Si el contenido no corresponde a un usuario
+	 */
+	public static User decode(ByteBuffer in) {
+		try {
+			User user = new User();
+			user.setId(in.getInt());
+			user.setName(getString(in));
+			user.setLastName(getString(in));
+			user.setDocument(getString(in));
+			return user;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("El usuario está incompleto.", e);
+		}
+	}
+
+	/**
+	 *
+	 * Codifica un texto en UTF-8.
+	 *
+	 * @param value
+	 *            texto a codificar, puede ser null
+	 * @return los bytes del texto o null
+	 */
+	private static byte[] utf8(String value) {
+		return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 *
+	 * Retorna el tamaño codificado de un campo de texto.
+	 *
+	 * @param value
+	 *            bytes del texto o null
+	 * @return tamaño en bytes incluyendo la longitud
+	 */
+	private static int size(byte[] value) {
+		return Integer.BYTES + (value == null ? 0 : value.length);
+	}
+
+	/**
+	 *
+	 * Escribe un campo de texto precedido por su longitud.
+	 *
+	 * @param out
+	 *            buffer de salida
+	 * @param value
+	 *            bytes del texto o null
+	 */
+	private static void putString(ByteBuffer out, byte[] value) {
+		if (value == null) {
+			out.putInt(NULL_LENGTH);
+		} else {
+			out.putInt(value.length);
+			out.put(value);
+		}
+	}
+
+	/**
+	 *
+	 * Lee un campo de texto precedido por su longitud. Si el buffer tiene un
+	 * arreglo accesible el texto se decodifica sin copias intermedias.
+	 *
+	 * @param in
+	 *            buffer de entrada
+	 * @return el texto leído o null
+	 */
+	private static String getString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length == NULL_LENGTH) {
+			return null;
+		}
+		if (length < 0 || length > in.remaining()) {
+			throw new IllegalArgumentException("Longitud de campo inválida: "
+					+ length);
+		}
+
+		String value;
+		if (in.hasArray()) {
+			value = new String(in.array(), in.arrayOffset() + in.position(),
+					length, StandardCharsets.UTF_8);
+			in.position(in.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			in.get(bytes);
+			value = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return value;
+	}
+
+}
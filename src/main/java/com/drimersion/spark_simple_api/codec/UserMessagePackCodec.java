@@ -0,0 +1,160 @@
+package com.drimersion.spark_simple_api.codec;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.drimersion.spark_simple_api.model.User;
+
+/**
+ *
+ * Codificador MessagePack de {@link User} con los mismos campos que la
+ * representación json: un mapa con las claves de {@link UserTypeAdapter} que
+ * omite los valores null. Las colecciones se codifican como un mapa del
+ * identificador entero al usuario.
+ */
+public class UserMessagePackCodec {
+
+	/**
+	 *
+	 * Escribe un usuario.
+	 *
+	 * @param out
+	 *            escritor MessagePack
+	 * @param user
+	 *            usuario a escribir, puede ser null
+	 */
+	public static void write(MessagePackWriter out, User user) {
+		if (user == null) {
+			out.nil();
+			return;
+		}
+
+		boolean hasId = user.getId() != User.NO_ID;
+		out.mapHeader((hasId ? 1 : 0) + count(user.getName())
+				+ count(user.getLastName()) + count(user.getDocument()));
+		if (hasId) {
+			out.string(UserTypeAdapter.ID).integer(user.getId());
+		}
+		writeString(out, UserTypeAdapter.NAME, user.getName());
+		writeString(out, UserTypeAdapter.LAST_NAME, user.getLastName());
+		writeString(out, UserTypeAdapter.DOCUMENT, user.getDocument());
+	}
+
+	/**
+	 *
+	 * Escribe una colección de usuarios por identificador.
+	 *
+	 * @param out
+	 *            escritor MessagePack
+	 * @param users
+	 *            usuarios a escribir
+	 */
+	public static void write(MessagePackWriter out, Map<Integer, User> users) {
+		out.mapHeader(users.size());
+		for (Map.Entry<Integer, User> entry : users.entrySet()) {
+			out.integer(entry.getKey());
+			write(out, entry.getValue());
+		}
+	}
+
+	/**
+	 *
+	 * Lee un usuario, ignorando los campos desconocidos.
+	 *
+	 * @param in
+	 *            lector MessagePack
+	 * @return usuario leído o null si el valor es null
+	 * @throws IOException
+	 *             Si el contenido no es un usuario válido
+	 */
+	public static User read(MessagePackReader in) throws IOException {
+		if (in.nextIsNil()) {
+			in.skip();
+			return null;
+		}
+
+		User user = new User();
+		int fields = in.readMapHeader();
+		for (int i = 0; i < fields; i++) {
+			String name = in.readString();
+			if (name == null) {
+				throw new IOException("El nombre del campo es null.");
+			}
+			switch (name) {
+			case UserTypeAdapter.ID:
+				user.setId(in.readInt());
+				break;
+			case UserTypeAdapter.NAME:
+				user.setName(in.readString());
+				break;
+			case UserTypeAdapter.LAST_NAME:
+				user.setLastName(in.readString());
+				break;
+			case UserTypeAdapter.DOCUMENT:
+				user.setDocument(in.readString());
+				break;
+			default:
+				/* Los campos desconocidos se ignoran. */
+				in.skip();
+			}
+		}
+		return user;
+	}
+
+	/**
+	 *
+	 * Lee una colección de usuarios por identificador y la agrega a un mapa en
+	 * el orden en que se escribió.
+	 *
+	 * @param in
+	 *            lector MessagePack
+	 * @param users
+	 *            mapa donde se agregan los usuarios
+	 * @throws IOException
+	 *             Si el contenido no es una colección de usuarios válida
+	 */
+	public static void read(MessagePackReader in, Map<Integer, User> users)
+			throws IOException {
+		int entries = in.readMapHeader();
+		for (int i = 0; i < entries; i++) {
+			int id = in.readInt();
+			User user = read(in);
+			if (user == null) {
+				throw new IOException("El usuario " + id + " es null.");
+			}
+			user.setId(id);
+			users.put(id, user);
+		}
+	}
+
+	/**
+	 *
+	 * Cuenta un campo si no es null.
+	 *
+	 * @param value
+	 *            valor del campo
+	 * @return 1 si el campo se escribe, 0 si no
+	 */
+	private static int count(String value) {
+		return value == null ? 0 : 1;
+	}
+
+	/**
+	 *
+	 * Escribe un campo de texto que no es null.
+	 *
+	 * @param out
+	 *            escritor MessagePack
+	 * @param name
+	 *            nombre del campo
+	 * @param value
+	 *            valor del campo
+	 */
+	private static void writeString(MessagePackWriter out, String name,
+			String value) {
+		if (value != null) {
+			out.string(name).string(value);
+		}
+	}
+
+}
@@ -0,0 +1,265 @@
+package com.drimersion.spark_simple_api.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.drimersion.spark_simple_api.model.User;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ *
+ * Proyección de los campos de un {@link User} en json, para responder solo
+ * los campos pedidos en el parámetro fields. Cada combinación de campos se
+ * compila una sola vez en la lista de campos que escribe, y el valor del
+ * parámetro se guarda con su proyección para no volver a interpretarlo; los
+ * campos se escriben directamente en el {@link JsonWriter}, con el mismo
+ * formato y orden de {@link UserTypeAdapter}.
+ */
+public final class UserProjection {
+
+	/**
+	 * Cantidad máxima de valores del parámetro que se guardan, los demás se
+	 * interpretan en cada petición.
+	 */
+	private static final int MAX_CACHED = 256;
+
+	/**
+	 * Proyección compilada de cada combinación de campos, indexada por su
+	 * máscara.
+	 */
+	private static final UserProjection[] COMPILED = new UserProjection[1 << Field
+			.values().length];
+
+	static {
+		for (int mask = 1; mask < COMPILED.length; mask++) {
+			COMPILED[mask] = new UserProjection(mask);
+		}
+	}
+
+	/**
+	 * Proyección con todos los campos.
+	 */
+	public static final UserProjection ALL = COMPILED[COMPILED.length - 1];
+
+	/**
+	 * Proyección de cada valor del parámetro ya interpretado.
+	 */
+	private static final ConcurrentHashMap<String, UserProjection> CACHE = new ConcurrentHashMap<>();
+
+	/**
+	 * Campos que se escriben, en orden.
+	 */
+	private final Field[] fields;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param mask
+	 *            campos seleccionados, un bit por campo
+	 */
+	private UserProjection(int mask) {
+		List<Field> selected = new ArrayList<>();
+		for (Field field : Field.values()) {
+			if ((mask & field.bit()) != 0) {
+				selected.add(field);
+			}
+		}
+		this.fields = selected.toArray(new Field[selected.size()]);
+	}
+
+	/**
+	 *
+	 * Retorna la proyección de los campos indicados.
+	 *
+	 * @param fields
+	 *            nombres de los campos separados por coma
+	 * @return proyección de los campos, null si algún campo no existe o no se
+	 *         indicó ninguno
+	 */
+	public static UserProjection compile(String fields) {
+		UserProjection projection = CACHE.get(fields);
+		if (projection != null) {
+			return projection;
+		}
+
+		int mask = 0;
+		for (String name : fields.split(",", -1)) {
+			Field field = Field.named(name.trim());
+			if (field == null) {
+				return null;
+			}
+			mask |= field.bit();
+		}
+		projection = COMPILED[mask];
+		/* Se acota para que valores arbitrarios no agoten la memoria */
+		if (CACHE.size() < MAX_CACHED) {
+			CACHE.putIfAbsent(fields, projection);
+		}
+		return projection;
+	}
+
+	/**
+	 *
+	 * Indica si la proyección contiene todos los campos.
+	 *
+	 * @return true si el usuario se escribe completo
+	 */
+	public boolean isAll() {
+		return this == ALL;
+	}
+
+	/**
+	 *
+	 * Escribe los campos seleccionados del usuario como un objeto json, los
+	 * valores vacios se omiten igual que en {@link UserTypeAdapter}.
+	 *
+	 * @param out
+	 *            escritor json
+	 * @param user
+	 *            usuario a escribir
+	 * @throws IOException
+	 *             Si no es posible escribir el usuario
+	 */
+	public void write(JsonWriter out, User user) throws IOException {
+		if (user == null) {
+			out.nullValue();
+			return;
+		}
+
+		out.beginObject();
+		for (Field field : fields) {
+			field.write(out, user);
+		}
+		out.endObject();
+	}
+
+	/**
+	 *
+	 * Campos de la representación json de un usuario.
+	 */
+	private enum Field {
+
+		/**
+		 * Identificador del usuario.
+		 */
+		ID(UserTypeAdapter.ID) {
+			@Override
+			void write(JsonWriter out, User user) throws IOException {
+				if (user.getId() != User.NO_ID) {
+					out.name(UserTypeAdapter.ID).value(user.getId());
+				}
+			}
+		},
+
+		/**
+		 * Nombre del usuario.
+		 */
+		NAME(UserTypeAdapter.NAME) {
+			@Override
+			void write(JsonWriter out, User user) throws IOException {
+				writeString(out, UserTypeAdapter.NAME, user.getName());
+			}
+		},
+
+		/**
+		 * Apellido del usuario.
+		 */
+		LAST_NAME(UserTypeAdapter.LAST_NAME) {
+			@Override
+			void write(JsonWriter out, User user) throws IOException {
+				writeString(out, UserTypeAdapter.LAST_NAME, user.getLastName());
+			}
+		},
+
+		/**
+		 * Documento del usuario.
+		 */
+		DOCUMENT(UserTypeAdapter.DOCUMENT) {
+			@Override
+			void write(JsonWriter out, User user) throws IOException {
+				writeString(out, UserTypeAdapter.DOCUMENT, user.getDocument());
+			}
+		};
+
+		/**
+		 * Nombre del campo en json.
+		 */
+		private final String json;
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param json
+		 *            nombre del campo en json
+		 */
+		Field(String json) {
+			this.json = json;
+		}
+
+		/**
+		 *
+		 * Retorna el bit del campo en la máscara de una proyección.
+		 *
+		 * @return bit del campo
+		 */
+		int bit() {
+			return 1 << ordinal();
+		}
+
+		/**
+		 *
+		 * Escribe el campo del usuario.
+		 *
+		 * @param out
+		 *            escritor json
+		 * @param user
+		 *            usuario a escribir
+		 * @throws IOException
+		 *             Si no es posible escribir el campo
+		 */
+		abstract void write(JsonWriter out, User user) throws IOException;
+
+		/**
+		 *
+		 * Busca un campo por su nombre en json.
+		 *
+		 * @param name
+		 *            nombre del campo
+		 * @return el campo, null si no existe
+		 */
+		static Field named(String name) {
+			for (Field field : values()) {
+				if (field.json.equals(name)) {
+					return field;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 *
+		 * Escribe un campo de texto si tiene valor.
+		 *
+		 * @param out
+		 *            escritor json
+		 * @param name
+		 *            nombre del campo
+		 * @param value
+		 *            valor del campo
+		 * @throws IOException
+		 *             Si no es posible escribir el campo
+		 */
+		private static void writeString(JsonWriter out, String name,
+				String value) throws IOException {
+			if (value != null) {
+				out.name(name).value(value);
+			}
+		}
+
+	}
+
+}
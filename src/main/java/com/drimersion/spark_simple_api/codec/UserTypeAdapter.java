@@ -0,0 +1,139 @@
+package com.drimersion.spark_simple_api.codec;
+
+import java.io.IOException;
+
+import com.drimersion.spark_simple_api.model.User;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ *
+ * Codificador json de {@link User} escrito a mano, lee y escribe los campos en
+ * una sola pasada sobre el flujo sin usar la reflexión de Gson.
+ */
+public class UserTypeAdapter extends TypeAdapter<User> {
+
+	/**
+	 * Nombre del campo del identificador.
+	 */
+	public static final String ID = "id";
+
+	/**
+	 * Nombre del campo del nombre.
+	 */
+	public static final String NAME = "name";
+
+	/**
+	 * Nombre del campo del apellido.
+	 */
+	public static final String LAST_NAME = "lastName";
+
+	/**
+	 * Nombre del campo del documento.
+	 */
+	public static final String DOCUMENT = "document";
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.google.gson.TypeAdapter#write(com.google.gson.stream.JsonWriter,
+	 * java.lang.Object)
+	 */
+	@Override
+	public void write(JsonWriter out, User user) throws IOException {
+		if (user == null) {
+			out.nullValue();
+			return;
+		}
+
+		out.beginObject();
+		if (user.getId() != User.NO_ID) {
+			out.name(ID).value(user.getId());
+		}
+		writeString(out, NAME, user.getName());
+		writeString(out, LAST_NAME, user.getLastName());
+		writeString(out, DOCUMENT, user.getDocument());
+		out.endObject();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.google.gson.TypeAdapter#read(com.google.gson.stream.JsonReader)
+	 */
+	@Override
+	public User read(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+
+		User user = new User();
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+			case ID:
+				user.setId(in.nextInt());
+				break;
+			case NAME:
+				user.setName(readString(in));
+				break;
+			case LAST_NAME:
+				user.setLastName(readString(in));
+				break;
+			case DOCUMENT:
+				user.setDocument(readString(in));
+				break;
+			default:
+				/* Los campos desconocidos se ignoran. */
+				in.skipValue();
+			}
+		}
+		in.endObject();
+		return user;
+	}
+
+	/**
+	 *
+	 * Escribe un campo de texto, los valores null se omiten igual que en la
+	 * configuración por defecto de Gson.
+	 *
+	 * @param out
+	 *            escritor json
+	 * @param name
+	 *            nombre del campo
+	 * @param value
+	 *            valor del campo
+	 * @throws IOException
+	 *             Si no es posible escribir el campo
+	 */
+	private static void writeString(JsonWriter out, String name, String value)
+			throws IOException {
+		if (value != null) {
+			out.name(name).value(value);
+		}
+	}
+
+	/**
+	 *
+	 * Lee un valor de texto que puede ser null.
+	 *
+	 * @param in
+	 *            lector json
+	 * @return el valor leído
+	 * @throws IOException
+	 *             Si no es posible leer el valor
+	 */
+	private static String readString(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return in.nextString();
+	}
+
+}
@@ -0,0 +1,163 @@
+package com.drimersion.spark_simple_api.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Histograma de latencias con cubetas log-lineales al estilo HDR: cada
+ * potencia de dos se divide en 16 sub-cubetas, por lo que el error relativo
+ * de los percentiles es menor al 6.25%. Los contadores son {@link LongAdder},
+ * que se distribuyen entre celdas cuando hay contención, así que registrar un
+ * valor no usa bloqueos.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Bits de precisión de cada potencia de dos.
+	 */
+	private static final int SUB_BITS = 4;
+
+	/**
+	 * Cantidad de sub-cubetas por potencia de dos.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/**
+	 * Mayor exponente representable, cerca de 18 minutos en nanosegundos.
+	 */
+	private static final int MAX_EXPONENT = 40;
+
+	/**
+	 * Cantidad total de cubetas.
+	 */
+	private static final int BUCKETS = SUB_BUCKETS
+			+ (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+	/**
+	 * Contadores de cada cubeta.
+	 */
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+	/**
+	 * Cantidad de valores registrados.
+	 */
+	private final LongAdder count = new LongAdder();
+
+	/**
+	 * Suma de los valores registrados.
+	 */
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * Constructor sin parámetros.
+	 */
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 *
+	 * Registra una latencia.
+	 *
+	 * @param nanos
+	 *            latencia en nanosegundos
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts[indexOf(value)].increment();
+		count.increment();
+		sum.add(value);
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de valores registrados.
+	 *
+	 * @return cantidad de valores
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 *
+	 * Retorna la suma de los valores registrados.
+	 *
+	 * @return suma en nanosegundos
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 *
+	 * Calcula varios percentiles con una sola lectura de los contadores.
+	 *
+	 * @param quantiles
+	 *            percentiles a calcular en orden ascendente, entre 0 y 1
+	 * @return límite superior de la cubeta de cada percentil en nanosegundos
+	 */
+	public long[] quantiles(double... quantiles) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts[i].sum();
+			total += snapshot[i];
+		}
+
+		long[] values = new long[quantiles.length];
+		int bucket = 0;
+		long seen = 0;
+		for (int q = 0; q < quantiles.length; q++) {
+			long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+			while (bucket < BUCKETS - 1 && seen + snapshot[bucket] < rank) {
+				seen += snapshot[bucket];
+				bucket++;
+			}
+			values[q] = total == 0 ? 0 : upperBound(bucket);
+		}
+		return values;
+	}
+
+	/**
+	 *
+	 * Calcula la cubeta de un valor.
+	 *
+	 * @param value
+	 *            valor no negativo
+	 * @return índice de la cubeta
+	 */
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int shift = exponent - SUB_BITS;
+		int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 *
+	 * Calcula el mayor valor que pertenece a una cubeta.
+	 *
+	 * @param index
+	 *            índice de la cubeta
+	 * @return límite superior de la cubeta
+	 */
+	static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		long lower = (long) (SUB_BUCKETS + sub) << shift;
+		return lower + (1L << shift) - 1;
+	}
+
+}
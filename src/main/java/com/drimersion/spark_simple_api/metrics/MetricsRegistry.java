@@ -0,0 +1,400 @@
+package com.drimersion.spark_simple_api.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.servlet.http.HttpServletRequest;
+
+import spark.Filter;
+import spark.Route;
+
+/**
+ *
+ * Registro de métricas de la aplicación. Envuelve las rutas para contar las
+ * peticiones por código de estado y registrar su latencia, y genera el
+ * reporte en el formato de texto de Prometheus junto con las métricas de la
+ * JVM y los indicadores y contadores registrados por la aplicación. Las
+ * peticiones que no llegan a una ruta medida, como las rechazadas por un
+ * filtro, se registran con el filtro {@link #untimed(String)}.
+ */
+public class MetricsRegistry {
+
+	/**
+	 * Tipo de contenido del formato de texto de Prometheus.
+	 */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * Percentiles reportados para la latencia de cada ruta.
+	 */
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	/**
+	 * Cantidad de códigos de estado http representables.
+	 */
+	private static final int STATUS_CODES = 600;
+
+	/**
+	 * Atributo de la petición que indica que una ruta medida ya la registró.
+	 */
+	private static final String TIMED_ATTRIBUTE = MetricsRegistry.class
+			.getName() + ".timed";
+
+	/**
+	 * Métricas de cada ruta en orden de registro.
+	 */
+	private final List<RouteMetrics> routes = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Indicadores y contadores registrados por la aplicación.
+	 */
+	private final List<Sampled> sampled = new CopyOnWriteArrayList<>();
+
+	/**
+	 *
+	 * Envuelve una ruta para registrar su latencia y el código de estado de
+	 * cada respuesta. Si la ruta lanza una excepción se registra como 500.
+	 *
+	 * @param method
+	 *            método http de la ruta
+	 * @param path
+	 *            patrón de la ruta
+	 * @param route
+	 *            ruta a medir
+	 * @return ruta que registra sus métricas
+	 */
+	public Route timed(String method, String path, Route route) {
+		RouteMetrics metrics = new RouteMetrics(method, path);
+		routes.add(metrics);
+		return (request, response) -> {
+			request.raw().setAttribute(TIMED_ATTRIBUTE, Boolean.TRUE);
+			long start = System.nanoTime();
+			boolean failed = true;
+			try {
+				Object body = route.handle(request, response);
+				failed = false;
+				return body;
+			} finally {
+				metrics.record(failed ? 500 : response.raw().getStatus(),
+						System.nanoTime() - start);
+			}
+		};
+	}
+
+	/**
+	 *
+	 * Crea el filtro que registra las peticiones que no llegaron a una ruta
+	 * medida, como las detenidas por otro filtro o las que no tienen ruta,
+	 * con el método y la ruta "*". Debe registrarse con
+	 * {@link spark.Spark#afterAfter(Filter)}, que se ejecuta también para las
+	 * peticiones detenidas.
+	 *
+	 * @param startAttribute
+	 *            atributo de la petición con el instante de inicio en
+	 *            nanosegundos
+	 * @return filtro que registra las peticiones no medidas
+	 */
+	public Filter untimed(String startAttribute) {
+		RouteMetrics metrics = new RouteMetrics("*", "*");
+		routes.add(metrics);
+		return (request, response) -> {
+			HttpServletRequest raw = request.raw();
+			if (raw.getAttribute(TIMED_ATTRIBUTE) == null) {
+				Object start = raw.getAttribute(startAttribute);
+				metrics.record(response.raw().getStatus(), start == null ? 0
+						: System.nanoTime() - (Long) start);
+			}
+		};
+	}
+
+	/**
+	 *
+	 * Registra un indicador cuyo valor se lee al generar el reporte.
+	 *
+	 * @param name
+	 *            nombre de la métrica
+	 * @param help
+	 *            descripción de la métrica
+	 * @param supplier
+	 *            función que retorna el valor actual
+	 */
+	public void gauge(String name, String help, LongSupplier supplier) {
+		sampled.add(new Sampled(name, help, "gauge", supplier));
+	}
+
+	/**
+	 *
+	 * Registra un contador cuyo valor se lee al generar el reporte. El valor
+	 * solo debe aumentar mientras el proceso está vivo.
+	 *
+	 * @param name
+	 *            nombre de la métrica, terminado en _total
+	 * @param help
+	 *            descripción de la métrica
+	 * @param supplier
+	 *            función que retorna el valor actual
+	 */
+	public void counter(String name, String help, LongSupplier supplier) {
+		sampled.add(new Sampled(name, help, "counter", supplier));
+	}
+
+	/**
+	 *
+	 * Genera el reporte de todas las métricas en el formato de texto de
+	 * Prometheus.
+	 *
+	 * @return reporte de métricas
+	 */
+	public String scrape() {
+		StringBuilder out = new StringBuilder(4096);
+
+		header(out, "http_requests_total",
+				"Peticiones atendidas por ruta y código de estado.", "counter");
+		for (RouteMetrics route : routes) {
+			for (int status = 0; status < STATUS_CODES; status++) {
+				LongAdder counter = route.statuses.get(status);
+				if (counter != null) {
+					out.append("http_requests_total{");
+					route.labels(out);
+					out.append(",status=\"").append(status).append("\"} ")
+							.append(counter.sum()).append('\n');
+				}
+			}
+		}
+
+		header(out, "http_request_duration_seconds",
+				"Latencia de las peticiones por ruta.", "summary");
+		for (RouteMetrics route : routes) {
+			long[] values = route.latency.quantiles(QUANTILES);
+			for (int i = 0; i < QUANTILES.length; i++) {
+				out.append("http_request_duration_seconds{");
+				route.labels(out);
+				out.append(",quantile=\"").append(QUANTILES[i]).append("\"} ")
+						.append(seconds(values[i])).append('\n');
+			}
+			out.append("http_request_duration_seconds_sum{");
+			route.labels(out);
+			out.append("} ").append(seconds(route.latency.getSum()))
+					.append('\n');
+			out.append("http_request_duration_seconds_count{");
+			route.labels(out);
+			out.append("} ").append(route.latency.getCount()).append('\n');
+		}
+
+		for (Sampled metric : sampled) {
+			header(out, metric.name, metric.help, metric.type);
+			out.append(metric.name).append(' ')
+					.append(metric.supplier.getAsLong()).append('\n');
+		}
+
+		writeJvm(out);
+		return out.toString();
+	}
+
+	/**
+	 *
+	 * Escribe las métricas de memoria, recolección de basura e hilos de la
+	 * JVM.
+	 *
+	 * @param out
+	 *            reporte en construcción
+	 */
+	private static void writeJvm(StringBuilder out) {
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean()
+				.getHeapMemoryUsage();
+		header(out, "jvm_memory_heap_used_bytes", "Memoria heap en uso.",
+				"gauge");
+		out.append("jvm_memory_heap_used_bytes ").append(heap.getUsed())
+				.append('\n');
+		header(out, "jvm_memory_heap_committed_bytes",
+				"Memoria heap reservada.", "gauge");
+		out.append("jvm_memory_heap_committed_bytes ")
+				.append(heap.getCommitted()).append('\n');
+		header(out, "jvm_memory_heap_max_bytes", "Memoria heap máxima.",
+				"gauge");
+		out.append("jvm_memory_heap_max_bytes ").append(heap.getMax())
+				.append('\n');
+
+		List<GarbageCollectorMXBean> collectors = ManagementFactory
+				.getGarbageCollectorMXBeans();
+		header(out, "jvm_gc_collections_total",
+				"Recolecciones de basura por recolector.", "counter");
+		for (GarbageCollectorMXBean collector : collectors) {
+			out.append("jvm_gc_collections_total{gc=\"")
+					.append(collector.getName()).append("\"} ")
+					.append(collector.getCollectionCount()).append('\n');
+		}
+		header(out, "jvm_gc_collection_seconds_total",
+				"Tiempo de recolección de basura por recolector.", "counter");
+		for (GarbageCollectorMXBean collector : collectors) {
+			out.append("jvm_gc_collection_seconds_total{gc=\"")
+					.append(collector.getName()).append("\"} ")
+					.append(collector.getCollectionTime() / 1000.0)
+					.append('\n');
+		}
+
+		header(out, "jvm_threads_live", "Hilos vivos de la JVM.", "gauge");
+		out.append("jvm_threads_live ")
+				.append(ManagementFactory.getThreadMXBean().getThreadCount())
+				.append('\n');
+	}
+
+	/**
+	 *
+	 * Escribe las líneas de ayuda y tipo de una métrica.
+	 *
+	 * @param out
+	 *            reporte en construcción
+	 * @param name
+	 *            nombre de la métrica
+	 * @param help
+	 *            descripción de la métrica
+	 * @param type
+	 *            tipo de la métrica
+	 */
+	private static void header(StringBuilder out, String name, String help,
+			String type) {
+		out.append("# HELP ").append(name).append(' ').append(help)
+				.append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type)
+				.append('\n');
+	}
+
+	/**
+	 *
+	 * Convierte nanosegundos a segundos.
+	 *
+	 * @param nanos
+	 *            valor en nanosegundos
+	 * @return valor en segundos
+	 */
+	private static double seconds(long nanos) {
+		return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/**
+	 *
+	 * Métricas de una ruta.
+	 */
+	private static final class RouteMetrics {
+
+		/**
+		 * Método http de la ruta.
+		 */
+		final String method;
+
+		/**
+		 * Patrón de la ruta.
+		 */
+		final String path;
+
+		/**
+		 * Latencia de la ruta.
+		 */
+		final LatencyHistogram latency = new LatencyHistogram();
+
+		/**
+		 * Contadores por código de estado, se crean con la primera respuesta
+		 * de cada código.
+		 */
+		final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(
+				STATUS_CODES);
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param method
+		 * @param path
+		 */
+		RouteMetrics(String method, String path) {
+			this.method = method;
+			this.path = path;
+		}
+
+		/**
+		 *
+		 * Registra una respuesta de la ruta.
+		 *
+		 * @param status
+		 *            código de estado de la respuesta
+		 * @param nanos
+		 *            latencia en nanosegundos
+		 */
+		void record(int status, long nanos) {
+			latency.record(nanos);
+			int index = status >= 0 && status < STATUS_CODES ? status : 0;
+			LongAdder counter = statuses.get(index);
+			if (counter == null) {
+				statuses.compareAndSet(index, null, new LongAdder());
+				counter = statuses.get(index);
+			}
+			counter.increment();
+		}
+
+		/**
+		 *
+		 * Escribe las etiquetas de la ruta.
+		 *
+		 * @param out
+		 *            reporte en construcción
+		 */
+		void labels(StringBuilder out) {
+			out.append("method=\"").append(method).append("\",route=\"")
+					.append(path).append('"');
+		}
+
+	}
+
+	/**
+	 *
+	 * Indicador o contador registrado por la aplicación.
+	 */
+	private static final class Sampled {
+
+		/**
+		 * Nombre de la métrica.
+		 */
+		final String name;
+
+		/**
+		 * Descripción de la métrica.
+		 */
+		final String help;
+
+		/**
+		 * Tipo de la métrica, gauge o counter.
+		 */
+		final String type;
+
+		/**
+		 * Función que retorna el valor actual.
+		 */
+		final LongSupplier supplier;
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param name
+		 * @param help
+		 * @param type
+		 * @param supplier
+		 */
+		Sampled(String name, String help, String type, LongSupplier supplier) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.supplier = supplier;
+		}
+
+	}
+
+}
@@ -15,6 +15,22 @@ public class User implements Serializable {
 	 */
 	private static final long serialVersionUID = -5995361080484501616L;
 
+	/**
+	 * Valor del identificador de un usuario que aún no lo tiene asignado.
+	 */
+	public static final int NO_ID = -1;
+
+	/**
+	 * Identificador del usuario.
+	 */
+	private int id = NO_ID;
+
+	/**
+	 * Versión del usuario, la asigna el repositorio en cada escritura y no
+	 * hace parte de la representación json.
+	 */
+	private transient long version;
+
 	/**
 	 * Nombre del usuario.
 	 */
@@ -51,6 +67,63 @@ public class User implements Serializable {
 		this.document = document;
 	}
 
+	/**
+	 * 
+	 * Constructor usando los campos y el identificador.
+	 * 
+	 * @param id
+	 * @param name
+	 * @param lastName
+	 * @param document
+	 */
+	public User(int id, String name, String lastName, String document) {
+		this(name, lastName, document);
+		this.id = id;
+	}
+
+	/**
+	 *
+	 * Retorna el valor de la variable de instancia id
+	 *
+	 * @return valor para id
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 *
+	 * Asigna el valor que llega por parámetro a la variable de instancia id
+	 *
+	 * @param id
+	 *            para asignar a id
+	 */
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	/**
+	 *
+	 * Retorna el valor de la variable de instancia version
+	 *
+	 * @return valor para version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 *
+	 * Asigna el valor que llega por parámetro a la variable de instancia
+	 * version
+	 *
+	 * @param version
+	 *            para asignar a version
+	 */
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
 	/**
 	 *
 	 * Retorna el valor de la variable de instancia name
@@ -0,0 +1,638 @@
+package com.drimersion.spark_simple_api.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
+
+import com.drimersion.spark_simple_api.codec.UserBinaryCodec;
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.repository.InMemoryUserRepository;
+import com.drimersion.spark_simple_api.repository.UserRepository;
+
+/**
+ *
+ * Snapshot binario compactado de los usuarios. Los usuarios se codifican con
+ * {@link UserBinaryCodec} y se agrupan en bloques independientes de
+ * alrededor de 1 MiB, cada uno precedido por su cantidad de usuarios y su
+ * longitud. Al final del archivo se escribe un índice con la posición de
+ * cada bloque, la cantidad de bloques y la cantidad total de usuarios, de
+ * modo que al cargar se conoce el tamaño del repositorio antes de leerlo y
+ * cada bloque se mapea en memoria y se decodifica en paralelo.
+ *
+ * El snapshot se escribe en un archivo temporal que se renombra al terminar,
+ * por lo que nunca se reemplaza un snapshot válido por uno parcial. Los
+ * snapshots de la versión 1, con los usuarios en secuencia, se siguen
+ * leyendo de forma secuencial.
+ */
+public class UserSnapshot {
+
+	/**
+	 * Identificador del formato, "USNP" en ASCII.
+	 */
+	private static final int MAGIC = 0x55534E50;
+
+	/**
+	 * Versión con los usuarios en secuencia.
+	 */
+	private static final int VERSION_1 = 1;
+
+	/**
+	 * Versión con bloques e índice.
+	 */
+	private static final int VERSION = 2;
+
+	/**
+	 * Tamaño del encabezado, identificador y versión.
+	 */
+	private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+	/**
+	 * Tamaño del encabezado de cada bloque, cantidad y longitud.
+	 */
+	private static final int CHUNK_HEADER_BYTES = 2 * Integer.BYTES;
+
+	/**
+	 * Tamaño del cierre, cantidad de bloques, cantidad de usuarios e
+	 * identificador.
+	 */
+	private static final int FOOTER_BYTES = Integer.BYTES + Long.BYTES
+			+ Integer.BYTES;
+
+	/**
+	 * Tamaño aproximado de cada bloque.
+	 */
+	private static final int CHUNK_BYTES = 1024 * 1024;
+
+	/**
+	 * Longitud que marca el final de los usuarios en la versión 1.
+	 */
+	private static final int END = -1;
+
+	/**
+	 *
+	 * Escribe todos los usuarios del repositorio en un snapshot.
+	 *
+	 * @param file
+	 *            archivo del snapshot
+	 * @param users
+	 *            usuarios a escribir
+	 * @throws IOException
+	 *             Si no es posible escribir el snapshot
+	 */
+	public static void write(Path file, UserRepository users)
+			throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(temporary,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ChunkWriter writer = new ChunkWriter(out);
+			try {
+				users.forEach((user, id) -> writer.add(UserBinaryCodec.encode(
+						id, user)));
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			writer.finish();
+			out.force(true);
+		}
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 *
+	 * Carga un snapshot en un nuevo repositorio en memoria, dimensionado para
+	 * la cantidad de usuarios del snapshot.
+	 *
+	 * @param file
+	 *            archivo del snapshot
+	 * @return repositorio con los usuarios del snapshot
+	 * @throws IOException
+	 *             Si el snapshot no existe, está incompleto o no es válido
+	 */
+	public static InMemoryUserRepository load(Path file) throws IOException {
+		return load(file, true);
+	}
+
+	/**
+	 *
+	 * Carga un snapshot en un nuevo repositorio en memoria. Los usuarios se
+	 * cargan sin mantener los índices secundarios, que se construyen una sola
+	 * vez al terminar si se solicitan.
+	 *
+	 * @param file
+	 *            archivo del snapshot
+	 * @param indexed
+	 *            si se construyen los índices secundarios, en caso contrario
+	 *            se debe invocar {@link InMemoryUserRepository#buildIndexes()}
+	 * @return repositorio con los usuarios del snapshot
+	 * @throws IOException
+	 *             Si el snapshot no existe, está incompleto o no es válido
+	 */
+	public static InMemoryUserRepository load(Path file, boolean indexed)
+			throws IOException {
+		return load(file, indexed, id -> true);
+	}
+
+	/**
+	 *
+	 * Carga los usuarios de un snapshot que cumplen un filtro, por ejemplo
+	 * los que le corresponden a un nodo del cluster.
+	 *
+	 * @param file
+	 *            archivo del snapshot
+	 * @param indexed
+	 *            si se construyen los índices secundarios, en caso contrario
+	 *            se debe invocar {@link InMemoryUserRepository#buildIndexes()}
+	 * @param filter
+	 *            identificadores de los usuarios que se cargan
+	 * @return repositorio con los usuarios del snapshot que cumplen el filtro
+	 * @throws IOException
+	 *             Si el snapshot no existe, está incompleto o no es válido
+	 */
+	public static InMemoryUserRepository load(Path file, boolean indexed,
+			IntPredicate filter) throws IOException {
+		return load(file, indexed, filter, 0);
+	}
+
+	/**
+	 *
+	 * Carga los usuarios de un snapshot que cumplen un filtro en un
+	 * repositorio con una versión mínima.
+	 *
+	 * @param file
+	 *            archivo del snapshot
+	 * @param indexed
+	 *            si se construyen los índices secundarios, en caso contrario
+	 *            se debe invocar {@link InMemoryUserRepository#buildIndexes()}
+	 * @param filter
+	 *            identificadores de los usuarios que se cargan
+	 * @param minVersion
+	 *            versión mínima del repositorio, ver
+	 *            {@link InMemoryUserRepository#InMemoryUserRepository(int, long)}
+	 * @return repositorio con los usuarios del snapshot que cumplen el filtro
+	 * @throws IOException
+	 *             Si el snapshot no existe, está incompleto o no es válido
+	 */
+	public static InMemoryUserRepository load(Path file, boolean indexed,
+			IntPredicate filter, long minVersion) throws IOException {
+		try (Reader reader = open(file)) {
+			InMemoryUserRepository users = new InMemoryUserRepository(
+					(int) Math.min(Integer.MAX_VALUE,
+							Math.max(0, reader.size())), minVersion);
+			users.dropIndexes();
+			reader.read((user, id) -> {
+				if (filter.test(id)) {
+					users.createIfAbsent(id, user);
+				}
+			});
+			if (indexed) {
+				users.buildIndexes();
+			}
+			return users;
+		}
+	}
+
+	/**
+	 *
+	 * Abre un snapshot para leerlo.
+	 *
+	 * @param file
+	 *            archivo del snapshot
+	 * @return lector del snapshot
+	 * @throws IOException
+	 *             Si el snapshot no existe o no es válido
+	 */
+	public static Reader open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			readFully(channel, header, 0);
+			int version = header.getInt(Integer.BYTES);
+			if (header.getInt(0) != MAGIC
+					|| (version != VERSION && version != VERSION_1)) {
+				throw new IOException("Formato de snapshot no soportado: "
+						+ file);
+			}
+			return new Reader(file, channel, version);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 *
+	 * Lee desde una posición hasta llenar el buffer.
+	 *
+	 * @param channel
+	 *            canal del archivo
+	 * @param buffer
+	 *            buffer a llenar
+	 * @param position
+	 *            posición inicial en el archivo
+	 * @throws IOException
+	 *             Si el archivo termina antes de llenar el buffer
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			position += read;
+		}
+		buffer.flip();
+	}
+
+	/**
+	 *
+	 * Lector de un snapshot abierto.
+	 */
+	public static final class Reader implements AutoCloseable {
+
+		/**
+		 * Archivo del snapshot, para los mensajes de error.
+		 */
+		private final Path file;
+
+		/**
+		 * Canal del archivo.
+		 */
+		private final FileChannel channel;
+
+		/**
+		 * Versión del formato.
+		 */
+		private final int version;
+
+		/**
+		 * Posición de cada bloque, solo en la versión con índice.
+		 */
+		private final long[] chunks;
+
+		/**
+		 * Cantidad de usuarios, -1 si el formato no la registra.
+		 */
+		private final long size;
+
+		/**
+		 *
+		 * Constructor, lee el índice de los bloques.
+		 *
+		 * @param file
+		 * @param channel
+		 * @param version
+		 * @throws IOException
+		 *             Si el índice no es válido
+		 */
+		private Reader(Path file, FileChannel channel, int version)
+				throws IOException {
+			this.file = file;
+			this.channel = channel;
+			this.version = version;
+			if (version == VERSION_1) {
+				chunks = null;
+				size = -1;
+				return;
+			}
+
+			long length = channel.size();
+			if (length < HEADER_BYTES + FOOTER_BYTES) {
+				throw new IOException("Snapshot incompleto: " + file);
+			}
+			ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+			readFully(channel, footer, length - FOOTER_BYTES);
+			int count = footer.getInt();
+			size = footer.getLong();
+			if (footer.getInt() != MAGIC || count < 0
+					|| (long) count * Long.BYTES > length - HEADER_BYTES
+							- FOOTER_BYTES) {
+				throw new IOException("Snapshot incompleto: " + file);
+			}
+
+			ByteBuffer index = ByteBuffer.allocate(count * Long.BYTES);
+			readFully(channel, index, length - FOOTER_BYTES - index.capacity());
+			chunks = new long[count];
+			for (int i = 0; i < count; i++) {
+				chunks[i] = index.getLong();
+			}
+		}
+
+		/**
+		 *
+		 * Retorna la cantidad de usuarios del snapshot.
+		 *
+		 * @return cantidad de usuarios, o -1 si el formato no la registra
+		 */
+		public long size() {
+			return size;
+		}
+
+		/**
+		 *
+		 * Lee todos los usuarios del snapshot. Los bloques se decodifican en
+		 * paralelo, por lo que la acción puede ser invocada desde varios
+		 * hilos al mismo tiempo y debe ser segura para ello.
+		 *
+		 * @param action
+		 *            acción que recibe cada usuario y su identificador
+		 * @return cantidad de usuarios leídos
+		 * @throws IOException
+		 *             Si el snapshot está incompleto o no es válido
+		 */
+		public long read(ObjIntConsumer<User> action) throws IOException {
+			if (version == VERSION_1) {
+				return readSequential(action);
+			}
+
+			AtomicLong read = new AtomicLong();
+			try {
+				IntStream.range(0, chunks.length).parallel().forEach(i -> {
+					try {
+						read.addAndGet(readChunk(chunks[i], action));
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+
+			if (read.get() != size) {
+				throw new IOException("Snapshot incompleto: " + file);
+			}
+			return size;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.AutoCloseable#close()
+		 */
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+		/**
+		 *
+		 * Mapea un bloque en memoria y decodifica sus usuarios.
+		 *
+		 * @param position
+		 *            posición del bloque en el archivo
+		 * @param action
+		 *            acción que recibe cada usuario
+		 * @return cantidad de usuarios del bloque
+		 * @throws IOException
+		 *             Si el bloque no es válido
+		 */
+		private int readChunk(long position, ObjIntConsumer<User> action)
+				throws IOException {
+			ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+			readFully(channel, header, position);
+			int count = header.getInt();
+			int length = header.getInt();
+			if (count < 0 || length < 0
+					|| position + CHUNK_HEADER_BYTES + length > channel.size()) {
+				throw new IOException("Snapshot corrupto: " + file);
+			}
+
+			/*
+			 * Se copia el bloque mapeado a un arreglo para decodificar los
+			 * textos directamente desde él.
+			 */
+			MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, position
+					+ CHUNK_HEADER_BYTES, length);
+			byte[] bytes = new byte[length];
+			mapped.get(bytes);
+			ByteBuffer chunk = ByteBuffer.wrap(bytes);
+
+			try {
+				for (int i = 0; i < count; i++) {
+					User user = UserBinaryCodec.decode(chunk);
+					action.accept(user, user.getId());
+				}
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Snapshot corrupto: " + file, e);
+			}
+			if (chunk.hasRemaining()) {
+				throw new IOException("Snapshot corrupto: " + file);
+			}
+			return count;
+		}
+
+		/**
+		 *
+		 * Lee en secuencia los usuarios de un snapshot de la versión 1.
+		 *
+		 * @param action
+		 *            acción que recibe cada usuario
+		 * @return cantidad de usuarios leídos
+		 * @throws IOException
+		 *             Si el snapshot está incompleto o no es válido
+		 */
+		private int readSequential(ObjIntConsumer<User> action)
+				throws IOException {
+			try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(Files.newInputStream(file),
+							CHUNK_BYTES))) {
+				in.skipBytes(HEADER_BYTES);
+
+				int count = 0;
+				byte[] encoded = new byte[256];
+				for (int length = in.readInt(); length != END; length = in
+						.readInt()) {
+					if (length < 0) {
+						throw new IOException("Snapshot corrupto: " + file);
+					}
+					if (length > encoded.length) {
+						encoded = new byte[Math.max(length, encoded.length * 2)];
+					}
+					in.readFully(encoded, 0, length);
+					User user;
+					try {
+						user = UserBinaryCodec.decode(ByteBuffer.wrap(encoded,
+								0, length));
+					} catch (IllegalArgumentException e) {
+						throw new IOException("Snapshot corrupto: " + file, e);
+					}
+					action.accept(user, user.getId());
+					count++;
+				}
+
+				if (in.readInt() != count) {
+					throw new IOException("Snapshot incompleto: " + file);
+				}
+				return count;
+			} catch (EOFException e) {
+				throw new IOException("Snapshot incompleto: " + file, e);
+			}
+		}
+
+	}
+
+	/**
+	 *
+	 * Escritor de los bloques y el índice de un snapshot.
+	 */
+	private static final class ChunkWriter {
+
+		/**
+		 * Canal de salida.
+		 */
+		private final FileChannel out;
+
+		/**
+		 * Encabezado del bloque actual.
+		 */
+		private final ByteBuffer header = ByteBuffer
+				.allocate(CHUNK_HEADER_BYTES);
+
+		/**
+		 * Contenido del bloque actual.
+		 */
+		private ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+
+		/**
+		 * Posición de cada bloque escrito.
+		 */
+		private long[] positions = new long[16];
+
+		/**
+		 * Cantidad de bloques escritos.
+		 */
+		private int chunks;
+
+		/**
+		 * Cantidad de usuarios del bloque actual.
+		 */
+		private int chunkUsers;
+
+		/**
+		 * Cantidad total de usuarios.
+		 */
+		private long users;
+
+		/**
+		 * Posición actual en el archivo.
+		 */
+		private long position;
+
+		/**
+		 *
+		 * Constructor, escribe el encabezado del snapshot.
+		 *
+		 * @param out
+		 *            canal de salida
+		 * @throws IOException
+		 *             Si no es posible escribir el encabezado
+		 */
+		ChunkWriter(FileChannel out) throws IOException {
+			this.out = out;
+			ByteBuffer start = ByteBuffer.allocate(HEADER_BYTES);
+			start.putInt(MAGIC).putInt(VERSION).flip();
+			write(start);
+		}
+
+		/**
+		 *
+		 * Agrega un usuario codificado al bloque actual.
+		 *
+		 * @param encoded
+		 *            usuario codificado
+		 */
+		void add(byte[] encoded) {
+			try {
+				if (chunk.remaining() < encoded.length) {
+					flushChunk();
+					if (chunk.capacity() < encoded.length) {
+						/* Usuario más grande que un bloque */
+						chunk = ByteBuffer.allocate(encoded.length);
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			chunk.put(encoded);
+			chunkUsers++;
+			users++;
+		}
+
+		/**
+		 *
+		 * Escribe el último bloque, el índice y el cierre.
+		 *
+		 * @throws IOException
+		 *             Si no es posible escribir
+		 */
+		void finish() throws IOException {
+			flushChunk();
+			ByteBuffer index = ByteBuffer.allocate(chunks * Long.BYTES
+					+ FOOTER_BYTES);
+			for (int i = 0; i < chunks; i++) {
+				index.putLong(positions[i]);
+			}
+			index.putInt(chunks).putLong(users).putInt(MAGIC).flip();
+			write(index);
+		}
+
+		/**
+		 *
+		 * Escribe el bloque actual si contiene usuarios.
+		 *
+		 * @throws IOException
+		 *             Si no es posible escribir
+		 */
+		private void flushChunk() throws IOException {
+			if (chunkUsers == 0) {
+				return;
+			}
+			if (chunks == positions.length) {
+				long[] grown = new long[chunks * 2];
+				System.arraycopy(positions, 0, grown, 0, chunks);
+				positions = grown;
+			}
+			positions[chunks++] = position;
+
+			chunk.flip();
+			header.clear();
+			header.putInt(chunkUsers).putInt(chunk.remaining()).flip();
+			write(header);
+			write(chunk);
+			chunk.clear();
+			chunkUsers = 0;
+		}
+
+		/**
+		 *
+		 * Escribe todo el contenido del buffer.
+		 *
+		 * @param buffer
+		 *            contenido a escribir
+		 * @throws IOException
+		 *             Si no es posible escribir
+		 */
+		private void write(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				position += out.write(buffer);
+			}
+		}
+
+	}
+
+}
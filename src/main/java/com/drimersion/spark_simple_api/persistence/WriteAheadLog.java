@@ -0,0 +1,529 @@
+package com.drimersion.spark_simple_api.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * Log de escritura de solo adición dividido en segmentos. Los registros se
+ * acumulan en un buffer en memoria y se escriben con commit en grupo: el
+ * primer hilo que espera la durabilidad de su registro escribe y sincroniza
+ * con el disco todo el buffer pendiente, de modo que los hilos que esperaban
+ * al mismo tiempo comparten una sola llamada a
+ * {@link FileChannel#force(boolean)}.
+ *
+ * Cada registro se compone de la longitud del contenido, su CRC32, un byte
+ * con la operación y los datos de la operación. Un registro incompleto o con
+ * CRC inválido al final de un segmento corresponde a una escritura
+ * interrumpida y marca el final del segmento.
+ */
+public class WriteAheadLog implements AutoCloseable {
+
+	/**
+	 * Prefijo de los archivos de segmento.
+	 */
+	private static final String PREFIX = "wal-";
+
+	/**
+	 * Extensión de los archivos de segmento.
+	 */
+	private static final String SUFFIX = ".log";
+
+	/**
+	 * Tamaño del encabezado de cada registro, longitud y CRC32.
+	 */
+	private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+	/**
+	 * Tamaño inicial de los buffers de escritura.
+	 */
+	private static final int BUFFER_BYTES = 64 * 1024;
+
+	/**
+	 *
+	 * Receptor de los registros leídos de un segmento.
+	 */
+	public interface Replay {
+
+		/**
+		 *
+		 * Aplica un registro del log.
+		 *
+		 * @param operation
+		 *            operación del registro
+		 * @param payload
+		 *            datos de la operación, posicionados al inicio
+		 */
+		void apply(byte operation, ByteBuffer payload);
+
+	}
+
+	/**
+	 * Directorio de los segmentos.
+	 */
+	private final Path directory;
+
+	/**
+	 * Transforma el canal de cada segmento abierto, la identidad salvo en
+	 * las pruebas que simulan fallas del disco.
+	 */
+	private final UnaryOperator<FileChannel> channels;
+
+	/**
+	 * Protege el buffer pendiente y la secuencia de registros.
+	 */
+	private final Object appendLock = new Object();
+
+	/**
+	 * Protege el canal del segmento actual, solo un hilo escribe a la vez.
+	 */
+	private final ReentrantLock commitLock = new ReentrantLock();
+
+	/**
+	 * Registros pendientes de escribir.
+	 */
+	private Batch pending = new Batch();
+
+	/**
+	 * Buffer que se intercambia con el pendiente al escribir.
+	 */
+	private Batch spare = new Batch();
+
+	/**
+	 * Secuencia del último registro agregado.
+	 */
+	private long appended;
+
+	/**
+	 * Bytes agregados desde el inicio del segmento actual.
+	 */
+	private long segmentBytes;
+
+	/**
+	 * Secuencia del último registro sincronizado con el disco.
+	 */
+	private volatile long durable;
+
+	/**
+	 * Error de escritura, una vez ocurre el log no acepta más
+	 * sincronizaciones.
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * Número del segmento actual.
+	 */
+	private long segment;
+
+	/**
+	 * Canal del segmento actual.
+	 */
+	private FileChannel channel;
+
+	/**
+	 *
+	 * Constructor, crea un nuevo segmento para escribir.
+	 *
+	 * @param directory
+	 *            directorio de los segmentos
+	 * @param segment
+	 *            número del segmento a crear
+	 * @throws IOException
+	 *             Si no es posible crear el segmento
+	 */
+	public WriteAheadLog(Path directory, long segment) throws IOException {
+		this(directory, segment, UnaryOperator.identity());
+	}
+
+	/**
+	 *
+	 * Constructor con la transformación del canal de cada segmento, para
+	 * simular fallas del disco.
+	 *
+	 * @param directory
+	 *            directorio de los segmentos
+	 * @param segment
+	 *            número del segmento a crear
+	 * @param channels
+	 *            transforma el canal de cada segmento abierto
+	 * @throws IOException
+	 *             Si no es posible crear el segmento
+	 */
+	public WriteAheadLog(Path directory, long segment,
+			UnaryOperator<FileChannel> channels) throws IOException {
+		this.directory = directory;
+		this.segment = segment;
+		this.channels = channels;
+		this.channel = channels.apply(open(directory, segment));
+	}
+
+	/**
+	 *
+	 * Agrega un registro al buffer pendiente sin esperar su escritura.
+	 *
+	 * @param operation
+	 *            operación del registro
+	 * @param payload
+	 *            datos de la operación
+	 * @return secuencia del registro, para esperar su durabilidad con
+	 *         {@link #sync(long)}
+	 */
+	public long append(byte operation, byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(operation);
+		crc.update(payload, 0, payload.length);
+		int checksum = (int) crc.getValue();
+
+		synchronized (appendLock) {
+			pending.putInt(1 + payload.length);
+			pending.putInt(checksum);
+			pending.put(operation);
+			pending.put(payload);
+			segmentBytes += HEADER_BYTES + 1 + payload.length;
+			return ++appended;
+		}
+	}
+
+	/**
+	 *
+	 * Espera a que el registro con la secuencia especificada esté en el
+	 * disco. Si ningún otro hilo está escribiendo, el hilo actual escribe
+	 * todos los registros pendientes.
+	 *
+	 * @param sequence
+	 *            secuencia del registro
+	 * @throws IOException
+	 *             Si no es posible escribir el log
+	 */
+	public void sync(long sequence) throws IOException {
+		if (durable >= sequence) {
+			return;
+		}
+		commitLock.lock();
+		try {
+			/* Otro hilo pudo escribir el registro mientras se esperaba */
+			if (durable < sequence) {
+				flush();
+			}
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * Escribe los registros pendientes en el segmento actual y crea un nuevo
+	 * segmento para los siguientes registros.
+	 *
+	 * @return número del nuevo segmento
+	 * @throws IOException
+	 *             Si no es posible escribir o crear el segmento
+	 */
+	public long roll() throws IOException {
+		commitLock.lock();
+		try {
+			/*
+			 * Los registros agregados después de escribir el buffer quedan
+			 * pendientes y se escriben en el nuevo segmento.
+			 */
+			flush();
+			synchronized (appendLock) {
+				segmentBytes = 0;
+			}
+			channel.close();
+			channel = channels.apply(open(directory, ++segment));
+			return segment;
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * Indica si una escritura del log falló. Desde ese momento ningún
+	 * registro se vuelve durable, por lo que no se deben aceptar escrituras.
+	 *
+	 * @return true si el log falló
+	 */
+	public boolean isFailed() {
+		return failure != null;
+	}
+
+	/**
+	 *
+	 * Retorna los bytes agregados al segmento actual.
+	 *
+	 * @return bytes del segmento actual
+	 */
+	public long getSegmentBytes() {
+		synchronized (appendLock) {
+			return segmentBytes;
+		}
+	}
+
+	/**
+	 *
+	 * Elimina los segmentos anteriores al especificado.
+	 *
+	 * @param first
+	 *            primer segmento que se conserva
+	 * @throws IOException
+	 *             Si no es posible eliminar un segmento
+	 */
+	public void deleteBefore(long first) throws IOException {
+		for (Path file : segments(directory)) {
+			if (segmentNumber(file) < first) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		commitLock.lock();
+		try {
+			if (failure == null) {
+				flush();
+			}
+			channel.close();
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * Escribe y sincroniza con el disco los registros pendientes, se invoca
+	 * con {@link #commitLock} tomado.
+	 *
+	 * @throws IOException
+	 *             Si no es posible escribir el segmento
+	 */
+	private void flush() throws IOException {
+		if (failure != null) {
+			throw new IOException("El log de escritura falló previamente.",
+					failure);
+		}
+
+		Batch batch;
+		long upTo;
+		synchronized (appendLock) {
+			batch = pending;
+			pending = spare;
+			spare = batch;
+			upTo = appended;
+		}
+
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(batch.data, 0, batch.size);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			failure = e;
+			throw e;
+		} finally {
+			batch.size = 0;
+		}
+		durable = upTo;
+	}
+
+	/**
+	 *
+	 * Lee los registros válidos de un segmento mapeándolo en memoria.
+	 *
+	 * @param file
+	 *            segmento a leer
+	 * @param replay
+	 *            receptor de los registros
+	 * @return longitud en bytes de la parte válida del segmento
+	 * @throws IOException
+	 *             Si no es posible leer el segmento
+	 */
+	public static long replay(Path file, Replay replay) throws IOException {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = in.size();
+			if (size == 0) {
+				return 0;
+			}
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Segmento demasiado grande: " + file);
+			}
+			MappedByteBuffer buffer = in.map(MapMode.READ_ONLY, 0, size);
+
+			CRC32 crc = new CRC32();
+			while (buffer.remaining() >= HEADER_BYTES) {
+				int start = buffer.position();
+				int length = buffer.getInt();
+				int checksum = buffer.getInt();
+				if (length < 1 || length > buffer.remaining()) {
+					return start;
+				}
+
+				ByteBuffer record = buffer.slice();
+				record.limit(length);
+				crc.reset();
+				crc.update(record);
+				if ((int) crc.getValue() != checksum) {
+					return start;
+				}
+
+				record.flip();
+				byte operation = record.get();
+				replay.apply(operation, record.slice());
+				buffer.position(start + HEADER_BYTES + length);
+			}
+			return buffer.position();
+		}
+	}
+
+	/**
+	 *
+	 * Retorna los segmentos del directorio en orden.
+	 *
+	 * @param directory
+	 *            directorio de los segmentos
+	 * @return segmentos ordenados por número
+	 * @throws IOException
+	 *             Si no es posible listar el directorio
+	 */
+	public static List<Path> segments(Path directory) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+				PREFIX + "*" + SUFFIX)) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		/* El número se escribe con ceros a la izquierda */
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 *
+	 * Retorna el número de un segmento a partir de su nombre.
+	 *
+	 * @param file
+	 *            archivo del segmento
+	 * @return número del segmento
+	 */
+	public static long segmentNumber(Path file) {
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length()
+				- SUFFIX.length()));
+	}
+
+	/**
+	 *
+	 * Crea el archivo de un segmento.
+	 *
+	 * @param directory
+	 *            directorio de los segmentos
+	 * @param segment
+	 *            número del segmento
+	 * @return canal para escribir el segmento
+	 * @throws IOException
+	 *             Si no es posible crear el segmento
+	 */
+	private static FileChannel open(Path directory, long segment)
+			throws IOException {
+		Path file = directory.resolve(String.format("%s%020d%s", PREFIX,
+				segment, SUFFIX));
+		return FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.WRITE);
+	}
+
+	/**
+	 *
+	 * Buffer de registros que crece según se necesite.
+	 */
+	private static final class Batch {
+
+		/**
+		 * Contenido del buffer.
+		 */
+		byte[] data = new byte[BUFFER_BYTES];
+
+		/**
+		 * Bytes usados del buffer.
+		 */
+		int size;
+
+		/**
+		 *
+		 * Agrega un entero en orden big-endian.
+		 *
+		 * @param value
+		 *            entero a agregar
+		 */
+		void putInt(int value) {
+			ensure(Integer.BYTES);
+			data[size++] = (byte) (value >>> 24);
+			data[size++] = (byte) (value >>> 16);
+			data[size++] = (byte) (value >>> 8);
+			data[size++] = (byte) value;
+		}
+
+		/**
+		 *
+		 * Agrega un byte.
+		 *
+		 * @param value
+		 *            byte a agregar
+		 */
+		void put(byte value) {
+			ensure(1);
+			data[size++] = value;
+		}
+
+		/**
+		 *
+		 * Agrega un arreglo de bytes.
+		 *
+		 * @param values
+		 *            bytes a agregar
+		 */
+		void put(byte[] values) {
+			ensure(values.length);
+			System.arraycopy(values, 0, data, size, values.length);
+			size += values.length;
+		}
+
+		/**
+		 *
+		 * Asegura espacio para la cantidad de bytes especificada.
+		 *
+		 * @param bytes
+		 *            bytes a agregar
+		 */
+		private void ensure(int bytes) {
+			if (size + bytes > data.length) {
+				byte[] grown = new byte[Math.max(data.length * 2, size + bytes)];
+				System.arraycopy(data, 0, grown, 0, size);
+				data = grown;
+			}
+		}
+
+	}
+
+}
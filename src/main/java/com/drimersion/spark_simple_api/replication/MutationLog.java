@@ -0,0 +1,394 @@
+package com.drimersion.spark_simple_api.replication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * Log en memoria de las escrituras, numeradas con una secuencia que inicia en
+ * 1 dentro de una época distinta en cada inicio de la aplicación. Se guarda
+ * en un buffer circular con las últimas escrituras que comparten todos sus
+ * lectores, las réplicas y los suscriptores de cambios, por lo que agregar
+ * un registro no depende de la cantidad de lectores; un lector que se atrasa
+ * más que la capacidad del buffer pierde registros y debe volver a leer
+ * todos los usuarios.
+ *
+ * <p>
+ * Agregar un registro no despierta a los lectores que esperan: si hay alguno
+ * solo se despierta un hilo de aviso, que los despierta fuera de la
+ * escritura y agrupa los avisos de varias escrituras seguidas.
+ * </p>
+ *
+ * <p>
+ * Solo las escrituras toman el monitor del log. Los lectores leen
+ * {@link #head()} y verifican la secuencia de cada posición que copian: si no
+ * coincide, el buffer dio la vuelta y el lector perdió registros.
+ * </p>
+ *
+ * <p>
+ * Cada registro contiene el estado completo del usuario o su eliminación, con
+ * la misma codificación del log de escritura, así que aplicar un registro
+ * varias veces produce el mismo resultado.
+ * </p>
+ */
+public class MutationLog {
+
+	/**
+	 * Operación que almacena el estado completo de un usuario.
+	 */
+	public static final byte PUT = 1;
+
+	/**
+	 * Operación que almacena un usuario nuevo, se aplica igual que
+	 * {@link #PUT}.
+	 */
+	public static final byte CREATE = 3;
+
+	/**
+	 * Operación que elimina un usuario.
+	 */
+	public static final byte DELETE = 2;
+
+	/**
+	 * Capacidad por defecto del buffer en registros.
+	 */
+	public static final int DEFAULT_CAPACITY = 65536;
+
+	/**
+	 * Época del log, distinta de 0.
+	 */
+	private final long epoch;
+
+	/**
+	 * Últimos registros, el de secuencia s está en la posición s % capacidad.
+	 */
+	private final AtomicReferenceArray<Record> records;
+
+	/**
+	 * Secuencia del último registro, 0 si no hay registros. Se escribe con el
+	 * monitor del log después de guardar el registro, por lo que los registros
+	 * hasta head son visibles para quien la lee.
+	 */
+	private volatile long head;
+
+	/**
+	 * Monitor en el que esperan los lectores.
+	 */
+	private final Object waiters = new Object();
+
+	/**
+	 * Cantidad de lectores que esperan registros.
+	 */
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	/**
+	 * Hilo que despierta a los lectores, se inicia con el primer lector que
+	 * espera.
+	 */
+	private volatile Thread notifier;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param capacity
+	 *            cantidad de registros que se conservan
+	 */
+	public MutationLog(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException(
+					"La capacidad debe ser positiva: " + capacity);
+		}
+		this.records = new AtomicReferenceArray<>(capacity);
+		long random;
+		do {
+			random = ThreadLocalRandom.current().nextLong();
+		} while (random == 0);
+		this.epoch = random;
+	}
+
+	/**
+	 *
+	 * Retorna el valor de la variable de instancia epoch.
+	 *
+	 * @return valor para epoch
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 *
+	 * Agrega un registro y, si hay lectores esperando, avisa al hilo que los
+	 * despierta.
+	 *
+	 * @param operation
+	 *            operación del registro
+	 * @param payload
+	 *            datos de la operación
+	 * @return secuencia del registro
+	 */
+	public long append(byte operation, byte[] payload) {
+		long sequence;
+		synchronized (this) {
+			sequence = head + 1;
+			records.set(index(sequence), new Record(sequence, operation,
+					payload, System.currentTimeMillis()));
+			head = sequence;
+		}
+		/*
+		 * Un lector se cuenta antes de revisar head, así que si no se ve
+		 * contado es porque ya ve este registro.
+		 */
+		if (waiting.get() > 0) {
+			LockSupport.unpark(notifier);
+		}
+		return sequence;
+	}
+
+	/**
+	 *
+	 * Retorna la secuencia del último registro.
+	 *
+	 * @return secuencia del último registro, 0 si no hay registros
+	 */
+	public long head() {
+		return head;
+	}
+
+	/**
+	 *
+	 * Lee los registros a partir de una secuencia, esperando hasta el tiempo
+	 * indicado si aún no existen.
+	 *
+	 * @param from
+	 *            secuencia del primer registro a leer
+	 * @param max
+	 *            cantidad máxima de registros
+	 * @param timeoutMillis
+	 *            tiempo máximo de espera en milisegundos
+	 * @return registros consecutivos desde la secuencia, vacio si no llegaron
+	 *         a tiempo, o null si la secuencia ya no está en el buffer
+	 * @throws InterruptedException
+	 *             Si se interrumpe la espera
+	 */
+	public List<Record> read(long from, int max, long timeoutMillis)
+			throws InterruptedException {
+		if (!contains(from)) {
+			return null;
+		}
+		if (head < from) {
+			startNotifier();
+			long deadline = System.nanoTime()
+					+ TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			synchronized (waiters) {
+				waiting.incrementAndGet();
+				try {
+					while (head < from) {
+						long remaining = TimeUnit.NANOSECONDS.toMillis(deadline
+								- System.nanoTime());
+						if (remaining <= 0) {
+							return Collections.emptyList();
+						}
+						waiters.wait(remaining);
+					}
+				} finally {
+					waiting.decrementAndGet();
+				}
+			}
+		}
+
+		int count = (int) Math.min(max, head - from + 1);
+		List<Record> result = new ArrayList<>(count);
+		for (long sequence = from; sequence < from + count; sequence++) {
+			Record record = records.get(index(sequence));
+			if (record.getSequence() != sequence) {
+				/* El buffer dio la vuelta mientras se esperaba o se copiaba */
+				return null;
+			}
+			result.add(record);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * Inicia el hilo que despierta a los lectores si aún no existe.
+	 */
+	private void startNotifier() {
+		if (notifier != null) {
+			return;
+		}
+		synchronized (waiters) {
+			if (notifier == null) {
+				Thread thread = new Thread(this::notifyReaders,
+						"mutation-log-notifier");
+				thread.setDaemon(true);
+				thread.start();
+				notifier = thread;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Despierta a los lectores cada vez que una escritura lo avisa; los
+	 * avisos que llegan mientras tanto se atienden en la siguiente vuelta.
+	 */
+	private void notifyReaders() {
+		while (true) {
+			LockSupport.park(this);
+			synchronized (waiters) {
+				waiters.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Retorna la antigüedad de un registro, para medir el atraso de un lector
+	 * que aún no lo ha leído.
+	 *
+	 * @param sequence
+	 *            secuencia del registro
+	 * @return milisegundos desde que se agregó el registro, 0 si aún no
+	 *         existe
+	 */
+	public long age(long sequence) {
+		long current = head;
+		if (sequence > current) {
+			return 0;
+		}
+		Record record = records.get(index(sequence));
+		/*
+		 * Un registro que ya salió del buffer es al menos tan viejo como el
+		 * más antiguo que queda, o como uno posterior si el buffer volvió a
+		 * dar la vuelta.
+		 */
+		long oldest = record.getSequence() == sequence ? record.getTimestamp()
+				: records.get(index(current + 1)).getTimestamp();
+		return Math.max(0, System.currentTimeMillis() - oldest);
+	}
+
+	/**
+	 *
+	 * Indica si un lector puede continuar desde una secuencia: el registro
+	 * aún está en el buffer o es el siguiente que se va a agregar.
+	 *
+	 * @param from
+	 *            secuencia del siguiente registro del lector
+	 * @return true si no se han perdido registros
+	 */
+	public boolean contains(long from) {
+		long current = head;
+		return from >= 1 && from <= current + 1
+				&& current - from < records.length();
+	}
+
+	/**
+	 *
+	 * Retorna la posición de una secuencia en el buffer.
+	 *
+	 * @param sequence
+	 *            secuencia del registro
+	 * @return posición en el arreglo
+	 */
+	private int index(long sequence) {
+		return (int) (sequence % records.length());
+	}
+
+	/**
+	 *
+	 * Registro del log.
+	 */
+	public static final class Record {
+
+		/**
+		 * Secuencia del registro.
+		 */
+		private final long sequence;
+
+		/**
+		 * Operación del registro.
+		 */
+		private final byte operation;
+
+		/**
+		 * Datos de la operación.
+		 */
+		private final byte[] payload;
+
+		/**
+		 * Momento en que se agregó, en milisegundos.
+		 */
+		private final long timestamp;
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param sequence
+		 *            secuencia del registro
+		 * @param operation
+		 *            operación del registro
+		 * @param payload
+		 *            datos de la operación
+		 * @param timestamp
+		 *            momento en que se agregó
+		 */
+		Record(long sequence, byte operation, byte[] payload, long timestamp) {
+			this.sequence = sequence;
+			this.operation = operation;
+			this.payload = payload;
+			this.timestamp = timestamp;
+		}
+
+		/**
+		 *
+		 * Retorna el valor de la variable de instancia sequence.
+		 *
+		 * @return valor para sequence
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 *
+		 * Retorna el valor de la variable de instancia operation.
+		 *
+		 * @return valor para operation
+		 */
+		public byte getOperation() {
+			return operation;
+		}
+
+		/**
+		 *
+		 * Retorna el valor de la variable de instancia payload.
+		 *
+		 * @return valor para payload
+		 */
+		public byte[] getPayload() {
+			return payload;
+		}
+
+		/**
+		 *
+		 * Retorna el valor de la variable de instancia timestamp.
+		 *
+		 * @return valor para timestamp
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+	}
+
+}
@@ -0,0 +1,496 @@
+package com.drimersion.spark_simple_api.replication;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+
+import com.drimersion.spark_simple_api.codec.UserBinaryCodec;
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.repository.DuplicateDocumentException;
+import com.drimersion.spark_simple_api.repository.InMemoryUserRepository;
+import com.drimersion.spark_simple_api.repository.UserRepository;
+
+/**
+ *
+ * Implementación de solo lectura de {@link UserRepository} para una réplica.
+ * Los usuarios se mantienen en un {@link InMemoryUserRepository} que solo
+ * modifica el {@link ReplicationClient} al aplicar el log del primario, y
+ * las escrituras de la aplicación se rechazan.
+ *
+ * <p>
+ * Como el log ordena solo las escrituras de un mismo usuario, un usuario puede
+ * llegar con el documento que otro usuario aún no ha liberado en la réplica.
+ * Ese usuario se aplaza y se vuelve a aplicar después de cada lote, hasta que
+ * llegue el registro del otro usuario o una escritura más reciente suya.
+ * </p>
+ */
+public class ReplicaUserRepository implements UserRepository {
+
+	/**
+	 * Usuarios de la réplica.
+	 */
+	private final InMemoryUserRepository delegate = new InMemoryUserRepository();
+
+	/**
+	 * Usuarios que no se pudieron aplicar por un documento repetido, solo los
+	 * usa el hilo que aplica el log.
+	 */
+	private final Map<Integer, User> deferred = new LinkedHashMap<>();
+
+	/**
+	 * Usuarios recibidos en la copia completa en curso, null si no hay copia.
+	 */
+	private Set<Integer> snapshot;
+
+	/**
+	 * Notificación de cada usuario modificado por el log.
+	 */
+	private volatile IntConsumer changeListener = id -> {
+	};
+
+	/**
+	 * Época del log del primario, 0 si aún no se ha recibido.
+	 */
+	private volatile long epoch;
+
+	/**
+	 * Secuencia del último registro aplicado.
+	 */
+	private volatile long applied;
+
+	/**
+	 * Secuencia del último registro del primario en el último mensaje.
+	 */
+	private volatile long head;
+
+	/**
+	 * Atraso informado por el primario en el último mensaje, en
+	 * milisegundos.
+	 */
+	private volatile long behindMillis;
+
+	/**
+	 * Momento en que se recibió el último mensaje, 0 si la réplica no tiene
+	 * una copia completa o está recibiendo una.
+	 */
+	private volatile long receivedAt;
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#find(int)
+	 */
+	@Override
+	public User find(int id) {
+		return delegate.find(id);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#findAll()
+	 */
+	@Override
+	public Map<Integer, User> findAll() {
+		return delegate.findAll();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#findPage(int,
+	 * int)
+	 */
+	@Override
+	public SortedMap<Integer, User> findPage(int after, int limit) {
+		return delegate.findPage(after, limit);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#findByDocument
+	 * (java.lang.String)
+	 */
+	@Override
+	public User findByDocument(String document) {
+		return delegate.findByDocument(document);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#
+	 * findByLastNamePrefix(java.lang.String, int)
+	 */
+	@Override
+	public Map<Integer, User> findByLastNamePrefix(String prefix, int limit) {
+		return delegate.findByLastNamePrefix(prefix, limit);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#forEach(java
+	 * .util.function.ObjIntConsumer)
+	 */
+	@Override
+	public void forEach(ObjIntConsumer<User> action) {
+		delegate.forEach(action);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#createIfAbsent
+	 * (int, com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public User createIfAbsent(int id, User user) {
+		throw readOnly();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#replaceIfPresent
+	 * (int, com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public User replaceIfPresent(int id, User user) {
+		throw readOnly();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#replaceIfCurrent
+	 * (int, com.drimersion.spark_simple_api.model.User,
+	 * com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public boolean replaceIfCurrent(int id, User expected, User user) {
+		throw readOnly();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#removeIfCurrent
+	 * (int, com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public boolean removeIfCurrent(int id, User expected) {
+		throw readOnly();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#remove(int)
+	 */
+	@Override
+	public User remove(int id) {
+		throw readOnly();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#version()
+	 */
+	@Override
+	public long version() {
+		return delegate.version();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.drimersion.spark_simple_api.repository.UserRepository#size()
+	 */
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+
+	/**
+	 *
+	 * Registra la notificación de cada usuario modificado por el log, para
+	 * invalidar las respuestas guardadas.
+	 *
+	 * @param changeListener
+	 *            recibe el identificador de cada usuario modificado
+	 */
+	public void setChangeListener(IntConsumer changeListener) {
+		this.changeListener = changeListener;
+	}
+
+	/**
+	 *
+	 * Retorna el valor de la variable de instancia epoch.
+	 *
+	 * @return valor para epoch
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 *
+	 * Retorna la secuencia del último registro aplicado.
+	 *
+	 * @return valor para applied
+	 */
+	public long getAppliedSequence() {
+		return applied;
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de registros del primario que aún no se han
+	 * aplicado, según el último mensaje recibido.
+	 *
+	 * @return registros pendientes
+	 */
+	public long getLagRecords() {
+		return Math.max(0, head - applied);
+	}
+
+	/**
+	 *
+	 * Retorna el tiempo máximo desde que el primario tenía un cambio que la
+	 * réplica aún no refleja: el atraso informado en el último mensaje más el
+	 * tiempo desde que se recibió, ya que después pudo haber más escrituras.
+	 *
+	 * @return milisegundos de atraso, -1 si la réplica no tiene una copia
+	 *         completa o está recibiendo una
+	 */
+	public long getStalenessMillis() {
+		long received = receivedAt;
+		if (received == 0) {
+			return -1;
+		}
+		return behindMillis + Math.max(0, System.currentTimeMillis() - received);
+	}
+
+	/**
+	 *
+	 * Inicia una copia completa de los usuarios de un log. Mientras se
+	 * reciben los usuarios mezclan ambas copias, por lo que la réplica no
+	 * informa un atraso hasta terminar la copia.
+	 *
+	 * @param epoch
+	 *            época del log del primario
+	 */
+	void beginSnapshot(long epoch) {
+		this.receivedAt = 0;
+		this.epoch = epoch;
+		this.snapshot = new HashSet<>();
+	}
+
+	/**
+	 *
+	 * Aplica un usuario de la copia completa en curso.
+	 *
+	 * @param payload
+	 *            usuario con la codificación del log
+	 */
+	void applySnapshot(byte[] payload) {
+		User user = UserBinaryCodec.decode(ByteBuffer.wrap(payload));
+		snapshot.add(user.getId());
+		put(user);
+	}
+
+	/**
+	 *
+	 * Termina la copia completa eliminando los usuarios que no se recibieron.
+	 * Primero se aplican los usuarios aplazados cuyo documento ya quedó libre,
+	 * luego se eliminan los usuarios ausentes y por último se aplican los
+	 * aplazados por un documento de un usuario eliminado.
+	 *
+	 * @param sequence
+	 *            secuencia del log que refleja la copia
+	 * @param head
+	 *            secuencia del último registro del primario
+	 * @param behindMillis
+	 *            atraso informado por el primario
+	 */
+	void endSnapshot(long sequence, long head, long behindMillis) {
+		deferred.keySet().retainAll(snapshot);
+		retryDeferred();
+		List<Integer> removed = new ArrayList<>();
+		delegate.forEach((user, id) -> {
+			if (!snapshot.contains(id)) {
+				removed.add(id);
+			}
+		});
+		for (int id : removed) {
+			delete(id);
+		}
+		snapshot = null;
+		advance(sequence, head, behindMillis);
+	}
+
+	/**
+	 *
+	 * Aplica un registro del log.
+	 *
+	 * @param operation
+	 *            operación del registro
+	 * @param payload
+	 *            datos de la operación
+	 */
+	void apply(byte operation, byte[] payload) {
+		switch (operation) {
+		case MutationLog.PUT:
+		case MutationLog.CREATE:
+			put(UserBinaryCodec.decode(ByteBuffer.wrap(payload)));
+			break;
+		case MutationLog.DELETE:
+			delete(ByteBuffer.wrap(payload).getInt());
+			break;
+		default:
+			throw new IllegalArgumentException("Operación desconocida: "
+					+ operation);
+		}
+	}
+
+	/**
+	 *
+	 * Registra el final de un lote del log, o un mensaje sin registros.
+	 *
+	 * @param sequence
+	 *            secuencia del último registro aplicado
+	 * @param head
+	 *            secuencia del último registro del primario
+	 * @param behindMillis
+	 *            atraso informado por el primario
+	 */
+	void advance(long sequence, long head, long behindMillis) {
+		if (snapshot != null) {
+			/* Durante la copia los usuarios aún no son consistentes */
+			return;
+		}
+		retryDeferred();
+		this.applied = sequence;
+		this.head = head;
+		this.behindMillis = behindMillis;
+		this.receivedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 *
+	 * Indica la pérdida de la conexión con el primario. La réplica sigue
+	 * respondiendo y su atraso crece hasta que se reconecta.
+	 */
+	void disconnected() {
+		if (snapshot != null) {
+			/* La copia incompleta se repite al reconectar */
+			epoch = 0;
+			snapshot = null;
+		}
+	}
+
+	/**
+	 *
+	 * Almacena el estado completo de un usuario, o lo aplaza si su documento
+	 * aún pertenece a otro usuario.
+	 *
+	 * @param user
+	 *            usuario con su identificador
+	 */
+	private void put(User user) {
+		int id = user.getId();
+		deferred.remove(id);
+		if (!tryPut(user)) {
+			deferred.put(id, user);
+		}
+	}
+
+	/**
+	 *
+	 * Elimina un usuario y descarta su escritura aplazada.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 */
+	private void delete(int id) {
+		deferred.remove(id);
+		if (delegate.remove(id) != null) {
+			changeListener.accept(id);
+		}
+	}
+
+	/**
+	 *
+	 * Intenta almacenar el estado completo de un usuario.
+	 *
+	 * @param user
+	 *            usuario con su identificador
+	 * @return false si su documento pertenece a otro usuario
+	 */
+	private boolean tryPut(User user) {
+		int id = user.getId();
+		try {
+			if (delegate.replaceIfPresent(id, user) == null) {
+				delegate.createIfAbsent(id, user);
+			}
+		} catch (DuplicateDocumentException e) {
+			return false;
+		}
+		changeListener.accept(id);
+		return true;
+	}
+
+	/**
+	 *
+	 * Vuelve a aplicar los usuarios aplazados mientras alguno se pueda
+	 * aplicar.
+	 */
+	private void retryDeferred() {
+		boolean progress = true;
+		while (progress && !deferred.isEmpty()) {
+			progress = false;
+			for (Iterator<User> it = deferred.values().iterator(); it
+					.hasNext();) {
+				if (tryPut(it.next())) {
+					it.remove();
+					progress = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Construye el error de una escritura sobre la réplica.
+	 *
+	 * @return excepción de operación no soportada
+	 */
+	private static UnsupportedOperationException readOnly() {
+		return new UnsupportedOperationException(
+				"La réplica es de solo lectura.");
+	}
+
+}
@@ -0,0 +1,346 @@
+package com.drimersion.spark_simple_api.replication;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.ObjIntConsumer;
+
+import com.drimersion.spark_simple_api.codec.UserBinaryCodec;
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.repository.ReadOnlyRepositoryException;
+import com.drimersion.spark_simple_api.repository.UserRepository;
+
+/**
+ *
+ * Implementación de {@link UserRepository} que agrega cada escritura exitosa
+ * al {@link MutationLog} que se envía a las réplicas y a los suscriptores de
+ * cambios.
+ *
+ * <p>
+ * La escritura se aplica en el repositorio sin ningún lock propio, para que
+ * su espera de durabilidad no ordene las escrituras de otros usuarios; al
+ * terminar se agrega al log el estado actual del usuario, leído con el lock
+ * de su grupo. Así el último registro de un usuario siempre es su último
+ * estado aunque dos escrituras terminen en otro orden, a costa de que el log
+ * pueda repetir un estado en lugar de mostrar uno intermedio. Las escrituras
+ * de usuarios distintos pueden quedar en otro orden.
+ * </p>
+ *
+ * <p>
+ * Las escrituras de un lote se agregan al log antes de que el lote sea
+ * durable. Si el repositorio deshace el lote porque no pudo persistirlo, se
+ * agrega de nuevo el estado actual de cada usuario escrito.
+ * </p>
+ */
+public class ReplicatedUserRepository implements UserRepository {
+
+	/**
+	 * Cantidad de locks para ordenar las escrituras de un mismo usuario.
+	 */
+	private static final int LOCK_STRIPES = 64;
+
+	/**
+	 * Usuarios del nodo.
+	 */
+	private final UserRepository delegate;
+
+	/**
+	 * Log de las escrituras.
+	 */
+	private final MutationLog log;
+
+	/**
+	 * Locks que garantizan que el estado de un usuario se lee y se agrega al
+	 * log sin que otra escritura del mismo usuario se intercale.
+	 */
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	/**
+	 * Usuarios escritos por el lote en curso de cada hilo.
+	 */
+	private final ThreadLocal<List<Integer>> batches = new ThreadLocal<>();
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param delegate
+	 *            usuarios del nodo
+	 * @param log
+	 *            log de las escrituras
+	 */
+	public ReplicatedUserRepository(UserRepository delegate, MutationLog log) {
+		this.delegate = delegate;
+		this.log = log;
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#find(int)
+	 */
+	@Override
+	public User find(int id) {
+		return delegate.find(id);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#findAll()
+	 */
+	@Override
+	public Map<Integer, User> findAll() {
+		return delegate.findAll();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#findPage(int,
+	 * int)
+	 */
+	@Override
+	public SortedMap<Integer, User> findPage(int after, int limit) {
+		return delegate.findPage(after, limit);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#findByDocument
+	 * (java.lang.String)
+	 */
+	@Override
+	public User findByDocument(String document) {
+		return delegate.findByDocument(document);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#
+	 * findByLastNamePrefix(java.lang.String, int)
+	 */
+	@Override
+	public Map<Integer, User> findByLastNamePrefix(String prefix, int limit) {
+		return delegate.findByLastNamePrefix(prefix, limit);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#forEach(java
+	 * .util.function.ObjIntConsumer)
+	 */
+	@Override
+	public void forEach(ObjIntConsumer<User> action) {
+		delegate.forEach(action);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#createIfAbsent
+	 * (int, com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public User createIfAbsent(int id, User user) {
+		User existing = delegate.createIfAbsent(id, user);
+		if (existing == null) {
+			publish(id, MutationLog.CREATE);
+		}
+		return existing;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#replaceIfPresent
+	 * (int, com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public User replaceIfPresent(int id, User user) {
+		User previous = delegate.replaceIfPresent(id, user);
+		if (previous != null) {
+			publish(id, MutationLog.PUT);
+		}
+		return previous;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#replaceIfCurrent
+	 * (int, com.drimersion.spark_simple_api.model.User,
+	 * com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public boolean replaceIfCurrent(int id, User expected, User user) {
+		if (!delegate.replaceIfCurrent(id, expected, user)) {
+			return false;
+		}
+		publish(id, MutationLog.PUT);
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#removeIfCurrent
+	 * (int, com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public boolean removeIfCurrent(int id, User expected) {
+		if (!delegate.removeIfCurrent(id, expected)) {
+			return false;
+		}
+		publish(id, MutationLog.DELETE);
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#remove(int)
+	 */
+	@Override
+	public User remove(int id) {
+		User previous = delegate.remove(id);
+		if (previous != null) {
+			publish(id, MutationLog.DELETE);
+		}
+		return previous;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#batch(java.
+	 * lang.Runnable)
+	 */
+	@Override
+	public void batch(Runnable writes) {
+		if (batches.get() != null) {
+			/* Lote anidado, el lote externo registra sus usuarios */
+			delegate.batch(writes);
+			return;
+		}
+
+		List<Integer> written = new ArrayList<>();
+		batches.set(written);
+		try {
+			delegate.batch(writes);
+		} catch (ReadOnlyRepositoryException e) {
+			/* El repositorio deshizo las escrituras que ya se publicaron */
+			batches.remove();
+			for (int id : written) {
+				publish(id, MutationLog.PUT);
+			}
+			throw e;
+		} finally {
+			batches.remove();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#version()
+	 */
+	@Override
+	public long version() {
+		return delegate.version();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.drimersion.spark_simple_api.repository.UserRepository#size()
+	 */
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+
+	/**
+	 *
+	 * Retorna el valor de la variable de instancia log.
+	 *
+	 * @return valor para log
+	 */
+	public MutationLog getLog() {
+		return log;
+	}
+
+	/**
+	 *
+	 * Agrega al log el estado actual de un usuario después de escribirlo. Si
+	 * otra escritura lo cambió mientras tanto se agrega ese estado, que esa
+	 * escritura también agregará.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param operation
+	 *            operación que se aplicó, indica el tipo del registro si el
+	 *            usuario existe
+	 */
+	private void publish(int id, byte operation) {
+		List<Integer> written = batches.get();
+		if (written != null) {
+			written.add(id);
+		}
+		synchronized (lockFor(id)) {
+			User current = delegate.find(id);
+			if (current == null) {
+				log.append(MutationLog.DELETE, encodeId(id));
+			} else {
+				log.append(operation == MutationLog.CREATE ? MutationLog.CREATE
+						: MutationLog.PUT, UserBinaryCodec.encode(id, current));
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Retorna el lock de las escrituras de un usuario.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @return lock del usuario
+	 */
+	private Object lockFor(int id) {
+		return locks[id & (LOCK_STRIPES - 1)];
+	}
+
+	/**
+	 *
+	 * Codifica el identificador de una eliminación.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @return identificador en 4 bytes
+	 */
+	static byte[] encodeId(int id) {
+		return ByteBuffer.allocate(Integer.BYTES).putInt(id).array();
+	}
+
+}
@@ -0,0 +1,234 @@
+package com.drimersion.spark_simple_api.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * Cliente de una réplica que recibe el log del {@link ReplicationServer} del
+ * primario y lo aplica sobre un {@link ReplicaUserRepository}. Se ejecuta en
+ * un solo hilo que se reconecta con una espera creciente si pierde la
+ * conexión, y continúa desde la última secuencia aplicada.
+ */
+public class ReplicationClient implements AutoCloseable {
+
+	/**
+	 * Espera inicial antes de reconectar, en milisegundos.
+	 */
+	private static final long MIN_BACKOFF_MILLIS = 100;
+
+	/**
+	 * Espera máxima antes de reconectar, en milisegundos.
+	 */
+	private static final long MAX_BACKOFF_MILLIS = 5000;
+
+	/**
+	 * Tamaño del buffer de lectura de la conexión.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Logger de la clase.
+	 */
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(ReplicationClient.class);
+
+	/**
+	 * Dirección del primario.
+	 */
+	private final InetSocketAddress primary;
+
+	/**
+	 * Usuarios de la réplica.
+	 */
+	private final ReplicaUserRepository replica;
+
+	/**
+	 * Tiempo máximo de conexión y de espera de un mensaje, en milisegundos.
+	 */
+	private final int timeoutMillis;
+
+	/**
+	 * Hilo que aplica el log.
+	 */
+	private final Thread thread;
+
+	/**
+	 * Conexión actual, null si no hay conexión.
+	 */
+	private volatile Socket socket;
+
+	/**
+	 * Indica si el cliente se cerró.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param host
+	 *            dirección del primario
+	 * @param port
+	 *            puerto de replicación del primario
+	 * @param replica
+	 *            usuarios de la réplica
+	 * @param timeoutMillis
+	 *            tiempo máximo de conexión y de espera de un mensaje, debe
+	 *            ser mayor al intervalo de los lotes vacios del primario
+	 */
+	public ReplicationClient(String host, int port,
+			ReplicaUserRepository replica, int timeoutMillis) {
+		this.primary = new InetSocketAddress(host, port);
+		this.replica = replica;
+		this.timeoutMillis = timeoutMillis;
+		this.thread = new Thread(this::run, "replication-client");
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 *
+	 * Inicia el hilo que recibe y aplica el log.
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		thread.interrupt();
+		Socket current = socket;
+		if (current != null) {
+			current.close();
+		}
+	}
+
+	/**
+	 *
+	 * Recibe el log hasta que se cierra el cliente, reconectando cuando se
+	 * pierde la conexión.
+	 */
+	private void run() {
+		long backoff = MIN_BACKOFF_MILLIS;
+		while (!closed) {
+			try (Socket connection = new Socket()) {
+				socket = connection;
+				connection.connect(primary, timeoutMillis);
+				connection.setSoTimeout(timeoutMillis);
+				connection.setTcpNoDelay(true);
+				LOGGER.info("La réplica se conectó al primario {}.", primary);
+				backoff = MIN_BACKOFF_MILLIS;
+				receive(connection);
+			} catch (IOException e) {
+				if (!closed) {
+					LOGGER.warn("Se perdió la conexión con el primario {}: {}",
+							primary, e.toString());
+				}
+			} finally {
+				socket = null;
+				replica.disconnected();
+			}
+
+			if (!closed) {
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException e) {
+					return;
+				}
+				backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Envía el saludo y aplica los mensajes del primario.
+	 *
+	 * @param connection
+	 *            conexión con el primario
+	 * @throws IOException
+	 *             Si se pierde la conexión o el mensaje no es válido
+	 */
+	private void receive(Socket connection) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				connection.getOutputStream()));
+		out.writeInt(ReplicationServer.MAGIC);
+		out.writeLong(replica.getEpoch());
+		out.writeLong(replica.getAppliedSequence());
+		out.flush();
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				connection.getInputStream(), BUFFER_SIZE));
+		long next = replica.getAppliedSequence() + 1;
+		while (!closed) {
+			byte type = in.readByte();
+			switch (type) {
+			case ReplicationServer.RESET:
+				long epoch = in.readLong();
+				LOGGER.info("La réplica recibe una copia completa del primario.");
+				replica.beginSnapshot(epoch);
+				break;
+			case ReplicationServer.SNAPSHOT:
+				int users = in.readInt();
+				for (int i = 0; i < users; i++) {
+					replica.applySnapshot(readPayload(in));
+				}
+				break;
+			case ReplicationServer.SNAPSHOT_END:
+				long sequence = in.readLong();
+				replica.endSnapshot(sequence, in.readLong(), in.readLong());
+				next = sequence + 1;
+				LOGGER.info("La réplica tiene {} usuarios en la secuencia {}.",
+						replica.size(), sequence);
+				break;
+			case ReplicationServer.BATCH:
+				long first = in.readLong();
+				if (first != next) {
+					throw new IOException("Se esperaba la secuencia " + next
+							+ " y se recibió " + first);
+				}
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					byte operation = in.readByte();
+					replica.apply(operation, readPayload(in));
+				}
+				next = first + count;
+				replica.advance(next - 1, in.readLong(), in.readLong());
+				break;
+			default:
+				throw new IOException("Mensaje desconocido: " + type);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Lee los datos de un registro precedidos por su tamaño.
+	 *
+	 * @param in
+	 *            entrada de la conexión
+	 * @return datos del registro
+	 * @throws IOException
+	 *             Si no es posible leer el registro
+	 */
+	private static byte[] readPayload(DataInputStream in) throws IOException {
+		byte[] payload = new byte[in.readInt()];
+		in.readFully(payload);
+		return payload;
+	}
+
+}
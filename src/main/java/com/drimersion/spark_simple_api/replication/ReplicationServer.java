@@ -0,0 +1,403 @@
+package com.drimersion.spark_simple_api.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.drimersion.spark_simple_api.codec.UserBinaryCodec;
+import com.drimersion.spark_simple_api.repository.UserRepository;
+
+/**
+ *
+ * Servidor del primario que envía el {@link MutationLog} a las réplicas por
+ * una conexión TCP, por defecto solo en la interfaz local. Cada réplica se
+ * atiende en su propio hilo, que envía los registros pendientes en lotes
+ * numerados y un lote vacio cada cierto tiempo para que la réplica conozca su
+ * atraso aunque no haya escrituras.
+ *
+ * <p>
+ * Al conectarse la réplica indica la época del log y la secuencia que ya
+ * aplicó. Si la época es otra, porque el primario se reinició, o los
+ * registros siguientes ya salieron del buffer, se le envía una copia completa
+ * de los usuarios y se continúa con los registros posteriores al inicio de la
+ * copia.
+ * </p>
+ *
+ * <p>
+ * Mensajes del primario, cada uno inicia con su tipo en un byte:
+ * </p>
+ * <ul>
+ * <li>{@link #RESET}: época del log, inicia una copia completa.</li>
+ * <li>{@link #SNAPSHOT}: cantidad y usuarios de la copia con la codificación
+ * del log.</li>
+ * <li>{@link #SNAPSHOT_END}: secuencia que refleja la copia, última secuencia
+ * del primario y atraso en milisegundos.</li>
+ * <li>{@link #BATCH}: primera secuencia, cantidad, registros con su operación
+ * y datos, última secuencia del primario y atraso en milisegundos.</li>
+ * </ul>
+ */
+public class ReplicationServer implements AutoCloseable {
+
+	/**
+	 * Valor inicial del saludo de la réplica.
+	 */
+	static final int MAGIC = 0x55524550;
+
+	/**
+	 * Mensaje que inicia una copia completa.
+	 */
+	static final byte RESET = 1;
+
+	/**
+	 * Mensaje con usuarios de la copia completa.
+	 */
+	static final byte SNAPSHOT = 2;
+
+	/**
+	 * Mensaje que termina la copia completa.
+	 */
+	static final byte SNAPSHOT_END = 3;
+
+	/**
+	 * Mensaje con un lote de registros del log.
+	 */
+	static final byte BATCH = 4;
+
+	/**
+	 * Tamaño de los buffers de la conexión.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Logger de la clase.
+	 */
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(ReplicationServer.class);
+
+	/**
+	 * Log que se envía.
+	 */
+	private final MutationLog log;
+
+	/**
+	 * Usuarios del primario para las copias completas.
+	 */
+	private final UserRepository users;
+
+	/**
+	 * Cantidad máxima de registros por lote.
+	 */
+	private final int batchRecords;
+
+	/**
+	 * Tiempo máximo en milisegundos entre dos mensajes a una réplica.
+	 */
+	private final long heartbeatMillis;
+
+	/**
+	 * Socket que recibe las conexiones.
+	 */
+	private final ServerSocket server;
+
+	/**
+	 * Hilo que recibe las conexiones.
+	 */
+	private final Thread acceptor;
+
+	/**
+	 * Conexiones de las réplicas.
+	 */
+	private final List<Socket> replicas = new ArrayList<>();
+
+	/**
+	 * Cantidad de réplicas conectadas.
+	 */
+	private final AtomicInteger connected = new AtomicInteger();
+
+	/**
+	 * Contador de los hilos de envío.
+	 */
+	private final AtomicInteger senders = new AtomicInteger();
+
+	/**
+	 * Indica si el servidor se cerró.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 *
+	 * Constructor, abre el puerto e inicia el hilo que recibe las conexiones.
+	 *
+	 * @param host
+	 *            dirección en la que se reciben las conexiones
+	 * @param port
+	 *            puerto de las conexiones, 0 para uno libre
+	 * @param log
+	 *            log que se envía
+	 * @param users
+	 *            usuarios del primario para las copias completas
+	 * @param batchRecords
+	 *            cantidad máxima de registros por lote
+	 * @param heartbeatMillis
+	 *            tiempo máximo en milisegundos entre dos mensajes
+	 * @throws IOException
+	 *             Si no es posible abrir el puerto
+	 */
+	public ReplicationServer(String host, int port, MutationLog log,
+			UserRepository users, int batchRecords, long heartbeatMillis)
+			throws IOException {
+		if (batchRecords < 1 || heartbeatMillis < 1) {
+			throw new IllegalArgumentException(
+					"El tamaño del lote y el intervalo deben ser positivos.");
+		}
+		this.log = log;
+		this.users = users;
+		this.batchRecords = batchRecords;
+		this.heartbeatMillis = heartbeatMillis;
+		this.server = new ServerSocket();
+		/* El primario reiniciado vuelve a abrir el mismo puerto */
+		server.setReuseAddress(true);
+		server.bind(new InetSocketAddress(host, port));
+
+		this.acceptor = new Thread(this::accept, "replication-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 *
+	 * Retorna el puerto en el que se reciben las conexiones.
+	 *
+	 * @return puerto del servidor
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de réplicas conectadas.
+	 *
+	 * @return réplicas conectadas
+	 */
+	public int getConnectedReplicas() {
+		return connected.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		server.close();
+		synchronized (replicas) {
+			for (Socket socket : replicas) {
+				socket.close();
+			}
+			replicas.clear();
+		}
+		/* El puerto se libera cuando el hilo sale de accept */
+		try {
+			acceptor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 *
+	 * Recibe las conexiones de las réplicas hasta que se cierra el servidor.
+	 */
+	private void accept() {
+		while (!closed) {
+			Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException e) {
+				if (!closed) {
+					LOGGER.warn("No fue posible recibir una réplica.", e);
+				}
+				continue;
+			}
+			synchronized (replicas) {
+				replicas.add(socket);
+			}
+			Thread sender = new Thread(() -> serve(socket),
+					"replication-sender-" + senders.incrementAndGet());
+			sender.setDaemon(true);
+			sender.start();
+		}
+	}
+
+	/**
+	 *
+	 * Atiende una réplica hasta que se cierra su conexión.
+	 *
+	 * @param socket
+	 *            conexión de la réplica
+	 */
+	private void serve(Socket socket) {
+		connected.incrementAndGet();
+		try (Socket connection = socket) {
+			connection.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					connection.getInputStream()));
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(connection.getOutputStream(),
+							BUFFER_SIZE));
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Saludo inválido de la réplica.");
+			}
+			long replicaEpoch = in.readLong();
+			long next = in.readLong() + 1;
+			LOGGER.info("Se conectó la réplica {} desde la secuencia {}.",
+					connection.getRemoteSocketAddress(), next);
+
+			if (replicaEpoch != log.getEpoch() || !log.contains(next)) {
+				next = sendSnapshot(out);
+			}
+			while (!closed) {
+				List<MutationLog.Record> records = log.read(next,
+						batchRecords, heartbeatMillis);
+				if (records == null) {
+					/* La réplica se atrasó más que el buffer del log */
+					LOGGER.warn("La réplica {} perdió registros, se envía una "
+							+ "copia completa.", connection.getRemoteSocketAddress());
+					next = sendSnapshot(out);
+					continue;
+				}
+				sendBatch(out, next, records);
+				next += records.size();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (SocketException e) {
+			LOGGER.info("Se desconectó una réplica: {}", e.getMessage());
+		} catch (IOException e) {
+			if (!closed) {
+				LOGGER.warn("Falló el envío del log a una réplica.", e);
+			}
+		} finally {
+			connected.decrementAndGet();
+			synchronized (replicas) {
+				replicas.remove(socket);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Envía una copia completa de los usuarios. La secuencia se toma antes de
+	 * recorrerlos, así los registros posteriores se aplican sobre la copia
+	 * aunque ya contenga algunos de ellos.
+	 *
+	 * @param out
+	 *            salida de la conexión
+	 * @return secuencia del siguiente registro a enviar
+	 * @throws IOException
+	 *             Si no es posible escribir en la conexión
+	 */
+	private long sendSnapshot(DataOutputStream out) throws IOException {
+		long sequence = log.head();
+		out.writeByte(RESET);
+		out.writeLong(log.getEpoch());
+
+		List<byte[]> chunk = new ArrayList<>(batchRecords);
+		IOException[] failure = new IOException[1];
+		users.forEach((user, id) -> {
+			if (failure[0] != null) {
+				return;
+			}
+			chunk.add(UserBinaryCodec.encode(id, user));
+			if (chunk.size() == batchRecords) {
+				try {
+					sendSnapshotChunk(out, chunk);
+				} catch (IOException e) {
+					failure[0] = e;
+				}
+			}
+		});
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		sendSnapshotChunk(out, chunk);
+
+		out.writeByte(SNAPSHOT_END);
+		out.writeLong(sequence);
+		out.writeLong(log.head());
+		out.writeLong(log.age(sequence + 1));
+		out.flush();
+		return sequence + 1;
+	}
+
+	/**
+	 *
+	 * Envía los usuarios acumulados de la copia completa.
+	 *
+	 * @param out
+	 *            salida de la conexión
+	 * @param chunk
+	 *            usuarios codificados, se vacía al enviarlos
+	 * @throws IOException
+	 *             Si no es posible escribir en la conexión
+	 */
+	private static void sendSnapshotChunk(DataOutputStream out,
+			List<byte[]> chunk) throws IOException {
+		if (chunk.isEmpty()) {
+			return;
+		}
+		out.writeByte(SNAPSHOT);
+		out.writeInt(chunk.size());
+		for (byte[] user : chunk) {
+			out.writeInt(user.length);
+			out.write(user);
+		}
+		chunk.clear();
+	}
+
+	/**
+	 *
+	 * Envía un lote de registros, o un lote vacio si no hubo escrituras.
+	 *
+	 * @param out
+	 *            salida de la conexión
+	 * @param first
+	 *            secuencia del primer registro
+	 * @param records
+	 *            registros consecutivos
+	 * @throws IOException
+	 *             Si no es posible escribir en la conexión
+	 */
+	private void sendBatch(DataOutputStream out, long first,
+			List<MutationLog.Record> records) throws IOException {
+		out.writeByte(BATCH);
+		out.writeLong(first);
+		out.writeInt(records.size());
+		for (MutationLog.Record record : records) {
+			out.writeByte(record.getOperation());
+			out.writeInt(record.getPayload().length);
+			out.write(record.getPayload());
+		}
+		long next = first + records.size();
+		out.writeLong(log.head());
+		/* El atraso es la antigüedad del primer registro no enviado */
+		out.writeLong(log.age(next));
+		out.flush();
+	}
+
+}
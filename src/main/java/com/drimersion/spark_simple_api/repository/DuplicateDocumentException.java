@@ -0,0 +1,26 @@
+package com.drimersion.spark_simple_api.repository;
+
+/**
+ *
+ * Excepción lanzada cuando se intenta almacenar un usuario con un documento
+ * que pertenece a otro usuario. La escritura no se aplica.
+ */
+public class DuplicateDocumentException extends IllegalStateException {
+
+	/**
+	 * Versión de la serialización.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param document
+	 *            documento duplicado
+	 */
+	public DuplicateDocumentException(String document) {
+		super("El documento ya pertenece a otro usuario: " + document);
+	}
+
+}
@@ -0,0 +1,474 @@
+package com.drimersion.spark_simple_api.repository;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ObjIntConsumer;
+
+import com.drimersion.spark_simple_api.model.User;
+
+/**
+ *
+ * Implementación en memoria de {@link UserRepository} basada en un
+ * {@link IntUserMap}, las lecturas son optimistas y sin crear llaves
+ * {@link Integer}. Las escrituras de un mismo usuario se serializan para
+ * mantener los índices secundarios por documento y por apellido.
+ */
+public class InMemoryUserRepository implements UserRepository {
+
+	/**
+	 * Bits reservados para las escrituras de cada milisegundo.
+	 */
+	private static final int VERSION_SHIFT = 20;
+
+	/**
+	 * Bits del lock de cada usuario.
+	 */
+	private static final int STRIPE_BITS = 6;
+
+	/**
+	 * Cantidad de locks para serializar las escrituras de un mismo usuario.
+	 */
+	private static final int LOCK_STRIPES = 1 << STRIPE_BITS;
+
+	/**
+	 * Posiciones de los contadores de cada lock, separados por una línea de
+	 * caché para que las escrituras de distintos locks no compitan.
+	 */
+	private static final int COUNTER_STRIDE = 8;
+
+	/**
+	 * Lecturas de los contadores antes de informar que hay escrituras en
+	 * curso.
+	 */
+	private static final int VERSION_RETRIES = 16;
+
+	/**
+	 * Usuarios del sistema indexados por identificador.
+	 */
+	private final IntUserMap users;
+
+	/**
+	 * Versión inicial, el tiempo actual desplazado o la mínima indicada si es
+	 * mayor, para que las versiones sigan creciendo después de reiniciar.
+	 */
+	private final long base;
+
+	/**
+	 * Escrituras iniciadas y terminadas de cada lock, en las posiciones
+	 * {@code stripe * COUNTER_STRIDE} y la siguiente. Solo se modifican con
+	 * el lock tomado.
+	 */
+	private final AtomicLongArray counters = new AtomicLongArray(
+			LOCK_STRIPES * COUNTER_STRIDE);
+
+	/**
+	 * Locks que serializan las escrituras de un usuario, para mantener sus
+	 * entradas de los índices coherentes.
+	 */
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	/**
+	 * Índices secundarios, null mientras no se mantienen.
+	 */
+	private volatile UserIndexes indexes;
+
+	/**
+	 * Constructor sin parámetros.
+	 */
+	public InMemoryUserRepository() {
+		this.users = new IntUserMap();
+		this.indexes = new UserIndexes(0);
+		this.base = initialVersion(0);
+		initLocks();
+	}
+
+	/**
+	 *
+	 * Constructor con la cantidad de usuarios esperada, evita que el mapa
+	 * crezca al cargar muchos usuarios.
+	 *
+	 * @param expectedSize
+	 *            cantidad de usuarios esperada
+	 */
+	public InMemoryUserRepository(int expectedSize) {
+		this(expectedSize, 0);
+	}
+
+	/**
+	 *
+	 * Constructor con la cantidad de usuarios esperada y la versión mínima,
+	 * normalmente la reservada por una ejecución anterior, para que las
+	 * versiones no se repitan aunque el reloj retroceda.
+	 *
+	 * @param expectedSize
+	 *            cantidad de usuarios esperada
+	 * @param minVersion
+	 *            versión mínima del repositorio
+	 */
+	public InMemoryUserRepository(int expectedSize, long minVersion) {
+		this.users = new IntUserMap(Runtime.getRuntime()
+				.availableProcessors() * 2, expectedSize);
+		this.indexes = new UserIndexes(expectedSize);
+		this.base = initialVersion(minVersion);
+		initLocks();
+	}
+
+	/**
+	 *
+	 * Calcula la versión inicial del repositorio.
+	 *
+	 * @param minVersion
+	 *            versión mínima del repositorio
+	 * @return el tiempo actual desplazado, o la versión mínima si es mayor
+	 */
+	private static long initialVersion(long minVersion) {
+		return Math.max(System.currentTimeMillis() << VERSION_SHIFT,
+				minVersion);
+	}
+
+	/**
+	 *
+	 * Crea los locks de escritura.
+	 */
+	private void initLocks() {
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#find(int)
+	 */
+	@Override
+	public User find(int id) {
+		return users.get(id);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#findAll()
+	 */
+	@Override
+	public Map<Integer, User> findAll() {
+		Map<Integer, User> snapshot = new TreeMap<>();
+		users.forEach((user, id) -> snapshot.put(id, user));
+		return snapshot;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#findPage(int,
+	 * int)
+	 */
+	@Override
+	public SortedMap<Integer, User> findPage(int after, int limit) {
+		/*
+		 * Los usuarios posteriores al cursor se leen en orden del índice de
+		 * llaves, por lo que el costo depende del tamaño de la página y no
+		 * del repositorio.
+		 */
+		TreeMap<Integer, User> page = new TreeMap<>();
+		users.forEachAfter(after, limit, (user, id) -> page.put(id, user));
+		return page;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#forEach(java
+	 * .util.function.ObjIntConsumer)
+	 */
+	@Override
+	public void forEach(ObjIntConsumer<User> action) {
+		users.forEach(action);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#findByDocument
+	 * (java.lang.String)
+	 */
+	@Override
+	public User findByDocument(String document) {
+		UserIndexes current = indexes;
+		Integer id = current == null ? null : current.document(document);
+		User user = id == null ? null : users.get(id);
+		/* El índice puede tener una reserva que aún no se aplica */
+		return user != null && document.equals(user.getDocument()) ? user
+				: null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#
+	 * findByLastNamePrefix(java.lang.String, int)
+	 */
+	@Override
+	public Map<Integer, User> findByLastNamePrefix(String prefix, int limit) {
+		Map<Integer, User> result = new LinkedHashMap<>();
+		UserIndexes current = indexes;
+		if (current == null) {
+			return result;
+		}
+		Iterator<UserIndexes.Key> keys = current.lastNamePrefix(prefix);
+		while (result.size() < limit && keys.hasNext()) {
+			UserIndexes.Key key = keys.next();
+			User user = users.get(key.id);
+			if (UserIndexes.matches(key, user)) {
+				result.put(key.id, user);
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#createIfAbsent
+	 * (int, com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public User createIfAbsent(int id, User user) {
+		synchronized (lockFor(id)) {
+			User existing = users.get(id);
+			if (existing != null) {
+				return existing;
+			}
+			write(id, null, user);
+			return null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#replaceIfPresent
+	 * (int, com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public User replaceIfPresent(int id, User user) {
+		synchronized (lockFor(id)) {
+			User previous = users.get(id);
+			if (previous != null) {
+				write(id, previous, user);
+			}
+			return previous;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#replaceIfCurrent
+	 * (int, com.drimersion.spark_simple_api.model.User,
+	 * com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public boolean replaceIfCurrent(int id, User expected, User user) {
+		synchronized (lockFor(id)) {
+			User previous = users.get(id);
+			if (previous == null || previous != expected) {
+				return false;
+			}
+			write(id, previous, user);
+			return true;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#remove(int)
+	 */
+	@Override
+	public User remove(int id) {
+		synchronized (lockFor(id)) {
+			User previous = users.get(id);
+			if (previous != null) {
+				write(id, previous, null);
+			}
+			return previous;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#removeIfCurrent
+	 * (int, com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public boolean removeIfCurrent(int id, User expected) {
+		synchronized (lockFor(id)) {
+			User previous = users.get(id);
+			if (previous == null || previous != expected) {
+				return false;
+			}
+			write(id, previous, null);
+			return true;
+		}
+	}
+
+	/**
+	 *
+	 * Aplica una escritura sobre un usuario, con el lock del usuario tomado.
+	 * Las entradas nuevas de los índices se agregan antes de escribir el
+	 * usuario y las anteriores se eliminan después.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param previous
+	 *            usuario actual o null si no existe
+	 * @param user
+	 *            nuevos datos del usuario o null para eliminarlo
+	 * @throws DuplicateDocumentException
+	 *             Si el documento pertenece a otro usuario
+	 */
+	private void write(int id, User previous, User user) {
+		UserIndexes current = indexes;
+		if (current != null && user != null) {
+			current.add(id, user, previous);
+		}
+
+		/*
+		 * La versión del usuario es la cantidad de escrituras de su lock con
+		 * el lock en los bits bajos, única sin un contador global.
+		 */
+		int stripe = id & (LOCK_STRIPES - 1);
+		long count = counters.incrementAndGet(stripe * COUNTER_STRIDE);
+		try {
+			if (user == null) {
+				users.remove(id);
+			} else {
+				user.setVersion(base + (count << STRIPE_BITS | stripe));
+				if (previous == null) {
+					users.putIfAbsent(id, user);
+				} else {
+					users.replace(id, user);
+				}
+			}
+		} finally {
+			counters.incrementAndGet(stripe * COUNTER_STRIDE + 1);
+		}
+
+		if (current != null && previous != null) {
+			current.remove(id, previous, user);
+		}
+	}
+
+	/**
+	 *
+	 * Deja de mantener los índices secundarios, para cargar muchos usuarios
+	 * sin el costo de los índices ni la validación de documentos únicos. Las
+	 * búsquedas por índice no retornan usuarios hasta invocar
+	 * {@link #buildIndexes()}.
+	 */
+	public void dropIndexes() {
+		indexes = null;
+	}
+
+	/**
+	 *
+	 * Construye los índices secundarios con los usuarios actuales y los
+	 * mantiene en las siguientes escrituras. Se debe invocar sin escrituras
+	 * concurrentes, normalmente al terminar la carga inicial. Si varios
+	 * usuarios tienen el mismo documento solo el primero queda en el índice.
+	 *
+	 * @return cantidad de usuarios con un documento duplicado
+	 */
+	public int buildIndexes() {
+		UserIndexes built = new UserIndexes(users);
+		indexes = built;
+		return built.getDuplicates();
+	}
+
+	/**
+	 *
+	 * Retorna el lock que serializa las escrituras de un usuario.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @return lock del usuario
+	 */
+	private Object lockFor(int id) {
+		return locks[id & (LOCK_STRIPES - 1)];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#version()
+	 */
+	@Override
+	public long version() {
+		for (int attempt = 0; attempt < VERSION_RETRIES; attempt++) {
+			/*
+			 * Se leen primero las cantidades terminadas, si suman lo mismo
+			 * que las iniciadas ningún lock tenía escrituras en curso entre
+			 * ambas lecturas.
+			 */
+			long done = 0;
+			for (int i = 1; i < counters.length(); i += COUNTER_STRIDE) {
+				done += counters.get(i);
+			}
+			long begun = 0;
+			for (int i = 0; i < counters.length(); i += COUNTER_STRIDE) {
+				begun += counters.get(i);
+			}
+			if (done == begun) {
+				return base + (done << STRIPE_BITS);
+			}
+			Thread.yield();
+		}
+		return -1;
+	}
+
+	/**
+	 *
+	 * Retorna una cota superior de las versiones asignadas hasta el momento,
+	 * incluidas las de escrituras en curso, para reservarlas antes de
+	 * reiniciar.
+	 *
+	 * @return versión mayor que la de cualquier usuario y la del repositorio
+	 */
+	public long maxVersion() {
+		long begun = 0;
+		for (int i = 0; i < counters.length(); i += COUNTER_STRIDE) {
+			begun += counters.get(i);
+		}
+		return base + ((begun + 1) << STRIPE_BITS);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.drimersion.spark_simple_api.repository.UserRepository#size()
+	 */
+	@Override
+	public int size() {
+		return users.size();
+	}
+
+}
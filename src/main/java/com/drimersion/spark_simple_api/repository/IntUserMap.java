@@ -0,0 +1,862 @@
+package com.drimersion.spark_simple_api.repository;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.ObjIntConsumer;
+
+import com.drimersion.spark_simple_api.model.User;
+
+/**
+ *
+ * Mapa concurrente de usuarios indexado por llaves primitivas de tipo int. El
+ * mapa se divide en segmentos, cada uno con su propio {@link StampedLock} y una
+ * tabla de direccionamiento abierto con sondeo lineal y eliminación por
+ * desplazamiento hacia atrás, por lo que no se crean nodos ni llaves
+ * {@link Integer} por cada entrada.
+ *
+ * <p>
+ * Las lecturas usan lecturas optimistas del segmento y solo toman el bloqueo
+ * de lectura si hubo una escritura concurrente.
+ * </p>
+ *
+ * <p>
+ * Las llaves se registran además en un índice ordenado de un bit por llave,
+ * para recorrer las asociaciones en orden desde una llave sin revisar todo el
+ * mapa.
+ * </p>
+ *
+ * <p>
+ * Huella de memoria aproximada por usuario (JVM de 64 bits con compressed
+ * oops, sin contar el {@link User}):
+ * </p>
+ * <ul>
+ * <li>{@code HashMap<Integer, User>}: nodo de 32 bytes, {@link Integer} de 16
+ * bytes y 4 bytes de tabla con factor de carga 0.75, unos 53 bytes.</li>
+ * <li>{@link IntUserMap}: 4 bytes de llave y 4 bytes de referencia con factor
+ * de carga máximo de 0.75, entre 11 y 21 bytes según el crecimiento, más
+ * el índice ordenado: con llaves consecutivas menos de un byte, y con llaves
+ * dispersas hasta un bloque de 160 bytes por llave.</li>
+ * </ul>
+ * <p>
+ * La prueba {@code IntUserMapTest#usesLessMemoryThanHashMap} mide los bytes
+ * asignados por usuario de ambos mapas.
+ * </p>
+ */
+public final class IntUserMap {
+
+	/**
+	 * Capacidad inicial de la tabla de cada segmento.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Capacidad inicial máxima de la tabla de cada segmento.
+	 */
+	private static final int MAX_INITIAL_CAPACITY = 1 << 30;
+
+	/**
+	 * Segmentos del mapa, la cantidad es potencia de dos.
+	 */
+	private final Segment[] segments;
+
+	/**
+	 * Máscara para seleccionar el segmento a partir del hash.
+	 */
+	private final int segmentMask;
+
+	/**
+	 * Desplazamiento que deja en los bits bajos los bits altos del hash que
+	 * seleccionan el segmento, 32 menos los bits de la cantidad de segmentos.
+	 */
+	private final int segmentShift;
+
+	/**
+	 * Índice ordenado de las llaves.
+	 */
+	private final KeyIndex keys = new KeyIndex();
+
+	/**
+	 * Constructor que usa dos segmentos por cada procesador disponible.
+	 */
+	public IntUserMap() {
+		this(Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	/**
+	 *
+	 * Constructor con la cantidad de segmentos.
+	 *
+	 * @param concurrency
+	 *            cantidad mínima de segmentos, se redondea a potencia de dos
+	 */
+	public IntUserMap(int concurrency) {
+		this(concurrency, 0);
+	}
+
+	/**
+	 *
+	 * Constructor con la cantidad de segmentos y la cantidad de usuarios
+	 * esperada, para evitar que las tablas crezcan durante una carga masiva.
+	 *
+	 * @param concurrency
+	 *            cantidad mínima de segmentos, se redondea a potencia de dos
+	 * @param expectedSize
+	 *            cantidad de usuarios esperada
+	 */
+	public IntUserMap(int concurrency, int expectedSize) {
+		int count = 1;
+		while (count < concurrency) {
+			count <<= 1;
+		}
+
+		/* Capacidad por segmento que mantiene la carga por debajo del 75% */
+		long perSegment = (long) expectedSize / count * 4 / 3 + 1;
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < perSegment && capacity < MAX_INITIAL_CAPACITY) {
+			capacity <<= 1;
+		}
+
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment(capacity, keys);
+		}
+		segmentMask = count - 1;
+		segmentShift = Integer.SIZE - Integer.numberOfTrailingZeros(count);
+	}
+
+	/**
+	 *
+	 * Retorna el usuario asociado a la llave.
+	 *
+	 * @param key
+	 *            identificador del usuario
+	 * @return el usuario o null si no existe
+	 */
+	public User get(int key) {
+		int hash = hash(key);
+		return segmentFor(hash).get(key, hash);
+	}
+
+	/**
+	 *
+	 * Asocia el usuario a la llave solo si no existe una asociación.
+	 *
+	 * @param key
+	 *            identificador del usuario
+	 * @param user
+	 *            usuario a almacenar, no puede ser null
+	 * @return null si se almacenó, o el usuario existente
+	 */
+	public User putIfAbsent(int key, User user) {
+		int hash = hash(key);
+		return segmentFor(hash).put(key, hash, requireValue(user), true);
+	}
+
+	/**
+	 *
+	 * Reemplaza el usuario asociado a la llave solo si existe.
+	 *
+	 * @param key
+	 *            identificador del usuario
+	 * @param user
+	 *            usuario a almacenar, no puede ser null
+	 * @return el usuario anterior o null si no existía
+	 */
+	public User replace(int key, User user) {
+		int hash = hash(key);
+		return segmentFor(hash).replace(key, hash, null, requireValue(user));
+	}
+
+	/**
+	 *
+	 * Reemplaza el usuario asociado a la llave solo si es el esperado, la
+	 * comparación es por referencia.
+	 *
+	 * @param key
+	 *            identificador del usuario
+	 * @param expected
+	 *            usuario que debe estar asociado, no puede ser null
+	 * @param user
+	 *            usuario a almacenar, no puede ser null
+	 * @return true si se reemplazó
+	 */
+	public boolean replace(int key, User expected, User user) {
+		int hash = hash(key);
+		return segmentFor(hash).replace(key, hash, requireValue(expected),
+				requireValue(user)) == expected;
+	}
+
+	/**
+	 *
+	 * Elimina la asociación de la llave.
+	 *
+	 * @param key
+	 *            identificador del usuario
+	 * @return el usuario eliminado o null si no existía
+	 */
+	public User remove(int key) {
+		int hash = hash(key);
+		return segmentFor(hash).remove(key, hash, null);
+	}
+
+	/**
+	 *
+	 * Elimina la asociación de la llave solo si el usuario es el esperado, la
+	 * comparación es por referencia.
+	 *
+	 * @param key
+	 *            identificador del usuario
+	 * @param expected
+	 *            usuario que debe estar asociado, no puede ser null
+	 * @return true si se eliminó
+	 */
+	public boolean remove(int key, User expected) {
+		int hash = hash(key);
+		return segmentFor(hash).remove(key, hash, requireValue(expected))
+				== expected;
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de usuarios, el valor es aproximado si hay
+	 * escrituras concurrentes.
+	 *
+	 * @return cantidad de usuarios
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de segmentos que tienen al menos un usuario, para
+	 * verificar la distribución de las llaves.
+	 *
+	 * @return cantidad de segmentos con usuarios
+	 */
+	int usedSegments() {
+		int used = 0;
+		for (Segment segment : segments) {
+			if (segment.size > 0) {
+				used++;
+			}
+		}
+		return used;
+	}
+
+	/**
+	 *
+	 * Recorre todas las asociaciones del mapa. Cada segmento se copia bajo su
+	 * bloqueo de lectura y la acción se ejecuta por fuera del bloqueo, por lo
+	 * que el recorrido es débilmente consistente.
+	 *
+	 * @param action
+	 *            acción que recibe el usuario y su identificador
+	 */
+	public void forEach(ObjIntConsumer<User> action) {
+		for (Segment segment : segments) {
+			segment.forEach(action);
+		}
+	}
+
+	/**
+	 *
+	 * Recorre en orden de llave las asociaciones con llave mayor a la
+	 * especificada, hasta recorrer la cantidad indicada. El costo es
+	 * proporcional a las asociaciones recorridas más los rangos de llaves
+	 * vacíos, que el índice salta de a 64 llaves o de a bloques completos. El
+	 * recorrido es débilmente consistente.
+	 *
+	 * @param after
+	 *            llave a partir de la cual se recorre, sin incluirla
+	 * @param limit
+	 *            cantidad máxima de asociaciones a recorrer
+	 * @param action
+	 *            acción que recibe el usuario y su identificador
+	 */
+	public void forEachAfter(int after, int limit, ObjIntConsumer<User> action) {
+		int count = 0;
+		long key = keys.next(after);
+		while (key != KeyIndex.NONE && count < limit) {
+			User user = get((int) key);
+			/* La llave pudo eliminarse después de leer el índice */
+			if (user != null) {
+				action.accept(user, (int) key);
+				count++;
+			}
+			key = keys.next((int) key);
+		}
+	}
+
+	/**
+	 *
+	 * Valida que el usuario no sea null, ya que null marca las posiciones
+	 * vacías de la tabla.
+	 *
+	 * @param user
+	 *            usuario a validar
+	 * @return el mismo usuario
+	 */
+	private static User requireValue(User user) {
+		if (user == null) {
+			throw new NullPointerException("El usuario no puede ser null");
+		}
+		return user;
+	}
+
+	/**
+	 *
+	 * Mezcla los bits de la llave (finalizador de murmur3) para distribuir
+	 * llaves consecutivas entre segmentos y posiciones.
+	 *
+	 * @param key
+	 *            llave a mezclar
+	 * @return hash de la llave
+	 */
+	private static int hash(int key) {
+		int h = key;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 *
+	 * Selecciona el segmento con tantos bits altos del hash como bits tiene
+	 * la cantidad de segmentos, los bits bajos se emplean para la posición
+	 * dentro de la tabla. Con un solo segmento el desplazamiento es 32, que
+	 * Java aplica como 0, y la máscara lo anula.
+	 *
+	 * @param hash
+	 *            hash de la llave
+	 * @return segmento de la llave
+	 */
+	private Segment segmentFor(int hash) {
+		return segments[(hash >>> segmentShift) & segmentMask];
+	}
+
+	/**
+	 *
+	 * Tabla inmutable en tamaño de un segmento, se reemplaza completa al
+	 * crecer para que las lecturas optimistas vean siempre arreglos del mismo
+	 * tamaño.
+	 */
+	private static final class Table {
+
+		/**
+		 * Llaves de cada posición.
+		 */
+		final int[] keys;
+
+		/**
+		 * Usuarios de cada posición, null indica posición vacía.
+		 */
+		final User[] values;
+
+		/**
+		 * Máscara de posiciones.
+		 */
+		final int mask;
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param capacity
+		 *            capacidad de la tabla, potencia de dos
+		 */
+		Table(int capacity) {
+			keys = new int[capacity];
+			values = new User[capacity];
+			mask = capacity - 1;
+		}
+
+		/**
+		 *
+		 * Busca la posición de la llave o la primera posición vacía de su
+		 * secuencia de sondeo. El sondeo está acotado por la capacidad para
+		 * que una lectura optimista sobre datos inconsistentes termine.
+		 *
+		 * @param key
+		 *            llave a buscar
+		 * @param hash
+		 *            hash de la llave
+		 * @return posición de la llave o posición vacía
+		 */
+		int indexOf(int key, int hash) {
+			int index = hash & mask;
+			for (int probes = 0; probes <= mask; probes++) {
+				if (values[index] == null || keys[index] == key) {
+					return index;
+				}
+				index = (index + 1) & mask;
+			}
+			return index;
+		}
+
+	}
+
+	/**
+	 *
+	 * Segmento del mapa protegido por su propio bloqueo.
+	 */
+	private static final class Segment extends StampedLock {
+
+		/**
+		 * Constante de serialización.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Tabla actual del segmento.
+		 */
+		volatile Table table;
+
+		/**
+		 * Cantidad de asociaciones del segmento.
+		 */
+		volatile int size;
+
+		/**
+		 * Índice ordenado de las llaves del mapa, se modifica con el bloqueo
+		 * de escritura para que coincida con la tabla.
+		 */
+		final KeyIndex keyIndex;
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param capacity
+		 *            capacidad inicial de la tabla, potencia de dos
+		 * @param keyIndex
+		 *            índice ordenado de las llaves del mapa
+		 */
+		Segment(int capacity, KeyIndex keyIndex) {
+			table = new Table(capacity);
+			this.keyIndex = keyIndex;
+		}
+
+		/**
+		 *
+		 * Busca el usuario de la llave usando primero una lectura optimista.
+		 *
+		 * @param key
+		 *            llave a buscar
+		 * @param hash
+		 *            hash de la llave
+		 * @return el usuario o null
+		 */
+		User get(int key, int hash) {
+			long stamp = tryOptimisticRead();
+			User user = find(table, key, hash);
+			if (!validate(stamp)) {
+				stamp = readLock();
+				try {
+					user = find(table, key, hash);
+				} finally {
+					unlockRead(stamp);
+				}
+			}
+			return user;
+		}
+
+		/**
+		 *
+		 * Busca el usuario de la llave en la tabla.
+		 *
+		 * @param table
+		 *            tabla donde buscar
+		 * @param key
+		 *            llave a buscar
+		 * @param hash
+		 *            hash de la llave
+		 * @return el usuario o null
+		 */
+		private static User find(Table table, int key, int hash) {
+			int index = table.indexOf(key, hash);
+			User user = table.values[index];
+			return user != null && table.keys[index] == key ? user : null;
+		}
+
+		/**
+		 *
+		 * Almacena el usuario de la llave.
+		 *
+		 * @param key
+		 *            llave del usuario
+		 * @param hash
+		 *            hash de la llave
+		 * @param user
+		 *            usuario a almacenar
+		 * @param onlyIfAbsent
+		 *            si es true no se reemplaza un usuario existente
+		 * @return el usuario anterior o null
+		 */
+		User put(int key, int hash, User user, boolean onlyIfAbsent) {
+			long stamp = writeLock();
+			try {
+				Table current = table;
+				int index = current.indexOf(key, hash);
+				User previous = current.values[index];
+				if (previous != null) {
+					if (!onlyIfAbsent) {
+						current.values[index] = user;
+					}
+					return previous;
+				}
+				if ((size + 1) * 4 > current.values.length * 3) {
+					current = resize(current);
+					index = current.indexOf(key, hash);
+				}
+				current.keys[index] = key;
+				current.values[index] = user;
+				size++;
+				keyIndex.add(key);
+				return null;
+			} finally {
+				unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 *
+		 * Reemplaza el usuario de la llave si existe.
+		 *
+		 * @param key
+		 *            llave del usuario
+		 * @param hash
+		 *            hash de la llave
+		 * @param expected
+		 *            usuario que debe estar asociado, o null para cualquiera
+		 * @param user
+		 *            usuario a almacenar
+		 * @return el usuario anterior o null, si es distinto al esperado no
+		 *         se reemplazó
+		 */
+		User replace(int key, int hash, User expected, User user) {
+			long stamp = writeLock();
+			try {
+				Table current = table;
+				int index = current.indexOf(key, hash);
+				User previous = current.values[index];
+				if (previous != null
+						&& (expected == null || previous == expected)) {
+					current.values[index] = user;
+				}
+				return previous;
+			} finally {
+				unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 *
+		 * Elimina la llave desplazando hacia atrás las entradas siguientes de
+		 * la secuencia de sondeo, así no se requieren marcas de borrado.
+		 *
+		 * @param key
+		 *            llave a eliminar
+		 * @param hash
+		 *            hash de la llave
+		 * @param expected
+		 *            usuario que debe estar asociado, o null para cualquiera
+		 * @return el usuario eliminado o null, si es distinto al esperado no
+		 *         se eliminó
+		 */
+		User remove(int key, int hash, User expected) {
+			long stamp = writeLock();
+			try {
+				Table current = table;
+				int[] keys = current.keys;
+				User[] values = current.values;
+				int mask = current.mask;
+				int gap = current.indexOf(key, hash);
+				User previous = values[gap];
+				if (previous == null
+						|| (expected != null && previous != expected)) {
+					return previous;
+				}
+
+				int index = gap;
+				while (true) {
+					index = (index + 1) & mask;
+					if (values[index] == null) {
+						break;
+					}
+					int home = IntUserMap.hash(keys[index]) & mask;
+					/*
+					 * La entrada se mueve al hueco si su posición ideal no
+					 * está entre el hueco y su posición actual.
+					 */
+					if (((index - home) & mask) >= ((index - gap) & mask)) {
+						keys[gap] = keys[index];
+						values[gap] = values[index];
+						gap = index;
+					}
+				}
+				values[gap] = null;
+				size--;
+				keyIndex.remove(key);
+				return previous;
+			} finally {
+				unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 *
+		 * Duplica la capacidad de la tabla, se debe invocar con el bloqueo de
+		 * escritura.
+		 *
+		 * @param current
+		 *            tabla actual
+		 * @return la nueva tabla publicada en el segmento
+		 */
+		private Table resize(Table current) {
+			Table next = new Table(current.values.length << 1);
+			for (int i = 0; i < current.values.length; i++) {
+				User user = current.values[i];
+				if (user != null) {
+					int key = current.keys[i];
+					int index = next.indexOf(key, IntUserMap.hash(key));
+					next.keys[index] = key;
+					next.values[index] = user;
+				}
+			}
+			table = next;
+			return next;
+		}
+
+		/**
+		 *
+		 * Copia las entradas del segmento bajo el bloqueo de lectura y luego
+		 * ejecuta la acción sobre la copia.
+		 *
+		 * @param action
+		 *            acción a ejecutar
+		 */
+		void forEach(ObjIntConsumer<User> action) {
+			int[] keys;
+			User[] values;
+			int count = 0;
+			long stamp = readLock();
+			try {
+				Table current = table;
+				keys = new int[size];
+				values = new User[size];
+				for (int i = 0; i < current.values.length; i++) {
+					User user = current.values[i];
+					if (user != null) {
+						keys[count] = current.keys[i];
+						values[count++] = user;
+					}
+				}
+			} finally {
+				unlockRead(stamp);
+			}
+			for (int i = 0; i < count; i++) {
+				action.accept(values[i], keys[i]);
+			}
+		}
+
+	}
+
+
+	/**
+	 *
+	 * Índice ordenado de las llaves con un bit por llave. Las llaves se
+	 * ordenan como enteros con signo y se dividen en un directorio de tres
+	 * niveles: los bloques de 1024 llaves y los arreglos que los contienen se
+	 * crean con la primera llave de su rango y no se liberan. Los bits se modifican con operaciones atómicas, ya que
+	 * segmentos distintos comparten palabras.
+	 */
+	private static final class KeyIndex {
+
+		/**
+		 * Valor de {@link #next(int)} cuando no hay más llaves.
+		 */
+		static final long NONE = Long.MIN_VALUE;
+
+		/**
+		 * Bits de la llave que seleccionan el arreglo de bloques.
+		 */
+		private static final int TOP_BITS = 10;
+
+		/**
+		 * Bits de la llave que seleccionan el bloque dentro del arreglo.
+		 */
+		private static final int MID_BITS = 12;
+
+		/**
+		 * Bits de la llave dentro de un bloque.
+		 */
+		private static final int BLOCK_BITS = 10;
+
+		/**
+		 * Palabras de 64 bits de cada bloque.
+		 */
+		private static final int WORDS = 1 << (BLOCK_BITS - 6);
+
+		/**
+		 * Cantidad de posiciones de llaves, todas las llaves de tipo int.
+		 */
+		private static final long POSITIONS = 1L << Integer.SIZE;
+
+		/**
+		 * Arreglos de bloques, null si su rango no tiene llaves.
+		 */
+		private final AtomicReferenceArray<AtomicReferenceArray<AtomicLongArray>>
+				directory = new AtomicReferenceArray<>(1 << TOP_BITS);
+
+		/**
+		 *
+		 * Registra una llave.
+		 *
+		 * @param key
+		 *            llave a registrar
+		 */
+		void add(int key) {
+			long position = position(key);
+			block(position, true).getAndAccumulate(word(position),
+					1L << position, (bits, bit) -> bits | bit);
+		}
+
+		/**
+		 *
+		 * Elimina el registro de una llave.
+		 *
+		 * @param key
+		 *            llave a eliminar
+		 */
+		void remove(int key) {
+			long position = position(key);
+			AtomicLongArray block = block(position, false);
+			if (block != null) {
+				block.getAndAccumulate(word(position), ~(1L << position), (
+						bits, mask) -> bits & mask);
+			}
+		}
+
+		/**
+		 *
+		 * Busca la primera llave registrada mayor a la especificada.
+		 *
+		 * @param after
+		 *            llave a partir de la cual se busca, sin incluirla
+		 * @return la llave encontrada o {@link #NONE}
+		 */
+		long next(int after) {
+			long position = position(after) + 1;
+			while (position < POSITIONS) {
+				AtomicReferenceArray<AtomicLongArray> blocks = directory
+						.get((int) (position >>> (MID_BITS + BLOCK_BITS)));
+				if (blocks == null) {
+					position = align(position, MID_BITS + BLOCK_BITS);
+					continue;
+				}
+				AtomicLongArray block = blocks.get((int) (position
+						>>> BLOCK_BITS) & ((1 << MID_BITS) - 1));
+				if (block == null) {
+					position = align(position, BLOCK_BITS);
+					continue;
+				}
+
+				/* Se descartan las llaves anteriores de la primera palabra */
+				int word = word(position);
+				long bits = block.get(word) & (-1L << position);
+				while (bits == 0 && ++word < WORDS) {
+					bits = block.get(word);
+				}
+				if (bits != 0) {
+					long found = (position >>> BLOCK_BITS << BLOCK_BITS)
+							+ ((long) word << 6)
+							+ Long.numberOfTrailingZeros(bits);
+					return (int) found ^ Integer.MIN_VALUE;
+				}
+				position = align(position, BLOCK_BITS);
+			}
+			return NONE;
+		}
+
+		/**
+		 *
+		 * Retorna el bloque de una posición.
+		 *
+		 * @param position
+		 *            posición de la llave
+		 * @param create
+		 *            si es true se crea el bloque si no existe
+		 * @return el bloque o null si no existe y no se debe crear
+		 */
+		private AtomicLongArray block(long position, boolean create) {
+			int top = (int) (position >>> (MID_BITS + BLOCK_BITS));
+			AtomicReferenceArray<AtomicLongArray> blocks = directory.get(top);
+			if (blocks == null) {
+				if (!create) {
+					return null;
+				}
+				directory.compareAndSet(top, null,
+						new AtomicReferenceArray<>(1 << MID_BITS));
+				blocks = directory.get(top);
+			}
+
+			int mid = (int) (position >>> BLOCK_BITS) & ((1 << MID_BITS) - 1);
+			AtomicLongArray block = blocks.get(mid);
+			if (block == null && create) {
+				blocks.compareAndSet(mid, null, new AtomicLongArray(WORDS));
+				block = blocks.get(mid);
+			}
+			return block;
+		}
+
+		/**
+		 *
+		 * Convierte una llave en su posición en el índice, que conserva el
+		 * orden con signo de las llaves.
+		 *
+		 * @param key
+		 *            llave
+		 * @return posición entre 0 y {@link #POSITIONS}
+		 */
+		private static long position(int key) {
+			return (key ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+		}
+
+		/**
+		 *
+		 * Retorna la palabra de una posición dentro de su bloque.
+		 *
+		 * @param position
+		 *            posición de la llave
+		 * @return índice de la palabra
+		 */
+		private static int word(long position) {
+			return (int) (position >>> 6) & (WORDS - 1);
+		}
+
+		/**
+		 *
+		 * Retorna la primera posición del siguiente rango alineado.
+		 *
+		 * @param position
+		 *            posición actual
+		 * @param bits
+		 *            bits del tamaño del rango
+		 * @return primera posición del siguiente rango
+		 */
+		private static long align(long position, int bits) {
+			return ((position >>> bits) + 1) << bits;
+		}
+
+	}
+
+}
@@ -0,0 +1,909 @@
+package com.drimersion.spark_simple_api.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import java.util.function.ObjIntConsumer;
+import java.util.function.UnaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.drimersion.spark_simple_api.codec.UserBinaryCodec;
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.persistence.UserSnapshot;
+import com.drimersion.spark_simple_api.persistence.WriteAheadLog;
+
+/**
+ *
+ * Implementación durable de {@link UserRepository}. Los usuarios se mantienen
+ * en un {@link InMemoryUserRepository} y cada escritura se registra en un
+ * {@link WriteAheadLog} antes de responder, los hilos que escriben al mismo
+ * tiempo comparten la sincronización con el disco. Periódicamente, cuando el
+ * segmento actual del log supera un tamaño, se escribe un
+ * {@link UserSnapshot} y se eliminan los segmentos que ya contiene, de modo
+ * que la recuperación solo lee el último snapshot y los segmentos
+ * posteriores.
+ *
+ * Los registros contienen el estado completo del usuario, por lo que
+ * aplicarlos de nuevo sobre un snapshot que ya los contiene produce el mismo
+ * resultado. Las lecturas pueden ver una escritura antes de que sea durable.
+ * Si el log falla, las escrituras que no alcanzaron a ser durables se
+ * deshacen en memoria y las siguientes se rechazan con
+ * {@link ReadOnlyRepositoryException} sin modificar los usuarios.
+ * Las versiones se reservan por bloques en un archivo del directorio, para
+ * que al reiniciar continúen desde la reserva anterior.
+ */
+public class PersistentUserRepository implements UserRepository,
+		AutoCloseable {
+
+	/**
+	 * Tamaño del segmento del log a partir del cual se escribe un snapshot.
+	 */
+	public static final long DEFAULT_SNAPSHOT_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * Intervalo en segundos para revisar el tamaño del log.
+	 */
+	private static final long SNAPSHOT_CHECK_SECONDS = 10;
+
+	/**
+	 * Operación que almacena el estado completo de un usuario.
+	 */
+	private static final byte PUT = 1;
+
+	/**
+	 * Operación que elimina un usuario.
+	 */
+	private static final byte DELETE = 2;
+
+	/**
+	 * Prefijo de los archivos de snapshot.
+	 */
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+	/**
+	 * Extensión de los archivos de snapshot.
+	 */
+	private static final String SNAPSHOT_SUFFIX = ".bin";
+
+	/**
+	 * Archivo con la versión reservada por la ejecución actual.
+	 */
+	private static final String VERSION_FILE = "version.bin";
+
+	/**
+	 * Versiones que se reservan por adelantado, se renuevan al consumir la
+	 * mitad.
+	 */
+	private static final long VERSION_LEASE = 1L << 40;
+
+	/**
+	 * Cantidad de locks para ordenar las escrituras de un mismo usuario.
+	 */
+	private static final int LOCK_STRIPES = 64;
+
+	/**
+	 * Logger de la clase.
+	 */
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(PersistentUserRepository.class);
+
+	/**
+	 * Directorio de los datos.
+	 */
+	private final Path directory;
+
+	/**
+	 * Usuarios en memoria.
+	 */
+	private final InMemoryUserRepository delegate;
+
+	/**
+	 * Log de escritura.
+	 */
+	private final WriteAheadLog wal;
+
+	/**
+	 * Indica si el directorio no contenía datos.
+	 */
+	private final boolean fresh;
+
+	/**
+	 * Locks que garantizan que las escrituras de un usuario se registran en
+	 * el log en el mismo orden en que se aplican en memoria.
+	 */
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	/**
+	 * Lote en curso de cada hilo.
+	 */
+	private final ThreadLocal<Batch> batches = new ThreadLocal<>();
+
+	/**
+	 * Hilo que revisa el tamaño del log y escribe los snapshots.
+	 */
+	private final ScheduledExecutorService snapshots;
+
+	/**
+	 * Versión almacenada en {@link #VERSION_FILE}, mayor que todas las
+	 * asignadas hasta que se consume la reserva.
+	 */
+	private long reservedVersion;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param directory
+	 *            directorio de los datos
+	 * @param delegate
+	 *            usuarios recuperados
+	 * @param wal
+	 *            log de escritura
+	 * @param fresh
+	 *            indica si el directorio no contenía datos
+	 * @param snapshotBytes
+	 *            tamaño del segmento a partir del cual se escribe un
+	 *            snapshot
+	 */
+	private PersistentUserRepository(Path directory,
+			InMemoryUserRepository delegate,
+			WriteAheadLog wal, boolean fresh, long snapshotBytes) {
+		this.directory = directory;
+		this.delegate = delegate;
+		this.wal = wal;
+		this.fresh = fresh;
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+
+		snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "user-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		snapshots.scheduleWithFixedDelay(() -> {
+			try {
+				reserveVersions();
+			} catch (IOException e) {
+				LOGGER.warn("No fue posible reservar las versiones.", e);
+			}
+			if (wal.getSegmentBytes() >= snapshotBytes) {
+				try {
+					snapshot();
+				} catch (IOException e) {
+					LOGGER.warn("No fue posible escribir el snapshot.", e);
+				}
+			}
+		}, SNAPSHOT_CHECK_SECONDS, SNAPSHOT_CHECK_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 *
+	 * Abre el repositorio recuperando el último snapshot y los segmentos del
+	 * log posteriores a él.
+	 *
+	 * @param directory
+	 *            directorio de los datos, se crea si no existe
+	 * @param snapshotBytes
+	 *            tamaño del segmento a partir del cual se escribe un
+	 *            snapshot
+	 * @return el repositorio recuperado
+	 * @throws IOException
+	 *             Si no es posible recuperar los datos
+	 */
+	public static PersistentUserRepository open(Path directory,
+			long snapshotBytes) throws IOException {
+		return open(directory, snapshotBytes, null);
+	}
+
+	/**
+	 *
+	 * Abre el repositorio recuperando el último snapshot y los segmentos del
+	 * log posteriores a él. Si el directorio no contiene datos se cargan los
+	 * usuarios del snapshot inicial y se escribe un snapshot en el directorio.
+	 *
+	 * @param directory
+	 *            directorio de los datos, se crea si no existe
+	 * @param snapshotBytes
+	 *            tamaño del segmento a partir del cual se escribe un
+	 *            snapshot
+	 * @param seed
+	 *            snapshot con los usuarios iniciales, puede ser null
+	 * @return el repositorio recuperado
+	 * @throws IOException
+	 *             Si no es posible recuperar los datos
+	 */
+	public static PersistentUserRepository open(Path directory,
+			long snapshotBytes, Path seed) throws IOException {
+		return open(directory, snapshotBytes, seed, id -> true);
+	}
+
+	/**
+	 *
+	 * Abre el repositorio recuperando el último snapshot y los segmentos del
+	 * log posteriores a él. Si el directorio no contiene datos se cargan los
+	 * usuarios del snapshot inicial que cumplen el filtro y se escribe un
+	 * snapshot en el directorio.
+	 *
+	 * @param directory
+	 *            directorio de los datos, se crea si no existe
+	 * @param snapshotBytes
+	 *            tamaño del segmento a partir del cual se escribe un
+	 *            snapshot
+	 * @param seed
+	 *            snapshot con los usuarios iniciales, puede ser null
+	 * @param seedFilter
+	 *            identificadores de los usuarios iniciales que se cargan
+	 * @return el repositorio recuperado
+	 * @throws IOException
+	 *             Si no es posible recuperar los datos
+	 */
+	public static PersistentUserRepository open(Path directory,
+			long snapshotBytes, Path seed, IntPredicate seedFilter)
+			throws IOException {
+		return open(directory, snapshotBytes, seed, seedFilter,
+				UnaryOperator.identity());
+	}
+
+	/**
+	 *
+	 * Abre el repositorio transformando el canal de cada segmento del log,
+	 * para simular fallas del disco.
+	 *
+	 * @param directory
+	 *            directorio de los datos, se crea si no existe
+	 * @param snapshotBytes
+	 *            tamaño del segmento a partir del cual se escribe un
+	 *            snapshot
+	 * @param seed
+	 *            snapshot con los usuarios iniciales, puede ser null
+	 * @param seedFilter
+	 *            identificadores de los usuarios iniciales que se cargan
+	 * @param channels
+	 *            transforma el canal de cada segmento del log
+	 * @return el repositorio recuperado
+	 * @throws IOException
+	 *             Si no es posible recuperar los datos
+	 */
+	static PersistentUserRepository open(Path directory, long snapshotBytes,
+			Path seed, IntPredicate seedFilter,
+			UnaryOperator<FileChannel> channels) throws IOException {
+		Files.createDirectories(directory);
+
+		/* Se carga el último snapshot, cubre los segmentos anteriores a él */
+		List<Path> snapshotFiles = snapshots(directory);
+		List<Path> segments = WriteAheadLog.segments(directory);
+		boolean empty = snapshotFiles.isEmpty() && segments.isEmpty();
+		/*
+		 * Los índices se construyen al terminar, el snapshot puede tener
+		 * documentos repetidos de forma transitoria que el log corrige.
+		 */
+		/*
+		 * Las versiones continúan desde la reserva de la ejecución anterior,
+		 * así no se repiten aunque el reloj haya retrocedido.
+		 */
+		long minVersion = readReservedVersion(directory);
+		InMemoryUserRepository users;
+		long first = 0;
+		if (!snapshotFiles.isEmpty()) {
+			Path snapshot = snapshotFiles.get(snapshotFiles.size() - 1);
+			first = snapshotNumber(snapshot);
+			users = load(snapshot, id -> true, minVersion);
+		} else if (empty && seed != null) {
+			users = load(seed, seedFilter, minVersion);
+		} else {
+			users = new InMemoryUserRepository(0, minVersion);
+			users.dropIndexes();
+		}
+
+		/* Se aplican los segmentos posteriores al snapshot en orden */
+		long next = first;
+		for (int i = 0; i < segments.size(); i++) {
+			Path segment = segments.get(i);
+			long number = WriteAheadLog.segmentNumber(segment);
+			next = Math.max(next, number + 1);
+			if (number < first) {
+				continue;
+			}
+
+			long valid = WriteAheadLog.replay(segment,
+					(operation, payload) -> apply(users, operation, payload));
+			long size = Files.size(segment);
+			if (valid < size) {
+				if (i < segments.size() - 1) {
+					throw new IOException("Segmento corrupto: " + segment);
+				}
+				/* Escritura interrumpida al final del último segmento */
+				LOGGER.warn("Se descartan {} bytes incompletos de {}.", size
+						- valid, segment);
+				try (FileChannel channel = FileChannel.open(segment,
+						StandardOpenOption.WRITE)) {
+					channel.truncate(valid);
+				}
+			}
+		}
+
+		int duplicates = users.buildIndexes();
+		if (duplicates > 0) {
+			LOGGER.warn("{} usuarios tienen un documento repetido y no se "
+					+ "pueden buscar por documento.", duplicates);
+		}
+
+		PersistentUserRepository repository = new PersistentUserRepository(
+				directory, users, new WriteAheadLog(directory, next, channels), empty
+						&& seed == null, snapshotBytes);
+		repository.reserveVersions();
+		if (empty && seed != null) {
+			/* Los usuarios iniciales se hacen durables con un snapshot */
+			repository.snapshot();
+		}
+		return repository;
+	}
+
+	/**
+	 *
+	 * Carga un snapshot sin índices y registra el tiempo de carga.
+	 *
+	 * @param snapshot
+	 *            archivo del snapshot
+	 * @param filter
+	 *            identificadores de los usuarios que se cargan
+	 * @param minVersion
+	 *            versión mínima del repositorio
+	 * @return usuarios del snapshot
+	 * @throws IOException
+	 *             Si no es posible leer el snapshot
+	 */
+	private static InMemoryUserRepository load(Path snapshot,
+			IntPredicate filter, long minVersion) throws IOException {
+		long start = System.nanoTime();
+		InMemoryUserRepository users = UserSnapshot.load(snapshot, false,
+				filter, minVersion);
+		LOGGER.info("Se recuperaron {} usuarios del snapshot {} en {} ms.",
+				users.size(), snapshot, TimeUnit.NANOSECONDS.toMillis(System
+						.nanoTime() - start));
+		return users;
+	}
+
+	/**
+	 *
+	 * Lee la versión reservada por la ejecución anterior.
+	 *
+	 * @param directory
+	 *            directorio de los datos
+	 * @return versión reservada, 0 si no existe
+	 * @throws IOException
+	 *             Si no es posible leer la versión o no es válida
+	 */
+	private static long readReservedVersion(Path directory)
+			throws IOException {
+		Path file = directory.resolve(VERSION_FILE);
+		if (!Files.exists(file)) {
+			return 0;
+		}
+		byte[] bytes = Files.readAllBytes(file);
+		if (bytes.length != Long.BYTES) {
+			throw new IOException("Archivo de versión no válido: " + file);
+		}
+		return ByteBuffer.wrap(bytes).getLong();
+	}
+
+	/**
+	 *
+	 * Reserva un nuevo bloque de versiones si se consumió la mitad del
+	 * actual, escribiendo la versión reservada antes de asignarlas. El
+	 * archivo se reemplaza de forma atómica.
+	 *
+	 * @throws IOException
+	 *             Si no es posible escribir la versión
+	 */
+	private synchronized void reserveVersions() throws IOException {
+		long max = delegate.maxVersion();
+		if (max < reservedVersion - VERSION_LEASE / 2) {
+			return;
+		}
+
+		long reserved = max + VERSION_LEASE;
+		Path file = directory.resolve(VERSION_FILE);
+		Path temporary = file.resolveSibling(VERSION_FILE + ".tmp");
+		try (FileChannel out = FileChannel.open(temporary,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+			buffer.putLong(reserved).flip();
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			out.force(true);
+		}
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+		reservedVersion = reserved;
+	}
+
+	/**
+	 *
+	 * Indica si el directorio no contenía datos al abrir el repositorio y no
+	 * se cargó un snapshot inicial.
+	 *
+	 * @return true si el repositorio es nuevo
+	 */
+	public boolean isFresh() {
+		return fresh;
+	}
+
+	/**
+	 *
+	 * Escribe un snapshot con todos los usuarios y elimina los segmentos del
+	 * log y los snapshots que ya no se necesitan.
+	 *
+	 * @throws IOException
+	 *             Si no es posible escribir el snapshot
+	 */
+	public synchronized void snapshot() throws IOException {
+		/*
+		 * Los registros del nuevo segmento se aplican sobre el snapshot al
+		 * recuperar, aunque el snapshot ya contenga algunos de ellos.
+		 */
+		long segment = wal.roll();
+		UserSnapshot.write(directory.resolve(snapshotName(segment)), delegate);
+
+		wal.deleteBefore(segment);
+		for (Path snapshot : snapshots(directory)) {
+			if (snapshotNumber(snapshot) < segment) {
+				Files.deleteIfExists(snapshot);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#find(int)
+	 */
+	@Override
+	public User find(int id) {
+		return delegate.find(id);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#findAll()
+	 */
+	@Override
+	public Map<Integer, User> findAll() {
+		return delegate.findAll();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#findPage(int,
+	 * int)
+	 */
+	@Override
+	public SortedMap<Integer, User> findPage(int after, int limit) {
+		return delegate.findPage(after, limit);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#findByDocument
+	 * (java.lang.String)
+	 */
+	@Override
+	public User findByDocument(String document) {
+		return delegate.findByDocument(document);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#
+	 * findByLastNamePrefix(java.lang.String, int)
+	 */
+	@Override
+	public Map<Integer, User> findByLastNamePrefix(String prefix, int limit) {
+		return delegate.findByLastNamePrefix(prefix, limit);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#forEach(java
+	 * .util.function.ObjIntConsumer)
+	 */
+	@Override
+	public void forEach(ObjIntConsumer<User> action) {
+		delegate.forEach(action);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#createIfAbsent
+	 * (int, com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public User createIfAbsent(int id, User user) {
+		byte[] encoded = UserBinaryCodec.encode(id, user);
+		long sequence;
+		synchronized (lockFor(id)) {
+			checkWritable();
+			User existing = delegate.createIfAbsent(id, user);
+			if (existing != null) {
+				return existing;
+			}
+			sequence = wal.append(PUT, encoded);
+		}
+		await(sequence, id, () -> delegate.removeIfCurrent(id, user));
+		return null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#replaceIfPresent
+	 * (int, com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public User replaceIfPresent(int id, User user) {
+		byte[] encoded = UserBinaryCodec.encode(id, user);
+		User previous;
+		long sequence;
+		synchronized (lockFor(id)) {
+			checkWritable();
+			previous = delegate.replaceIfPresent(id, user);
+			if (previous == null) {
+				return null;
+			}
+			sequence = wal.append(PUT, encoded);
+		}
+		User restored = previous;
+		await(sequence, id,
+				() -> delegate.replaceIfCurrent(id, user, restored));
+		return previous;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#replaceIfCurrent
+	 * (int, com.drimersion.spark_simple_api.model.User,
+	 * com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public boolean replaceIfCurrent(int id, User expected, User user) {
+		byte[] encoded = UserBinaryCodec.encode(id, user);
+		long sequence;
+		synchronized (lockFor(id)) {
+			checkWritable();
+			if (!delegate.replaceIfCurrent(id, expected, user)) {
+				return false;
+			}
+			sequence = wal.append(PUT, encoded);
+		}
+		await(sequence, id,
+				() -> delegate.replaceIfCurrent(id, user, expected));
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#remove(int)
+	 */
+	@Override
+	public User remove(int id) {
+		User previous;
+		long sequence;
+		synchronized (lockFor(id)) {
+			checkWritable();
+			previous = delegate.remove(id);
+			if (previous == null) {
+				return null;
+			}
+			sequence = wal.append(DELETE, ByteBuffer.allocate(Integer.BYTES)
+					.putInt(id).array());
+		}
+		User restored = previous;
+		await(sequence, id, () -> delegate.createIfAbsent(id, restored));
+		return previous;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#batch(java.
+	 * lang.Runnable)
+	 */
+	@Override
+	public void batch(Runnable writes) {
+		if (batches.get() != null) {
+			/* Lote anidado, se sincroniza al terminar el lote externo */
+			writes.run();
+			return;
+		}
+
+		Batch batch = new Batch();
+		batches.set(batch);
+		try {
+			writes.run();
+		} finally {
+			batches.remove();
+			if (batch.last > 0) {
+				sync(batch.last, batch.ids, batch.undos);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#removeIfCurrent
+	 * (int, com.drimersion.spark_simple_api.model.User)
+	 */
+	@Override
+	public boolean removeIfCurrent(int id, User expected) {
+		long sequence;
+		synchronized (lockFor(id)) {
+			checkWritable();
+			if (!delegate.removeIfCurrent(id, expected)) {
+				return false;
+			}
+			sequence = wal.append(DELETE, ByteBuffer.allocate(Integer.BYTES)
+					.putInt(id).array());
+		}
+		await(sequence, id, () -> delegate.createIfAbsent(id, expected));
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.drimersion.spark_simple_api.repository.UserRepository#version()
+	 */
+	@Override
+	public long version() {
+		return delegate.version();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.drimersion.spark_simple_api.repository.UserRepository#size()
+	 */
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		snapshots.shutdownNow();
+		wal.close();
+	}
+
+	/**
+	 *
+	 * Retorna el lock de las escrituras de un usuario.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @return lock del usuario
+	 */
+	private Object lockFor(int id) {
+		return locks[id & (LOCK_STRIPES - 1)];
+	}
+
+	/**
+	 *
+	 * Rechaza la escritura si el log falló, antes de modificar los usuarios
+	 * en memoria.
+	 *
+	 * @throws ReadOnlyRepositoryException
+	 *             Si el log falló
+	 */
+	private void checkWritable() {
+		if (wal.isFailed()) {
+			throw new ReadOnlyRepositoryException();
+		}
+	}
+
+	/**
+	 *
+	 * Espera a que un registro del log sea durable, o lo asocia al lote en
+	 * curso del hilo.
+	 *
+	 * @param sequence
+	 *            secuencia del registro
+	 * @param id
+	 *            identificador del usuario escrito
+	 * @param undo
+	 *            deshace la escritura en memoria si no llega a ser durable
+	 */
+	private void await(long sequence, int id, Runnable undo) {
+		Batch batch = batches.get();
+		if (batch == null) {
+			sync(sequence, Collections.singletonList(id), Collections
+					.singletonList(undo));
+		} else {
+			batch.last = Math.max(batch.last, sequence);
+			batch.ids.add(id);
+			batch.undos.add(undo);
+		}
+	}
+
+	/**
+	 *
+	 * Espera a que un registro del log sea durable. Si el log falla se
+	 * deshacen en memoria las escrituras asociadas, de la última a la
+	 * primera.
+	 *
+	 * @param sequence
+	 *            secuencia del registro
+	 * @param ids
+	 *            identificadores de los usuarios escritos
+	 * @param undos
+	 *            deshacen cada escritura en memoria
+	 * @throws ReadOnlyRepositoryException
+	 *             Si no es posible persistir las escrituras
+	 */
+	private void sync(long sequence, List<Integer> ids, List<Runnable> undos) {
+		try {
+			wal.sync(sequence);
+		} catch (IOException e) {
+			for (int i = undos.size() - 1; i >= 0; i--) {
+				synchronized (lockFor(ids.get(i))) {
+					try {
+						undos.get(i).run();
+					} catch (DuplicateDocumentException undoFailure) {
+						/* Otra escritura tomó el documento mientras tanto */
+						LOGGER.warn("No fue posible deshacer la escritura "
+								+ "del usuario {}.", ids.get(i), undoFailure);
+					}
+				}
+			}
+			throw new ReadOnlyRepositoryException(e);
+		}
+	}
+
+	/**
+	 *
+	 * Aplica un registro del log sobre los usuarios en memoria.
+	 *
+	 * @param users
+	 *            usuarios en memoria
+	 * @param operation
+	 *            operación del registro
+	 * @param payload
+	 *            datos de la operación
+	 */
+	private static void apply(UserRepository users, byte operation,
+			ByteBuffer payload) {
+		switch (operation) {
+		case PUT:
+			User user = UserBinaryCodec.decode(payload);
+			if (users.replaceIfPresent(user.getId(), user) == null) {
+				users.createIfAbsent(user.getId(), user);
+			}
+			break;
+		case DELETE:
+			users.remove(payload.getInt());
+			break;
+		default:
+			throw new IllegalArgumentException("Operación desconocida: "
+					+ operation);
+		}
+	}
+
+	/**
+	 *
+	 * Retorna los snapshots del directorio en orden.
+	 *
+	 * @param directory
+	 *            directorio de los datos
+	 * @return snapshots ordenados por número
+	 * @throws IOException
+	 *             Si no es posible listar el directorio
+	 */
+	private static List<Path> snapshots(Path directory) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+				SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 *
+	 * Retorna el nombre del snapshot que cubre los segmentos anteriores al
+	 * especificado.
+	 *
+	 * @param segment
+	 *            primer segmento posterior al snapshot
+	 * @return nombre del archivo
+	 */
+	private static String snapshotName(long segment) {
+		return String.format("%s%020d%s", SNAPSHOT_PREFIX, segment,
+				SNAPSHOT_SUFFIX);
+	}
+
+	/**
+	 *
+	 * Retorna el número de un snapshot a partir de su nombre.
+	 *
+	 * @param file
+	 *            archivo del snapshot
+	 * @return primer segmento posterior al snapshot
+	 */
+	private static long snapshotNumber(Path file) {
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(),
+				name.length() - SNAPSHOT_SUFFIX.length()));
+	}
+
+	/**
+	 *
+	 * Escrituras del lote en curso de un hilo, se hacen durables con una
+	 * sola sincronización al terminar el lote.
+	 */
+	private static final class Batch {
+
+		/**
+		 * Última secuencia escrita por el lote.
+		 */
+		private long last;
+
+		/**
+		 * Identificadores de los usuarios escritos, en orden.
+		 */
+		private final List<Integer> ids = new ArrayList<>();
+
+		/**
+		 * Deshacen cada escritura en memoria, en orden.
+		 */
+		private final List<Runnable> undos = new ArrayList<>();
+
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.drimersion.spark_simple_api.repository;
+
+/**
+ *
+ * Excepción lanzada cuando el repositorio no puede hacer durables las
+ * escrituras, por ejemplo porque falló el disco. La escritura no se aplica y
+ * el repositorio solo atiende lecturas hasta que se reinicia.
+ */
+public class ReadOnlyRepositoryException extends IllegalStateException {
+
+	/**
+	 * Versión de la serialización.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 *
+	 * Constructor.
+	 */
+	public ReadOnlyRepositoryException() {
+		super("El repositorio solo admite lecturas, el log de escritura falló.");
+	}
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param cause
+	 *            falla que impidió hacer durable la escritura
+	 */
+	public ReadOnlyRepositoryException(Throwable cause) {
+		super("No fue posible persistir la escritura, el repositorio solo "
+				+ "admite lecturas.", cause);
+	}
+
+}
@@ -0,0 +1,539 @@
+package com.drimersion.spark_simple_api.repository;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.drimersion.spark_simple_api.model.User;
+
+/**
+ *
+ * Índices secundarios de los usuarios: un índice hash único por documento y
+ * un índice ordenado por apellido y nombre, sin distinguir mayúsculas, para
+ * las búsquedas por prefijo.
+ *
+ * <p>
+ * Las escrituras de un mismo usuario deben estar serializadas por quien usa
+ * los índices. Las entradas nuevas se agregan antes de escribir el usuario y
+ * las anteriores se eliminan después, por lo que un lector puede encontrar
+ * entradas que aún no corresponden al usuario almacenado y debe verificarlas
+ * con {@link #matches(Key, User)} o comparando el documento.
+ * </p>
+ */
+final class UserIndexes {
+
+	/**
+	 * Identificador del usuario por documento.
+	 */
+	private final ConcurrentHashMap<String, Integer> documents;
+
+	/**
+	 * Usuarios ordenados por apellido, nombre e identificador.
+	 */
+	private final ConcurrentSkipListMap<Key, Boolean> names;
+
+	/**
+	 * Usuarios con un documento repetido al construir los índices.
+	 */
+	private final int duplicates;
+
+	/**
+	 *
+	 * Constructor de los índices vacios.
+	 *
+	 * @param expectedSize
+	 *            cantidad de usuarios esperada
+	 */
+	UserIndexes(int expectedSize) {
+		documents = new ConcurrentHashMap<>(Math.max(16, expectedSize));
+		names = new ConcurrentSkipListMap<>();
+		duplicates = 0;
+	}
+
+	/**
+	 *
+	 * Constructor que indexa los usuarios de un mapa sin escrituras
+	 * concurrentes. Las entradas del índice ordenado se ordenan en un arreglo
+	 * y se enlazan en tiempo lineal, que es varias veces más rápido que
+	 * insertarlas una a una. Si varios usuarios tienen el mismo documento solo
+	 * el primero queda en el índice de documentos.
+	 *
+	 * @param users
+	 *            usuarios a indexar
+	 */
+	UserIndexes(IntUserMap users) {
+		documents = new ConcurrentHashMap<>(Math.max(16, users.size()));
+		List<Key> keys = new ArrayList<>(users.size());
+		int[] repeated = new int[1];
+		users.forEach((user, id) -> {
+			String document = user.getDocument();
+			if (document != null && documents.putIfAbsent(document, id) != null) {
+				repeated[0]++;
+			}
+			keys.add(new Key(user, id));
+		});
+
+		Key[] sorted = keys.toArray(new Key[keys.size()]);
+		Arrays.parallelSort(sorted);
+		names = new ConcurrentSkipListMap<>(new SortedKeys(sorted));
+		duplicates = repeated[0];
+	}
+
+	/**
+	 *
+	 * Agrega las entradas de los nuevos datos de un usuario. Si el documento
+	 * cambia se reserva, y si pertenece a otro usuario no se agrega ninguna
+	 * entrada.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param user
+	 *            nuevos datos del usuario
+	 * @param previous
+	 *            datos actuales del usuario o null si no existe
+	 * @throws DuplicateDocumentException
+	 *             Si el documento pertenece a otro usuario
+	 */
+	void add(int id, User user, User previous) {
+		String document = user.getDocument();
+		if (document != null
+				&& (previous == null || !document.equals(previous
+						.getDocument()))) {
+			Integer owner = documents.putIfAbsent(document, id);
+			if (owner != null && owner != id) {
+				throw new DuplicateDocumentException(document);
+			}
+		}
+		addName(id, user);
+	}
+
+	/**
+	 *
+	 * Agrega la entrada del índice ordenado de un usuario.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param user
+	 *            datos del usuario
+	 */
+	void addName(int id, User user) {
+		names.put(new Key(user, id), Boolean.TRUE);
+	}
+
+	/**
+	 *
+	 * Elimina las entradas de los datos anteriores de un usuario que no
+	 * comparte con sus datos actuales.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param previous
+	 *            datos anteriores del usuario
+	 * @param current
+	 *            datos actuales del usuario o null si se eliminó
+	 */
+	void remove(int id, User previous, User current) {
+		String document = previous.getDocument();
+		if (document != null
+				&& (current == null || !document.equals(current
+						.getDocument()))) {
+			documents.remove(document, id);
+		}
+		Key key = new Key(previous, id);
+		if (current == null || !key.equals(new Key(current, id))) {
+			names.remove(key);
+		}
+	}
+
+	/**
+	 *
+	 * Retorna el identificador registrado para un documento.
+	 *
+	 * @param document
+	 *            documento a buscar
+	 * @return identificador o null si no está registrado
+	 */
+	Integer document(String document) {
+		return documents.get(document);
+	}
+
+	/**
+	 *
+	 * Recorre en orden las entradas cuyo apellido inicia con el prefijo.
+	 *
+	 * @param prefix
+	 *            prefijo del apellido
+	 * @return entradas ordenadas por apellido, nombre e identificador
+	 */
+	Iterator<Key> lastNamePrefix(String prefix) {
+		String normalized = normalize(prefix);
+		Iterator<Key> tail = names.tailMap(
+				new Key(normalized, "", Integer.MIN_VALUE)).keySet().iterator();
+		return new Iterator<Key>() {
+
+			private Key next = advance();
+
+			private Key advance() {
+				if (tail.hasNext()) {
+					Key key = tail.next();
+					if (key.lastName.startsWith(normalized)) {
+						return key;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Key next() {
+				Key key = next;
+				next = advance();
+				return key;
+			}
+
+		};
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de usuarios con un documento repetido al construir
+	 * los índices, que no se pueden buscar por documento.
+	 *
+	 * @return cantidad de usuarios con documento repetido
+	 */
+	int getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 *
+	 * Indica si una entrada corresponde a los datos actuales del usuario.
+	 *
+	 * @param key
+	 *            entrada del índice ordenado
+	 * @param user
+	 *            usuario almacenado, puede ser null
+	 * @return true si la entrada corresponde al usuario
+	 */
+	static boolean matches(Key key, User user) {
+		return user != null
+				&& key.lastName.equals(normalize(user.getLastName()))
+				&& key.name.equals(normalize(user.getName()));
+	}
+
+	/**
+	 *
+	 * Normaliza un valor para compararlo sin distinguir mayúsculas.
+	 *
+	 * @param value
+	 *            valor a normalizar, puede ser null
+	 * @return valor en minúsculas, vacio si es null
+	 */
+	private static String normalize(String value) {
+		return value == null ? "" : value.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 *
+	 * Mapa ordenado de solo lectura sobre un rango de un arreglo ordenado de
+	 * entradas, con el que {@link ConcurrentSkipListMap} se construye en
+	 * tiempo lineal. Los submapas son vistas del mismo arreglo que ubican sus
+	 * límites con búsqueda binaria.
+	 */
+	private static final class SortedKeys extends AbstractMap<Key, Boolean>
+			implements SortedMap<Key, Boolean> {
+
+		/**
+		 * Entradas ordenadas.
+		 */
+		private final Key[] keys;
+
+		/**
+		 * Posición de la primera entrada del rango.
+		 */
+		private final int from;
+
+		/**
+		 * Posición siguiente a la última entrada del rango.
+		 */
+		private final int to;
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param keys
+		 *            entradas ordenadas sin repetidos
+		 */
+		SortedKeys(Key[] keys) {
+			this(keys, 0, keys.length);
+		}
+
+		/**
+		 *
+		 * Constructor de un rango de las entradas.
+		 *
+		 * @param keys
+		 *            entradas ordenadas sin repetidos
+		 * @param from
+		 *            posición de la primera entrada del rango
+		 * @param to
+		 *            posición siguiente a la última entrada del rango
+		 */
+		private SortedKeys(Key[] keys, int from, int to) {
+			this.keys = keys;
+			this.from = from;
+			this.to = Math.max(from, to);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.AbstractMap#entrySet()
+		 */
+		@Override
+		public Set<Map.Entry<Key, Boolean>> entrySet() {
+			return new AbstractSet<Map.Entry<Key, Boolean>>() {
+
+				@Override
+				public int size() {
+					return to - from;
+				}
+
+				@Override
+				public Iterator<Map.Entry<Key, Boolean>> iterator() {
+					return new Iterator<Map.Entry<Key, Boolean>>() {
+
+						private int next = from;
+
+						@Override
+						public boolean hasNext() {
+							return next < to;
+						}
+
+						@Override
+						public Map.Entry<Key, Boolean> next() {
+							if (next == to) {
+								throw new NoSuchElementException();
+							}
+							return new SimpleImmutableEntry<>(keys[next++],
+									Boolean.TRUE);
+						}
+
+					};
+				}
+
+			};
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.AbstractMap#containsKey(java.lang.Object)
+		 */
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof Key
+					&& Arrays.binarySearch(keys, from, to, key) >= 0;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.AbstractMap#get(java.lang.Object)
+		 */
+		@Override
+		public Boolean get(Object key) {
+			return containsKey(key) ? Boolean.TRUE : null;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.SortedMap#comparator()
+		 */
+		@Override
+		public Comparator<? super Key> comparator() {
+			/* Orden natural de las entradas */
+			return null;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.SortedMap#subMap(java.lang.Object, java.lang.Object)
+		 */
+		@Override
+		public SortedMap<Key, Boolean> subMap(Key fromKey, Key toKey) {
+			if (fromKey.compareTo(toKey) > 0) {
+				throw new IllegalArgumentException("fromKey > toKey");
+			}
+			return new SortedKeys(keys, bound(fromKey), bound(toKey));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.SortedMap#headMap(java.lang.Object)
+		 */
+		@Override
+		public SortedMap<Key, Boolean> headMap(Key toKey) {
+			return new SortedKeys(keys, from, bound(toKey));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.SortedMap#tailMap(java.lang.Object)
+		 */
+		@Override
+		public SortedMap<Key, Boolean> tailMap(Key fromKey) {
+			return new SortedKeys(keys, bound(fromKey), to);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.SortedMap#firstKey()
+		 */
+		@Override
+		public Key firstKey() {
+			if (from == to) {
+				throw new NoSuchElementException();
+			}
+			return keys[from];
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.SortedMap#lastKey()
+		 */
+		@Override
+		public Key lastKey() {
+			if (from == to) {
+				throw new NoSuchElementException();
+			}
+			return keys[to - 1];
+		}
+
+		/**
+		 *
+		 * Retorna la posición de la primera entrada del rango mayor o igual a
+		 * una llave, limitada al rango.
+		 *
+		 * @param key
+		 *            llave a ubicar
+		 * @return posición de la entrada, o el final del rango si todas son
+		 *         menores
+		 */
+		private int bound(Key key) {
+			int index = Arrays.binarySearch(keys, from, to, key);
+			return index >= 0 ? index : -index - 1;
+		}
+
+	}
+
+	/**
+	 *
+	 * Entrada del índice ordenado.
+	 */
+	static final class Key implements Comparable<Key> {
+
+		/**
+		 * Apellido normalizado.
+		 */
+		final String lastName;
+
+		/**
+		 * Nombre normalizado.
+		 */
+		final String name;
+
+		/**
+		 * Identificador del usuario.
+		 */
+		final int id;
+
+		/**
+		 *
+		 * Constructor con los datos de un usuario.
+		 *
+		 * @param user
+		 *            datos del usuario
+		 * @param id
+		 *            identificador del usuario
+		 */
+		Key(User user, int id) {
+			this(normalize(user.getLastName()), normalize(user.getName()), id);
+		}
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param lastName
+		 *            apellido normalizado
+		 * @param name
+		 *            nombre normalizado
+		 * @param id
+		 *            identificador del usuario
+		 */
+		Key(String lastName, String name, int id) {
+			this.lastName = lastName;
+			this.name = name;
+			this.id = id;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		@Override
+		public int compareTo(Key other) {
+			int result = lastName.compareTo(other.lastName);
+			if (result == 0) {
+				result = name.compareTo(other.name);
+			}
+			return result != 0 ? result : Integer.compare(id, other.id);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && compareTo((Key) other) == 0;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return (lastName.hashCode() * 31 + name.hashCode()) * 31 + id;
+		}
+
+	}
+
+}
@@ -0,0 +1,188 @@
+package com.drimersion.spark_simple_api.repository;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.ObjIntConsumer;
+
+import com.drimersion.spark_simple_api.model.User;
+
+/**
+ *
+ * Contrato para el almacenamiento de los usuarios del sistema. Las
+ * implementaciones deben ser seguras para ser usadas desde varios hilos al
+ * mismo tiempo y cada operación de escritura debe ser atómica. El documento
+ * de cada usuario es único entre los usuarios almacenados.
+ */
+public interface UserRepository {
+
+	/**
+	 *
+	 * Busca un usuario por su identificador.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @return el usuario o null si no existe
+	 */
+	User find(int id);
+
+	/**
+	 *
+	 * Retorna una copia de todos los usuarios, indexados y ordenados por su
+	 * identificador.
+	 *
+	 * @return {@link Map} con los usuarios del sistema
+	 */
+	Map<Integer, User> findAll();
+
+	/**
+	 *
+	 * Retorna una página de usuarios ordenada por identificador, con los
+	 * usuarios cuyo identificador es mayor al cursor.
+	 *
+	 * @param after
+	 *            cursor de la página, identificador del último usuario de la
+	 *            página anterior o -1 para la primera página
+	 * @param limit
+	 *            cantidad máxima de usuarios de la página
+	 * @return {@link SortedMap} con los usuarios de la página
+	 */
+	SortedMap<Integer, User> findPage(int after, int limit);
+
+	/**
+	 *
+	 * Busca un usuario por su documento con el índice único de documentos.
+	 *
+	 * @param document
+	 *            documento del usuario
+	 * @return el usuario o null si no existe
+	 */
+	User findByDocument(String document);
+
+	/**
+	 *
+	 * Busca los usuarios cuyo apellido inicia con el prefijo, sin distinguir
+	 * mayúsculas, con el índice ordenado por apellido y nombre.
+	 *
+	 * @param prefix
+	 *            prefijo del apellido
+	 * @param limit
+	 *            cantidad máxima de usuarios
+	 * @return {@link Map} con los usuarios ordenados por apellido, nombre e
+	 *         identificador
+	 */
+	Map<Integer, User> findByLastNamePrefix(String prefix, int limit);
+
+	/**
+	 *
+	 * Recorre todos los usuarios sin construir una copia completa del
+	 * repositorio, el orden del recorrido no está definido.
+	 *
+	 * @param action
+	 *            acción que recibe cada usuario y su identificador
+	 */
+	void forEach(ObjIntConsumer<User> action);
+
+	/**
+	 *
+	 * Almacena el usuario solo si no existe otro con el mismo identificador.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param user
+	 *            usuario a almacenar
+	 * @return null si el usuario fue creado, o el usuario existente en caso de
+	 *         conflicto
+	 * @throws DuplicateDocumentException
+	 *             Si el documento pertenece a otro usuario
+	 */
+	User createIfAbsent(int id, User user);
+
+	/**
+	 *
+	 * Reemplaza el usuario solo si ya existe uno con el mismo identificador.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param user
+	 *            nuevos datos del usuario
+	 * @return el usuario anterior, o null si no existía
+	 * @throws DuplicateDocumentException
+	 *             Si el documento pertenece a otro usuario
+	 */
+	User replaceIfPresent(int id, User user);
+
+	/**
+	 *
+	 * Reemplaza el usuario solo si el usuario actual es el esperado, para
+	 * actualizaciones optimistas sobre una versión leída previamente.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param expected
+	 *            usuario leído previamente con {@link #find(int)}
+	 * @param user
+	 *            nuevos datos del usuario
+	 * @return true si se reemplazó
+	 * @throws DuplicateDocumentException
+	 *             Si el documento pertenece a otro usuario
+	 */
+	boolean replaceIfCurrent(int id, User expected, User user);
+
+	/**
+	 *
+	 * Elimina el usuario solo si el usuario actual es el esperado.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param expected
+	 *            usuario leído previamente con {@link #find(int)}
+	 * @return true si se eliminó
+	 */
+	boolean removeIfCurrent(int id, User expected);
+
+	/**
+	 *
+	 * Elimina el usuario con el identificador especificado.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @return el usuario eliminado, o null si no existía
+	 */
+	User remove(int id);
+
+	/**
+	 *
+	 * Retorna la versión del repositorio, que crece con cada escritura. Cada
+	 * usuario almacenado tiene una versión propia que crece con cada una de
+	 * sus escrituras. Para identificar el contenido de una lectura se obtiene
+	 * la versión antes y después de leer, el contenido corresponde a la
+	 * versión solo si ambas son iguales.
+	 *
+	 * @return versión del repositorio, o -1 si las escrituras en curso no
+	 *         permiten obtenerla
+	 */
+	long version();
+
+	/**
+	 *
+	 * Ejecuta varias escrituras como un lote. Las implementaciones durables
+	 * pueden esperar la durabilidad una sola vez al final del lote en lugar de
+	 * una vez por escritura; cada escritura sigue siendo atómica pero el lote
+	 * no lo es en conjunto.
+	 *
+	 * @param writes
+	 *            escrituras a ejecutar en el hilo actual
+	 */
+	default void batch(Runnable writes) {
+		writes.run();
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de usuarios almacenados.
+	 *
+	 * @return cantidad de usuarios
+	 */
+	int size();
+
+}
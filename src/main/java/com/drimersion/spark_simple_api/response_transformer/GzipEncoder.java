@@ -0,0 +1,396 @@
+package com.drimersion.spark_simple_api.response_transformer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ *
+ * Compresión gzip de las respuestas. Los {@link Deflater} se reutilizan desde
+ * un pool acotado porque cada uno reserva memoria nativa que solo se libera
+ * con {@link Deflater#end()}, y una respuesta completa se comprime
+ * directamente en el arreglo del resultado, sin buffers propios de cada hilo
+ * que un hilo virtual por petición crearía en cada petición.
+ */
+public class GzipEncoder {
+
+	/**
+	 * Tamaño mínimo por defecto de una respuesta para comprimirla, por debajo
+	 * los headers de gzip y el costo de comprimir superan el ahorro.
+	 */
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	/**
+	 * Nombre de la codificación en los headers.
+	 */
+	public static final String ENCODING = "gzip";
+
+	/**
+	 * Header gzip sin nombre de archivo ni fecha.
+	 */
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED,
+			0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	/**
+	 * Tamaño del buffer de salida de un flujo comprimido.
+	 */
+	private static final int CHUNK_SIZE = 8192;
+
+	/**
+	 * Tamaño mínimo de una respuesta para comprimirla, negativo deshabilita
+	 * la compresión.
+	 */
+	private final int threshold;
+
+	/**
+	 * Nivel de compresión.
+	 */
+	private final int level;
+
+	/**
+	 * Deflaters disponibles para reutilizar.
+	 */
+	private final BlockingQueue<Deflater> pool;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param threshold
+	 *            tamaño mínimo de una respuesta para comprimirla, negativo
+	 *            deshabilita la compresión
+	 * @param level
+	 *            nivel de compresión de 1 a 9
+	 * @param poolSize
+	 *            cantidad máxima de deflaters que se conservan
+	 */
+	public GzipEncoder(int threshold, int level, int poolSize) {
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException(
+					"Nivel de compresión inválido: " + level);
+		}
+		this.threshold = threshold;
+		this.level = level;
+		this.pool = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+	}
+
+	/**
+	 *
+	 * Indica si el header Accept-Encoding acepta gzip. Se acepta si gzip o el
+	 * comodín aparecen sin calidad 0.
+	 *
+	 * @param header
+	 *            valor del header Accept-Encoding, puede ser null
+	 * @return true si se puede responder con gzip
+	 */
+	public boolean accepts(String header) {
+		if (header == null || threshold < 0) {
+			return false;
+		}
+		int start = 0;
+		while (start < header.length()) {
+			int end = header.indexOf(',', start);
+			if (end < 0) {
+				end = header.length();
+			}
+			int semicolon = header.indexOf(';', start);
+			int nameEnd = semicolon < 0 || semicolon > end ? end : semicolon;
+			String name = header.substring(start, nameEnd).trim();
+			if ((ENCODING.equalsIgnoreCase(name) || "*".equals(name))
+					&& !isZeroQuality(header, nameEnd, end)) {
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 * Indica si una respuesta del tamaño indicado se debe comprimir.
+	 *
+	 * @param length
+	 *            tamaño de la respuesta sin comprimir
+	 * @return true si supera el tamaño mínimo
+	 */
+	public boolean shouldCompress(int length) {
+		return threshold >= 0 && length >= threshold;
+	}
+
+	/**
+	 *
+	 * Comprime una respuesta si supera el tamaño mínimo.
+	 *
+	 * @param bytes
+	 *            respuesta sin comprimir
+	 * @return respuesta comprimida o null si no supera el tamaño mínimo
+	 */
+	public byte[] compressIfLarge(byte[] bytes) {
+		return shouldCompress(bytes.length) ? compress(bytes, 0, bytes.length)
+				: null;
+	}
+
+	/**
+	 *
+	 * Comprime una respuesta en formato gzip.
+	 *
+	 * @param bytes
+	 *            arreglo con la respuesta
+	 * @param offset
+	 *            posición inicial de la respuesta
+	 * @param length
+	 *            tamaño de la respuesta
+	 * @return respuesta comprimida
+	 */
+	public byte[] compress(byte[] bytes, int offset, int length) {
+		Deflater deflater = acquire();
+		try {
+			deflater.setInput(bytes, offset, length);
+			deflater.finish();
+			/* La salida se escribe en el resultado, dejando lugar al final */
+			byte[] result = new byte[HEADER.length + Math.max(64, length / 4)];
+			System.arraycopy(HEADER, 0, result, 0, HEADER.length);
+			int size = HEADER.length;
+			while (!deflater.finished()) {
+				if (size + 8 >= result.length) {
+					result = Arrays.copyOf(result, result.length * 2);
+				}
+				size += deflater.deflate(result, size, result.length - size - 8);
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(bytes, offset, length);
+			writeInt(result, size, (int) crc.getValue());
+			writeInt(result, size + 4, length);
+			size += 8;
+			if (size == result.length) {
+				return result;
+			}
+			byte[] exact = new byte[size];
+			System.arraycopy(result, 0, exact, 0, size);
+			return exact;
+		} finally {
+			release(deflater);
+		}
+	}
+
+	/**
+	 *
+	 * Crea un flujo que comprime lo escrito en otro flujo, para las respuestas
+	 * que se envían por partes. Al cerrarlo se escribe el final del formato
+	 * gzip, se devuelve el deflater al pool y se cierra el flujo envuelto.
+	 *
+	 * @param out
+	 *            flujo donde se escribe la respuesta comprimida
+	 * @return flujo que recibe la respuesta sin comprimir
+	 * @throws IOException
+	 *             Si no es posible escribir el header gzip
+	 */
+	public OutputStream stream(OutputStream out) throws IOException {
+		out.write(HEADER);
+		return new GzipStream(out, acquire());
+	}
+
+	/**
+	 *
+	 * Toma un deflater del pool o crea uno.
+	 *
+	 * @return deflater sin datos pendientes
+	 */
+	private Deflater acquire() {
+		Deflater deflater = pool.poll();
+		return deflater != null ? deflater : new Deflater(level, true);
+	}
+
+	/**
+	 *
+	 * Devuelve un deflater al pool, o libera su memoria si el pool está
+	 * lleno.
+	 *
+	 * @param deflater
+	 *            deflater a devolver
+	 */
+	private void release(Deflater deflater) {
+		deflater.reset();
+		if (!pool.offer(deflater)) {
+			deflater.end();
+		}
+	}
+
+	/**
+	 *
+	 * Indica si los parámetros de una codificación tienen calidad 0.
+	 *
+	 * @param header
+	 *            header Accept-Encoding
+	 * @param from
+	 *            posición de los parámetros
+	 * @param to
+	 *            posición final de la codificación
+	 * @return true si la codificación no es aceptada
+	 */
+	private static boolean isZeroQuality(String header, int from, int to) {
+		String params = header.substring(from, to).replace(" ", "");
+		int q = params.indexOf(";q=");
+		if (q < 0) {
+			return false;
+		}
+		try {
+			return Double.parseDouble(params.substring(q + 3)) == 0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 *
+	 * Escribe un entero en orden little-endian, como lo define gzip.
+	 *
+	 * @param bytes
+	 *            arreglo destino
+	 * @param offset
+	 *            posición donde se escribe
+	 * @param value
+	 *            valor a escribir
+	 */
+	private static void writeInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) value;
+		bytes[offset + 1] = (byte) (value >>> 8);
+		bytes[offset + 2] = (byte) (value >>> 16);
+		bytes[offset + 3] = (byte) (value >>> 24);
+	}
+
+	/**
+	 *
+	 * Flujo gzip con un deflater del pool.
+	 */
+	private final class GzipStream extends FilterOutputStream {
+
+		/**
+		 * Deflater del flujo, null después de cerrarlo.
+		 */
+		private Deflater deflater;
+
+		/**
+		 * Suma de verificación de los datos sin comprimir.
+		 */
+		private final CRC32 crc = new CRC32();
+
+		/**
+		 * Buffer de salida del flujo.
+		 */
+		private final byte[] chunk = new byte[CHUNK_SIZE];
+
+		/**
+		 * Bytes sin comprimir escritos.
+		 */
+		private int length;
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param out
+		 *            flujo donde se escribe la respuesta comprimida
+		 * @param deflater
+		 *            deflater tomado del pool
+		 */
+		GzipStream(OutputStream out, Deflater deflater) {
+			super(out);
+			this.deflater = deflater;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.io.FilterOutputStream#write(int)
+		 */
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.io.FilterOutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public void write(byte[] bytes, int offset, int count)
+				throws IOException {
+			if (deflater == null) {
+				throw new IOException("El flujo está cerrado.");
+			}
+			crc.update(bytes, offset, count);
+			length += count;
+			deflater.setInput(bytes, offset, count);
+			while (!deflater.needsInput()) {
+				drain(Deflater.NO_FLUSH);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.io.FilterOutputStream#flush()
+		 */
+		@Override
+		public void flush() throws IOException {
+			if (deflater != null) {
+				/* Se envía lo comprimido hasta ahora sin terminar el bloque */
+				drain(Deflater.SYNC_FLUSH);
+			}
+			out.flush();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.io.FilterOutputStream#close()
+		 */
+		@Override
+		public void close() throws IOException {
+			if (deflater == null) {
+				return;
+			}
+			try {
+				deflater.finish();
+				while (!deflater.finished()) {
+					drain(Deflater.NO_FLUSH);
+				}
+				byte[] trailer = new byte[8];
+				writeInt(trailer, 0, (int) crc.getValue());
+				writeInt(trailer, 4, length);
+				out.write(trailer);
+			} finally {
+				release(deflater);
+				deflater = null;
+				out.close();
+			}
+		}
+
+		/**
+		 *
+		 * Escribe la salida disponible del deflater.
+		 *
+		 * @param flush
+		 *            modo de vaciado del deflater
+		 * @throws IOException
+		 *             Si no es posible escribir en el flujo
+		 */
+		private void drain(int flush) throws IOException {
+			int count;
+			do {
+				count = deflater.deflate(chunk, 0, chunk.length, flush);
+				out.write(chunk, 0, count);
+			} while (count == chunk.length);
+		}
+
+	}
+
+}
@@ -1,27 +1,145 @@
 package com.drimersion.spark_simple_api.response_transformer;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.drimersion.spark_simple_api.codec.UserProjection;
+import com.drimersion.spark_simple_api.codec.UserTypeAdapter;
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.repository.UserRepository;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
+import spark.Request;
 import spark.ResponseTransformer;
+import spark.Route;
 
 /**
- * 
+ *
  * Clase que implementa el transformador de contenido de spark para generar
- * respuestas en formato json.
- * 
+ * respuestas en formato json. Una única instancia se comparte entre todas las
+ * rutas; por defecto el json es compacto y se puede pedir con indentación con
+ * el parámetro pretty o con el parámetro pretty=true del header Accept. Las
+ * respuestas que superan el tamaño mínimo de compresión se envían con gzip si
+ * el cliente lo acepta, y los usuarios se envían en MessagePack si esa es la
+ * representación negociada para la respuesta. En json los usuarios se pueden
+ * limitar a los campos del parámetro fields.
+ *
  * @author Juan pablo ramírez 21/07/2014 (juan.ramirez.q@gmail.com)
  */
 public class JsonTransformer implements ResponseTransformer {
 
+	/**
+	 * Tipo de contenido de las respuestas json.
+	 */
+	public static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+	/**
+	 * Parámetro con los campos de los usuarios que se responden.
+	 */
+	public static final String FIELDS = "fields";
+
+	/**
+	 * Tamaño del buffer de escritura de las respuestas por streaming.
+	 */
+	private static final int STREAM_BUFFER_SIZE = 8192;
+
+	/**
+	 * Tamaño inicial de un buffer de serialización.
+	 */
+	private static final int BUFFER_SIZE = 4096;
+
+	/**
+	 * Tamaño máximo que puede conservar un buffer entre peticiones, si una
+	 * respuesta lo supera el buffer se descarta.
+	 */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Indentación de las respuestas con formato.
+	 */
+	private static final String INDENT = "  ";
+
+	/**
+	 * Buffers de serialización disponibles para reutilizar. El pool es
+	 * acotado y no propio de cada hilo, ya que con un hilo virtual por
+	 * petición un buffer por hilo se crearía en cada petición; la
+	 * serialización usa la CPU, así que pocos buffers bastan y si faltan se
+	 * crea uno temporal.
+	 */
+	private static final BlockingQueue<Buffer> BUFFERS = new ArrayBlockingQueue<>(
+			Runtime.getRuntime().availableProcessors() * 2);
+
+	/**
+	 * Nivel de compresión por defecto, favorece la velocidad sobre el tamaño.
+	 */
+	private static final int DEFAULT_GZIP_LEVEL = 6;
+
+	/**
+	 * Deflaters que se conservan por defecto.
+	 */
+	private static final int DEFAULT_GZIP_POOL = 32;
+
+	/**
+	 * Compresión gzip de las respuestas.
+	 */
+	private final GzipEncoder gzip;
+
+	/**
+	 * Representación MessagePack de los usuarios.
+	 */
+	private final MessagePackTransformer messagePack = new MessagePackTransformer();
+
+	/**
+	 * Codificador de usuarios sin reflexión.
+	 */
+	private final UserTypeAdapter userAdapter = new UserTypeAdapter();
+
 	/**
 	 * Referencia a una instancia de la librería Gson.
 	 */
-	private Gson gson = new GsonBuilder().setPrettyPrinting().create();
+	private final Gson gson = new GsonBuilder().registerTypeAdapter(
+			User.class, userAdapter).create();
+
+	/**
+	 *
+	 * Constructor con la compresión por defecto.
+	 */
+	public JsonTransformer() {
+		this(new GzipEncoder(GzipEncoder.DEFAULT_THRESHOLD, DEFAULT_GZIP_LEVEL,
+				DEFAULT_GZIP_POOL));
+	}
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param gzip
+	 *            compresión gzip de las respuestas
+	 */
+	public JsonTransformer(GzipEncoder gzip) {
+		this.gzip = gzip;
+	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see spark.ResponseTransformer#render(java.lang.Object)
 	 */
 	@Override
@@ -29,4 +147,499 @@ public class JsonTransformer implements ResponseTransformer {
 		return gson.toJson(model);
 	}
 
+	/**
+	 *
+	 * Lee un objeto json directamente del flujo de entrada en una sola pasada.
+	 *
+	 * @param in
+	 *            flujo de entrada con el json en UTF-8
+	 * @param type
+	 *            tipo del objeto a leer
+	 * @return el objeto leído o null si el flujo está vacio
+	 * @throws JsonParseException
+	 *             Si el contenido no es un json válido para el tipo
+	 */
+	public <T> T read(InputStream in, Class<T> type) throws JsonParseException {
+		JsonReader reader = new JsonReader(new InputStreamReader(in,
+				StandardCharsets.UTF_8));
+		return gson.fromJson(reader, type);
+	}
+
+	/**
+	 *
+	 * Lee un usuario del cuerpo de la petición en json o en MessagePack según
+	 * su Content-Type.
+	 *
+	 * @param request
+	 *            petición en proceso
+	 * @return el usuario leído o null si el cuerpo está vacio
+	 * @throws IOException
+	 *             Si no es posible leer el cuerpo o el MessagePack es inválido
+	 * @throws JsonParseException
+	 *             Si el json no es válido
+	 */
+	public User readUser(Request request) throws IOException,
+			JsonParseException {
+		return readUser(request, request.raw().getInputStream());
+	}
+
+	/**
+	 *
+	 * Lee un usuario de un cuerpo ya leído de la petición, en json o en
+	 * MessagePack según su Content-Type.
+	 *
+	 * @param request
+	 *            petición en proceso
+	 * @param in
+	 *            flujo con el cuerpo de la petición
+	 * @return el usuario leído o null si el cuerpo está vacio
+	 * @throws IOException
+	 *             Si no es posible leer el cuerpo o el MessagePack es inválido
+	 * @throws JsonParseException
+	 *             Si el json no es válido
+	 */
+	public User readUser(Request request, InputStream in) throws IOException,
+			JsonParseException {
+		return messagePack.isMessagePack(request) ? messagePack.readUser(in)
+				: read(in, User.class);
+	}
+
+	/**
+	 *
+	 * Envuelve una ruta para que su resultado se serialice directamente como
+	 * bytes UTF-8 en un buffer del pool y se escriba en la respuesta, sin
+	 * construir un {@link String} intermedio. Si la ruta retorna null se asume
+	 * que ya escribió la respuesta. Si la respuesta se negoció en MessagePack
+	 * y el modelo no tiene esa representación se responde en json.
+	 *
+	 * @param route
+	 *            ruta que retorna el modelo a serializar
+	 * @return ruta que escribe el modelo en formato json
+	 */
+	public Route wrap(Route route) {
+		return (request, response) -> {
+			Object model = route.handle(request, response);
+			if (model != null) {
+				HttpServletResponse raw = response.raw();
+				try {
+					boolean binary = MessagePackTransformer.isMessagePack(raw);
+					if (binary && messagePack.supports(model)) {
+						messagePack.write(model, raw);
+					} else {
+						if (binary) {
+							raw.setContentType(CONTENT_TYPE);
+						}
+						UserProjection fields = fields(request);
+						write(model, isPretty(request), acceptsGzip(request),
+								fields == null ? UserProjection.ALL : fields,
+								raw);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			/* El contenido ya fue escrito en la respuesta. */
+			return "";
+		};
+	}
+
+	/**
+	 *
+	 * Indica si la petición solicita la respuesta con indentación.
+	 *
+	 * @param request
+	 *            petición en proceso
+	 * @return true si se debe indentar la respuesta
+	 */
+	public boolean isPretty(Request request) {
+		String pretty = request.queryParams("pretty");
+		if (pretty != null) {
+			return !"false".equalsIgnoreCase(pretty);
+		}
+		String accept = request.headers("Accept");
+		return accept != null && accept.contains("pretty=true");
+	}
+
+	/**
+	 *
+	 * Retorna la proyección de los campos pedidos en el parámetro
+	 * {@value #FIELDS}.
+	 *
+	 * @param request
+	 *            petición en proceso
+	 * @return proyección de los campos, {@link UserProjection#ALL} si no se
+	 *         indicó el parámetro o null si algún campo no existe
+	 */
+	public UserProjection fields(Request request) {
+		String fields = request.queryParams(FIELDS);
+		return fields == null ? UserProjection.ALL : UserProjection
+				.compile(fields);
+	}
+
+	/**
+	 *
+	 * Indica si la petición acepta respuestas comprimidas con gzip.
+	 *
+	 * @param request
+	 *            petición en proceso
+	 * @return true si se puede responder con gzip
+	 */
+	public boolean acceptsGzip(Request request) {
+		return gzip.accepts(request.headers("Accept-Encoding"));
+	}
+
+	/**
+	 * Retorna el valor de la variable de instancia messagePack
+	 *
+	 * @return valor para messagePack
+	 */
+	public MessagePackTransformer getMessagePack() {
+		return messagePack;
+	}
+
+	/**
+	 * Retorna el valor de la variable de instancia gzip
+	 *
+	 * @return valor para gzip
+	 */
+	public GzipEncoder getGzip() {
+		return gzip;
+	}
+
+	/**
+	 *
+	 * Serializa el modelo en un buffer del pool y lo escribe en la respuesta
+	 * con su longitud.
+	 *
+	 * @param model
+	 *            objeto a serializar
+	 * @param pretty
+	 *            si se debe indentar el json
+	 * @param response
+	 *            respuesta donde se escribe el json
+	 * @throws IOException
+	 *             Si no es posible escribir en la respuesta
+	 */
+	public void write(Object model, boolean pretty,
+			HttpServletResponse response) throws IOException {
+		write(model, pretty, false, response);
+	}
+
+	/**
+	 *
+	 * Serializa el modelo en un buffer del pool y lo escribe en la respuesta
+	 * con su longitud, comprimido si el cliente acepta gzip y supera el
+	 * tamaño mínimo.
+	 *
+	 * @param model
+	 *            objeto a serializar
+	 * @param pretty
+	 *            si se debe indentar el json
+	 * @param acceptsGzip
+	 *            si el cliente acepta gzip
+	 * @param response
+	 *            respuesta donde se escribe el json
+	 * @throws IOException
+	 *             Si no es posible escribir en la respuesta
+	 */
+	public void write(Object model, boolean pretty, boolean acceptsGzip,
+			HttpServletResponse response) throws IOException {
+		write(model, pretty, acceptsGzip, UserProjection.ALL, response);
+	}
+
+	/**
+	 *
+	 * Serializa el modelo con los campos indicados de sus usuarios en un
+	 * buffer del pool y lo escribe en la respuesta con su longitud,
+	 * comprimido si el cliente acepta gzip y supera el tamaño mínimo.
+	 *
+	 * @param model
+	 *            objeto a serializar
+	 * @param pretty
+	 *            si se debe indentar el json
+	 * @param acceptsGzip
+	 *            si el cliente acepta gzip
+	 * @param fields
+	 *            campos de los usuarios que se escriben
+	 * @param response
+	 *            respuesta donde se escribe el json
+	 * @throws IOException
+	 *             Si no es posible escribir en la respuesta
+	 */
+	public void write(Object model, boolean pretty, boolean acceptsGzip,
+			UserProjection fields, HttpServletResponse response)
+			throws IOException {
+		Buffer buffer = acquire();
+		boolean completed = false;
+		try {
+			serialize(model, pretty, fields, buffer);
+			int size = buffer.bytes.size();
+			if (acceptsGzip && gzip.shouldCompress(size)) {
+				write(gzip.compress(buffer.bytes.array(), 0, size), true,
+						response);
+			} else {
+				response.setContentLength(size);
+				buffer.bytes.writeTo(response.getOutputStream());
+			}
+			completed = true;
+		} finally {
+			release(buffer, !completed);
+		}
+	}
+
+	/**
+	 *
+	 * Serializa el modelo en un buffer del pool y retorna una copia de los
+	 * bytes, para conservar la respuesta después de la petición.
+	 *
+	 * @param model
+	 *            objeto a serializar
+	 * @param pretty
+	 *            si se debe indentar el json
+	 * @return json del modelo en UTF-8
+	 */
+	public byte[] toBytes(Object model, boolean pretty) {
+		Buffer buffer = acquire();
+		boolean completed = false;
+		try {
+			serialize(model, pretty, UserProjection.ALL, buffer);
+			byte[] bytes = buffer.bytes.toByteArray();
+			completed = true;
+			return bytes;
+		} catch (IOException e) {
+			/* El buffer es en memoria y no produce errores de escritura */
+			throw new UncheckedIOException(e);
+		} finally {
+			release(buffer, !completed);
+		}
+	}
+
+	/**
+	 *
+	 * Toma un buffer del pool o crea uno.
+	 *
+	 * @return buffer vacio
+	 */
+	private static Buffer acquire() {
+		Buffer buffer = BUFFERS.poll();
+		return buffer != null ? buffer : new Buffer();
+	}
+
+	/**
+	 *
+	 * Devuelve un buffer al pool, descartándolo si creció demasiado, si la
+	 * serialización falló y el escritor puede tener caracteres pendientes, o
+	 * si el pool está lleno.
+	 *
+	 * @param buffer
+	 *            buffer a devolver
+	 * @param discard
+	 *            si se debe descartar el buffer
+	 */
+	private static void release(Buffer buffer, boolean discard) {
+		if (discard || buffer.bytes.size() > MAX_RETAINED_BUFFER_SIZE) {
+			return;
+		}
+		buffer.bytes.reset();
+		BUFFERS.offer(buffer);
+	}
+
+	/**
+	 *
+	 * Escribe una respuesta ya serializada con su longitud.
+	 *
+	 * @param bytes
+	 *            json en UTF-8
+	 * @param response
+	 *            respuesta donde se escribe el json
+	 * @throws IOException
+	 *             Si no es posible escribir en la respuesta
+	 */
+	public void write(byte[] bytes, HttpServletResponse response)
+			throws IOException {
+		write(bytes, false, response);
+	}
+
+	/**
+	 *
+	 * Escribe una respuesta ya serializada con su longitud y, si está
+	 * comprimida, con su codificación.
+	 *
+	 * @param bytes
+	 *            json en UTF-8, comprimido o no
+	 * @param gzipped
+	 *            si los bytes están comprimidos con gzip
+	 * @param response
+	 *            respuesta donde se escribe el json
+	 * @throws IOException
+	 *             Si no es posible escribir en la respuesta
+	 */
+	public void write(byte[] bytes, boolean gzipped,
+			HttpServletResponse response) throws IOException {
+		if (gzipped) {
+			response.setHeader("Content-Encoding", GzipEncoder.ENCODING);
+		}
+		response.setContentLength(bytes.length);
+		response.getOutputStream().write(bytes);
+	}
+
+	/**
+	 *
+	 * Serializa el modelo en el buffer. Con una proyección los usuarios, solos
+	 * o como valores de un mapa, se escriben con sus campos seleccionados.
+	 *
+	 * @param model
+	 *            objeto a serializar
+	 * @param pretty
+	 *            si se debe indentar el json
+	 * @param fields
+	 *            campos de los usuarios que se escriben
+	 * @param buffer
+	 *            buffer de la serialización
+	 * @throws IOException
+	 *             Si no es posible escribir en el buffer
+	 */
+	private void serialize(Object model, boolean pretty,
+			UserProjection fields, Buffer buffer) throws IOException {
+		JsonWriter writer = new JsonWriter(buffer.writer);
+		if (pretty) {
+			writer.setIndent(INDENT);
+		}
+		if (fields.isAll()) {
+			gson.toJson(model, model.getClass(), writer);
+		} else if (model instanceof User) {
+			fields.write(writer, (User) model);
+		} else if (model instanceof Map) {
+			writer.beginObject();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) model).entrySet()) {
+				writer.name(String.valueOf(entry.getKey()));
+				Object value = entry.getValue();
+				if (value instanceof User) {
+					fields.write(writer, (User) value);
+				} else if (value == null) {
+					writer.nullValue();
+				} else {
+					gson.toJson(value, value.getClass(), writer);
+				}
+			}
+			writer.endObject();
+		} else {
+			gson.toJson(model, model.getClass(), writer);
+		}
+		writer.flush();
+	}
+
+	/**
+	 *
+	 * Escribe todos los usuarios del repositorio como un objeto json
+	 * directamente en el flujo de salida, usuario por usuario, sin construir
+	 * la respuesta completa en memoria.
+	 *
+	 * @param users
+	 *            repositorio de usuarios a escribir
+	 * @param pretty
+	 *            si se debe indentar el json
+	 * @param out
+	 *            flujo de salida de la respuesta
+	 * @throws IOException
+	 *             Si no es posible escribir en el flujo de salida
+	 */
+	public void stream(UserRepository users, boolean pretty, OutputStream out)
+			throws IOException {
+		stream(users, pretty, UserProjection.ALL, out);
+	}
+
+	/**
+	 *
+	 * Escribe todos los usuarios del repositorio con los campos indicados
+	 * como un objeto json directamente en el flujo de salida, usuario por
+	 * usuario, sin construir la respuesta completa en memoria.
+	 *
+	 * @param users
+	 *            repositorio de usuarios a escribir
+	 * @param pretty
+	 *            si se debe indentar el json
+	 * @param fields
+	 *            campos de los usuarios que se escriben
+	 * @param out
+	 *            flujo de salida de la respuesta
+	 * @throws IOException
+	 *             Si no es posible escribir en el flujo de salida
+	 */
+	public void stream(UserRepository users, boolean pretty,
+			UserProjection fields, OutputStream out) throws IOException {
+		JsonWriter writer = new JsonWriter(new BufferedWriter(
+				new OutputStreamWriter(out, StandardCharsets.UTF_8),
+				STREAM_BUFFER_SIZE));
+		if (pretty) {
+			writer.setIndent(INDENT);
+		}
+
+		writer.beginObject();
+		try {
+			users.forEach((user, id) -> {
+				try {
+					writer.name(Integer.toString(id));
+					if (fields.isAll()) {
+						userAdapter.write(writer, user);
+					} else {
+						fields.write(writer, user);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		writer.endObject();
+		writer.flush();
+	}
+
+	/**
+	 *
+	 * Buffer de bytes y escritor UTF-8 reutilizados entre peticiones.
+	 */
+	private static final class Buffer {
+
+		/**
+		 * Bytes serializados de la respuesta.
+		 */
+		final Bytes bytes = new Bytes();
+
+		/**
+		 * Escritor UTF-8 sobre los bytes.
+		 */
+		final Writer writer = new OutputStreamWriter(bytes,
+				StandardCharsets.UTF_8);
+
+	}
+
+	/**
+	 *
+	 * Bytes serializados con acceso al arreglo interno, para comprimirlos sin
+	 * copiarlos.
+	 */
+	private static final class Bytes extends ByteArrayOutputStream {
+
+		/**
+		 *
+		 * Constructor.
+		 */
+		Bytes() {
+			super(BUFFER_SIZE);
+		}
+
+		/**
+		 *
+		 * Retorna el arreglo interno, válido hasta la siguiente escritura.
+		 *
+		 * @return arreglo con los bytes escritos al inicio
+		 */
+		byte[] array() {
+			return buf;
+		}
+
+	}
+
 }
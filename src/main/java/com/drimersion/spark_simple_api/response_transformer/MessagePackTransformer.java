@@ -0,0 +1,232 @@
+package com.drimersion.spark_simple_api.response_transformer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import spark.Request;
+
+import com.drimersion.spark_simple_api.codec.MessagePackReader;
+import com.drimersion.spark_simple_api.codec.MessagePackWriter;
+import com.drimersion.spark_simple_api.codec.UserMessagePackCodec;
+import com.drimersion.spark_simple_api.model.User;
+
+/**
+ *
+ * Representación MessagePack de los usuarios, de las colecciones de usuarios y
+ * de los errores, para los clientes que la piden en el header Accept. Los
+ * demás modelos se siguen respondiendo en json.
+ */
+public class MessagePackTransformer {
+
+	/**
+	 * Tipo de contenido MessagePack.
+	 */
+	public static final String CONTENT_TYPE = "application/msgpack";
+
+	/**
+	 * Tipo de contenido MessagePack usado antes de registrarse el oficial.
+	 */
+	private static final String LEGACY_CONTENT_TYPE = "application/x-msgpack";
+
+	/**
+	 * Tipo de contenido json.
+	 */
+	private static final String JSON_CONTENT_TYPE = "application/json";
+
+	/**
+	 * Tamaño del buffer de lectura del cuerpo.
+	 */
+	private static final int READ_BUFFER_SIZE = 512;
+
+	/**
+	 *
+	 * Indica si el header Accept prefiere MessagePack sobre json: debe
+	 * aceptarlo con calidad mayor a 0 y no menor que la de json.
+	 *
+	 * @param request
+	 *            petición en proceso
+	 * @return true si se debe responder en MessagePack
+	 */
+	public boolean accepts(Request request) {
+		String accept = request.headers("Accept");
+		if (accept == null) {
+			return false;
+		}
+		double messagePack = 0;
+		double json = -1;
+		for (String range : accept.split(",")) {
+			int semicolon = range.indexOf(';');
+			String type = (semicolon < 0 ? range : range.substring(0,
+					semicolon)).trim().toLowerCase(Locale.ROOT);
+			if (CONTENT_TYPE.equals(type) || LEGACY_CONTENT_TYPE.equals(type)) {
+				messagePack = Math.max(messagePack, quality(range, semicolon));
+			} else if (JSON_CONTENT_TYPE.equals(type)) {
+				json = Math.max(json, quality(range, semicolon));
+			}
+		}
+		return messagePack > 0 && messagePack >= json;
+	}
+
+	/**
+	 *
+	 * Indica si el cuerpo de la petición está en MessagePack.
+	 *
+	 * @param request
+	 *            petición en proceso
+	 * @return true si el Content-Type es MessagePack
+	 */
+	public boolean isMessagePack(Request request) {
+		return isMessagePack(request.contentType());
+	}
+
+	/**
+	 *
+	 * Indica si la respuesta se negoció en MessagePack.
+	 *
+	 * @param response
+	 *            respuesta en proceso
+	 * @return true si el Content-Type de la respuesta es MessagePack
+	 */
+	public static boolean isMessagePack(HttpServletResponse response) {
+		return isMessagePack(response.getContentType());
+	}
+
+	/**
+	 *
+	 * Indica si el modelo tiene representación MessagePack.
+	 *
+	 * @param model
+	 *            modelo a escribir
+	 * @return true si es un usuario o una colección de usuarios
+	 */
+	public boolean supports(Object model) {
+		if (model instanceof User) {
+			return true;
+		}
+		if (!(model instanceof Map)) {
+			return false;
+		}
+		/* Se revisa una entrada, las colecciones son homogéneas */
+		for (Map.Entry<?, ?> entry : ((Map<?, ?>) model).entrySet()) {
+			return entry.getKey() instanceof Integer
+					&& entry.getValue() instanceof User;
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * Lee un usuario del cuerpo de la petición.
+	 *
+	 * @param in
+	 *            flujo con el cuerpo
+	 * @return usuario leído o null si el cuerpo está vacio
+	 * @throws IOException
+	 *             Si el contenido no es un usuario válido
+	 */
+	public User readUser(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream(READ_BUFFER_SIZE);
+		byte[] buffer = new byte[READ_BUFFER_SIZE];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			body.write(buffer, 0, count);
+		}
+		if (body.size() == 0) {
+			return null;
+		}
+		MessagePackReader reader = new MessagePackReader(body.toByteArray(),
+				0, body.size());
+		User user = UserMessagePackCodec.read(reader);
+		if (reader.hasNext()) {
+			throw new IOException("El cuerpo tiene contenido después del usuario.");
+		}
+		return user;
+	}
+
+	/**
+	 *
+	 * Codifica un usuario o una colección de usuarios.
+	 *
+	 * @param model
+	 *            modelo soportado por {@link #supports(Object)}
+	 * @return modelo codificado
+	 */
+	@SuppressWarnings("unchecked")
+	public byte[] toBytes(Object model) {
+		MessagePackWriter writer = new MessagePackWriter();
+		if (model instanceof User) {
+			UserMessagePackCodec.write(writer, (User) model);
+		} else {
+			UserMessagePackCodec.write(writer, (Map<Integer, User>) model);
+		}
+		return writer.toByteArray();
+	}
+
+	/**
+	 *
+	 * Escribe un usuario o una colección de usuarios en la respuesta con su
+	 * longitud.
+	 *
+	 * @param model
+	 *            modelo soportado por {@link #supports(Object)}
+	 * @param response
+	 *            respuesta donde se escribe
+	 * @throws IOException
+	 *             Si no es posible escribir en la respuesta
+	 */
+	public void write(Object model, HttpServletResponse response)
+			throws IOException {
+		byte[] bytes = toBytes(model);
+		response.setContentLength(bytes.length);
+		response.getOutputStream().write(bytes);
+	}
+
+	/**
+	 *
+	 * Indica si un tipo de contenido es MessagePack.
+	 *
+	 * @param contentType
+	 *            tipo de contenido, puede ser null
+	 * @return true si es MessagePack
+	 */
+	private static boolean isMessagePack(String contentType) {
+		return contentType != null
+				&& (contentType.regionMatches(true, 0, CONTENT_TYPE, 0,
+						CONTENT_TYPE.length()) || contentType.regionMatches(
+						true, 0, LEGACY_CONTENT_TYPE, 0,
+						LEGACY_CONTENT_TYPE.length()));
+	}
+
+	/**
+	 *
+	 * Lee la calidad de un rango del header Accept.
+	 *
+	 * @param range
+	 *            rango con sus parámetros
+	 * @param semicolon
+	 *            posición del primer parámetro, negativa si no tiene
+	 * @return calidad del rango, 1 si no la indica
+	 */
+	private static double quality(String range, int semicolon) {
+		if (semicolon < 0) {
+			return 1;
+		}
+		for (String param : range.substring(semicolon + 1).split(";")) {
+			String trimmed = param.trim();
+			if (trimmed.startsWith("q=")) {
+				try {
+					return Double.parseDouble(trimmed.substring(2));
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+
+}
@@ -0,0 +1,586 @@
+package com.drimersion.spark_simple_api.route;
+
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntPredicate;
+
+import javax.servlet.http.HttpServletResponse;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import com.drimersion.spark_simple_api.cache.ResponseCache;
+import com.drimersion.spark_simple_api.codec.UserTypeAdapter;
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.repository.DuplicateDocumentException;
+import com.drimersion.spark_simple_api.repository.ReadOnlyRepositoryException;
+import com.drimersion.spark_simple_api.repository.UserRepository;
+import com.drimersion.spark_simple_api.util.HttpStatusCode;
+import com.drimersion.spark_simple_api.util.SparkUtils;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ *
+ * Ruta que aplica una operación sobre muchos usuarios en una sola petición.
+ * El cuerpo puede ser un arreglo json o json delimitado por líneas (NDJSON),
+ * y se lee de manera incremental: los elementos se aplican en lotes de
+ * {@link #BATCH_SIZE} y el resultado de cada lote se escribe en la respuesta
+ * antes de leer el siguiente, por lo que la memoria usada no depende del
+ * tamaño de la petición.
+ *
+ * La respuesta siempre tiene el código 200 y usa el mismo formato del
+ * cuerpo, con un resultado por elemento que indica su posición, su
+ * identificador y el código de estado que tendría la operación individual.
+ * Si el cuerpo no es un json válido se agrega un resultado 400 y se detiene
+ * el procesamiento; los lotes anteriores ya quedaron aplicados. Si el
+ * repositorio no puede persistir un lote, sus escrituras se deshacen y los
+ * elementos se marcan con el código 503, igual que los siguientes. En un
+ * cluster los elementos de usuarios de otro nodo no se aplican y se marcan
+ * con el código 421.
+ */
+public class BulkUserRoute implements Route {
+
+	/**
+	 * Cantidad de elementos que se aplican en cada lote.
+	 */
+	public static final int BATCH_SIZE = 1000;
+
+	/**
+	 * Tipo de contenido de json delimitado por líneas.
+	 */
+	public static final String NDJSON = "application/x-ndjson";
+
+	/**
+	 * Tamaño del buffer de escritura de los resultados.
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 *
+	 * Operación que se aplica a cada elemento.
+	 */
+	public enum Operation {
+
+		/**
+		 * Crea los usuarios, equivalente a POST /users.
+		 */
+		CREATE,
+
+		/**
+		 * Reemplaza los usuarios, equivalente a PUT /users/:id.
+		 */
+		UPDATE,
+
+		/**
+		 * Elimina los usuarios, equivalente a DELETE /users/:id.
+		 */
+		DELETE
+
+	}
+
+	/**
+	 * Repositorio de usuarios.
+	 */
+	private final UserRepository users;
+
+	/**
+	 * Cache de respuestas que se invalida con cada escritura.
+	 */
+	private final ResponseCache cache;
+
+	/**
+	 * Operación de la ruta.
+	 */
+	private final Operation operation;
+
+	/**
+	 * Identificadores de los usuarios que pertenecen al nodo.
+	 */
+	private final IntPredicate local;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param users
+	 *            repositorio de usuarios
+	 * @param cache
+	 *            cache de respuestas
+	 * @param operation
+	 *            operación que se aplica a cada elemento
+	 */
+	public BulkUserRoute(UserRepository users, ResponseCache cache,
+			Operation operation) {
+		this(users, cache, operation, id -> true);
+	}
+
+	/**
+	 *
+	 * Constructor para un nodo del cluster.
+	 *
+	 * @param users
+	 *            repositorio de usuarios
+	 * @param cache
+	 *            cache de respuestas
+	 * @param operation
+	 *            operación que se aplica a cada elemento
+	 * @param local
+	 *            identificadores de los usuarios que pertenecen al nodo
+	 */
+	public BulkUserRoute(UserRepository users, ResponseCache cache,
+			Operation operation, IntPredicate local) {
+		this.users = users;
+		this.cache = cache;
+		this.operation = operation;
+		this.local = local;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see spark.Route#handle(spark.Request, spark.Response)
+	 */
+	@Override
+	public Object handle(Request request, Response response) {
+		String contentType = request.contentType();
+		boolean ndjson = contentType != null && contentType.contains("ndjson");
+		HttpServletResponse raw = response.raw();
+		raw.setStatus(200);
+		if (ndjson) {
+			raw.setContentType(NDJSON + "; charset=UTF-8");
+		}
+
+		try {
+			JsonReader reader = new JsonReader(new InputStreamReader(request
+					.raw().getInputStream(), StandardCharsets.UTF_8));
+			/* Permite varios valores en el documento para leer NDJSON */
+			reader.setLenient(true);
+			Writer out = new BufferedWriter(new OutputStreamWriter(
+					raw.getOutputStream(), StandardCharsets.UTF_8),
+					BUFFER_SIZE);
+			process(reader, new Results(out, ndjson));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		/* Los resultados ya fueron escritos en la respuesta */
+		return "";
+	}
+
+	/**
+	 *
+	 * Lee los elementos del cuerpo y los aplica por lotes.
+	 *
+	 * @param reader
+	 *            lector del cuerpo
+	 * @param results
+	 *            escritor de los resultados
+	 * @throws IOException
+	 *             Si no es posible escribir los resultados
+	 */
+	private void process(JsonReader reader, Results results)
+			throws IOException {
+		Batch batch = new Batch();
+		boolean array = false;
+		try {
+			try {
+				array = reader.peek() == JsonToken.BEGIN_ARRAY;
+			} catch (EOFException e) {
+				/* Cuerpo vacio */
+				results.finish();
+				return;
+			}
+			if (array) {
+				/* Solo el formato NDJSON necesita el modo permisivo */
+				reader.setLenient(false);
+				reader.beginArray();
+			}
+
+			while (reader.hasNext()
+					&& reader.peek() != JsonToken.END_DOCUMENT) {
+				batch.add(readItem(reader));
+				if (batch.size == BATCH_SIZE) {
+					apply(batch);
+					results.write(batch);
+					batch.clear();
+				}
+			}
+			if (array) {
+				reader.endArray();
+			}
+		} catch (MalformedJsonException | EOFException
+				| IllegalStateException e) {
+			/* El cuerpo no es un json válido, se aplica lo leído */
+			apply(batch);
+			results.write(batch);
+			batch.clear();
+			batch.add(SparkUtils.INVALID_ID, null, HttpStatusCode._400.getCode());
+			results.write(batch);
+			results.finish();
+			return;
+		}
+
+		apply(batch);
+		results.write(batch);
+		results.finish();
+	}
+
+	/**
+	 *
+	 * Aplica la operación a los elementos válidos del lote.
+	 *
+	 * @param batch
+	 *            lote de elementos
+	 */
+	private void apply(Batch batch) {
+		try {
+			users.batch(() -> {
+				for (int i = 0; i < batch.size; i++) {
+					if (batch.statuses[i] == 0 && !local.test(batch.ids[i])) {
+						/* El usuario pertenece a otro nodo */
+						batch.statuses[i] = HttpStatusCode._421.getCode();
+					} else if (batch.statuses[i] == 0) {
+						batch.statuses[i] = apply(batch.ids[i],
+								batch.users[i]);
+						if (batch.statuses[i] < 300) {
+							cache.invalidate(batch.ids[i]);
+						}
+					}
+					/* Se libera el usuario leído */
+					batch.users[i] = null;
+				}
+			});
+		} catch (ReadOnlyRepositoryException e) {
+			/*
+			 * El repositorio deshizo las escrituras del lote, la cache pudo
+			 * guardar los usuarios antes de deshacerlas.
+			 */
+			for (int i = 0; i < batch.size; i++) {
+				if (batch.statuses[i] < 300) {
+					batch.statuses[i] = HttpStatusCode._503.getCode();
+					cache.invalidate(batch.ids[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Aplica la operación a un elemento.
+	 *
+	 * @param id
+	 *            identificador del usuario
+	 * @param user
+	 *            datos del usuario, null para la eliminación
+	 * @return código de estado del elemento
+	 */
+	private int apply(int id, User user) {
+		try {
+			switch (operation) {
+			case CREATE:
+				return users.createIfAbsent(id, user) == null ? 201
+						: HttpStatusCode._409.getCode();
+			case UPDATE:
+				return users.replaceIfPresent(id, user) == null ? HttpStatusCode._404
+						.getCode() : 200;
+			default:
+				return users.remove(id) == null ? HttpStatusCode._404
+						.getCode() : 200;
+			}
+		} catch (DuplicateDocumentException e) {
+			/* El documento pertenece a otro usuario */
+			return HttpStatusCode._409.getCode();
+		} catch (ReadOnlyRepositoryException e) {
+			/* El disco falló, la escritura no se aplicó */
+			return HttpStatusCode._503.getCode();
+		}
+	}
+
+	/**
+	 *
+	 * Lee un elemento del cuerpo. Los errores de tipo de un elemento no
+	 * detienen la lectura, el elemento se consume completo y se marca con el
+	 * código 422.
+	 *
+	 * @param reader
+	 *            lector del cuerpo
+	 * @return elemento leído
+	 * @throws IOException
+	 *             Si el cuerpo no es un json válido
+	 */
+	private Item readItem(JsonReader reader) throws IOException {
+		Item item = new Item();
+		JsonToken token = reader.peek();
+		if (operation == Operation.DELETE && token == JsonToken.NUMBER) {
+			/* La eliminación acepta solo el identificador */
+			item.id = SparkUtils.parseId(reader.nextString());
+			item.valid = item.id != SparkUtils.INVALID_ID;
+			return item;
+		}
+		if (token != JsonToken.BEGIN_OBJECT) {
+			reader.skipValue();
+			return item;
+		}
+
+		User user = new User();
+		boolean valid = true;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			switch (name) {
+			case UserTypeAdapter.ID:
+				if (reader.peek() == JsonToken.NUMBER) {
+					item.id = SparkUtils.parseId(reader.nextString());
+				} else {
+					reader.skipValue();
+				}
+				break;
+			case UserTypeAdapter.NAME:
+			case UserTypeAdapter.LAST_NAME:
+			case UserTypeAdapter.DOCUMENT:
+				JsonToken value = reader.peek();
+				String text = null;
+				if (value == JsonToken.STRING) {
+					text = reader.nextString();
+				} else if (value == JsonToken.NULL) {
+					reader.nextNull();
+				} else {
+					reader.skipValue();
+					valid = false;
+				}
+				set(user, name, text);
+				break;
+			default:
+				/* Los campos desconocidos se ignoran */
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		item.valid = valid && item.id != SparkUtils.INVALID_ID;
+		if (item.valid) {
+			user.setId(item.id);
+			item.user = user;
+		}
+		return item;
+	}
+
+	/**
+	 *
+	 * Asigna un campo de texto del usuario.
+	 *
+	 * @param user
+	 *            usuario leído
+	 * @param name
+	 *            nombre del campo
+	 * @param value
+	 *            valor del campo
+	 */
+	private static void set(User user, String name, String value) {
+		switch (name) {
+		case UserTypeAdapter.NAME:
+			user.setName(value);
+			break;
+		case UserTypeAdapter.LAST_NAME:
+			user.setLastName(value);
+			break;
+		default:
+			user.setDocument(value);
+		}
+	}
+
+	/**
+	 *
+	 * Elemento leído del cuerpo.
+	 */
+	private static final class Item {
+
+		/**
+		 * Identificador del usuario.
+		 */
+		int id = SparkUtils.INVALID_ID;
+
+		/**
+		 * Datos del usuario, null en la eliminación.
+		 */
+		User user;
+
+		/**
+		 * Indica si el elemento es válido para la operación.
+		 */
+		boolean valid;
+
+	}
+
+	/**
+	 *
+	 * Lote de elementos con sus resultados, se reutiliza entre lotes.
+	 */
+	private static final class Batch {
+
+		/**
+		 * Identificadores de los elementos.
+		 */
+		final int[] ids = new int[BATCH_SIZE + 1];
+
+		/**
+		 * Usuarios de los elementos.
+		 */
+		final User[] users = new User[BATCH_SIZE + 1];
+
+		/**
+		 * Código de estado de cada elemento, 0 si aún no se aplica.
+		 */
+		final int[] statuses = new int[BATCH_SIZE + 1];
+
+		/**
+		 * Cantidad de elementos del lote.
+		 */
+		int size;
+
+		/**
+		 *
+		 * Agrega un elemento leído, los elementos inválidos se marcan con el
+		 * código 422.
+		 *
+		 * @param item
+		 *            elemento leído
+		 */
+		void add(Item item) {
+			add(item.id, item.user, item.valid ? 0 : HttpStatusCode._422
+					.getCode());
+		}
+
+		/**
+		 *
+		 * Agrega un elemento.
+		 *
+		 * @param id
+		 *            identificador del usuario
+		 * @param user
+		 *            datos del usuario
+		 * @param status
+		 *            código de estado, 0 si aún no se aplica
+		 */
+		void add(int id, User user, int status) {
+			ids[size] = id;
+			users[size] = user;
+			statuses[size] = status;
+			size++;
+		}
+
+		/**
+		 * Vacía el lote.
+		 */
+		void clear() {
+			size = 0;
+		}
+
+	}
+
+	/**
+	 *
+	 * Escritor de los resultados en formato arreglo json o NDJSON.
+	 */
+	private static final class Results {
+
+		/**
+		 * Escritor de la respuesta.
+		 */
+		private final Writer out;
+
+		/**
+		 * Escritor json sobre la respuesta.
+		 */
+		private final JsonWriter writer;
+
+		/**
+		 * Indica si los resultados se escriben como NDJSON.
+		 */
+		private final boolean ndjson;
+
+		/**
+		 * Posición del siguiente elemento.
+		 */
+		private int index;
+
+		/**
+		 *
+		 * Constructor, en formato arreglo inicia el arreglo de resultados.
+		 *
+		 * @param out
+		 *            escritor de la respuesta
+		 * @param ndjson
+		 *            indica si los resultados se escriben como NDJSON
+		 * @throws IOException
+		 *             Si no es posible escribir
+		 */
+		Results(Writer out, boolean ndjson) throws IOException {
+			this.out = out;
+			this.writer = new JsonWriter(out);
+			this.ndjson = ndjson;
+			if (ndjson) {
+				/* Permite escribir varios valores en el documento */
+				writer.setLenient(true);
+			} else {
+				writer.beginArray();
+			}
+		}
+
+		/**
+		 *
+		 * Escribe los resultados de un lote y los envía al cliente.
+		 *
+		 * @param batch
+		 *            lote aplicado
+		 * @throws IOException
+		 *             Si no es posible escribir
+		 */
+		void write(Batch batch) throws IOException {
+			for (int i = 0; i < batch.size; i++) {
+				writer.beginObject();
+				writer.name("index").value(index++);
+				if (batch.ids[i] != SparkUtils.INVALID_ID) {
+					writer.name(UserTypeAdapter.ID).value(batch.ids[i]);
+				}
+				int status = batch.statuses[i];
+				writer.name("status").value(status);
+				HttpStatusCode error = HttpStatusCode.fromCode(status);
+				if (error != null) {
+					writer.name("error").value(error.getId());
+				}
+				writer.endObject();
+				if (ndjson) {
+					/* JsonWriter no separa los valores del documento */
+					out.write('\n');
+				}
+			}
+			writer.flush();
+		}
+
+		/**
+		 *
+		 * Termina los resultados.
+		 *
+		 * @throws IOException
+		 *             Si no es posible escribir
+		 */
+		void finish() throws IOException {
+			if (!ndjson) {
+				writer.endArray();
+			}
+			writer.flush();
+		}
+
+	}
+
+}
@@ -0,0 +1,405 @@
+package com.drimersion.spark_simple_api.route;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.servlet.http.HttpServletResponse;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import com.drimersion.spark_simple_api.codec.UserBinaryCodec;
+import com.drimersion.spark_simple_api.codec.UserTypeAdapter;
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.replication.MutationLog;
+import com.drimersion.spark_simple_api.response_transformer.JsonTransformer;
+import com.drimersion.spark_simple_api.util.HttpStatusCode;
+import com.drimersion.spark_simple_api.util.SparkUtils;
+
+/**
+ *
+ * Ruta que envía las escrituras de usuarios a medida que ocurren, como
+ * Server-Sent Events si el cliente acepta text/event-stream o como NDJSON.
+ * Todos los suscriptores leen el mismo {@link MutationLog}, y cada evento se
+ * serializa una sola vez en un buffer circular compartido, por lo que el costo
+ * de una escritura no depende de la cantidad de suscriptores. Cada suscriptor
+ * ocupa un hilo del servidor mientras está conectado, por lo que se acepta
+ * una cantidad máxima y por encima se responde 503.
+ *
+ * <p>
+ * Cada evento tiene un token con la época del log y su secuencia, que se envía
+ * como id del evento SSE. El cliente continúa después de un evento enviando su
+ * token en el header Last-Event-ID o en el parámetro since; si los eventos
+ * siguientes ya no están en el log, o el token es de otra época, se responde
+ * 410 y el cliente debe volver a leer la colección. Sin token se envían solo
+ * los cambios posteriores a la suscripción, y el header {@value #CHANGE_TOKEN}
+ * de la respuesta indica desde dónde continuar.
+ * </p>
+ */
+public class ChangeFeedRoute implements Route {
+
+	/**
+	 * Tipo de contenido de Server-Sent Events.
+	 */
+	public static final String EVENT_STREAM = "text/event-stream";
+
+	/**
+	 * Header con el token del último evento recibido por un cliente SSE.
+	 */
+	public static final String LAST_EVENT_ID = "Last-Event-ID";
+
+	/**
+	 * Header de la respuesta con el token de la suscripción.
+	 */
+	public static final String CHANGE_TOKEN = "Change-Token";
+
+	/**
+	 * Cantidad máxima de eventos que se leen del log en cada lote.
+	 */
+	private static final int BATCH_SIZE = 256;
+
+	/**
+	 * Cantidad de eventos serializados que se conservan para los demás
+	 * suscriptores.
+	 */
+	private static final int RENDERED_EVENTS = 4096;
+
+	/**
+	 * Comentario SSE que mantiene la conexión activa sin eventos.
+	 */
+	private static final byte[] SSE_HEARTBEAT = ":\n\n"
+			.getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Línea vacia que mantiene la conexión NDJSON activa sin eventos.
+	 */
+	private static final byte[] NDJSON_HEARTBEAT = { '\n' };
+
+	/**
+	 * Log de las escrituras.
+	 */
+	private final MutationLog log;
+
+	/**
+	 * Transformador json de los usuarios.
+	 */
+	private final JsonTransformer json;
+
+	/**
+	 * Tiempo máximo en milisegundos sin enviar datos al cliente.
+	 */
+	private final long heartbeatMillis;
+
+	/**
+	 * Cantidad máxima de suscriptores conectados.
+	 */
+	private final int maxSubscribers;
+
+	/**
+	 * Últimos eventos serializados, el de secuencia s en la posición s %
+	 * {@link #RENDERED_EVENTS}.
+	 */
+	private final AtomicReferenceArray<Event> rendered = new AtomicReferenceArray<>(
+			RENDERED_EVENTS);
+
+	/**
+	 * Cantidad de suscriptores conectados.
+	 */
+	private final AtomicInteger subscribers = new AtomicInteger();
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param log
+	 *            log de las escrituras
+	 * @param json
+	 *            transformador json de los usuarios
+	 * @param heartbeatMillis
+	 *            tiempo máximo en milisegundos sin enviar datos al cliente,
+	 *            también detecta los clientes que se desconectaron
+	 * @param maxSubscribers
+	 *            cantidad máxima de suscriptores conectados
+	 */
+	public ChangeFeedRoute(MutationLog log, JsonTransformer json,
+			long heartbeatMillis, int maxSubscribers) {
+		if (maxSubscribers < 1) {
+			throw new IllegalArgumentException(
+					"La cantidad de suscriptores debe ser positiva: "
+							+ maxSubscribers);
+		}
+		this.log = log;
+		this.json = json;
+		this.heartbeatMillis = heartbeatMillis;
+		this.maxSubscribers = maxSubscribers;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see spark.Route#handle(spark.Request, spark.Response)
+	 */
+	@Override
+	public Object handle(Request request, Response response) {
+		String token = request.headers(LAST_EVENT_ID);
+		if (token == null) {
+			token = request.queryParams("since");
+		}
+		long from;
+		if (token == null) {
+			from = log.head() + 1;
+		} else {
+			long sequence = parseToken(token);
+			if (sequence < 0) {
+				return SparkUtils.buildResponseWithErrors(response,
+						HttpStatusCode._400);
+			}
+			from = sequence + 1;
+			if (sequence == Long.MAX_VALUE || !log.contains(from)) {
+				return SparkUtils.buildResponseWithErrors(response,
+						HttpStatusCode._410);
+			}
+		}
+		String limitParam = request.queryParams("limit");
+		int limit = limitParam == null ? 0 : SparkUtils.parseId(limitParam);
+		if (limit == SparkUtils.INVALID_ID) {
+			return SparkUtils.buildResponseWithErrors(response,
+					HttpStatusCode._422);
+		}
+
+		/* Se reserva el lugar del suscriptor antes de ocupar el hilo */
+		if (subscribers.incrementAndGet() > maxSubscribers) {
+			subscribers.decrementAndGet();
+			response.header("Retry-After", "1");
+			return SparkUtils.buildResponseWithErrors(response,
+					HttpStatusCode._503);
+		}
+
+		String accept = request.headers("Accept");
+		boolean sse = accept != null && accept.contains(EVENT_STREAM);
+		HttpServletResponse raw = response.raw();
+		raw.setStatus(200);
+		raw.setContentType(sse ? EVENT_STREAM + "; charset=UTF-8"
+				: BulkUserRoute.NDJSON + "; charset=UTF-8");
+		raw.setHeader("Cache-Control", "no-cache");
+		/* Token desde el que el cliente puede continuar sin recibir eventos */
+		raw.setHeader(CHANGE_TOKEN, token(log.getEpoch(), from - 1));
+		try {
+			OutputStream out = raw.getOutputStream();
+			/* Los headers se envían antes del primer evento */
+			raw.flushBuffer();
+			int sent = 0;
+			while (limit == 0 || sent < limit) {
+				int max = limit == 0 ? BATCH_SIZE : Math.min(BATCH_SIZE, limit
+						- sent);
+				List<MutationLog.Record> records = log.read(from, max,
+						heartbeatMillis);
+				if (records == null) {
+					/*
+					 * El cliente se atrasó más que el log, al reconectar con
+					 * su último token recibe 410.
+					 */
+					break;
+				}
+				if (records.isEmpty()) {
+					out.write(sse ? SSE_HEARTBEAT : NDJSON_HEARTBEAT);
+				}
+				for (MutationLog.Record record : records) {
+					Event event = render(record);
+					if (sse) {
+						out.write(event.sse);
+					}
+					out.write(event.json);
+					out.write('\n');
+					if (sse) {
+						/* Línea vacia que termina el evento SSE */
+						out.write('\n');
+					}
+				}
+				out.flush();
+				from += records.size();
+				sent += records.size();
+			}
+		} catch (IOException e) {
+			/* El cliente cerró la conexión */
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			subscribers.decrementAndGet();
+		}
+		/* Los eventos ya fueron escritos en la respuesta */
+		return "";
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de suscriptores conectados.
+	 *
+	 * @return suscriptores conectados
+	 */
+	public int getSubscribers() {
+		return subscribers.get();
+	}
+
+	/**
+	 *
+	 * Construye el token de reanudación de un evento.
+	 *
+	 * @param epoch
+	 *            época del log
+	 * @param sequence
+	 *            secuencia del evento
+	 * @return token con la época en hexadecimal y la secuencia
+	 */
+	public static String token(long epoch, long sequence) {
+		return Long.toHexString(epoch) + "-" + sequence;
+	}
+
+	/**
+	 *
+	 * Obtiene la secuencia de un token de reanudación.
+	 *
+	 * @param token
+	 *            token enviado por el cliente
+	 * @return secuencia del token, Long.MAX_VALUE si es de otra época o -1
+	 *         si no es válido
+	 */
+	private long parseToken(String token) {
+		int separator = token.indexOf('-');
+		if (separator < 1) {
+			return -1;
+		}
+		try {
+			long epoch = Long.parseUnsignedLong(token.substring(0, separator),
+					16);
+			long sequence = Long.parseLong(token.substring(separator + 1));
+			if (sequence < 0) {
+				return -1;
+			}
+			return epoch == log.getEpoch() ? sequence : Long.MAX_VALUE;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 *
+	 * Retorna el evento serializado de un registro, serializándolo si otro
+	 * suscriptor no lo ha hecho.
+	 *
+	 * @param record
+	 *            registro del log
+	 * @return evento serializado
+	 */
+	private Event render(MutationLog.Record record) {
+		int index = (int) (record.getSequence() % RENDERED_EVENTS);
+		Event event = rendered.get(index);
+		if (event != null && event.sequence == record.getSequence()) {
+			return event;
+		}
+
+		ByteBuffer payload = ByteBuffer.wrap(record.getPayload());
+		String type;
+		int id;
+		User user = null;
+		switch (record.getOperation()) {
+		case MutationLog.CREATE:
+			type = "create";
+			user = UserBinaryCodec.decode(payload);
+			id = user.getId();
+			break;
+		case MutationLog.PUT:
+			type = "update";
+			user = UserBinaryCodec.decode(payload);
+			id = user.getId();
+			break;
+		case MutationLog.DELETE:
+			type = "delete";
+			id = payload.getInt();
+			break;
+		default:
+			throw new IllegalArgumentException("Operación desconocida: "
+					+ record.getOperation());
+		}
+
+		String token = token(log.getEpoch(), record.getSequence());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(out, "{\"token\":\"" + token + "\",\"sequence\":"
+				+ record.getSequence() + ",\"type\":\"" + type + "\",\""
+				+ UserTypeAdapter.ID + "\":" + id + ",\"timestamp\":"
+				+ record.getTimestamp());
+		if (user != null) {
+			write(out, ",\"user\":");
+			byte[] bytes = json.toBytes(user, false);
+			out.write(bytes, 0, bytes.length);
+		}
+		write(out, "}");
+		event = new Event(record.getSequence(), ("id: " + token + "\nevent: "
+				+ type + "\ndata: ").getBytes(StandardCharsets.UTF_8),
+				out.toByteArray());
+		rendered.set(index, event);
+		return event;
+	}
+
+	/**
+	 *
+	 * Escribe un texto en UTF-8.
+	 *
+	 * @param out
+	 *            salida
+	 * @param value
+	 *            texto a escribir
+	 */
+	private static void write(ByteArrayOutputStream out, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 *
+	 * Evento serializado de un registro del log.
+	 */
+	private static final class Event {
+
+		/**
+		 * Secuencia del registro.
+		 */
+		private final long sequence;
+
+		/**
+		 * Campos SSE que preceden a los datos.
+		 */
+		private final byte[] sse;
+
+		/**
+		 * Evento en json, en una sola línea.
+		 */
+		private final byte[] json;
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param sequence
+		 *            secuencia del registro
+		 * @param sse
+		 *            campos SSE que preceden a los datos
+		 * @param json
+		 *            evento en json
+		 */
+		Event(long sequence, byte[] sse, byte[] json) {
+			this.sequence = sequence;
+			this.sse = sse;
+			this.json = json;
+		}
+
+	}
+
+}
@@ -0,0 +1,278 @@
+package com.drimersion.spark_simple_api.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ *
+ * Limita el trabajo admitido por el servidor: las peticiones en proceso más
+ * las tareas que esperan un hilo en la cola del pool. Una petición que llega
+ * con el límite alcanzado se rechaza de inmediato para que el cliente la
+ * reintente en otro nodo, en lugar de esperar en una cola cada vez más larga.
+ *
+ * <p>
+ * Con un límite mínimo se agrega además un límite adaptativo de peticiones en
+ * proceso que sigue la latencia: en cada ventana se compara la latencia
+ * promedio con su promedio de largo plazo, y el límite se reduce en la misma
+ * proporción cuando la latencia sube y crece de a poco mientras se mantiene,
+ * sin pasar del límite fijo.
+ * </p>
+ */
+public class LoadShedder {
+
+	/**
+	 * Duración mínima de una ventana de latencia en nanosegundos.
+	 */
+	private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS
+			.toNanos(100);
+
+	/**
+	 * Cantidad mínima de peticiones de una ventana de latencia.
+	 */
+	private static final int WINDOW_SAMPLES = 20;
+
+	/**
+	 * Peso de cada ventana en la latencia de largo plazo.
+	 */
+	private static final double LONG_TERM_WEIGHT = 0.05;
+
+	/**
+	 * Peso del nuevo límite calculado en cada ventana.
+	 */
+	private static final double SMOOTHING = 0.2;
+
+	/**
+	 * Reducción máxima del límite en una ventana.
+	 */
+	private static final double MIN_GRADIENT = 0.5;
+
+	/**
+	 * Trabajo máximo admitido.
+	 */
+	private final int limit;
+
+	/**
+	 * Límite mínimo del límite adaptativo, 0 si no se adapta.
+	 */
+	private final int minLimit;
+
+	/**
+	 * Reloj en nanosegundos.
+	 */
+	private final LongSupplier clock;
+
+	/**
+	 * Peticiones en proceso admitidas según la latencia.
+	 */
+	private volatile int adaptiveLimit;
+
+	/**
+	 * Límite adaptativo sin redondear, para que crezca de a poco.
+	 */
+	private double estimatedLimit;
+
+	/**
+	 * Latencia de largo plazo en nanosegundos, 0 sin medición.
+	 */
+	private double longTermNanos;
+
+	/**
+	 * Inicio de la ventana de latencia actual.
+	 */
+	private final AtomicLong windowStart;
+
+	/**
+	 * Suma de las latencias de la ventana actual.
+	 */
+	private final LongAdder windowNanos = new LongAdder();
+
+	/**
+	 * Cantidad de peticiones de la ventana actual.
+	 */
+	private final LongAdder windowCount = new LongAdder();
+
+	/**
+	 * Tareas en la cola del pool de hilos.
+	 */
+	private final IntSupplier queued;
+
+	/**
+	 * Peticiones en proceso.
+	 */
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	/**
+	 * Peticiones rechazadas.
+	 */
+	private final LongAdder shed = new LongAdder();
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param limit
+	 *            peticiones en proceso más tareas en cola admitidas
+	 * @param queued
+	 *            tareas en la cola del pool de hilos
+	 */
+	public LoadShedder(int limit, IntSupplier queued) {
+		this(limit, queued, 0, System::nanoTime);
+	}
+
+	/**
+	 *
+	 * Constructor con límite adaptativo.
+	 *
+	 * @param limit
+	 *            peticiones en proceso más tareas en cola admitidas
+	 * @param queued
+	 *            tareas en la cola del pool de hilos
+	 * @param minLimit
+	 *            límite mínimo de peticiones en proceso cuando sube la
+	 *            latencia, 0 para no adaptar el límite
+	 */
+	public LoadShedder(int limit, IntSupplier queued, int minLimit) {
+		this(limit, queued, minLimit, System::nanoTime);
+	}
+
+	/**
+	 *
+	 * Constructor con el reloj, para las pruebas.
+	 *
+	 * @param limit
+	 *            peticiones en proceso más tareas en cola admitidas
+	 * @param queued
+	 *            tareas en la cola del pool de hilos
+	 * @param minLimit
+	 *            límite mínimo de peticiones en proceso, 0 para no adaptar
+	 * @param clock
+	 *            reloj en nanosegundos
+	 */
+	LoadShedder(int limit, IntSupplier queued, int minLimit, LongSupplier clock) {
+		if (limit < 1) {
+			throw new IllegalArgumentException(
+					"El límite debe ser positivo: " + limit);
+		}
+		if (minLimit < 0 || minLimit > limit) {
+			throw new IllegalArgumentException("Límite mínimo inválido: "
+					+ minLimit);
+		}
+		this.limit = limit;
+		this.queued = queued;
+		this.minLimit = minLimit;
+		this.clock = clock;
+		this.adaptiveLimit = limit;
+		this.estimatedLimit = limit;
+		this.windowStart = new AtomicLong(clock.getAsLong());
+	}
+
+	/**
+	 *
+	 * Admite una petición si no se ha alcanzado el límite. Cada petición
+	 * admitida debe liberarse con {@link #release()}.
+	 *
+	 * @return true si la petición fue admitida
+	 */
+	public boolean tryAcquire() {
+		int current = inFlight.incrementAndGet();
+		if (current + queued.getAsInt() > limit || current > adaptiveLimit) {
+			inFlight.decrementAndGet();
+			shed.increment();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Libera una petición admitida sin medir su latencia.
+	 */
+	public void release() {
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 *
+	 * Libera una petición admitida y registra su latencia para el límite
+	 * adaptativo.
+	 *
+	 * @param latencyNanos
+	 *            tiempo de proceso de la petición en nanosegundos
+	 */
+	public void release(long latencyNanos) {
+		inFlight.decrementAndGet();
+		if (minLimit == 0) {
+			return;
+		}
+		windowNanos.add(latencyNanos);
+		windowCount.increment();
+
+		long start = windowStart.get();
+		long now = clock.getAsLong();
+		/* Solo un hilo cierra cada ventana */
+		if (now - start >= WINDOW_NANOS && windowCount.sum() >= WINDOW_SAMPLES
+				&& windowStart.compareAndSet(start, now)) {
+			long count = windowCount.sumThenReset();
+			long total = windowNanos.sumThenReset();
+			if (count > 0) {
+				adapt((double) total / count);
+			}
+		}
+	}
+
+	/**
+	 * Retorna el valor de la variable de instancia adaptiveLimit
+	 *
+	 * @return valor para adaptiveLimit
+	 */
+	public int getAdaptiveLimit() {
+		return adaptiveLimit;
+	}
+
+	/**
+	 *
+	 * Ajusta el límite con la latencia promedio de una ventana, la ejecuta
+	 * solo el hilo que cerró la ventana.
+	 *
+	 * @param averageNanos
+	 *            latencia promedio de la ventana
+	 */
+	private synchronized void adapt(double averageNanos) {
+		if (longTermNanos == 0) {
+			longTermNanos = averageNanos;
+		} else {
+			longTermNanos += (averageNanos - longTermNanos) * LONG_TERM_WEIGHT;
+		}
+		/* Menor a 1 si la latencia subió respecto al largo plazo */
+		double gradient = Math.max(MIN_GRADIENT,
+				Math.min(1.0, longTermNanos / Math.max(1, averageNanos)));
+		double current = estimatedLimit;
+		/* La raíz del límite permite crecer mientras la latencia se mantiene */
+		double target = current * gradient + Math.sqrt(current);
+		estimatedLimit = Math.max(minLimit, Math.min(limit, current
+				+ (target - current) * SMOOTHING));
+		adaptiveLimit = (int) estimatedLimit;
+	}
+
+	/**
+	 * Retorna el valor de la variable de instancia inFlight
+	 *
+	 * @return valor para inFlight
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Retorna el valor de la variable de instancia shed
+	 *
+	 * @return valor para shed
+	 */
+	public long getShed() {
+		return shed.sum();
+	}
+
+}
@@ -0,0 +1,204 @@
+package com.drimersion.spark_simple_api.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ *
+ * Limita las peticiones de cada cliente con un token bucket: cada cliente
+ * puede hacer una ráfaga de peticiones y después una cantidad fija por
+ * segundo. El estado de cada cliente es un solo long, el instante teórico en
+ * que su bucket vuelve a estar lleno, que se actualiza con compare-and-set
+ * sin locks; los clientes se guardan en un {@link ConcurrentHashMap}, cuyas
+ * escrituras se sincronizan por separado en cada posición de la tabla.
+ *
+ * <p>
+ * Un bucket que ya se llenó es igual a uno nuevo, por lo que se elimina
+ * periódicamente. Si se alcanza la cantidad máxima de clientes, los clientes
+ * nuevos comparten un solo bucket hasta la siguiente limpieza, para que una
+ * gran cantidad de claves distintas no agote la memoria.
+ * </p>
+ */
+public class RateLimiter implements AutoCloseable {
+
+	/**
+	 * Intervalo en segundos de la limpieza de los buckets llenos.
+	 */
+	private static final long EVICTION_SECONDS = 10;
+
+	/**
+	 * Tiempo en nanosegundos que aporta un permiso al bucket.
+	 */
+	private final long interval;
+
+	/**
+	 * Tiempo en nanosegundos de la ráfaga máxima.
+	 */
+	private final long capacity;
+
+	/**
+	 * Cantidad máxima de clientes con su propio bucket.
+	 */
+	private final int maxClients;
+
+	/**
+	 * Reloj en nanosegundos.
+	 */
+	private final LongSupplier clock;
+
+	/**
+	 * Instante en que se llena el bucket de cada cliente.
+	 */
+	private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+	/**
+	 * Bucket compartido por los clientes que superan la cantidad máxima.
+	 */
+	private final AtomicLong overflow;
+
+	/**
+	 * Peticiones rechazadas.
+	 */
+	private final LongAdder limited = new LongAdder();
+
+	/**
+	 * Hilo que elimina los buckets llenos, null si se limpia manualmente.
+	 */
+	private final ScheduledExecutorService eviction;
+
+	/**
+	 *
+	 * Constructor, inicia la limpieza periódica de los buckets llenos.
+	 *
+	 * @param permitsPerSecond
+	 *            peticiones por segundo de cada cliente
+	 * @param burst
+	 *            peticiones de la ráfaga máxima
+	 * @param maxClients
+	 *            cantidad máxima de clientes con su propio bucket
+	 */
+	public RateLimiter(double permitsPerSecond, int burst, int maxClients) {
+		this(permitsPerSecond, burst, maxClients, System::nanoTime, true);
+	}
+
+	/**
+	 *
+	 * Constructor con el reloj, para las pruebas.
+	 *
+	 * @param permitsPerSecond
+	 *            peticiones por segundo de cada cliente
+	 * @param burst
+	 *            peticiones de la ráfaga máxima
+	 * @param maxClients
+	 *            cantidad máxima de clientes con su propio bucket
+	 * @param clock
+	 *            reloj en nanosegundos
+	 * @param evict
+	 *            si se inicia la limpieza periódica
+	 */
+	RateLimiter(double permitsPerSecond, int burst, int maxClients,
+			LongSupplier clock, boolean evict) {
+		if (permitsPerSecond <= 0 || burst < 1 || maxClients < 1) {
+			throw new IllegalArgumentException(
+					"La tasa, la ráfaga y los clientes deben ser positivos.");
+		}
+		this.interval = Math.max(1,
+				(long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+		this.capacity = interval * burst;
+		this.maxClients = maxClients;
+		this.clock = clock;
+		this.overflow = new AtomicLong(clock.getAsLong());
+		if (evict) {
+			eviction = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "rate-limiter-eviction");
+				thread.setDaemon(true);
+				return thread;
+			});
+			eviction.scheduleWithFixedDelay(this::evict, EVICTION_SECONDS,
+					EVICTION_SECONDS, TimeUnit.SECONDS);
+		} else {
+			eviction = null;
+		}
+	}
+
+	/**
+	 *
+	 * Consume un permiso del bucket de un cliente si está disponible.
+	 *
+	 * @param key
+	 *            clave del cliente
+	 * @return 0 si la petición fue admitida, o los milisegundos que el
+	 *         cliente debe esperar para tener un permiso
+	 */
+	public long tryAcquire(String key) {
+		AtomicLong bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = buckets.size() < maxClients ? buckets.computeIfAbsent(
+					key, k -> new AtomicLong(clock.getAsLong())) : overflow;
+		}
+
+		long now = clock.getAsLong();
+		while (true) {
+			long full = bucket.get();
+			/* Un bucket lleno no acumula más de la ráfaga */
+			long next = Math.max(full, now) + interval;
+			long excess = next - now - capacity;
+			if (excess > 0) {
+				limited.increment();
+				return Math.max(1, TimeUnit.NANOSECONDS.toMillis(excess
+						+ TimeUnit.MILLISECONDS.toNanos(1) - 1));
+			}
+			if (bucket.compareAndSet(full, next)) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Elimina los buckets que ya están llenos. Un cliente que consume un
+	 * permiso mientras se elimina su bucket puede recibir una ráfaga
+	 * adicional, a lo sumo una vez por limpieza.
+	 */
+	public void evict() {
+		long now = clock.getAsLong();
+		buckets.values().removeIf(bucket -> bucket.get() <= now);
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de clientes con su propio bucket.
+	 *
+	 * @return clientes con bucket
+	 */
+	public int getClients() {
+		return buckets.size();
+	}
+
+	/**
+	 * Retorna el valor de la variable de instancia limited
+	 *
+	 * @return valor para limited
+	 */
+	public long getLimited() {
+		return limited.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() {
+		if (eviction != null) {
+			eviction.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package com.drimersion.spark_simple_api.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ *
+ * Pool de hilos de Jetty que ejecuta cada tarea en su propio hilo, sin límite
+ * de concurrencia. Con hilos virtuales una petición que se bloquea esperando
+ * el disco o a otro servicio no ocupa un hilo de plataforma, por lo que la
+ * cantidad de peticiones en curso no está limitada por el tamaño de un pool.
+ *
+ * <p>
+ * Los hilos virtuales se obtienen por reflexión para compilar con Java 8; en
+ * una JVM anterior a Java 21 el pool no se crea, ya que un hilo de
+ * plataforma por petición no tiene límite y una ráfaga de peticiones puede
+ * agotar los hilos o la memoria del proceso.
+ * </p>
+ */
+public class TaskPerThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+	/**
+	 * Tiempo de espera de las tareas en curso al detener el pool.
+	 */
+	private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+	/**
+	 * Crea el ejecutor al iniciar el pool.
+	 */
+	private final Supplier<ExecutorService> factory;
+
+	/**
+	 * Cantidad de tareas en curso.
+	 */
+	private final AtomicInteger active = new AtomicInteger();
+
+	/**
+	 * Ejecutor de las tareas, existe mientras el pool está iniciado.
+	 */
+	private volatile ExecutorService executor;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param factory
+	 *            crea el ejecutor al iniciar el pool
+	 */
+	TaskPerThreadPool(Supplier<ExecutorService> factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 *
+	 * Crea un pool con un hilo virtual por tarea.
+	 *
+	 * @return pool de hilos
+	 * @throws IllegalStateException
+	 *             Si la JVM no tiene hilos virtuales
+	 */
+	public static TaskPerThreadPool create() {
+		Method method;
+		try {
+			method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("La JVM no tiene hilos virtuales, "
+					+ "el modo virtual requiere Java 21 o superior.", e);
+		}
+
+		return new TaskPerThreadPool(() -> {
+			try {
+				return (ExecutorService) method.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(
+						"No fue posible crear el ejecutor de hilos virtuales.", e);
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+	 */
+	@Override
+	public void execute(Runnable task) {
+		ExecutorService current = executor;
+		if (current == null) {
+			throw new RejectedExecutionException("El pool no está iniciado.");
+		}
+		active.incrementAndGet();
+		try {
+			current.execute(() -> {
+				try {
+					task.run();
+				} finally {
+					active.decrementAndGet();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			active.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.thread.ThreadPool#join()
+	 */
+	@Override
+	public void join() throws InterruptedException {
+		ExecutorService current = executor;
+		if (current != null) {
+			current.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.thread.ThreadPool#getThreads()
+	 */
+	@Override
+	public int getThreads() {
+		return active.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.thread.ThreadPool#getIdleThreads()
+	 */
+	@Override
+	public int getIdleThreads() {
+		/* Cada tarea crea su hilo, no hay hilos en espera */
+		return 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.thread.ThreadPool#isLowOnThreads()
+	 */
+	@Override
+	public boolean isLowOnThreads() {
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.component.AbstractLifeCycle#doStart()
+	 */
+	@Override
+	protected void doStart() throws Exception {
+		executor = factory.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.component.AbstractLifeCycle#doStop()
+	 */
+	@Override
+	protected void doStop() throws Exception {
+		ExecutorService current = executor;
+		executor = null;
+		current.shutdown();
+		if (!current.awaitTermination(STOP_TIMEOUT_MILLIS,
+				TimeUnit.MILLISECONDS)) {
+			/* Se interrumpen los selectores y las peticiones bloqueadas */
+			current.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.drimersion.spark_simple_api.server;
+
+import java.util.List;
+
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import spark.embeddedserver.jetty.JettyServerFactory;
+
+/**
+ *
+ * Crea el servidor Jetty con su propio conector, ya que Spark no expone la
+ * cola de conexiones, el tiempo de inactividad ni el tamaño de los headers.
+ * Spark conserva los conectores de un servidor que ya los tiene. Al detenerse
+ * el servidor, con {@link spark.Spark#stop()} o al terminar el proceso, se
+ * cierran los recursos de la aplicación en orden inverso al de registro.
+ */
+public class TunedJettyServer implements JettyServerFactory {
+
+	/**
+	 * Puerto del conector.
+	 */
+	private final int port;
+
+	/**
+	 * Conexiones pendientes de aceptar, 0 usa el valor del sistema operativo.
+	 */
+	private final int acceptQueue;
+
+	/**
+	 * Tiempo máximo de inactividad de una conexión en milisegundos.
+	 */
+	private final long idleTimeout;
+
+	/**
+	 * Tamaño máximo de los headers de una petición en bytes.
+	 */
+	private final int maxHeaderBytes;
+
+	/**
+	 * Recursos que se cierran al detener el servidor, la aplicación puede
+	 * agregarlos después de crear la fábrica.
+	 */
+	private final List<? extends AutoCloseable> resources;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param port
+	 *            puerto del conector
+	 * @param acceptQueue
+	 *            conexiones pendientes de aceptar, 0 usa el valor del sistema
+	 *            operativo
+	 * @param idleTimeout
+	 *            tiempo máximo de inactividad de una conexión en milisegundos
+	 * @param maxHeaderBytes
+	 *            tamaño máximo de los headers de una petición en bytes
+	 * @param resources
+	 *            recursos que se cierran al detener el servidor
+	 */
+	public TunedJettyServer(int port, int acceptQueue, long idleTimeout,
+			int maxHeaderBytes, List<? extends AutoCloseable> resources) {
+		this.port = port;
+		this.acceptQueue = acceptQueue;
+		this.idleTimeout = idleTimeout;
+		this.maxHeaderBytes = maxHeaderBytes;
+		this.resources = resources;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see spark.embeddedserver.jetty.JettyServerFactory#create(int, int, int)
+	 */
+	@Override
+	public Server create(int maxThreads, int minThreads, int threadTimeoutMillis) {
+		return create(new QueuedThreadPool(maxThreads, minThreads,
+				threadTimeoutMillis));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * spark.embeddedserver.jetty.JettyServerFactory#create(org.eclipse.jetty
+	 * .util.thread.ThreadPool)
+	 */
+	@Override
+	public Server create(ThreadPool threadPool) {
+		Server server = new Server(threadPool);
+		HttpConfiguration http = new HttpConfiguration();
+		http.setRequestHeaderSize(maxHeaderBytes);
+		http.setSendServerVersion(false);
+		ServerConnector connector = new ServerConnector(server,
+				new HttpConnectionFactory(http));
+		connector.setPort(port);
+		connector.setIdleTimeout(idleTimeout);
+		connector.setAcceptQueueSize(acceptQueue);
+		server.addConnector(connector);
+		/* Una señal de terminación detiene el servidor y cierra los recursos */
+		server.setStopAtShutdown(true);
+		server.addLifeCycleListener(new AbstractLifeCycle.AbstractLifeCycleListener() {
+			@Override
+			public void lifeCycleStopped(LifeCycle event) {
+				closeResources();
+			}
+		});
+		return server;
+	}
+
+	/**
+	 *
+	 * Cierra los recursos en orden inverso al de registro, un error no impide
+	 * cerrar los demás.
+	 */
+	private void closeResources() {
+		Logger logger = LoggerFactory.getLogger(TunedJettyServer.class);
+		for (int i = resources.size() - 1; i >= 0; i--) {
+			try {
+				resources.get(i).close();
+			} catch (Exception e) {
+				logger.warn("No fue posible cerrar un recurso al detener el "
+						+ "servidor.", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,242 @@
+package com.drimersion.spark_simple_api.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * Log de acceso asíncrono. Los hilos que atienden peticiones solo copian los
+ * datos de la petición en un buffer circular de tamaño fijo y un único hilo
+ * de fondo los escribe en lotes, de modo que el registro nunca bloquea una
+ * petición. Si el buffer está lleno la entrada se descarta y se contabiliza.
+ */
+public class AccessLog implements AutoCloseable {
+
+	/**
+	 * Cantidad máxima de entradas que se escriben en un mismo lote.
+	 */
+	private static final int MAX_BATCH = 256;
+
+	/**
+	 * Tiempo de espera del hilo de fondo cuando no hay entradas.
+	 */
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS
+			.toNanos(5);
+
+	/**
+	 * Logger donde se escriben los lotes.
+	 */
+	private final Logger logger = LoggerFactory.getLogger(AccessLog.class);
+
+	/**
+	 * Máscara de posiciones del buffer.
+	 */
+	private final int mask;
+
+	/**
+	 * Secuencia publicada en cada posición, una posición con la secuencia
+	 * n + 1 contiene la entrada n.
+	 */
+	private final AtomicLongArray published;
+
+	/**
+	 * Métodos http de las entradas.
+	 */
+	private final String[] methods;
+
+	/**
+	 * Rutas de las entradas.
+	 */
+	private final String[] paths;
+
+	/**
+	 * Identificadores de petición de las entradas.
+	 */
+	private final String[] requestIds;
+
+	/**
+	 * Códigos de estado de las entradas.
+	 */
+	private final int[] statuses;
+
+	/**
+	 * Duración en nanosegundos de las entradas.
+	 */
+	private final long[] durations;
+
+	/**
+	 * Siguiente secuencia a reservar por los productores.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Siguiente secuencia a consumir por el hilo de fondo.
+	 */
+	private volatile long head;
+
+	/**
+	 * Cantidad de entradas descartadas por buffer lleno.
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Hilo de fondo que escribe las entradas.
+	 */
+	private final Thread writer;
+
+	/**
+	 * Indica si el log fue cerrado.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param capacity
+	 *            cantidad mínima de entradas del buffer, se redondea a
+	 *            potencia de dos
+	 */
+	public AccessLog(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		mask = size - 1;
+		published = new AtomicLongArray(size);
+		methods = new String[size];
+		paths = new String[size];
+		requestIds = new String[size];
+		statuses = new int[size];
+		durations = new long[size];
+
+		writer = new Thread(this::drainLoop, "access-log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 *
+	 * Registra una petición atendida sin bloquear el hilo que la atendió.
+	 *
+	 * @param method
+	 *            método http
+	 * @param path
+	 *            ruta de la petición
+	 * @param status
+	 *            código de estado de la respuesta
+	 * @param durationNanos
+	 *            duración de la petición en nanosegundos
+	 * @param requestId
+	 *            identificador de la petición
+	 * @return false si la entrada se descartó por buffer lleno
+	 */
+	public boolean log(String method, String path, int status,
+			long durationNanos, String requestId) {
+		long sequence;
+		do {
+			sequence = tail.get();
+			if (sequence - head > mask) {
+				dropped.incrementAndGet();
+				return false;
+			}
+		} while (!tail.compareAndSet(sequence, sequence + 1));
+
+		int index = (int) sequence & mask;
+		methods[index] = method;
+		paths[index] = path;
+		statuses[index] = status;
+		durations[index] = durationNanos;
+		requestIds[index] = requestId;
+		published.lazySet(index, sequence + 1);
+		return true;
+	}
+
+	/**
+	 *
+	 * Retorna la cantidad de entradas descartadas por buffer lleno.
+	 *
+	 * @return cantidad de entradas descartadas
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Ciclo del hilo de fondo, escribe lotes mientras haya entradas.
+	 */
+	private void drainLoop() {
+		StringBuilder batch = new StringBuilder(MAX_BATCH * 96);
+		while (true) {
+			boolean wasClosed = closed;
+			if (drain(batch) == 0) {
+				if (wasClosed) {
+					return;
+				}
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * Escribe en un solo mensaje las entradas publicadas, hasta
+	 * {@link #MAX_BATCH}.
+	 *
+	 * @param batch
+	 *            buffer de texto reutilizado entre lotes
+	 * @return cantidad de entradas escritas
+	 */
+	private int drain(StringBuilder batch) {
+		batch.setLength(0);
+		long sequence = head;
+		int count = 0;
+		while (count < MAX_BATCH) {
+			int index = (int) sequence & mask;
+			if (published.get(index) != sequence + 1) {
+				break;
+			}
+			if (count > 0) {
+				batch.append('\n');
+			}
+			batch.append(methods[index]).append(' ').append(paths[index])
+					.append(' ').append(statuses[index]).append(' ')
+					.append(TimeUnit.NANOSECONDS.toMicros(durations[index]))
+					.append("us ").append(requestIds[index]);
+			methods[index] = null;
+			paths[index] = null;
+			requestIds[index] = null;
+			sequence++;
+			count++;
+		}
+		/* Se liberan las posiciones para los productores. */
+		head = sequence;
+
+		if (count > 0) {
+			logger.info(batch.toString());
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.drimersion.spark_simple_api.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ *
+ * Configuración de la aplicación. Cada propiedad se busca en orden en las
+ * propiedades del sistema, en las variables de entorno y en el archivo de
+ * configuración indicado por la propiedad {@value #FILE_PROPERTY}; la variable
+ * de entorno de una propiedad es su nombre en mayúsculas con guiones bajos,
+ * por ejemplo SERVER_THREADS_MAX para server.threads.max.
+ */
+public class Configuration {
+
+	/**
+	 * Propiedad con la ruta del archivo de configuración.
+	 */
+	public static final String FILE_PROPERTY = "config.file";
+
+	/**
+	 * Propiedades del archivo de configuración.
+	 */
+	private final Properties file;
+
+	/**
+	 *
+	 * Constructor.
+	 *
+	 * @param file
+	 *            propiedades del archivo de configuración
+	 */
+	Configuration(Properties file) {
+		this.file = file;
+	}
+
+	/**
+	 *
+	 * Carga la configuración, leyendo el archivo si está indicado.
+	 *
+	 * @return configuración de la aplicación
+	 * @throws IOException
+	 *             Si no es posible leer el archivo de configuración
+	 */
+	public static Configuration load() throws IOException {
+		Properties file = new Properties();
+		String path = lookup(FILE_PROPERTY, new Properties());
+		if (path != null) {
+			try (InputStream in = Files.newInputStream(Paths.get(path))) {
+				file.load(in);
+			}
+		}
+		return new Configuration(file);
+	}
+
+	/**
+	 *
+	 * Retorna el valor de una propiedad.
+	 *
+	 * @param key
+	 *            nombre de la propiedad
+	 * @return valor o null si no está configurada
+	 */
+	public String get(String key) {
+		return lookup(key, file);
+	}
+
+	/**
+	 *
+	 * Retorna el valor de una propiedad o un valor por defecto.
+	 *
+	 * @param key
+	 *            nombre de la propiedad
+	 * @param defaultValue
+	 *            valor si no está configurada
+	 * @return valor de la propiedad
+	 */
+	public String get(String key, String defaultValue) {
+		String value = get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 *
+	 * Retorna el valor entero de una propiedad.
+	 *
+	 * @param key
+	 *            nombre de la propiedad
+	 * @param defaultValue
+	 *            valor si no está configurada
+	 * @return valor de la propiedad
+	 * @throws IllegalArgumentException
+	 *             Si el valor no es un entero
+	 */
+	public int getInt(String key, int defaultValue) {
+		long value = getLong(key, defaultValue);
+		if (value != (int) value) {
+			throw new IllegalArgumentException("Valor inválido para " + key
+					+ ": " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 *
+	 * Retorna el valor entero largo de una propiedad.
+	 *
+	 * @param key
+	 *            nombre de la propiedad
+	 * @param defaultValue
+	 *            valor si no está configurada
+	 * @return valor de la propiedad
+	 * @throws IllegalArgumentException
+	 *             Si el valor no es un entero
+	 */
+	public long getLong(String key, long defaultValue) {
+		String value = get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Valor inválido para " + key
+					+ ": " + value, e);
+		}
+	}
+
+	/**
+	 *
+	 * Busca una propiedad en el sistema, el entorno y el archivo, en ese
+	 * orden.
+	 *
+	 * @param key
+	 *            nombre de la propiedad
+	 * @param file
+	 *            propiedades del archivo de configuración
+	 * @return valor o null si no está configurada
+	 */
+	private static String lookup(String key, Properties file) {
+		String value = System.getProperty(key);
+		if (value == null) {
+			value = System.getenv(key.replace('.', '_').toUpperCase(
+					Locale.ROOT));
+		}
+		return value != null ? value : file.getProperty(key);
+	}
+
+}
@@ -0,0 +1,279 @@
+package com.drimersion.spark_simple_api.util;
+
+/**
+ *
+ * Construcción y comparación de los ETag de las respuestas. Un ETag contiene
+ * la versión del recurso y, si la respuesta tiene indentación o está en
+ * MessagePack, un sufijo que la distingue de la respuesta json compacta, y si
+ * la respuesta está comprimida otro sufijo que se ignora al comparar, ya que
+ * ambas codificaciones tienen el mismo contenido. Los headers se recorren sin
+ * expresiones regulares ni copias para que una petición condicional que
+ * responde 304 no cree objetos.
+ */
+public class EntityTags {
+
+	/**
+	 * Sufijo de la versión de las respuestas con indentación.
+	 */
+	private static final String PRETTY_SUFFIX = "-pretty";
+
+	/**
+	 * Sufijo de la versión de las respuestas en MessagePack.
+	 */
+	private static final String MESSAGE_PACK_SUFFIX = "-msgpack";
+
+	/**
+	 * Sufijo de la versión de las respuestas comprimidas con gzip.
+	 */
+	private static final String GZIP_SUFFIX = "-gzip";
+
+	/**
+	 * Prefijo de los ETag débiles.
+	 */
+	private static final String WEAK_PREFIX = "W/";
+
+	/**
+	 *
+	 * Construye el ETag de una versión.
+	 *
+	 * @param version
+	 *            versión del recurso
+	 * @param pretty
+	 *            si la respuesta tiene indentación
+	 * @return ETag con comillas
+	 */
+	public static String format(long version, boolean pretty) {
+		return format(version, pretty, false);
+	}
+
+	/**
+	 *
+	 * Construye el ETag de una versión con la codificación de la respuesta.
+	 *
+	 * @param version
+	 *            versión del recurso
+	 * @param pretty
+	 *            si la respuesta tiene indentación
+	 * @param gzip
+	 *            si la respuesta está comprimida con gzip
+	 * @return ETag con comillas
+	 */
+	public static String format(long version, boolean pretty, boolean gzip) {
+		return "\"" + version + (pretty ? PRETTY_SUFFIX : "")
+				+ (gzip ? GZIP_SUFFIX : "") + "\"";
+	}
+
+	/**
+	 *
+	 * Construye el ETag de una versión en la representación MessagePack.
+	 *
+	 * @param version
+	 *            versión del recurso
+	 * @return ETag con comillas
+	 */
+	public static String formatMessagePack(long version) {
+		return "\"" + version + MESSAGE_PACK_SUFFIX + "\"";
+	}
+
+	/**
+	 *
+	 * Compara el header If-None-Match con el ETag de la respuesta, con la
+	 * comparación débil que define el estándar para este header.
+	 *
+	 * @param header
+	 *            valor del header If-None-Match, puede ser null
+	 * @param etag
+	 *            ETag de la respuesta
+	 * @return true si alguno de los ETag del header coincide y se debe
+	 *         responder 304
+	 */
+	public static boolean matchesAny(String header, String etag) {
+		if (header == null) {
+			return false;
+		}
+		int start = 0;
+		while (start < header.length()) {
+			int end = next(header, start);
+			int from = skipSpaces(header, start, end);
+			int to = trimSpaces(header, from, end);
+			if (isAny(header, from, to)) {
+				return true;
+			}
+			if (header.startsWith(WEAK_PREFIX, from)) {
+				from += WEAK_PREFIX.length();
+			}
+			/* Se compara sin el sufijo de compresión ni la comilla final */
+			int headerEnd = contentEnd(header, from, to);
+			int etagEnd = contentEnd(etag, 0, etag.length());
+			if (headerEnd - from == etagEnd
+					&& header.charAt(to - 1) == etag.charAt(etag.length() - 1)
+					&& header.regionMatches(from, etag, 0, etagEnd)) {
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 * Compara el header If-Match con la versión actual del recurso. Los ETag
+	 * débiles no coinciden, y las variantes con y sin indentación de una
+	 * versión se consideran la misma versión.
+	 *
+	 * @param header
+	 *            valor del header If-Match
+	 * @param version
+	 *            versión actual del recurso
+	 * @return true si alguno de los ETag del header corresponde a la versión
+	 */
+	public static boolean matchesVersion(String header, long version) {
+		int start = 0;
+		while (start < header.length()) {
+			int end = next(header, start);
+			int from = skipSpaces(header, start, end);
+			int to = trimSpaces(header, from, end);
+			if (isAny(header, from, to)) {
+				return true;
+			}
+			if (parseVersion(header, from, to) == version) {
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 * Lee la versión de un ETag fuerte.
+	 *
+	 * @param header
+	 *            header con el ETag
+	 * @param from
+	 *            posición inicial del ETag
+	 * @param to
+	 *            posición final del ETag, exclusiva
+	 * @return la versión o -1 si el ETag no es una versión válida
+	 */
+	private static long parseVersion(String header, int from, int to) {
+		if (to - from < 3 || header.charAt(from) != '"'
+				|| header.charAt(to - 1) != '"') {
+			return -1;
+		}
+		to = contentEnd(header, from, to);
+		if (header.regionMatches(to - PRETTY_SUFFIX.length(), PRETTY_SUFFIX,
+				0, PRETTY_SUFFIX.length())) {
+			to -= PRETTY_SUFFIX.length();
+		} else if (header.regionMatches(to - MESSAGE_PACK_SUFFIX.length(),
+				MESSAGE_PACK_SUFFIX, 0, MESSAGE_PACK_SUFFIX.length())) {
+			to -= MESSAGE_PACK_SUFFIX.length();
+		}
+
+		long version = 0;
+		for (int i = from + 1; i < to; i++) {
+			int digit = header.charAt(i) - '0';
+			if (digit < 0 || digit > 9 || version > (Long.MAX_VALUE - digit) / 10) {
+				return -1;
+			}
+			version = version * 10 + digit;
+		}
+		return to > from + 1 ? version : -1;
+	}
+
+	/**
+	 *
+	 * Retorna el final del contenido de un ETag, antes del sufijo de
+	 * compresión y de la comilla final.
+	 *
+	 * @param tag
+	 *            texto con el ETag
+	 * @param from
+	 *            posición inicial del ETag
+	 * @param to
+	 *            posición final del ETag, exclusiva
+	 * @return posición final del contenido, exclusiva
+	 */
+	private static int contentEnd(String tag, int from, int to) {
+		if (to - from < 2) {
+			return to;
+		}
+		int end = to - 1;
+		if (end - GZIP_SUFFIX.length() > from
+				&& tag.regionMatches(end - GZIP_SUFFIX.length(), GZIP_SUFFIX,
+						0, GZIP_SUFFIX.length())) {
+			end -= GZIP_SUFFIX.length();
+		}
+		return end;
+	}
+
+	/**
+	 *
+	 * Indica si el ETag es el comodín que coincide con cualquier versión.
+	 *
+	 * @param header
+	 *            header con el ETag
+	 * @param from
+	 *            posición inicial del ETag
+	 * @param to
+	 *            posición final del ETag, exclusiva
+	 * @return true si es el comodín
+	 */
+	private static boolean isAny(String header, int from, int to) {
+		return to - from == 1 && header.charAt(from) == '*';
+	}
+
+	/**
+	 *
+	 * Retorna la posición de la siguiente coma o el final del header.
+	 *
+	 * @param header
+	 *            header a recorrer
+	 * @param start
+	 *            posición inicial
+	 * @return posición de la coma o longitud del header
+	 */
+	private static int next(String header, int start) {
+		int comma = header.indexOf(',', start);
+		return comma < 0 ? header.length() : comma;
+	}
+
+	/**
+	 *
+	 * Avanza sobre los espacios iniciales.
+	 *
+	 * @param header
+	 *            header a recorrer
+	 * @param from
+	 *            posición inicial
+	 * @param to
+	 *            posición final, exclusiva
+	 * @return primera posición sin espacio
+	 */
+	private static int skipSpaces(String header, int from, int to) {
+		while (from < to && header.charAt(from) <= ' ') {
+			from++;
+		}
+		return from;
+	}
+
+	/**
+	 *
+	 * Retrocede sobre los espacios finales.
+	 *
+	 * @param header
+	 *            header a recorrer
+	 * @param from
+	 *            posición inicial
+	 * @param to
+	 *            posición final, exclusiva
+	 * @return posición final sin espacios, exclusiva
+	 */
+	private static int trimSpaces(String header, int from, int to) {
+		while (to > from && header.charAt(to - 1) <= ' ') {
+			to--;
+		}
+		return to;
+	}
+
+}
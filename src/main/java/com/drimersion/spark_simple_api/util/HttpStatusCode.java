@@ -1,19 +1,66 @@
 package com.drimersion.spark_simple_api.util;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import com.drimersion.spark_simple_api.codec.MessagePackWriter;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ *
+ * Códigos de error de la aplicación, cada código mantiene el cuerpo json de su
+ * respuesta ya serializado en UTF-8, y su equivalente en MessagePack, para
+ * escribirlo sin crear objetos por petición. Para registrar un nuevo error
+ * basta con agregar una constante.
+ *
+ * @author Juan pablo ramírez 22/07/2014 (juan.ramirez.q@gmail.com)
+ */
 public enum HttpStatusCode {
 
-	_404(404, "not_found",
-			"El recurso al que está tratando de acceder no fue encontrado."), _409(
+	_400(400, "bad_request",
+			"La petición no puede ser procesada debido a que está mal formada."), _404(
+			404, "not_found",
+			"El recurso al que está tratando de acceder no fue encontrado."), _405(
+			405, "method_not_allowed",
+			"El método no está permitido para el recurso en este nodo."), _409(
 			409,
 			"conflict",
-			"Se ha encotrado un conflicto al momento de realizar la operación sobre el recurso especificado."), _422(
+			"Se ha encotrado un conflicto al momento de realizar la operación sobre el recurso especificado."), _410(
+			410, "gone",
+			"Los cambios posteriores al token ya no están disponibles, vuelva a leer la colección."), _412(
+			412, "precondition_failed",
+			"La versión del recurso no coincide con la versión esperada."), _413(
+			413, "payload_too_large",
+			"El cuerpo de la petición supera el tamaño permitido."), _421(
+			421, "misdirected_request",
+			"El recurso pertenece a otro nodo del servicio."), _422(
 			422, "unprocessable_entity",
-			"La petición no puede ser procesada debido a que contiene errores.");
+			"La petición no puede ser procesada debido a que contiene errores."), _429(
+			429, "too_many_requests",
+			"Se ha superado la cantidad de peticiones permitidas, intente más tarde."), _502(
+			502, "bad_gateway",
+			"No fue posible obtener la respuesta de otro nodo del servicio."), _503(
+			503, "service_unavailable",
+			"El servicio no está disponible en este momento, intente más tarde.");
+
+	/**
+	 * Códigos indexados por su valor numérico.
+	 */
+	private static final HttpStatusCode[] BY_CODE = new HttpStatusCode[600];
+
+	static {
+		for (HttpStatusCode statusCode : values()) {
+			BY_CODE[statusCode.code] = statusCode;
+		}
+	}
 
 	/**
-	 * 
+	 *
 	 * Constructor.
-	 * 
+	 *
 	 * @param code
 	 * @param id
 	 * @param message
@@ -22,10 +69,14 @@ public enum HttpStatusCode {
 		this.code = code;
 		this.id = id;
 		this.message = message;
+		this.body = render(id, message);
+		this.messagePackBody = new MessagePackWriter().mapHeader(2)
+				.string("id").string(id).string("message").string(message)
+				.toByteArray();
 	}
 
 	/**
-	 * 
+	 *
 	 */
 	private Integer code;
 
@@ -39,6 +90,51 @@ public enum HttpStatusCode {
 	 */
 	private String message;
 
+	/**
+	 * Cuerpo json de la respuesta en UTF-8.
+	 */
+	private byte[] body;
+
+	/**
+	 * Cuerpo MessagePack de la respuesta.
+	 */
+	private byte[] messagePackBody;
+
+	/**
+	 *
+	 * Busca el código de error por su valor numérico.
+	 *
+	 * @param code
+	 *            valor numérico del código http
+	 * @return el código de error o null si no está registrado
+	 */
+	public static HttpStatusCode fromCode(int code) {
+		return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+	}
+
+	/**
+	 *
+	 * Serializa el cuerpo json del error.
+	 *
+	 * @param id
+	 *            identificador del mensaje de error
+	 * @param message
+	 *            mensaje legible del error
+	 * @return el cuerpo json en UTF-8
+	 */
+	private static byte[] render(String id, String message) {
+		StringWriter out = new StringWriter();
+		try (JsonWriter writer = new JsonWriter(out)) {
+			writer.beginObject();
+			writer.name("id").value(id);
+			writer.name("message").value(message);
+			writer.endObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
 	/**
 	 *
 	 * Retorna el valor de la variable de instancia code
@@ -69,4 +165,62 @@ public enum HttpStatusCode {
 		return message;
 	}
 
+	/**
+	 *
+	 * Retorna una copia del cuerpo json de la respuesta en UTF-8.
+	 *
+	 * @return cuerpo de la respuesta
+	 */
+	public byte[] getBody() {
+		return body.clone();
+	}
+
+	/**
+	 *
+	 * Escribe el cuerpo json pre-serializado en el flujo de salida sin
+	 * copiarlo.
+	 *
+	 * @param out
+	 *            flujo de salida
+	 * @throws IOException
+	 *             Si no es posible escribir el cuerpo
+	 */
+	public void writeBody(OutputStream out) throws IOException {
+		out.write(body);
+	}
+
+	/**
+	 *
+	 * Retorna la longitud en bytes del cuerpo json.
+	 *
+	 * @return longitud del cuerpo
+	 */
+	public int getBodyLength() {
+		return body.length;
+	}
+
+	/**
+	 *
+	 * Escribe el cuerpo MessagePack pre-serializado en el flujo de salida sin
+	 * copiarlo.
+	 *
+	 * @param out
+	 *            flujo de salida
+	 * @throws IOException
+	 *             Si no es posible escribir el cuerpo
+	 */
+	public void writeMessagePackBody(OutputStream out) throws IOException {
+		out.write(messagePackBody);
+	}
+
+	/**
+	 *
+	 * Retorna la longitud en bytes del cuerpo MessagePack.
+	 *
+	 * @return longitud del cuerpo
+	 */
+	public int getMessagePackBodyLength() {
+		return messagePackBody.length;
+	}
+
 }
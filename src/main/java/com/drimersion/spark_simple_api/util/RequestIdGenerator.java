@@ -0,0 +1,133 @@
+package com.drimersion.spark_simple_api.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Generador de identificadores de petición con poca contención entre hilos.
+ * Cada identificador se compone de un prefijo aleatorio del nodo, el número
+ * de uno de varios contadores, elegido según el hilo, y el valor de ese
+ * contador, por lo que no se usa {@link java.security.SecureRandom} ni un
+ * único contador compartido. Los contadores son fijos y no propios de cada
+ * hilo, ya que con un hilo virtual por petición se crearía uno en cada
+ * petición.
+ */
+public class RequestIdGenerator {
+
+	/**
+	 * Longitud máxima aceptada para un identificador enviado por el cliente.
+	 */
+	private static final int MAX_SUPPLIED_LENGTH = 128;
+
+	/**
+	 * Prefijo del nodo, se genera una vez al iniciar la aplicación.
+	 */
+	private static final String NODE = Integer.toHexString(ThreadLocalRandom
+			.current().nextInt() | 0x10000000);
+
+	/**
+	 * Contadores repartidos entre los hilos, una potencia de dos para
+	 * elegirlos con una máscara.
+	 */
+	private static final Counter[] COUNTERS = createCounters(Runtime
+			.getRuntime().availableProcessors() * 4);
+
+	/**
+	 *
+	 * Retorna el identificador enviado por el cliente si es válido, o genera
+	 * uno nuevo.
+	 *
+	 * @param supplied
+	 *            valor del header Request-Id de la petición, puede ser null
+	 * @return identificador de la petición
+	 */
+	public static String resolve(String supplied) {
+		return isValid(supplied) ? supplied : next();
+	}
+
+	/**
+	 *
+	 * Genera un nuevo identificador de petición.
+	 *
+	 * @return identificador de la petición
+	 */
+	public static String next() {
+		Counter counter = COUNTERS[(int) Thread.currentThread().getId()
+				& (COUNTERS.length - 1)];
+		return counter.prefix + Long.toHexString(counter.count.incrementAndGet());
+	}
+
+	/**
+	 *
+	 * Crea los contadores, redondeando la cantidad a potencia de dos.
+	 *
+	 * @param minimum
+	 *            cantidad mínima de contadores
+	 * @return contadores numerados desde 1
+	 */
+	private static Counter[] createCounters(int minimum) {
+		int size = 1;
+		while (size < minimum) {
+			size <<= 1;
+		}
+		Counter[] counters = new Counter[size];
+		for (int i = 0; i < size; i++) {
+			counters[i] = new Counter(i + 1);
+		}
+		return counters;
+	}
+
+	/**
+	 *
+	 * Valida que el identificador del cliente no esté vacio, no sea demasiado
+	 * largo y solo contenga caracteres visibles, para que pueda copiarse en
+	 * los headers y en el log de acceso sin riesgo.
+	 *
+	 * @param value
+	 *            identificador a validar
+	 * @return true si el identificador es válido
+	 */
+	private static boolean isValid(String value) {
+		if (value == null || value.isEmpty()
+				|| value.length() > MAX_SUPPLIED_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c <= ' ' || c > '~') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * Contador de identificadores de los hilos que lo comparten.
+	 */
+	private static final class Counter {
+
+		/**
+		 * Prefijo con el nodo y el número del contador.
+		 */
+		final String prefix;
+
+		/**
+		 * Cantidad de identificadores generados con el contador.
+		 */
+		final AtomicLong count = new AtomicLong();
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param number
+		 */
+		Counter(int number) {
+			this.prefix = NODE + "-" + Integer.toHexString(number) + "-";
+		}
+
+	}
+
+}
@@ -1,9 +1,14 @@
 package com.drimersion.spark_simple_api.util;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import javax.servlet.http.HttpServletResponse;
 
 import spark.Response;
+import spark.Spark;
+
+import com.drimersion.spark_simple_api.response_transformer.MessagePackTransformer;
 
 /**
  * 
@@ -14,28 +19,87 @@ import spark.Response;
  */
 public class SparkUtils {
 
+	/**
+	 * Valor que indica que un identificador no es válido, los identificadores
+	 * de los recursos son siempre positivos o cero.
+	 */
+	public static final int INVALID_ID = -1;
+
+	/**
+	 * 
+	 * Convierte el identificador de un recurso en un entero sin crear objetos
+	 * ni lanzar excepciones.
+	 * 
+	 * @param value
+	 *            valor del parámetro del identificador
+	 * @return el identificador o {@link #INVALID_ID} si no es un entero
+	 *         positivo válido
+	 */
+	public static int parseId(String value) {
+		if (value == null || value.isEmpty() || value.length() > 10) {
+			return INVALID_ID;
+		}
+
+		long id = 0;
+		for (int i = 0; i < value.length(); i++) {
+			int digit = value.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return INVALID_ID;
+			}
+			id = id * 10 + digit;
+		}
+		return id > Integer.MAX_VALUE ? INVALID_ID : (int) id;
+	}
+
 	/**
 	 * 
 	 * Construye la respuesta basada en un código de error que se pasa por
-	 * parámetro.
+	 * parámetro, escribiendo directamente el cuerpo pre-serializado del error
+	 * en el formato negociado para la respuesta.
 	 * 
 	 * @param response
 	 *            de la ruta que se está ejecutando en el momento
 	 * @param errorCode
 	 *            código de error para específicar el mensaje
-	 * @return el cuerpo del mensaje de la respuesta
+	 * @return null ya que el cuerpo del mensaje fue escrito en la respuesta
 	 */
 	public static Object buildResponseWithErrors(Response response,
 			HttpStatusCode errorCode) {
 		/* Se cambia el código de respuesta */
 		response.status(errorCode.getCode());
 
-		/* Se construye un body para la respuesta con error */
-		Map<String, String> message = new HashMap<>();
-		message.put("id", errorCode.getId());
-		message.put("message", errorCode.getMessage());
+		/* Se escribe el cuerpo del error sin serializarlo de nuevo */
+		HttpServletResponse raw = response.raw();
+		try {
+			if (MessagePackTransformer.isMessagePack(raw)) {
+				raw.setContentLength(errorCode.getMessagePackBodyLength());
+				errorCode.writeMessagePackBody(raw.getOutputStream());
+			} else {
+				raw.setContentLength(errorCode.getBodyLength());
+				errorCode.writeBody(raw.getOutputStream());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return null;
+	}
 
-		return message;
+	/**
+	 * 
+	 * Detiene la petición desde un filtro con la respuesta de un código de
+	 * error. El código se indica también al detenerla, ya que Spark asigna
+	 * 200 a la respuesta si no se especifica.
+	 * 
+	 * @param response
+	 *            de la petición que se está filtrando
+	 * @param errorCode
+	 *            código de error para específicar el mensaje
+	 */
+	public static void haltWithErrors(Response response,
+			HttpStatusCode errorCode) {
+		buildResponseWithErrors(response, errorCode);
+		Spark.halt(errorCode.getCode());
 	}
 
 }
@@ -1,9 +1,18 @@
 package com.drimersion.spark_simple_api;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -12,9 +21,13 @@ import org.junit.Test;
 
 import spark.Spark;
 
+import com.drimersion.spark_simple_api.codec.MessagePackReader;
+import com.drimersion.spark_simple_api.codec.MessagePackWriter;
+import com.drimersion.spark_simple_api.codec.UserMessagePackCodec;
 import com.drimersion.spark_simple_api.model.User;
 import com.drimersion.spark_simple_api.util.HttpStatusCode;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.jcabi.http.Request;
 import com.jcabi.http.Response;
@@ -34,9 +47,15 @@ public class AppTest {
 	private static String HOST = "localhost";
 
 	/**
-	 * Puerto donde está escuchando peticiones el servidor.
+	 * Puerto donde está escuchando peticiones el servidor, se elige un puerto
+	 * libre al iniciar las pruebas.
 	 */
-	private static Integer PORT = 4567;
+	private static Integer PORT;
+
+	/**
+	 * Tamaño máximo del cuerpo de una petición en las pruebas.
+	 */
+	private static final int MAX_BODY_BYTES = 1024 * 1024;
 
 	/**
 	 * Procesos que se realizan para configurar la aplicación antes de iniciar
@@ -44,9 +63,23 @@ public class AppTest {
 	 * 
 	 * @throws InterruptedException
 	 *             Si no puede hacer dormir el hilo
+	 * @throws IOException
+	 *             Si no puede obtener un puerto libre
 	 */
 	@BeforeClass
-	public static void setup() throws InterruptedException {
+	public static void setup() throws InterruptedException, IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			PORT = socket.getLocalPort();
+		}
+		System.setProperty("server.port", PORT.toString());
+		System.setProperty("server.body.bytes",
+				Integer.toString(MAX_BODY_BYTES));
+		/* Se habilita el limitador de carga con una cola amplia */
+		System.setProperty("server.queue", "1000");
+		/* Se habilita la ruta de cambios */
+		System.setProperty("changes.max.subscribers", "4");
+		/* Se comprimen las respuestas de los pocos usuarios de prueba */
+		System.setProperty("server.gzip.threshold", "256");
 		/* Se ejecuta el main para sacar las rutas principales */
 		App.main(null);
 		Thread.sleep(500);
@@ -54,13 +87,26 @@ public class AppTest {
 
 	/**
 	 * 
-	 * Procesos para desmantelar la aplicación una vez finalizadas las pruebas.
+	 * Procesos para desmantelar la aplicación una vez finalizadas las pruebas,
+	 * verificando que se cierren sus hilos.
 	 * 
 	 */
 	@AfterClass
 	public static void tearDown() {
 		/* Finaliza el proceso del servidor y limpia todas las rutas. */
 		Spark.stop();
+		System.clearProperty("server.port");
+		System.clearProperty("server.body.bytes");
+		System.clearProperty("server.queue");
+		System.clearProperty("changes.max.subscribers");
+		System.clearProperty("server.gzip.threshold");
+
+		/* Al detenerse el servidor se cierra el hilo del log de acceso */
+		Spark.awaitStop();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			Assert.assertFalse("El log de acceso sigue activo", "access-log"
+					.equals(thread.getName()) && thread.isAlive());
+		}
 	}
 
 	/**
@@ -90,6 +136,61 @@ public class AppTest {
 				.contains("Juan"));
 	}
 
+	/**
+	 * Verifica que el sistema liste los usuarios por páginas ordenadas.
+	 * 
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void canListUsersPaginated() throws IOException {
+		/* Se realiza la petición al servicio. */
+		Request request = new JdkRequest(buildUrl("/users?limit=2"))
+				.method(JdkRequest.GET);
+		Response response = request.fetch();
+
+		/* Se validan la página y el enlace a la siguiente página. */
+		Assert.assertEquals("El código de status no es 200", 200,
+				response.status());
+		JsonObject data = new Gson().fromJson(response.body(),
+				JsonObject.class);
+		Assert.assertEquals("La página no tiene el tamaño esperado", 2, data
+				.entrySet().size());
+		Assert.assertTrue("La página no contiene el primer usuario",
+				data.has("1"));
+		Assert.assertEquals("El header Link no es correcto",
+				"</users?limit=2&after=2>; rel=\"next\"", response.headers()
+						.get("Link").get(0));
+
+		/* Se valida un tamaño de página inválido. */
+		response = new JdkRequest(buildUrl("/users?limit=0")).method(
+				JdkRequest.GET).fetch();
+		Assert.assertEquals("El código de status no es 422", 422,
+				response.status());
+	}
+
+	/**
+	 * Verifica que el sistema liste los usuarios por streaming.
+	 * 
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void canStreamUsers() throws IOException {
+		/* Se realiza la petición al servicio. */
+		Request request = new JdkRequest(buildUrl("/users?stream=true"))
+				.method(JdkRequest.GET);
+		Response response = request.fetch();
+
+		/* Se validan las propiedades de la respuesta. */
+		Assert.assertEquals("El código de status no es 200", 200,
+				response.status());
+		JsonObject data = new Gson().fromJson(response.body(),
+				JsonObject.class);
+		Assert.assertEquals("El contenido no es correcto", "Juan", data
+				.getAsJsonObject("1").get("name").getAsString());
+	}
+
 	/**
 	 * 
 	 * Verifica si el sistema está retornardo la representación correcta de un
@@ -128,6 +229,53 @@ public class AppTest {
 				"1094891516", user.getDocument());
 	}
 
+	/**
+	 * 
+	 * Verifica que cada respuesta tenga un identificador de petición y que se
+	 * respete el enviado por el cliente.
+	 * 
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void canPropagateRequestId() throws IOException {
+		/* Se realiza la petición sin identificador */
+		Response response = new JdkRequest(buildUrl("/users/1")).method(
+				JdkRequest.GET).fetch();
+		Assert.assertFalse("No se generó el identificador", response
+				.headers().get("Request-Id").get(0).isEmpty());
+
+		/* Se realiza la petición con identificador */
+		response = new JdkRequest(buildUrl("/users/1"))
+				.method(JdkRequest.GET).header("Request-Id", "client-42")
+				.fetch();
+		Assert.assertEquals("No se respetó el identificador", "client-42",
+				response.headers().get("Request-Id").get(0));
+	}
+
+	/**
+	 * 
+	 * Verifica que la representación de un recurso sea compacta por defecto y
+	 * con indentación al solicitarla.
+	 * 
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void canGetPrettyUser() throws IOException {
+		/* Se realiza la petición sin formato */
+		Response response = new JdkRequest(buildUrl("/users/1")).method(
+				JdkRequest.GET).fetch();
+		Assert.assertFalse("La respuesta no es compacta", response.body()
+				.contains("\n"));
+
+		/* Se realiza la petición con formato */
+		response = new JdkRequest(buildUrl("/users/1?pretty")).method(
+				JdkRequest.GET).fetch();
+		Assert.assertTrue("La respuesta no tiene indentación", response.body()
+				.contains("\n  \"name\": \"Juan\""));
+	}
+
 	/**
 	 * 
 	 * Verifica que el servicio responda de manera correcta al pedir un usuario
@@ -192,6 +340,7 @@ public class AppTest {
 		/* Validación de los datos que se respondieron */
 		Gson gson = new Gson();
 		User user = gson.fromJson(response.body(), User.class);
+		Assert.assertEquals("La propiedad id es incorrecta", 7, user.getId());
 		Assert.assertEquals("La propiedad name es incorrecta", "juan",
 				user.getName());
 		Assert.assertEquals("La propiedad lastName es incorrecta", "test",
@@ -455,6 +604,419 @@ public class AppTest {
 						.getAsString());
 	}
 
+	/**
+	 * 
+	 * Verifica la creación, actualización y eliminación de usuarios en lote
+	 * con arreglos json y NDJSON.
+	 * 
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void canApplyBulkOperations() throws IOException {
+		Gson gson = new Gson();
+		String created = "[{\"id\":100,\"name\":\"a\"},{\"id\":101,\"name\":\"b\"},"
+				+ "{\"id\":100,\"name\":\"c\"},{\"id\":\"x\"}]";
+		Response response = new JdkRequest(buildUrl("/users/_bulk"))
+				.method(JdkRequest.POST).fetch(
+						new ByteArrayInputStream(created
+								.getBytes(StandardCharsets.UTF_8)));
+		Assert.assertEquals("El código de status no es 200", 200,
+				response.status());
+		JsonObject[] results = gson.fromJson(response.body(),
+				JsonObject[].class);
+		Assert.assertEquals("La cantidad de resultados no es correcta", 4,
+				results.length);
+		Assert.assertEquals("El usuario no fue creado", 201, results[0]
+				.get("status").getAsInt());
+		Assert.assertEquals("El usuario no fue creado", 201, results[1]
+				.get("status").getAsInt());
+		Assert.assertEquals("No se reportó el conflicto", "conflict",
+				results[2].get("error").getAsString());
+		Assert.assertEquals("No se reportó el elemento inválido", 422,
+				results[3].get("status").getAsInt());
+
+		String updated = "{\"id\":100,\"name\":\"d\"}\n{\"id\":999,\"name\":\"e\"}\n";
+		response = new JdkRequest(buildUrl("/users/_bulk"))
+				.method(JdkRequest.PUT)
+				.header("Content-Type", "application/x-ndjson")
+				.fetch(new ByteArrayInputStream(updated
+						.getBytes(StandardCharsets.UTF_8)));
+		String[] lines = response.body().split("\n");
+		Assert.assertEquals("La cantidad de resultados no es correcta", 2,
+				lines.length);
+		Assert.assertEquals("El usuario no fue actualizado", 200, gson
+				.fromJson(lines[0], JsonObject.class).get("status").getAsInt());
+		Assert.assertEquals("El usuario no debe existir", 404, gson
+				.fromJson(lines[1], JsonObject.class).get("status").getAsInt());
+		Assert.assertTrue("El usuario no tiene los nuevos datos",
+				new JdkRequest(buildUrl("/users/100")).fetch().body()
+						.contains("\"d\""));
+
+		/* El cliente http de las pruebas no envía cuerpo en DELETE */
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				buildUrl("/users/_bulk")).openConnection();
+		connection.setRequestMethod(JdkRequest.DELETE);
+		connection.setDoOutput(true);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write("[100, {\"id\":101}]".getBytes(StandardCharsets.UTF_8));
+		}
+		try (Reader reader = new InputStreamReader(
+				connection.getInputStream(), StandardCharsets.UTF_8)) {
+			results = gson.fromJson(reader, JsonObject[].class);
+		}
+		Assert.assertEquals("El usuario no fue eliminado", 200, results[0]
+				.get("status").getAsInt());
+		Assert.assertEquals("El usuario no fue eliminado", 200, results[1]
+				.get("status").getAsInt());
+		Assert.assertEquals("El usuario no fue eliminado", 404,
+				new JdkRequest(buildUrl("/users/101")).fetch().status());
+	}
+
+	/**
+	 * Verifica las peticiones condicionales con los ETag de los usuarios y de
+	 * la colección.
+	 * 
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void canUseConditionalRequests() throws IOException {
+		Response response = new JdkRequest(buildUrl("/users"))
+				.method(JdkRequest.POST).fetch(
+						new ByteArrayInputStream("{\"id\":200,\"name\":\"a\"}"
+								.getBytes(StandardCharsets.UTF_8)));
+		Assert.assertEquals("El usuario no fue creado", 201, response.status());
+		String created = response.headers().get("ETag").get(0);
+
+		response = new JdkRequest(buildUrl("/users/200"))
+				.header("If-None-Match", "\"1\", " + created).fetch();
+		Assert.assertEquals("No se respondió 304", 304, response.status());
+		Assert.assertEquals("El cuerpo no está vacio", "", response.body());
+
+		response = new JdkRequest(buildUrl("/users/200"))
+				.method(JdkRequest.PUT).header("If-Match", "\"1\"")
+				.fetch(new ByteArrayInputStream("{\"name\":\"b\"}"
+						.getBytes(StandardCharsets.UTF_8)));
+		Assert.assertEquals("No se respondió 412", 412, response.status());
+
+		response = new JdkRequest(buildUrl("/users/200"))
+				.method(JdkRequest.PUT).header("If-Match", created)
+				.fetch(new ByteArrayInputStream("{\"name\":\"c\"}"
+						.getBytes(StandardCharsets.UTF_8)));
+		Assert.assertEquals("El usuario no fue actualizado", 200,
+				response.status());
+		String updated = response.headers().get("ETag").get(0);
+		Assert.assertNotEquals("La versión no cambió", created, updated);
+
+		response = new JdkRequest(buildUrl("/users/200"))
+				.method(JdkRequest.DELETE).header("If-Match", created).fetch();
+		Assert.assertEquals("No se respondió 412", 412, response.status());
+		response = new JdkRequest(buildUrl("/users/200"))
+				.method(JdkRequest.DELETE).header("If-Match", updated).fetch();
+		Assert.assertEquals("El usuario no fue eliminado", 200,
+				response.status());
+
+		response = new JdkRequest(buildUrl("/users")).fetch();
+		String collection = response.headers().get("ETag").get(0);
+		response = new JdkRequest(buildUrl("/users")).header("If-None-Match",
+				"W/" + collection).fetch();
+		Assert.assertEquals("No se respondió 304", 304, response.status());
+	}
+
+	/**
+	 * Verifica las búsquedas por documento y por prefijo del apellido, y que
+	 * no se acepten documentos repetidos.
+	 * 
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void canFindUsersByIndexes() throws IOException {
+		Gson gson = new Gson();
+		Response response = new JdkRequest(
+				buildUrl("/users?document=1090341289")).fetch();
+		Assert.assertEquals("El código de status no es 200", 200,
+				response.status());
+		JsonObject found = gson.fromJson(response.body(), JsonObject.class);
+		Assert.assertEquals("No se encontró el usuario", "Ariza", found
+				.getAsJsonObject("4").get("lastName").getAsString());
+
+		found = gson.fromJson(new JdkRequest(
+				buildUrl("/users?lastNamePrefix=OSP&limit=10")).fetch()
+				.body(), JsonObject.class);
+		Assert.assertEquals("La cantidad de usuarios no es correcta", 1,
+				found.entrySet().size());
+		Assert.assertTrue("No se encontró el usuario", found.has("5"));
+
+		response = new JdkRequest(buildUrl("/users"))
+				.method(JdkRequest.POST).fetch(
+						new ByteArrayInputStream(
+								"{\"id\":201,\"document\":\"1090341289\"}"
+										.getBytes(StandardCharsets.UTF_8)));
+		Assert.assertEquals("Se aceptó un documento repetido", 409,
+				response.status());
+		Assert.assertEquals("El usuario no debe existir", 404,
+				new JdkRequest(buildUrl("/users/201")).fetch().status());
+	}
+
+	/**
+	 * Verifica que el servicio exponga las métricas en formato Prometheus.
+	 * 
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void canGetMetrics() throws IOException {
+		/* Se realiza una petición para que exista al menos una medición */
+		new JdkRequest(buildUrl("/users/1")).method(JdkRequest.GET).fetch();
+
+		Response response = new JdkRequest(buildUrl("/metrics")).method(
+				JdkRequest.GET).fetch();
+		Assert.assertEquals("El código de status no es 200", 200,
+				response.status());
+		String body = response.body();
+		Assert.assertTrue("No se reportan las peticiones", body
+				.contains("http_requests_total{method=\"GET\",route=\"/users/:id\",status=\"200\"}"));
+		Assert.assertTrue("No se reporta la latencia", body
+				.contains("http_request_duration_seconds_count{method=\"GET\",route=\"/users/:id\"}"));
+		Assert.assertTrue("No se reporta el tamaño del repositorio",
+				body.contains("users_store_size "));
+		Assert.assertTrue("No se reporta la memoria",
+				body.contains("jvm_memory_heap_used_bytes "));
+		Assert.assertTrue("No se reportan los aciertos de la cache",
+				body.contains("response_cache_hits_total "));
+		Assert.assertTrue("Los aciertos de la cache no son un contador",
+				body.contains("# TYPE response_cache_hits_total counter"));
+		Assert.assertTrue("No se reportan las peticiones rechazadas",
+				body.contains("requests_shed_total 0"));
+	}
+
+	/**
+	 * Verifica que la colección se comprima con gzip solo si el cliente lo
+	 * acepta, y que el ETag de la respuesta comprimida sirva para las
+	 * peticiones condicionales.
+	 * 
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void canCompressResponses() throws IOException {
+		String identity = new JdkRequest(buildUrl("/users?pretty")).fetch()
+				.body();
+
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				buildUrl("/users?pretty")).openConnection();
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		Assert.assertEquals("La respuesta no se comprimió", "gzip",
+				connection.getHeaderField("Content-Encoding"));
+		String etag = connection.getHeaderField("ETag");
+		Assert.assertTrue("El ETag no indica la compresión",
+				etag.endsWith("-gzip\""));
+		StringBuilder body = new StringBuilder();
+		try (Reader reader = new InputStreamReader(new GZIPInputStream(
+				connection.getInputStream()), StandardCharsets.UTF_8)) {
+			char[] buffer = new char[1024];
+			int count;
+			while ((count = reader.read(buffer)) != -1) {
+				body.append(buffer, 0, count);
+			}
+		}
+		Assert.assertEquals("El contenido no es el mismo", identity,
+				body.toString());
+
+		Assert.assertEquals("No se respondió 304 con el ETag comprimido", 304,
+				new JdkRequest(buildUrl("/users?pretty"))
+						.header("If-None-Match", etag).fetch().status());
+		Assert.assertNull("Se comprimió una respuesta pequeña",
+				new JdkRequest(buildUrl("/users/4"))
+						.header("Accept-Encoding", "gzip").fetch().headers()
+						.get("Content-Encoding"));
+	}
+
+	/**
+	 * Verifica que un cuerpo mayor al tamaño máximo se rechace sin leerlo.
+	 * 
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void canRejectLargeBody() throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				buildUrl("/users")).openConnection();
+		connection.setRequestMethod(JdkRequest.POST);
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(MAX_BODY_BYTES + 1);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(new byte[MAX_BODY_BYTES + 1]);
+		} catch (IOException e) {
+			/* El servidor puede cerrar la conexión antes de leer el cuerpo */
+		}
+		Assert.assertEquals("El código de status no es 413", 413,
+				connection.getResponseCode());
+	}
+
+	/**
+	 * Verifica que se responda y se reciba MessagePack cuando el cliente lo
+	 * negocia, incluyendo los mensajes de error.
+	 * 
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void canUseMessagePack() throws IOException {
+		Gson gson = new Gson();
+		User expected = gson.fromJson(new JdkRequest(buildUrl("/users/4"))
+				.fetch().body(), User.class);
+
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				buildUrl("/users/4")).openConnection();
+		connection.setRequestProperty("Accept", "application/msgpack");
+		Assert.assertEquals("El tipo de contenido no es MessagePack",
+				"application/msgpack", connection.getContentType());
+		Assert.assertTrue("El ETag no indica la representación", connection
+				.getHeaderField("ETag").endsWith("-msgpack\""));
+		byte[] bytes = readAll(connection.getInputStream());
+		User user = UserMessagePackCodec.read(new MessagePackReader(bytes, 0,
+				bytes.length));
+		Assert.assertEquals("El id no es el esperado", 4, user.getId());
+		Assert.assertEquals("El name no es el esperado", expected.getName(),
+				user.getName());
+		Assert.assertEquals("El document no es el esperado",
+				expected.getDocument(), user.getDocument());
+
+		/* Se crea un usuario enviando el cuerpo en MessagePack */
+		MessagePackWriter writer = new MessagePackWriter();
+		UserMessagePackCodec.write(writer, new User(300, "Ana", "Gómez",
+				"1090300300"));
+		connection = (HttpURLConnection) new URL(buildUrl("/users"))
+				.openConnection();
+		connection.setRequestMethod(JdkRequest.POST);
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/msgpack");
+		try (OutputStream out = connection.getOutputStream()) {
+			writer.writeTo(out);
+		}
+		Assert.assertEquals("El código de status no es 201", 201,
+				connection.getResponseCode());
+		User created = gson.fromJson(new JdkRequest(buildUrl("/users/300"))
+				.fetch().body(), User.class);
+		Assert.assertEquals("El lastName no es el esperado", "Gómez",
+				created.getLastName());
+
+		connection = (HttpURLConnection) new URL(buildUrl("/users/30"))
+				.openConnection();
+		connection.setRequestProperty("Accept", "application/msgpack");
+		Assert.assertEquals("El código de status no es 404", 404,
+				connection.getResponseCode());
+		bytes = readAll(connection.getErrorStream());
+		MessagePackReader reader = new MessagePackReader(bytes, 0,
+				bytes.length);
+		Assert.assertEquals("El error no es un mapa", 2,
+				reader.readMapHeader());
+		Assert.assertEquals("La clave no es el id", "id", reader.readString());
+		Assert.assertEquals("El identificador del mensaje no es correcto",
+				HttpStatusCode._404.getId(), reader.readString());
+	}
+
+	/**
+	 * Verifica que las escrituras se envíen como eventos a un suscriptor y
+	 * que se pueda continuar desde el token de un evento.
+	 * 
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void canFollowChanges() throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				buildUrl("/users/_changes?limit=3")).openConnection();
+		connection.setRequestProperty("Accept", "text/event-stream");
+		Assert.assertEquals("El tipo de contenido no es SSE",
+				"text/event-stream", connection.getContentType().split(";")[0]);
+		Assert.assertNotNull("No se envió el token de la suscripción",
+				connection.getHeaderField("Change-Token"));
+
+		new JdkRequest(buildUrl("/users")).method(JdkRequest.POST).fetch(
+				new ByteArrayInputStream("{\"id\":400,\"name\":\"a\"}"
+						.getBytes(StandardCharsets.UTF_8)));
+		new JdkRequest(buildUrl("/users/400")).method(JdkRequest.PUT).fetch(
+				new ByteArrayInputStream("{\"name\":\"b\"}"
+						.getBytes(StandardCharsets.UTF_8)));
+		new JdkRequest(buildUrl("/users/400")).method(JdkRequest.DELETE)
+				.fetch();
+
+		String[] events = new String(readAll(connection.getInputStream()),
+				StandardCharsets.UTF_8).split("\n\n");
+		Assert.assertEquals("La cantidad de eventos no es correcta", 3,
+				events.length);
+		Assert.assertTrue("El evento de creación no es el esperado",
+				events[0].contains("event: create")
+						&& events[0].contains("\"name\":\"a\""));
+		Assert.assertTrue("El evento de actualización no es el esperado",
+				events[1].contains("event: update")
+						&& events[1].contains("\"name\":\"b\""));
+		Assert.assertTrue("El evento de eliminación no es el esperado",
+				events[2].contains("event: delete")
+						&& events[2].contains("\"id\":400"));
+
+		/* Se continúa después del primer evento en formato NDJSON */
+		String token = events[0].substring(4, events[0].indexOf('\n'));
+		Response response = new JdkRequest(buildUrl("/users/_changes?limit=2"))
+				.header("Last-Event-ID", token).fetch();
+		String[] lines = response.body().split("\n");
+		Gson gson = new Gson();
+		Assert.assertEquals("No se continuó desde el token", "update", gson
+				.fromJson(lines[0], JsonObject.class).get("type").getAsString());
+		Assert.assertEquals("No se continuó desde el token", "delete", gson
+				.fromJson(lines[1], JsonObject.class).get("type").getAsString());
+
+		Assert.assertEquals("El token de otra época no se rechazó", 410,
+				new JdkRequest(buildUrl("/users/_changes?since=1-1")).fetch()
+						.status());
+		Assert.assertEquals("El token inválido no se rechazó", 400,
+				new JdkRequest(buildUrl("/users/_changes?since=x")).fetch()
+						.status());
+	}
+
+	/**
+	 * 
+	 * Verifica que el parámetro fields limite los campos de un usuario y de
+	 * la colección, y que un campo desconocido se rechace.
+	 * 
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void canProjectFields() throws IOException {
+		Response response = new JdkRequest(
+				buildUrl("/users/1?fields=name,%20document")).fetch();
+		Assert.assertEquals("El código de status no es el esperado", 200,
+				response.status());
+		Assert.assertEquals("Los campos del usuario no son los esperados",
+				"{\"name\":\"Juan\",\"document\":\"1094891516\"}",
+				response.body());
+		Assert.assertFalse("Se envió el ETag de la representación completa",
+				response.headers().containsKey("ETag"));
+
+		Gson gson = new Gson();
+		for (String url : new String[] { "/users?fields=id&limit=2",
+				"/users?fields=id&stream=true" }) {
+			JsonObject users = gson.fromJson(new JdkRequest(buildUrl(url))
+					.fetch().body(), JsonObject.class);
+			for (Map.Entry<String, JsonElement> user : users.entrySet()) {
+				JsonObject fields = user.getValue().getAsJsonObject();
+				Assert.assertEquals("La proyección de " + url
+						+ " no es la esperada", 1, fields.entrySet().size());
+				Assert.assertEquals("El id de " + url + " no es el esperado",
+						user.getKey(), fields.get("id").getAsString());
+			}
+		}
+
+		Assert.assertEquals("El campo desconocido no se rechazó", 422,
+				new JdkRequest(buildUrl("/users/1?fields=name,password"))
+						.fetch().status());
+	}
+
 	/**
 	 * 
 	 * Construye la url para realizar la petición.
@@ -473,4 +1035,26 @@ public class AppTest {
 		return sb.toString();
 	}
 
+	/**
+	 * 
+	 * Lee todo el contenido de un flujo.
+	 * 
+	 * @param in
+	 *            flujo a leer, se cierra al terminar
+	 * @return contenido leído
+	 * @throws IOException
+	 *             Si no puede leer el flujo
+	 */
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream input = in) {
+			byte[] buffer = new byte[1024];
+			int count;
+			while ((count = input.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+		}
+		return out.toByteArray();
+	}
+
 }
@@ -0,0 +1,177 @@
+package com.drimersion.spark_simple_api;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.drimersion.spark_simple_api.util.HttpStatusCode;
+import com.jcabi.http.Response;
+import com.jcabi.http.request.JdkRequest;
+
+/**
+ *
+ * Clase que contiene las pruebas de los filtros que rechazan las peticiones
+ * antes de la ruta. La aplicación se ejecuta en otro proceso como una
+ * réplica sin primario y con un límite de peticiones que no se recupera
+ * durante la prueba, ya que Spark solo permite un servidor por proceso. Las
+ * métricas se consultan con una clave que tiene su propio límite.
+ */
+public class FilterTest {
+
+	/**
+	 * Tiempo máximo de inicio de la aplicación.
+	 */
+	private static final long START_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * Peticiones que admite el límite antes de responder 429.
+	 */
+	private static final int BURST = 3;
+
+	/**
+	 * Clave con su propio límite para consultar las métricas.
+	 */
+	private static final String METRICS_KEY = "metrics";
+
+	/**
+	 * Url de la aplicación.
+	 */
+	private static String url;
+
+	/**
+	 * Proceso de la aplicación.
+	 */
+	private static Process process;
+
+	/**
+	 * Inicia la aplicación y espera a que escuche peticiones.
+	 *
+	 * @throws Exception
+	 *             Si la aplicación no inicia
+	 */
+	@BeforeClass
+	public static void setup() throws Exception {
+		int port;
+		int primary;
+		try (ServerSocket socket = new ServerSocket(0);
+				ServerSocket closed = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+			primary = closed.getLocalPort();
+		}
+		url = "http://localhost:" + port;
+
+		String java = System.getProperty("java.home") + File.separator
+				+ "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+				System.getProperty("java.class.path"), "-Dserver.port="
+						+ port, "-Dreplication.role=replica",
+				"-Dreplication.primary=127.0.0.1:" + primary,
+				"-Drate.limit=0.001", "-Drate.burst=" + BURST,
+				"-Drate.api.keys=" + METRICS_KEY,
+				App.class.getName());
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(new File("target", "filter-node.log"));
+		process = builder.start();
+
+		long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+		while (System.currentTimeMillis() < deadline) {
+			try (Socket socket = new Socket("localhost", port)) {
+				return;
+			} catch (IOException e) {
+				Thread.sleep(100);
+			}
+		}
+		Assert.fail("La aplicación no inició en el puerto " + port);
+	}
+
+	/**
+	 * Finaliza el proceso de la aplicación.
+	 *
+	 * @throws InterruptedException
+	 *             Si se interrumpe la espera del proceso
+	 */
+	@AfterClass
+	public static void tearDown() throws InterruptedException {
+		process.destroy();
+		process.waitFor();
+	}
+
+	/**
+	 * Verifica que cada rechazo tenga su código, su cuerpo de error y los
+	 * headers de toda respuesta: 405 para una escritura en la réplica, 503
+	 * mientras la réplica no tiene una copia, 400 para un atraso inválido y
+	 * 429 al agotar el límite de peticiones. Cada rechazo se cuenta en las
+	 * métricas aunque no llegue a la ruta.
+	 *
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void rejectsWithStatusAndHeaders() throws IOException {
+		Response response = new JdkRequest(url + "/users").method(
+				JdkRequest.POST).fetch(
+				new ByteArrayInputStream("{\"id\":1}"
+						.getBytes(StandardCharsets.UTF_8)));
+		assertRejected(response, HttpStatusCode._405);
+		Assert.assertEquals("No se indicaron los métodos permitidos", "GET",
+				response.headers().get("Allow").get(0));
+
+		response = new JdkRequest(url + "/users").fetch();
+		assertRejected(response, HttpStatusCode._503);
+		Assert.assertEquals("No se indicó cuándo reintentar", "1", response
+				.headers().get("Retry-After").get(0));
+
+		response = new JdkRequest(url + "/users").header("Max-Staleness",
+				"x").fetch();
+		assertRejected(response, HttpStatusCode._400);
+
+		/* Las peticiones anteriores agotaron el límite */
+		response = new JdkRequest(url + "/users").fetch();
+		assertRejected(response, HttpStatusCode._429);
+		Assert.assertTrue("No se indicó cuándo reintentar", Integer
+				.parseInt(response.headers().get("Retry-After").get(0)) > 0);
+
+		String metrics = new JdkRequest(url + "/metrics").header("X-Api-Key",
+				METRICS_KEY).fetch().body();
+		for (HttpStatusCode status : new HttpStatusCode[] {
+				HttpStatusCode._405, HttpStatusCode._503, HttpStatusCode._400,
+				HttpStatusCode._429 }) {
+			Assert.assertTrue("No se contó el rechazo " + status.getCode(),
+					metrics.contains("http_requests_total{method=\"*\",route=\"*\",status=\""
+							+ status.getCode() + "\"} 1"));
+		}
+		Assert.assertTrue("Las peticiones limitadas no son un contador",
+				metrics.contains("# TYPE requests_rate_limited_total counter"));
+	}
+
+	/**
+	 *
+	 * Verifica el código, el cuerpo y los headers de una petición rechazada.
+	 *
+	 * @param response
+	 *            respuesta de la petición
+	 * @param expected
+	 *            código de error esperado
+	 */
+	private static void assertRejected(Response response,
+			HttpStatusCode expected) {
+		Assert.assertEquals("El código de status no es " + expected.getCode(),
+				expected.getCode().intValue(), response.status());
+		Assert.assertTrue("El cuerpo no es el error " + expected.getId(),
+				response.body().contains("\"" + expected.getId() + "\""));
+		Assert.assertTrue("El tipo de contenido no es json", response
+				.headers().get("Content-Type").get(0)
+				.startsWith("application/json"));
+		Assert.assertNotNull("No se envió el identificador de petición",
+				response.headers().get("Request-Id"));
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.drimersion.spark_simple_api.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * Clase que contiene las pruebas para la cache de respuestas.
+ */
+public class ResponseCacheTest {
+
+	/**
+	 * Verifica que la respuesta de un usuario solo se responda para su
+	 * versión y que las páginas se invaliden solo si la escritura está en su
+	 * rango.
+	 */
+	@Test
+	public void invalidatesPrecisely() {
+		AtomicLong version = new AtomicLong(10);
+		ResponseCache cache = new ResponseCache(1 << 20, version::get);
+		byte[] bytes = new byte[] { '{', '}' };
+
+		cache.putUser(1, false, 5, bytes, null);
+		Assert.assertNotNull("La respuesta no está en la cache",
+				cache.user(1, false, 5));
+		Assert.assertNull("Se respondió otra versión", cache.user(1, false, 6));
+		Assert.assertNull("Se respondió otro formato", cache.user(1, true, 5));
+
+		/* Página llena de los usuarios 1 a 5 y última página desde el 5 */
+		cache.putPage(-1, 3, false, 10, 5, true, bytes, null);
+		cache.putPage(5, 3, false, 10, 8, false, bytes, null);
+		cache.invalidate(9);
+		Assert.assertNotNull("Se invalidó una página sin el usuario",
+				cache.page(-1, 3, false));
+		Assert.assertNull("No se invalidó la última página",
+				cache.page(5, 3, false));
+		cache.invalidate(1);
+		Assert.assertNull("No se invalidó la página", cache.page(-1, 3, false));
+		Assert.assertNull("No se invalidó el usuario", cache.user(1, false, 5));
+
+		/* Una página construida durante una escritura no se guarda */
+		ResponseCache.Entry entry = cache.putPage(-1, 0, false, 9, -1, false,
+				bytes, null);
+		Assert.assertEquals("La página tiene versión", -1, entry.getVersion());
+		Assert.assertNull("Se guardó una página desactualizada",
+				cache.page(-1, 0, false));
+
+		Assert.assertEquals("Los aciertos no son correctos", 2,
+				cache.getHits());
+		Assert.assertEquals("Los fallos no son correctos", 6,
+				cache.getMisses());
+	}
+
+	/**
+	 * Verifica que una escritura invalide las páginas de su bloque y las que
+	 * no tienen fin o abarcan muchos bloques, sin afectar las de otros
+	 * bloques.
+	 */
+	@Test
+	public void invalidatesByRange() {
+		ResponseCache cache = new ResponseCache(1 << 20, () -> 1);
+		byte[] bytes = new byte[] { '{', '}' };
+		cache.putPage(-1, 10, false, 1, 10, true, bytes, null);
+		cache.putPage(5000, 10, true, 1, 5010, true, bytes, null);
+		cache.putPage(10, 10, false, 1, 1000000, true, bytes, null);
+		cache.putPage(5010, 10, false, 1, 5015, false, bytes, null);
+
+		cache.invalidate(5005);
+		Assert.assertNull("No se invalidó la página del bloque",
+				cache.page(5000, 10, true));
+		Assert.assertNotNull("Se invalidó una página de otro bloque",
+				cache.page(-1, 10, false));
+		Assert.assertNull("No se invalidó la página que abarca muchos bloques",
+				cache.page(10, 10, false));
+		Assert.assertNotNull("Se invalidó la última página antes de su cursor",
+				cache.page(5010, 10, false));
+
+		cache.invalidate(2000000);
+		Assert.assertNull("No se invalidó la última página",
+				cache.page(5010, 10, false));
+		Assert.assertNotNull("Se invalidó una página sin el usuario",
+				cache.page(-1, 10, false));
+		cache.invalidate(3);
+		Assert.assertEquals("El tamaño no se descontó", 0, cache.getWeight());
+	}
+
+	/**
+	 * Verifica que la cache desaloje entradas para no superar el tamaño
+	 * máximo y descuente el tamaño de las entradas eliminadas.
+	 */
+	@Test
+	public void evictsToMaxBytes() {
+		ResponseCache cache = new ResponseCache(64 * 1024, () -> 1);
+		for (int id = 0; id < 1000; id++) {
+			cache.putUser(id, false, 1, new byte[1000], null);
+			cache.user(id / 2, false, 1);
+		}
+		Assert.assertTrue("La cache supera el tamaño máximo",
+				cache.getWeight() <= 64 * 1024);
+		Assert.assertTrue("No se desalojaron entradas",
+				cache.getEvictions() > 900);
+
+		for (int id = 0; id < 1000; id++) {
+			cache.invalidate(id);
+		}
+		Assert.assertEquals("El tamaño no se descontó", 0, cache.getWeight());
+	}
+
+}
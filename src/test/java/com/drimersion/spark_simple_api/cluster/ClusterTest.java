@@ -0,0 +1,302 @@
+package com.drimersion.spark_simple_api.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.drimersion.spark_simple_api.App;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.jcabi.http.Response;
+import com.jcabi.http.request.JdkRequest;
+
+/**
+ *
+ * Clase que contiene las pruebas de la aplicación en un cluster de dos nodos.
+ * Cada nodo se ejecuta en su propio proceso en un puerto libre de localhost,
+ * con el mismo classpath de las pruebas, ya que Spark solo permite un
+ * servidor por proceso.
+ */
+public class ClusterTest {
+
+	/**
+	 * Tiempo máximo de inicio de un nodo.
+	 */
+	private static final long START_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * Secreto compartido de los nodos.
+	 */
+	private static final String SECRET = "cluster-test";
+
+	/**
+	 * Url de cada nodo.
+	 */
+	private static final List<String> NODES = new ArrayList<>();
+
+	/**
+	 * Proceso de cada nodo.
+	 */
+	private static final List<Process> PROCESSES = new ArrayList<>();
+
+	/**
+	 * Anillo con la misma configuración de los nodos.
+	 */
+	private static ConsistentHashRing ring;
+
+	/**
+	 * Inicia los procesos de los nodos y espera a que escuchen peticiones.
+	 *
+	 * @throws Exception
+	 *             Si algún nodo no inicia
+	 */
+	@BeforeClass
+	public static void setup() throws Exception {
+		List<Integer> ports = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			try (ServerSocket socket = new ServerSocket(0)) {
+				ports.add(socket.getLocalPort());
+			}
+			NODES.add("http://localhost:" + ports.get(i));
+		}
+		ring = new ConsistentHashRing(NODES,
+				ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+
+		String java = System.getProperty("java.home") + File.separator
+				+ "bin" + File.separator + "java";
+		for (int i = 0; i < NODES.size(); i++) {
+			ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+					System.getProperty("java.class.path"), "-Dserver.port="
+							+ ports.get(i), "-Dcluster.nodes="
+							+ String.join(",", NODES), "-Dcluster.self="
+							+ NODES.get(i), "-Dcluster.secret=" + SECRET,
+					App.class.getName());
+			builder.redirectErrorStream(true);
+			builder.redirectOutput(new File("target", "cluster-node-" + i
+					+ ".log"));
+			PROCESSES.add(builder.start());
+		}
+		for (int port : ports) {
+			awaitNode(port);
+		}
+	}
+
+	/**
+	 * Finaliza los procesos de los nodos.
+	 *
+	 * @throws InterruptedException
+	 *             Si se interrumpe la espera de los procesos
+	 */
+	@AfterClass
+	public static void tearDown() throws InterruptedException {
+		for (Process process : PROCESSES) {
+			process.destroy();
+		}
+		for (Process process : PROCESSES) {
+			process.waitFor();
+		}
+	}
+
+	/**
+	 * Verifica que cada usuario se guarde solo en su nodo dueño y que se
+	 * pueda crear, leer y eliminar desde cualquier nodo.
+	 *
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void routesUsersToTheirOwner() throws IOException {
+		for (int id = 1000; id < 1020; id++) {
+			String entry = NODES.get(id % 2);
+			String json = "{\"id\":" + id + ",\"name\":\"n" + id
+					+ "\",\"document\":\"d" + id + "\"}";
+			Response response = new JdkRequest(entry + "/users").method(
+					JdkRequest.POST).fetch(
+					new ByteArrayInputStream(json
+							.getBytes(StandardCharsets.UTF_8)));
+			Assert.assertEquals("El usuario " + id + " no se creó", 201,
+					response.status());
+
+			String owner = ring.nodeFor(id);
+			for (String node : NODES) {
+				Assert.assertEquals("El usuario " + id
+						+ " no se lee desde el nodo " + node, 200,
+						new JdkRequest(node + "/users/" + id).fetch().status());
+				/* Con el header de reenvío cada nodo responde solo sus datos */
+				Assert.assertEquals("El usuario " + id
+						+ " no está solo en su nodo dueño",
+						node.equals(owner) ? 200 : 404, new JdkRequest(node
+								+ "/users/" + id)
+								.header(ShardClient.FORWARDED_HEADER, "test")
+								.header(ShardClient.SECRET_HEADER, SECRET)
+								.fetch().status());
+				/* Sin el secreto el header de reenvío se ignora */
+				Assert.assertEquals("Se aceptó un reenvío sin el secreto", 200,
+						new JdkRequest(node + "/users/" + id).header(
+								ShardClient.FORWARDED_HEADER, "test").fetch()
+								.status());
+			}
+		}
+
+		String other = NODES.get(1);
+		int id = 1000;
+		while (ring.nodeFor(id).equals(other)) {
+			id++;
+		}
+		Assert.assertEquals("No se eliminó el usuario de otro nodo", 200,
+				new JdkRequest(other + "/users/" + id)
+						.method(JdkRequest.DELETE).fetch().status());
+		Assert.assertEquals("El usuario eliminado sigue existiendo", 404,
+				new JdkRequest(ring.nodeFor(id) + "/users/" + id).fetch()
+						.status());
+	}
+
+	/**
+	 * Verifica que la colección y sus páginas combinen los usuarios de todos
+	 * los nodos en orden.
+	 *
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void gathersUsersFromAllNodes() throws IOException {
+		Gson gson = new Gson();
+		int local = 0;
+		for (String node : NODES) {
+			local += gson.fromJson(
+					new JdkRequest(node + "/users")
+							.header(ShardClient.FORWARDED_HEADER, "test")
+							.header(ShardClient.SECRET_HEADER, SECRET)
+							.fetch().body(), JsonObject.class).entrySet().size();
+		}
+
+		for (String node : NODES) {
+			JsonObject all = gson.fromJson(new JdkRequest(node + "/users")
+					.fetch().body(), JsonObject.class);
+			Assert.assertEquals("La colección no combina todos los nodos",
+					local, all.entrySet().size());
+			for (int id = 1; id <= 5; id++) {
+				Assert.assertTrue("Falta el usuario por defecto " + id,
+						all.has(Integer.toString(id)));
+			}
+
+			Response response = new JdkRequest(node + "/users?limit=3")
+					.fetch();
+			JsonObject page = gson.fromJson(response.body(),
+					JsonObject.class);
+			List<String> ids = new ArrayList<>();
+			for (Map.Entry<String, JsonElement> user : page.entrySet()) {
+				ids.add(user.getKey());
+			}
+			Assert.assertEquals("La página no está ordenada",
+					Arrays.asList("1", "2", "3"), ids);
+			Map<String, List<String>> headers = response.headers();
+			Assert.assertTrue("No se envió el enlace a la siguiente página",
+					headers.get("Link").get(0).contains("after=3"));
+
+			JsonObject found = gson.fromJson(new JdkRequest(node
+					+ "/users?document=1087649032").fetch().body(),
+					JsonObject.class);
+			Assert.assertTrue("No se encontró el usuario por documento",
+					found.has("5"));
+		}
+	}
+
+	/**
+	 * Verifica que las operaciones en bloque solo apliquen los usuarios del
+	 * nodo que las recibe y marquen los demás con 421.
+	 *
+	 * @throws IOException
+	 *             Si no puede realizar la petición
+	 */
+	@Test
+	public void bulkRejectsUsersOfOtherNodes() throws IOException {
+		String node = NODES.get(0);
+		/* Cinco usuarios del nodo y cinco de otro nodo */
+		int local = 0;
+		int remote = 0;
+		StringBuilder body = new StringBuilder("[");
+		for (int id = 2000; local < 5 || remote < 5; id++) {
+			boolean own = ring.nodeFor(id).equals(node);
+			if (own ? local == 5 : remote == 5) {
+				continue;
+			}
+			if (own) {
+				local++;
+			} else {
+				remote++;
+			}
+			body.append(body.length() == 1 ? "" : ",").append("{\"id\":")
+					.append(id).append(",\"name\":\"n\",\"document\":\"b")
+					.append(id).append("\"}");
+		}
+		body.append("]");
+		Response response = new JdkRequest(node + "/users/_bulk").method(
+				JdkRequest.POST).fetch(
+				new ByteArrayInputStream(body.toString().getBytes(
+						StandardCharsets.UTF_8)));
+		Assert.assertEquals("El código de status no es 200", 200,
+				response.status());
+
+		JsonObject[] results = new Gson().fromJson(response.body(),
+				JsonObject[].class);
+		Assert.assertEquals("La cantidad de resultados no es correcta", 10,
+				results.length);
+		for (JsonObject result : results) {
+			int id = result.get("id").getAsInt();
+			String owner = ring.nodeFor(id);
+			Assert.assertEquals("El resultado del usuario " + id
+					+ " no es el esperado", owner.equals(node) ? 201 : 421,
+					result.get("status").getAsInt());
+			/* El usuario solo puede existir en su nodo dueño */
+			Assert.assertEquals("El usuario " + id
+					+ " se guardó en otro nodo", owner.equals(node) ? 200
+					: 404, new JdkRequest(owner + "/users/" + id)
+					.header(ShardClient.FORWARDED_HEADER, "test")
+					.header(ShardClient.SECRET_HEADER, SECRET).fetch()
+					.status());
+			Assert.assertEquals("El usuario " + id
+					+ " no debe existir en el nodo que recibió el bloque",
+					owner.equals(node) ? 200 : 404, new JdkRequest(node
+							+ "/users/" + id)
+							.header(ShardClient.FORWARDED_HEADER, "test")
+							.header(ShardClient.SECRET_HEADER, SECRET)
+							.fetch().status());
+		}
+	}
+
+	/**
+	 *
+	 * Espera a que un nodo escuche peticiones.
+	 *
+	 * @param port
+	 *            puerto del nodo
+	 * @throws InterruptedException
+	 *             Si se interrumpe la espera
+	 */
+	private static void awaitNode(int port) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+		while (System.currentTimeMillis() < deadline) {
+			try (Socket socket = new Socket("localhost", port)) {
+				return;
+			} catch (IOException e) {
+				Thread.sleep(100);
+			}
+		}
+		Assert.fail("El nodo no inició en el puerto " + port);
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.drimersion.spark_simple_api.cluster;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * Clase que contiene las pruebas para el anillo de hashing consistente.
+ */
+public class ConsistentHashRingTest {
+
+	/**
+	 * Cantidad de identificadores de las pruebas.
+	 */
+	private static final int IDS = 30000;
+
+	/**
+	 * Verifica que los identificadores consecutivos se repartan de manera
+	 * uniforme y que el dueño no dependa del orden de los nodos.
+	 */
+	@Test
+	public void distributesIdsEvenly() {
+		ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList(
+				"http://localhost:4567", "http://localhost:4568/",
+				"http://localhost:4569"), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+		ConsistentHashRing reordered = new ConsistentHashRing(Arrays.asList(
+				"http://localhost:4569", "http://localhost:4567",
+				"http://localhost:4568"), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+
+		Map<String, Integer> counts = new HashMap<>();
+		for (int id = 0; id < IDS; id++) {
+			String node = ring.nodeFor(id);
+			Assert.assertEquals("El dueño depende del orden de los nodos",
+					node, reordered.nodeFor(id));
+			counts.merge(node, 1, Integer::sum);
+		}
+		Assert.assertEquals("No todos los nodos tienen usuarios", 3,
+				counts.size());
+		for (int count : counts.values()) {
+			Assert.assertTrue("La distribución no es uniforme: " + counts,
+					Math.abs(count - IDS / 3) < IDS / 3 / 4);
+		}
+	}
+
+	/**
+	 * Verifica que al agregar un nodo solo cambien de dueño los
+	 * identificadores que pasan al nodo nuevo.
+	 */
+	@Test
+	public void movesOnlyIdsOfNewNode() {
+		ConsistentHashRing before = new ConsistentHashRing(Arrays.asList(
+				"http://a:1", "http://b:1", "http://c:1"), 64);
+		ConsistentHashRing after = new ConsistentHashRing(Arrays.asList(
+				"http://a:1", "http://b:1", "http://c:1", "http://d:1"), 64);
+
+		int moved = 0;
+		for (int id = 0; id < IDS; id++) {
+			String owner = after.nodeFor(id);
+			if (!owner.equals(before.nodeFor(id))) {
+				Assert.assertEquals("Un usuario cambió entre nodos existentes",
+						"http://d:1", owner);
+				moved++;
+			}
+		}
+		Assert.assertTrue("La cantidad de usuarios movidos no es la esperada: "
+				+ moved, moved > IDS / 8 && moved < IDS * 3 / 8);
+	}
+
+}
@@ -0,0 +1,101 @@
+package com.drimersion.spark_simple_api.codec;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.drimersion.spark_simple_api.model.User;
+
+/**
+ *
+ * Clase que contiene las pruebas para la representación MessagePack de los
+ * usuarios.
+ */
+public class UserMessagePackCodecTest {
+
+	/**
+	 * Verifica que un usuario y una colección se lean igual a como se
+	 * escribieron, incluyendo textos largos y campos null.
+	 *
+	 * @throws IOException
+	 *             Si no puede leer el contenido
+	 */
+	@Test
+	public void roundTripsUsers() throws IOException {
+		StringBuilder longName = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			longName.append('ñ');
+		}
+		User user = new User(70000, longName.toString(), "Ramírez", null);
+
+		MessagePackWriter writer = new MessagePackWriter();
+		UserMessagePackCodec.write(writer, user);
+		byte[] bytes = writer.toByteArray();
+		MessagePackReader reader = new MessagePackReader(bytes, 0, bytes.length);
+		User read = UserMessagePackCodec.read(reader);
+		Assert.assertFalse("Quedaron bytes sin leer", reader.hasNext());
+		Assert.assertEquals("El id no es el esperado", 70000, read.getId());
+		Assert.assertEquals("El name no es el esperado", user.getName(),
+				read.getName());
+		Assert.assertEquals("El lastName no es el esperado", "Ramírez",
+				read.getLastName());
+		Assert.assertNull("El document no es null", read.getDocument());
+
+		Map<Integer, User> users = new TreeMap<>();
+		for (int i = 1; i <= 20; i++) {
+			users.put(i, new User(i, "Juan", "Ramírez", Integer.toString(i)));
+		}
+		writer = new MessagePackWriter();
+		UserMessagePackCodec.write(writer, users);
+		bytes = writer.toByteArray();
+		reader = new MessagePackReader(bytes, 0, bytes.length);
+		int entries = reader.readMapHeader();
+		Assert.assertEquals("La cantidad de usuarios no es la esperada", 20,
+				entries);
+		for (int i = 1; i <= entries; i++) {
+			Assert.assertEquals("La clave no es la esperada", i,
+					reader.readInt());
+			Assert.assertEquals("El document no es el esperado",
+					Integer.toString(i), UserMessagePackCodec.read(reader)
+							.getDocument());
+		}
+		Assert.assertFalse("Quedaron bytes sin leer", reader.hasNext());
+	}
+
+	/**
+	 * Verifica que los campos desconocidos se ignoren y que el contenido
+	 * incompleto se rechace.
+	 *
+	 * @throws IOException
+	 *             Si no puede leer el contenido
+	 */
+	@Test
+	public void skipsUnknownFieldsAndRejectsTruncated() throws IOException {
+		MessagePackWriter writer = new MessagePackWriter();
+		writer.mapHeader(4);
+		writer.string("extra").mapHeader(1).string("a").arrayHeader(2)
+				.integer(-5000).nil();
+		writer.string(UserTypeAdapter.NAME).string("Juan");
+		writer.string("count").integer(Long.MAX_VALUE);
+		writer.string(UserTypeAdapter.ID).integer(7);
+		byte[] bytes = writer.toByteArray();
+
+		User user = UserMessagePackCodec.read(new MessagePackReader(bytes, 0,
+				bytes.length));
+		Assert.assertEquals("El id no es el esperado", 7, user.getId());
+		Assert.assertEquals("El name no es el esperado", "Juan",
+				user.getName());
+
+		try {
+			UserMessagePackCodec.read(new MessagePackReader(bytes, 0,
+					bytes.length - 1));
+			Assert.fail("Se leyó un contenido incompleto");
+		} catch (IOException e) {
+			/* El contenido incompleto produce un error */
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.drimersion.spark_simple_api.codec;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.drimersion.spark_simple_api.model.User;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ *
+ * Clase que contiene las pruebas de la proyección de campos de los usuarios.
+ */
+public class UserProjectionTest {
+
+	/**
+	 * Verifica que cada combinación de campos se compile una sola vez sin
+	 * importar el orden en que se piden, y que se rechacen los campos
+	 * desconocidos.
+	 */
+	@Test
+	public void compilesEachFieldSetOnce() {
+		UserProjection projection = UserProjection.compile("name,document");
+		Assert.assertSame("La proyección no se reutilizó", projection,
+				UserProjection.compile(" document , name,name"));
+		Assert.assertSame("Todos los campos no son la proyección completa",
+				UserProjection.ALL,
+				UserProjection.compile("id,name,lastName,document"));
+		Assert.assertFalse("La proyección parcial se tomó como completa",
+				projection.isAll());
+
+		Assert.assertNull("Se aceptó un campo desconocido",
+				UserProjection.compile("name,password"));
+		Assert.assertNull("Se aceptó una proyección vacia",
+				UserProjection.compile(""));
+	}
+
+	/**
+	 * Verifica que se escriban solo los campos seleccionados, omitiendo los
+	 * vacios.
+	 *
+	 * @throws IOException
+	 *             Si no puede escribir el usuario
+	 */
+	@Test
+	public void writesSelectedFields() throws IOException {
+		StringWriter json = new StringWriter();
+		JsonWriter writer = new JsonWriter(json);
+		UserProjection.compile("document,lastName,id").write(writer,
+				new User(7, "Juan", null, "123"));
+		writer.flush();
+		Assert.assertEquals("Los campos escritos no son los esperados",
+				"{\"id\":7,\"document\":\"123\"}", json.toString());
+	}
+
+}
@@ -0,0 +1,434 @@
+package com.drimersion.spark_simple_api.load;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.drimersion.spark_simple_api.metrics.LatencyHistogram;
+
+/**
+ * 
+ * Generador de carga http de lazo cerrado sobre NIO: un único hilo maneja
+ * todas las conexiones persistentes con un {@link Selector} y cada conexión
+ * envía la siguiente petición apenas recibe la respuesta anterior. Las
+ * peticiones siguen una mezcla configurable de operaciones sobre /users.
+ */
+public class LoadGenerator {
+
+	/**
+	 * Tamaño inicial del buffer de lectura de cada conexión.
+	 */
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Separador de los headers y el cuerpo de la respuesta.
+	 */
+	private static final byte[] HEADER_END = { '\r', '\n', '\r', '\n' };
+
+	/**
+	 * Dirección del servidor.
+	 */
+	private final InetSocketAddress address;
+
+	/**
+	 * Mezcla de operaciones.
+	 */
+	private final LoadMix mix;
+
+	/**
+	 * Cantidad de conexiones concurrentes.
+	 */
+	private final int connections;
+
+	/**
+	 * Latencias de las peticiones completadas.
+	 */
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * Cantidad de peticiones completadas.
+	 */
+	private long completed;
+
+	/**
+	 * Cantidad de respuestas 5xx o errores de conexión.
+	 */
+	private long errors;
+
+	/**
+	 * 
+	 * Constructor.
+	 * 
+	 * @param address
+	 *            dirección del servidor
+	 * @param mix
+	 *            mezcla de operaciones
+	 * @param connections
+	 *            cantidad de conexiones concurrentes
+	 */
+	public LoadGenerator(InetSocketAddress address, LoadMix mix,
+			int connections) {
+		this.address = address;
+		this.mix = mix;
+		this.connections = connections;
+	}
+
+	/**
+	 * 
+	 * Ejecuta la carga durante el tiempo indicado.
+	 * 
+	 * @param duration
+	 *            duración de la carga
+	 * @param unit
+	 *            unidad de la duración
+	 * @return reporte con los resultados
+	 * @throws IOException
+	 *             Si no es posible abrir el selector
+	 */
+	public LoadReport run(long duration, TimeUnit unit) throws IOException {
+		long start = System.nanoTime();
+		long deadline = start + unit.toNanos(duration);
+
+		try (Selector selector = Selector.open()) {
+			for (int i = 0; i < connections; i++) {
+				open(selector, new Connection(i));
+			}
+
+			while (System.nanoTime() < deadline) {
+				selector.select(100);
+				Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Connection connection = (Connection) key.attachment();
+					try {
+						handle(key, connection, deadline);
+					} catch (IOException e) {
+						/* Se reintenta con una nueva conexión. */
+						errors++;
+						key.channel().close();
+						open(selector, connection);
+					}
+				}
+			}
+
+			for (SelectionKey key : selector.keys()) {
+				key.channel().close();
+			}
+		}
+
+		long elapsed = System.nanoTime() - start;
+		return new LoadReport(completed, errors, elapsed, latency);
+	}
+
+	/**
+	 * 
+	 * Abre la conexión con el servidor y la registra en el selector.
+	 * 
+	 * @param selector
+	 *            selector de las conexiones
+	 * @param connection
+	 *            estado de la conexión
+	 * @throws IOException
+	 *             Si no es posible abrir la conexión
+	 */
+	private void open(Selector selector, Connection connection)
+			throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		channel.configureBlocking(false);
+		channel.connect(address);
+		connection.in.clear();
+		channel.register(selector, SelectionKey.OP_CONNECT, connection);
+	}
+
+	/**
+	 * 
+	 * Atiende un evento de una conexión.
+	 * 
+	 * @param key
+	 *            llave de la conexión
+	 * @param connection
+	 *            estado de la conexión
+	 * @param deadline
+	 *            instante en el que termina la carga
+	 * @throws IOException
+	 *             Si falla la conexión
+	 */
+	private void handle(SelectionKey key, Connection connection, long deadline)
+			throws IOException {
+		SocketChannel channel = (SocketChannel) key.channel();
+
+		if (key.isConnectable()) {
+			channel.finishConnect();
+			send(key, connection);
+		}
+		if (key.isValid() && key.isWritable()) {
+			channel.write(connection.out);
+			if (!connection.out.hasRemaining()) {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+		if (key.isValid() && key.isReadable()) {
+			if (!connection.in.hasRemaining()) {
+				connection.grow();
+			}
+			if (channel.read(connection.in) < 0) {
+				throw new IOException("El servidor cerró la conexión.");
+			}
+			int status = connection.parse();
+			if (status > 0) {
+				latency.record(System.nanoTime() - connection.sentAt);
+				completed++;
+				if (status >= 500) {
+					errors++;
+				}
+				connection.afterResponse(status);
+				if (System.nanoTime() < deadline) {
+					send(key, connection);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Prepara y comienza a enviar la siguiente petición de la conexión.
+	 * 
+	 * @param key
+	 *            llave de la conexión
+	 * @param connection
+	 *            estado de la conexión
+	 * @throws IOException
+	 *             Si falla la escritura
+	 */
+	private void send(SelectionKey key, Connection connection)
+			throws IOException {
+		connection.nextRequest();
+		connection.sentAt = System.nanoTime();
+		((SocketChannel) key.channel()).write(connection.out);
+		key.interestOps(connection.out.hasRemaining() ? SelectionKey.OP_WRITE
+				: SelectionKey.OP_READ);
+	}
+
+	/**
+	 * 
+	 * Estado de una conexión persistente.
+	 */
+	private final class Connection {
+
+		/**
+		 * Generador aleatorio de la conexión.
+		 */
+		final Random random;
+
+		/**
+		 * Siguiente identificador de usuario a crear por la conexión.
+		 */
+		int nextId;
+
+		/**
+		 * Usuarios creados por la conexión y aún no eliminados.
+		 */
+		final ArrayDeque<Integer> created = new ArrayDeque<>();
+
+		/**
+		 * Operación en curso.
+		 */
+		LoadMix.Operation operation;
+
+		/**
+		 * Identificador de la operación en curso.
+		 */
+		int operationId;
+
+		/**
+		 * Petición en curso.
+		 */
+		ByteBuffer out;
+
+		/**
+		 * Bytes recibidos de la respuesta en curso.
+		 */
+		ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+		/**
+		 * Instante de envío de la petición en curso.
+		 */
+		long sentAt;
+
+		/**
+		 * 
+		 * Constructor.
+		 * 
+		 * @param index
+		 *            número de la conexión
+		 */
+		Connection(int index) {
+			random = new Random(index);
+			nextId = 1000000 + index * 1000000;
+		}
+
+		/**
+		 * Construye la siguiente petición según la mezcla.
+		 */
+		void nextRequest() {
+			operation = mix.next(random);
+			if (operation == LoadMix.Operation.DELETE && created.isEmpty()) {
+				operation = LoadMix.Operation.POST;
+			}
+
+			String method;
+			String path;
+			String body = null;
+			switch (operation) {
+			case LIST:
+				method = "GET";
+				path = "/users?limit=50";
+				break;
+			case POST:
+				operationId = nextId++;
+				method = "POST";
+				path = "/users";
+				body = "{\"id\":" + operationId
+						+ ",\"name\":\"Carga\",\"lastName\":\"Prueba\",\"document\":\""
+						+ operationId + "\"}";
+				break;
+			case PUT:
+				operationId = 1 + random.nextInt(5);
+				method = "PUT";
+				path = "/users/" + operationId;
+				body = "{\"name\":\"Carga\",\"lastName\":\"Prueba\",\"document\":\""
+						+ random.nextInt() + "\"}";
+				break;
+			case DELETE:
+				operationId = created.poll();
+				method = "DELETE";
+				path = "/users/" + operationId;
+				break;
+			default:
+				method = "GET";
+				path = "/users/" + (1 + random.nextInt(5));
+			}
+
+			StringBuilder request = new StringBuilder(256);
+			request.append(method).append(' ').append(path)
+					.append(" HTTP/1.1\r\nHost: ").append(address.getHostString())
+					.append(':').append(address.getPort()).append("\r\n");
+			byte[] content = body == null ? new byte[0] : body
+					.getBytes(StandardCharsets.UTF_8);
+			if (body != null) {
+				request.append("Content-Type: application/json\r\n");
+			}
+			request.append("Content-Length: ").append(content.length)
+					.append("\r\n\r\n");
+
+			byte[] head = request.toString().getBytes(StandardCharsets.US_ASCII);
+			out = ByteBuffer.allocate(head.length + content.length);
+			out.put(head).put(content);
+			out.flip();
+		}
+
+		/**
+		 * 
+		 * Actualiza el estado de la conexión según la respuesta recibida.
+		 * 
+		 * @param status
+		 *            código de estado de la respuesta
+		 */
+		void afterResponse(int status) {
+			if (operation == LoadMix.Operation.POST && status == 201) {
+				created.add(operationId);
+			}
+		}
+
+		/**
+		 * Duplica el tamaño del buffer de lectura.
+		 */
+		void grow() {
+			ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+			in.flip();
+			bigger.put(in);
+			in = bigger;
+		}
+
+		/**
+		 * 
+		 * Intenta leer una respuesta completa del buffer, solo se soportan
+		 * respuestas con Content-Length.
+		 * 
+		 * @return código de estado, o 0 si la respuesta aún está incompleta
+		 * @throws IOException
+		 *             Si la respuesta no tiene Content-Length
+		 */
+		int parse() throws IOException {
+			byte[] data = in.array();
+			int length = in.position();
+			int headerEnd = indexOf(data, length, HEADER_END);
+			if (headerEnd < 0) {
+				return 0;
+			}
+
+			String headers = new String(data, 0, headerEnd,
+					StandardCharsets.ISO_8859_1);
+			int status = Integer.parseInt(headers.substring(9, 12));
+			int contentLength = -1;
+			for (String line : headers.split("\r\n")) {
+				int colon = line.indexOf(':');
+				if (colon > 0
+						&& line.substring(0, colon).trim()
+								.equalsIgnoreCase("Content-Length")) {
+					contentLength = Integer.parseInt(line.substring(colon + 1)
+							.trim());
+				}
+			}
+			if (contentLength < 0) {
+				throw new IOException("La respuesta no tiene Content-Length.");
+			}
+
+			int total = headerEnd + HEADER_END.length + contentLength;
+			if (length < total) {
+				return 0;
+			}
+			/* Se conservan los bytes de una respuesta siguiente. */
+			in.flip();
+			in.position(total);
+			in.compact();
+			return status;
+		}
+
+	}
+
+	/**
+	 * 
+	 * Busca una secuencia de bytes.
+	 * 
+	 * @param data
+	 *            bytes donde buscar
+	 * @param length
+	 *            cantidad de bytes válidos
+	 * @param pattern
+	 *            secuencia a buscar
+	 * @return posición de la secuencia o -1
+	 */
+	private static int indexOf(byte[] data, int length, byte[] pattern) {
+		outer: for (int i = 0; i <= length - pattern.length; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (data[i + j] != pattern[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.drimersion.spark_simple_api.load;
+
+import java.util.Random;
+
+/**
+ * 
+ * Mezcla de operaciones de la carga, definida con pesos relativos como
+ * "get=70,list=10,post=10,put=5,delete=5".
+ */
+public class LoadMix {
+
+	/**
+	 * Operaciones soportadas por el generador.
+	 */
+	public enum Operation {
+		/** GET /users/:id */
+		GET,
+		/** GET /users paginado */
+		LIST,
+		/** POST /users */
+		POST,
+		/** PUT /users/:id */
+		PUT,
+		/** DELETE /users/:id */
+		DELETE
+	}
+
+	/**
+	 * Peso acumulado de cada operación.
+	 */
+	private final int[] cumulative = new int[Operation.values().length];
+
+	/**
+	 * 
+	 * Constructor.
+	 * 
+	 * @param spec
+	 *            pesos de cada operación separados por comas
+	 * @throws IllegalArgumentException
+	 *             Si la especificación no es válida
+	 */
+	public LoadMix(String spec) {
+		int[] weights = new int[cumulative.length];
+		for (String part : spec.split(",")) {
+			String[] pair = part.trim().split("=");
+			if (pair.length != 2) {
+				throw new IllegalArgumentException("Mezcla inválida: " + spec);
+			}
+			weights[Operation.valueOf(pair[0].trim().toUpperCase()).ordinal()] = Integer
+					.parseInt(pair[1].trim());
+		}
+
+		int total = 0;
+		for (int i = 0; i < weights.length; i++) {
+			total += weights[i];
+			cumulative[i] = total;
+		}
+		if (total <= 0) {
+			throw new IllegalArgumentException("Mezcla sin operaciones: "
+					+ spec);
+		}
+	}
+
+	/**
+	 * 
+	 * Selecciona la siguiente operación según los pesos.
+	 * 
+	 * @param random
+	 *            generador aleatorio
+	 * @return operación seleccionada
+	 */
+	public Operation next(Random random) {
+		int value = random.nextInt(cumulative[cumulative.length - 1]);
+		for (int i = 0; i < cumulative.length; i++) {
+			if (value < cumulative[i]) {
+				return Operation.values()[i];
+			}
+		}
+		return Operation.GET;
+	}
+
+}
@@ -0,0 +1,162 @@
+package com.drimersion.spark_simple_api.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import com.drimersion.spark_simple_api.metrics.LatencyHistogram;
+
+/**
+ * 
+ * Resultados de una ejecución de carga y su comparación con una línea base.
+ */
+public class LoadReport {
+
+	/**
+	 * Peticiones por segundo.
+	 */
+	private final double throughput;
+
+	/**
+	 * Porcentaje de peticiones con error, entre 0 y 1.
+	 */
+	private final double errorRate;
+
+	/**
+	 * Cantidad de peticiones completadas.
+	 */
+	private final long requests;
+
+	/**
+	 * Percentiles 50, 99 y 99.9 de la latencia en milisegundos.
+	 */
+	private final double p50, p99, p999;
+
+	/**
+	 * 
+	 * Constructor.
+	 * 
+	 * @param requests
+	 *            cantidad de peticiones completadas
+	 * @param errors
+	 *            cantidad de errores
+	 * @param elapsedNanos
+	 *            duración de la carga
+	 * @param latency
+	 *            latencias de las peticiones
+	 */
+	LoadReport(long requests, long errors, long elapsedNanos,
+			LatencyHistogram latency) {
+		this.requests = requests;
+		this.throughput = requests / (elapsedNanos / 1e9);
+		this.errorRate = requests + errors == 0 ? 0 : errors
+				/ (double) (requests + errors);
+		long[] quantiles = latency.quantiles(0.5, 0.99, 0.999);
+		this.p50 = millis(quantiles[0]);
+		this.p99 = millis(quantiles[1]);
+		this.p999 = millis(quantiles[2]);
+	}
+
+	/**
+	 * 
+	 * Compara los resultados con la línea base. Las propiedades soportadas
+	 * son throughput.min, latency.p99.max.ms, latency.p999.max.ms y
+	 * errorRate.max; las que no estén definidas no se validan.
+	 * 
+	 * @param baseline
+	 *            línea base
+	 * @param tolerance
+	 *            tolerancia relativa, por ejemplo 0.1 para un 10%
+	 * @return descripción de cada regresión encontrada
+	 */
+	public List<String> regressions(Properties baseline, double tolerance) {
+		List<String> regressions = new ArrayList<>();
+		double minThroughput = value(baseline, "throughput.min") * (1 - tolerance);
+		if (throughput < minThroughput) {
+			regressions.add(String.format(
+					"throughput %.1f req/s < %.1f req/s", throughput,
+					minThroughput));
+		}
+		check(regressions, "latency.p99.max.ms", p99, baseline, tolerance);
+		check(regressions, "latency.p999.max.ms", p999, baseline, tolerance);
+		check(regressions, "errorRate.max", errorRate, baseline, 0);
+		return regressions;
+	}
+
+	/**
+	 * 
+	 * Valida que un valor no supere su máximo en la línea base.
+	 * 
+	 * @param regressions
+	 *            regresiones encontradas
+	 * @param property
+	 *            propiedad del máximo
+	 * @param actual
+	 *            valor medido
+	 * @param baseline
+	 *            línea base
+	 * @param tolerance
+	 *            tolerancia relativa
+	 */
+	private static void check(List<String> regressions, String property,
+			double actual, Properties baseline, double tolerance) {
+		String max = baseline.getProperty(property);
+		if (max != null) {
+			double limit = Double.parseDouble(max) * (1 + tolerance);
+			if (actual > limit) {
+				regressions.add(String.format("%s %.4f > %.4f", property,
+						actual, limit));
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Lee un valor numérico de la línea base, 0 si no está definido.
+	 * 
+	 * @param baseline
+	 *            línea base
+	 * @param property
+	 *            nombre de la propiedad
+	 * @return valor de la propiedad
+	 */
+	private static double value(Properties baseline, String property) {
+		return Double.parseDouble(baseline.getProperty(property, "0"));
+	}
+
+	/**
+	 * 
+	 * Convierte nanosegundos a milisegundos.
+	 * 
+	 * @param nanos
+	 *            valor en nanosegundos
+	 * @return valor en milisegundos
+	 */
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * 
+	 * Retorna la cantidad de peticiones completadas.
+	 * 
+	 * @return cantidad de peticiones
+	 */
+	public long getRequests() {
+		return requests;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+				"requests=%d throughput=%.1f req/s p50=%.3f ms p99=%.3f ms p999=%.3f ms errorRate=%.4f",
+				requests, throughput, p50, p99, p999, errorRate);
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.drimersion.spark_simple_api.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import spark.Spark;
+
+import com.drimersion.spark_simple_api.App;
+
+/**
+ * 
+ * Prueba de carga de la aplicación. Inicia el servidor en un puerto libre
+ * igual que {@link com.drimersion.spark_simple_api.AppTest}, ejecuta una
+ * mezcla de operaciones sobre /users y falla si los resultados empeoran
+ * respecto a la línea base de load/baseline.properties. Se ejecuta con el
+ * perfil load:
+ * 
+ * <pre>
+ * mvn -Pload verify -Dload.duration=30 -Dload.connections=64
+ * </pre>
+ */
+public class UserLoadIT {
+
+	/**
+	 * Host donde está ejecutandose el proceso.
+	 */
+	private static final String HOST = "localhost";
+
+	/**
+	 * Logger de la prueba, reporta el resultado de la carga.
+	 */
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(UserLoadIT.class);
+
+	/**
+	 * Puerto libre asignado al servidor.
+	 */
+	private static int port;
+
+	/**
+	 * Procesos para levantar el servidor antes de la carga.
+	 * 
+	 * @throws Exception
+	 *             Si el servidor no inicia
+	 */
+	@BeforeClass
+	public static void setup() throws Exception {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		System.setProperty("server.port", Integer.toString(port));
+		App.main(null);
+		awaitServer(TimeUnit.SECONDS.toMillis(10));
+	}
+
+	/**
+	 * Finaliza el proceso del servidor y limpia todas las rutas.
+	 */
+	@AfterClass
+	public static void tearDown() {
+		Spark.stop();
+	}
+
+	/**
+	 * 
+	 * Ejecuta la carga y la compara con la línea base.
+	 * 
+	 * @throws IOException
+	 *             Si no es posible ejecutar la carga
+	 */
+	@Test
+	public void sustainsBaselineLoad() throws IOException {
+		long duration = Long.getLong("load.duration", 10);
+		int connections = Integer.getInteger("load.connections", 32);
+		LoadMix mix = new LoadMix(System.getProperty("load.mix",
+				"get=70,list=10,post=10,put=5,delete=5"));
+		double tolerance = Double.parseDouble(System.getProperty(
+				"load.tolerance", "0.1"));
+
+		/* Calentamiento para que el JIT compile las rutas. */
+		new LoadGenerator(new InetSocketAddress(HOST, port), mix, connections)
+				.run(Math.max(1, duration / 5), TimeUnit.SECONDS);
+
+		LoadReport report = new LoadGenerator(new InetSocketAddress(HOST,
+				port), mix, connections).run(duration, TimeUnit.SECONDS);
+		LOGGER.info("Resultado de la carga: {}", report);
+
+		Properties baseline = new Properties();
+		try (InputStream in = UserLoadIT.class
+				.getResourceAsStream("/load/baseline.properties")) {
+			baseline.load(in);
+		}
+		List<String> regressions = report.regressions(baseline, tolerance);
+		Assert.assertTrue("No se completaron peticiones",
+				report.getRequests() > 0);
+		Assert.assertTrue("Regresiones respecto a la línea base: "
+				+ regressions, regressions.isEmpty());
+	}
+
+	/**
+	 * 
+	 * Espera a que el servidor acepte conexiones.
+	 * 
+	 * @param timeoutMillis
+	 *            tiempo máximo de espera
+	 * @throws InterruptedException
+	 *             Si se interrumpe la espera
+	 */
+	private static void awaitServer(long timeoutMillis)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (System.currentTimeMillis() < deadline) {
+			try (Socket socket = new Socket(HOST, port)) {
+				return;
+			} catch (IOException e) {
+				Thread.sleep(50);
+			}
+		}
+		Assert.fail("El servidor no inició en el puerto " + port);
+	}
+
+}
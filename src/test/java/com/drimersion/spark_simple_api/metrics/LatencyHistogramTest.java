@@ -0,0 +1,46 @@
+package com.drimersion.spark_simple_api.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ * Clase que contiene las pruebas para el histograma de latencias.
+ */
+public class LatencyHistogramTest {
+
+	/**
+	 * Verifica que cada valor quede en una cubeta cuyo límite superior no
+	 * supere el error relativo esperado.
+	 */
+	@Test
+	public void bucketsHaveBoundedError() {
+		for (long value = 1; value < 1L << 40; value = value * 3 / 2 + 1) {
+			long upper = LatencyHistogram.upperBound(LatencyHistogram
+					.indexOf(value));
+			Assert.assertTrue("El límite es menor al valor", upper >= value);
+			Assert.assertTrue("El error relativo es muy alto",
+					upper - value <= value / 16);
+		}
+	}
+
+	/**
+	 * Verifica el cálculo de los percentiles sobre una distribución uniforme.
+	 */
+	@Test
+	public void canComputeQuantiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 10000; value++) {
+			histogram.record(value * 1000);
+		}
+
+		long[] quantiles = histogram.quantiles(0.5, 0.99);
+		Assert.assertEquals("La cantidad no es correcta", 10000,
+				histogram.getCount());
+		Assert.assertEquals("La mediana no es correcta", 5000000,
+				quantiles[0], 5000000 / 16);
+		Assert.assertEquals("El percentil 99 no es correcto", 9900000,
+				quantiles[1], 9900000 / 16);
+	}
+
+}
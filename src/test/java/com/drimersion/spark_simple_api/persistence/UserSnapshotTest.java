@@ -0,0 +1,102 @@
+package com.drimersion.spark_simple_api.persistence;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.repository.InMemoryUserRepository;
+import com.drimersion.spark_simple_api.repository.UserRepository;
+
+/**
+ * 
+ * Clase que contiene las pruebas para los snapshots de usuarios.
+ */
+public class UserSnapshotTest {
+
+	/**
+	 * Cantidad de usuarios, suficiente para escribir varios bloques.
+	 */
+	private static final int USERS = 100000;
+
+	/**
+	 * Directorio temporal de los snapshots.
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * 
+	 * Verifica que un snapshot con varios bloques se cargue completo.
+	 * 
+	 * @throws IOException
+	 *             Si no es posible escribir o leer el snapshot
+	 */
+	@Test
+	public void canLoadChunkedSnapshot() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("users.bin");
+		UserSnapshot.write(file, users());
+
+		try (UserSnapshot.Reader reader = UserSnapshot.open(file)) {
+			Assert.assertEquals("La cantidad del índice no es correcta", USERS,
+					reader.size());
+		}
+		UserRepository loaded = UserSnapshot.load(file);
+		Assert.assertEquals("La cantidad de usuarios no es correcta", USERS,
+				loaded.size());
+		for (int id = 0; id < USERS; id += 997) {
+			User user = loaded.find(id);
+			Assert.assertEquals("El identificador no es correcto", id,
+					user.getId());
+			Assert.assertEquals("El nombre no es correcto", "José " + id,
+					user.getName());
+			Assert.assertNull("Los campos null deben conservarse",
+					user.getDocument());
+		}
+
+		/* Un nodo del cluster carga solo sus usuarios */
+		UserRepository even = UserSnapshot.load(file, true, id -> id % 2 == 0);
+		Assert.assertEquals("No se filtraron los usuarios", (USERS + 1) / 2,
+				even.size());
+		Assert.assertNull("Se cargó un usuario excluido", even.find(1));
+	}
+
+	/**
+	 * 
+	 * Verifica que un snapshot incompleto no se cargue.
+	 * 
+	 * @throws IOException
+	 *             Si no es posible escribir el snapshot
+	 */
+	@Test(expected = IOException.class)
+	public void cannotLoadTruncatedSnapshot() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("users.bin");
+		UserSnapshot.write(file, users());
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() / 2);
+		}
+		UserSnapshot.load(file);
+	}
+
+	/**
+	 * 
+	 * Crea el repositorio de usuarios de las pruebas.
+	 * 
+	 * @return repositorio con los usuarios
+	 */
+	private static UserRepository users() {
+		UserRepository users = new InMemoryUserRepository();
+		for (int id = 0; id < USERS; id++) {
+			users.createIfAbsent(id, new User(id, "José " + id, "Ortiz", null));
+		}
+		return users;
+	}
+
+}
@@ -0,0 +1,353 @@
+package com.drimersion.spark_simple_api.replication;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.drimersion.spark_simple_api.codec.UserBinaryCodec;
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.repository.InMemoryUserRepository;
+import com.drimersion.spark_simple_api.repository.UserRepository;
+
+/**
+ *
+ * Clase que contiene las pruebas del envío del log de escrituras del primario
+ * a una réplica en el mismo proceso.
+ */
+public class ReplicationTest {
+
+	/**
+	 * Tiempo máximo de espera de la réplica.
+	 */
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	/**
+	 * Verifica que el log conserve solo los últimos registros y que un lector
+	 * que los perdió lo sepa.
+	 *
+	 * @throws InterruptedException
+	 *             Si se interrumpe la lectura
+	 */
+	@Test
+	public void keepsLastRecords() throws InterruptedException {
+		MutationLog log = new MutationLog(4);
+		Assert.assertTrue("El log vacio no espera registros",
+				log.read(1, 10, 10).isEmpty());
+		for (int i = 0; i < 6; i++) {
+			log.append(MutationLog.PUT, new byte[] { (byte) i });
+		}
+
+		Assert.assertEquals("La última secuencia no es la esperada", 6,
+				log.head());
+		Assert.assertNull("Se leyó un registro que salió del buffer",
+				log.read(2, 10, 0));
+		List<MutationLog.Record> records = log.read(3, 10, 0);
+		Assert.assertEquals("No se leyeron los registros del buffer", 4,
+				records.size());
+		Assert.assertEquals("El primer registro no es el esperado", 3, records
+				.get(0).getSequence());
+		Assert.assertEquals("El contenido no es el esperado", 5, records
+				.get(3).getPayload()[0]);
+		Assert.assertEquals("No se respetó el tamaño del lote", 2,
+				log.read(5, 2, 0).size());
+		Assert.assertTrue("Se leyeron registros que no existen",
+				log.read(7, 10, 10).isEmpty());
+	}
+
+	/**
+	 * Verifica que los lectores que esperan se despierten con una escritura
+	 * antes de su tiempo máximo.
+	 *
+	 * @throws InterruptedException
+	 *             Si se interrumpe la espera
+	 */
+	@Test
+	public void wakesWaitingReaders() throws InterruptedException {
+		MutationLog log = new MutationLog(16);
+		long[] read = new long[3];
+		Thread[] readers = new Thread[read.length];
+		for (int i = 0; i < readers.length; i++) {
+			int reader = i;
+			readers[i] = new Thread(() -> {
+				try {
+					List<MutationLog.Record> records = log.read(1, 10,
+							TIMEOUT_MILLIS);
+					read[reader] = records.isEmpty() ? 0 : records.get(0)
+							.getSequence();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			readers[i].start();
+		}
+		Thread.sleep(100);
+
+		long start = System.nanoTime();
+		log.append(MutationLog.PUT, new byte[] { 1 });
+		for (Thread reader : readers) {
+			reader.join(TIMEOUT_MILLIS);
+		}
+		Assert.assertTrue("Los lectores esperaron su tiempo máximo",
+				System.nanoTime() - start < TIMEOUT_MILLIS * 1000000L / 2);
+		for (long sequence : read) {
+			Assert.assertEquals("Un lector no recibió la escritura", 1, sequence);
+		}
+	}
+
+	/**
+	 * Verifica que un lector que compite con las escrituras reciba registros
+	 * consecutivos o sepa que los perdió, aunque el buffer dé la vuelta
+	 * mientras copia.
+	 *
+	 * @throws InterruptedException
+	 *             Si se interrumpe la lectura
+	 */
+	@Test
+	public void readsWhileAppending() throws InterruptedException {
+		MutationLog log = new MutationLog(8);
+		int total = 200000;
+		Thread writer = new Thread(() -> {
+			for (int i = 1; i <= total; i++) {
+				log.append(MutationLog.PUT, new byte[] { (byte) i });
+			}
+		});
+		writer.start();
+
+		long from = 1;
+		while (from <= total) {
+			List<MutationLog.Record> records = log.read(from, 8, 10);
+			if (records == null) {
+				from = Math.max(1, log.head() - 3);
+				continue;
+			}
+			for (MutationLog.Record record : records) {
+				Assert.assertEquals("Se leyó un registro fuera de orden", from,
+						record.getSequence());
+				Assert.assertEquals("El contenido no es el esperado",
+						(byte) from, record.getPayload()[0]);
+				from++;
+			}
+		}
+		writer.join(TIMEOUT_MILLIS);
+		Assert.assertEquals("El lector no alcanzó al escritor", total + 1,
+				from);
+	}
+
+	/**
+	 * Verifica que la réplica reciba la copia inicial y las escrituras
+	 * posteriores, incluido un documento que pasa de un usuario a otro, y que
+	 * informe su atraso.
+	 *
+	 * @throws Exception
+	 *             Si falla la conexión
+	 */
+	@Test
+	public void replicaFollowsPrimary() throws Exception {
+		MutationLog log = new MutationLog(1024);
+		ReplicatedUserRepository primary = new ReplicatedUserRepository(
+				new InMemoryUserRepository(), log);
+		primary.createIfAbsent(1, new User(1, "Juan", "Ramírez", "d1"));
+		primary.createIfAbsent(2, new User(2, "Daniel", "Arbelaez", "d2"));
+
+		ReplicaUserRepository replica = new ReplicaUserRepository();
+		Assert.assertEquals("La réplica sin copia no informa que no está al día",
+				-1, replica.getStalenessMillis());
+		try (ReplicationServer server = new ReplicationServer("127.0.0.1", 0,
+				log, primary, 2, 50);
+				ReplicationClient client = new ReplicationClient("127.0.0.1",
+						server.getPort(), replica, 1000)) {
+			client.start();
+			await("La réplica no recibió la copia inicial",
+					() -> replica.size() == 2 && replica.getStalenessMillis() >= 0);
+			Assert.assertNotEquals("No se estableció la época", 0,
+					replica.getEpoch());
+
+			primary.replaceIfPresent(1, new User(1, "Juan", "Ramírez", "d9"));
+			primary.createIfAbsent(3, new User(3, "José", "Ortiz", "d1"));
+			primary.remove(2);
+			for (int id = 10; id < 20; id++) {
+				primary.createIfAbsent(id, new User(id, "n" + id, "l" + id,
+						"doc" + id));
+			}
+
+			await("La réplica no aplicó las escrituras",
+					() -> replica.getAppliedSequence() == log.head());
+			assertSameUsers(primary, replica);
+			Assert.assertEquals("El índice de documentos no es el esperado", 3,
+					replica.findByDocument("d1").getId());
+			Assert.assertNull("No se eliminó el usuario", replica.find(2));
+			Assert.assertEquals("La réplica informa registros pendientes", 0,
+					replica.getLagRecords());
+			Assert.assertTrue("El atraso no es el esperado",
+					replica.getStalenessMillis() < TIMEOUT_MILLIS);
+		}
+	}
+
+	/**
+	 * Verifica que una réplica se sincronice de nuevo con un primario
+	 * reiniciado, eliminando los usuarios que ya no existen.
+	 *
+	 * @throws Exception
+	 *             Si falla la conexión
+	 */
+	@Test
+	public void replicaResyncsWithNewPrimary() throws Exception {
+		ReplicaUserRepository replica = new ReplicaUserRepository();
+		MutationLog first = new MutationLog(16);
+		ReplicatedUserRepository primary = new ReplicatedUserRepository(
+				new InMemoryUserRepository(), first);
+		primary.createIfAbsent(1, new User(1, "a", "b", "d1"));
+		primary.createIfAbsent(2, new User(2, "c", "d", "d2"));
+		int port;
+		try (ReplicationServer server = new ReplicationServer("127.0.0.1", 0,
+				first, primary, 16, 50)) {
+			port = server.getPort();
+			try (ReplicationClient client = new ReplicationClient("127.0.0.1",
+					port, replica, 1000)) {
+				client.start();
+				await("La réplica no recibió la copia inicial",
+						() -> replica.size() == 2);
+			}
+		}
+		long epoch = replica.getEpoch();
+
+		/* Un nuevo primario con otros usuarios en el mismo puerto */
+		MutationLog second = new MutationLog(16);
+		ReplicatedUserRepository restarted = new ReplicatedUserRepository(
+				new InMemoryUserRepository(), second);
+		restarted.createIfAbsent(2, new User(2, "c", "d", "d1"));
+		restarted.createIfAbsent(5, new User(5, "e", "f", "d5"));
+		try (ReplicationServer server = new ReplicationServer("127.0.0.1",
+				port, second, restarted, 16, 50);
+				ReplicationClient client = new ReplicationClient("127.0.0.1",
+						port, replica, 1000)) {
+			client.start();
+			/* El atraso solo se informa al terminar la copia completa */
+			await("La réplica no se sincronizó con el nuevo primario",
+					() -> replica.getEpoch() != epoch
+							&& replica.getStalenessMillis() >= 0
+							&& replica.getAppliedSequence() == second.head());
+			assertSameUsers(restarted, replica);
+			Assert.assertEquals("El índice de documentos no es el esperado", 2,
+					replica.findByDocument("d1").getId());
+		}
+	}
+
+	/**
+	 * Verifica que un usuario que llega con el documento que otro aún no ha
+	 * liberado se aplique cuando llega el registro del otro usuario.
+	 */
+	@Test
+	public void defersDuplicateDocuments() {
+		ReplicaUserRepository replica = new ReplicaUserRepository();
+		replica.beginSnapshot(1);
+		replica.applySnapshot(UserBinaryCodec.encode(1, new User(1, "a", "b",
+				"d1")));
+		replica.endSnapshot(0, 0, 0);
+
+		replica.apply(MutationLog.PUT, UserBinaryCodec.encode(3, new User(3,
+				"c", "d", "d1")));
+		Assert.assertNull("Se aplicó un documento repetido", replica.find(3));
+		replica.apply(MutationLog.PUT, UserBinaryCodec.encode(1, new User(1,
+				"a", "b", "d9")));
+		replica.advance(2, 2, 0);
+		Assert.assertEquals("No se aplicó el usuario aplazado", 3, replica
+				.findByDocument("d1").getId());
+
+		/* Una escritura más reciente descarta la aplazada */
+		replica.apply(MutationLog.PUT, UserBinaryCodec.encode(4, new User(4,
+				"e", "f", "d9")));
+		replica.apply(MutationLog.DELETE,
+				ReplicatedUserRepository.encodeId(4));
+		replica.advance(4, 4, 0);
+		Assert.assertNull("Se aplicó una escritura descartada", replica.find(4));
+		Assert.assertEquals("El documento cambió de dueño", 1, replica
+				.findByDocument("d9").getId());
+	}
+
+	/**
+	 * Verifica que durante una nueva copia completa la réplica no informe un
+	 * atraso, y que al terminarla el documento de un usuario eliminado pase
+	 * al usuario aplazado.
+	 */
+	@Test
+	public void hidesStalenessDuringResync() {
+		ReplicaUserRepository replica = new ReplicaUserRepository();
+		replica.beginSnapshot(1);
+		replica.applySnapshot(UserBinaryCodec.encode(1, new User(1, "a", "b",
+				"d1")));
+		replica.endSnapshot(1, 1, 0);
+		Assert.assertTrue("La réplica debe informar su atraso", replica
+				.getStalenessMillis() >= 0);
+
+		replica.beginSnapshot(2);
+		Assert.assertEquals("La copia en curso no debe informar un atraso",
+				-1, replica.getStalenessMillis());
+		replica.applySnapshot(UserBinaryCodec.encode(2, new User(2, "c", "d",
+				"d1")));
+		Assert.assertNull("Se aplicó un documento repetido", replica.find(2));
+		replica.endSnapshot(1, 1, 0);
+		Assert.assertNull("El usuario ausente no se eliminó", replica.find(1));
+		Assert.assertEquals("No se aplicó el usuario aplazado", 2, replica
+				.findByDocument("d1").getId());
+		Assert.assertTrue("La réplica debe informar su atraso", replica
+				.getStalenessMillis() >= 0);
+	}
+
+	/**
+	 * Verifica que la réplica rechace las escrituras de la aplicación.
+	 */
+	@Test(expected = UnsupportedOperationException.class)
+	public void replicaIsReadOnly() {
+		new ReplicaUserRepository().createIfAbsent(1, new User(1, "a", "b",
+				"c"));
+	}
+
+	/**
+	 *
+	 * Compara los usuarios de la réplica con los del primario.
+	 *
+	 * @param expected
+	 *            usuarios del primario
+	 * @param actual
+	 *            usuarios de la réplica
+	 */
+	private static void assertSameUsers(UserRepository expected,
+			UserRepository actual) {
+		Assert.assertEquals("La réplica no tiene los mismos usuarios", expected
+				.findAll().keySet(), actual.findAll().keySet());
+		expected.forEach((user, id) -> {
+			User copy = actual.find(id);
+			Assert.assertEquals("El usuario " + id + " no es el mismo",
+					Arrays.asList(user.getName(), user.getLastName(),
+							user.getDocument()), Arrays.asList(copy.getName(),
+							copy.getLastName(), copy.getDocument()));
+		});
+	}
+
+	/**
+	 *
+	 * Espera a que se cumpla una condición.
+	 *
+	 * @param message
+	 *            mensaje si no se cumple a tiempo
+	 * @param condition
+	 *            condición esperada
+	 * @throws InterruptedException
+	 *             Si se interrumpe la espera
+	 */
+	private static void await(String message, BooleanSupplier condition)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				Assert.fail(message);
+			}
+			Thread.sleep(20);
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+package com.drimersion.spark_simple_api.repository;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.drimersion.spark_simple_api.model.User;
+
+/**
+ * 
+ * Clase que contiene las pruebas para el repositorio de usuarios en memoria.
+ */
+public class InMemoryUserRepositoryTest {
+
+	/**
+	 * Cantidad de hilos que compiten por el repositorio.
+	 */
+	private static final int THREADS = 8;
+
+	/**
+	 * Verifica que las operaciones condicionales respeten la existencia del
+	 * recurso.
+	 */
+	@Test
+	public void canApplyConditionalOperations() {
+		UserRepository users = new InMemoryUserRepository();
+		User user = new User("Juan", "Ramírez", "1094891516");
+
+		Assert.assertNull("El usuario no debe existir", users.find(1));
+		Assert.assertNull("La actualización no debe aplicar",
+				users.replaceIfPresent(1, user));
+		Assert.assertNull("El usuario debe ser creado",
+				users.createIfAbsent(1, user));
+		Assert.assertSame("Se debe reportar el conflicto", user,
+				users.createIfAbsent(1, new User()));
+		Assert.assertSame("La eliminación debe retornar el usuario", user,
+				users.remove(1));
+		Assert.assertNull("El usuario no debe existir", users.remove(1));
+		Assert.assertEquals("El repositorio debe estar vacio", 0, users.size());
+	}
+
+	/**
+	 * Verifica que los índices secundarios se mantengan con cada escritura y
+	 * que no se acepten documentos repetidos.
+	 */
+	@Test
+	public void canFindByIndexes() {
+		InMemoryUserRepository users = new InMemoryUserRepository();
+		users.createIfAbsent(1, new User(1, "Juan", "Ramírez", "100"));
+		users.createIfAbsent(2, new User(2, "Ana", "Ramos", "200"));
+		users.createIfAbsent(3, new User(3, "Luis", "Ortiz", "300"));
+
+		Assert.assertEquals("No se encontró el usuario por documento", 2,
+				users.findByDocument("200").getId());
+		Assert.assertArrayEquals("La búsqueda por prefijo no es correcta",
+				new Object[] { 2, 1 }, users.findByLastNamePrefix("ram", 10)
+						.keySet().toArray());
+
+		users.replaceIfPresent(2, new User(2, "Ana", "Ortega", "201"));
+		Assert.assertNull("El documento anterior sigue en el índice",
+				users.findByDocument("200"));
+		Assert.assertEquals("No se encontró el nuevo documento", 2, users
+				.findByDocument("201").getId());
+		Assert.assertArrayEquals("La búsqueda por prefijo no es correcta",
+				new Object[] { 2, 3 }, users.findByLastNamePrefix("O", 10)
+						.keySet().toArray());
+		Assert.assertEquals("No se respetó el límite", 1, users
+				.findByLastNamePrefix("", 1).size());
+
+		try {
+			users.createIfAbsent(4, new User(4, "Eva", "Díaz", "100"));
+			Assert.fail("Se aceptó un documento repetido");
+		} catch (DuplicateDocumentException e) {
+			Assert.assertNull("El usuario no debe existir", users.find(4));
+		}
+
+		users.remove(1);
+		Assert.assertNull("El usuario eliminado sigue en el índice",
+				users.findByDocument("100"));
+		Assert.assertNull("El documento liberado no se puede usar",
+				users.createIfAbsent(4, new User(4, "Eva", "Díaz", "100")));
+
+		/* Los índices construidos después de una carga omiten los repetidos */
+		users.dropIndexes();
+		users.replaceIfPresent(3, new User(3, "Luis", "Ortiz", "100"));
+		Assert.assertEquals("Se debe reportar el documento repetido", 1,
+				users.buildIndexes());
+	}
+
+	/**
+	 * Verifica que las versiones crezcan con cada escritura desde la versión
+	 * mínima y que las de un usuario no se repitan.
+	 */
+	@Test
+	public void versionsGrowFromMinimum() {
+		long minimum = Long.MAX_VALUE / 2;
+		InMemoryUserRepository users = new InMemoryUserRepository(0, minimum);
+		long previous = users.version();
+		Assert.assertTrue("No se respetó la versión mínima",
+				previous >= minimum);
+
+		Set<Long> versions = new HashSet<>();
+		users.createIfAbsent(1, new User(1, "Juan", "Ramírez", "1"));
+		for (int i = 0; i < 100; i++) {
+			User user = new User(1, "Juan", "R" + i, "1");
+			users.replaceIfPresent(1, user);
+			users.createIfAbsent(i + 2, new User(i + 2, "José", "Ortiz", null));
+			Assert.assertTrue("Se repitió la versión de un usuario",
+					versions.add(user.getVersion()));
+
+			long version = users.version();
+			Assert.assertTrue("La versión del repositorio no creció",
+					version > previous);
+			Assert.assertTrue("La cota no cubre las versiones asignadas",
+					users.maxVersion() > Math.max(version, user.getVersion()));
+			previous = version;
+		}
+	}
+
+	/**
+	 * 
+	 * Verifica que solo uno de los hilos que crean el mismo usuario de manera
+	 * concurrente tenga éxito.
+	 * 
+	 * @throws Exception
+	 *             Si alguno de los hilos falla
+	 */
+	@Test
+	public void canCreateOnlyOnceConcurrently() throws Exception {
+		UserRepository users = new InMemoryUserRepository();
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			for (int id = 0; id < 1000; id++) {
+				final int key = id;
+				List<Callable<Boolean>> tasks = new ArrayList<>();
+				for (int i = 0; i < THREADS; i++) {
+					tasks.add(() -> users.createIfAbsent(key, new User()) == null);
+				}
+
+				int created = 0;
+				for (Future<Boolean> result : executor.invokeAll(tasks)) {
+					created += result.get() ? 1 : 0;
+				}
+				Assert.assertEquals("Solo un hilo debe crear el usuario", 1,
+						created);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertEquals("La cantidad de usuarios no es correcta", 1000,
+				users.size());
+	}
+
+}
@@ -0,0 +1,174 @@
+package com.drimersion.spark_simple_api.repository;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.drimersion.spark_simple_api.model.User;
+import com.sun.management.ThreadMXBean;
+
+/**
+ * 
+ * Clase que contiene las pruebas para el mapa de usuarios con llaves
+ * primitivas.
+ */
+public class IntUserMapTest {
+
+	/**
+	 * Cantidad de usuarios de la medición de memoria.
+	 */
+	private static final int USERS = 100000;
+
+	/**
+	 * Verifica que el mapa se comporte igual que un {@link HashMap} ante una
+	 * secuencia aleatoria de inserciones, reemplazos y eliminaciones que
+	 * provoca crecimiento y desplazamientos de la tabla.
+	 */
+	@Test
+	public void behavesLikeHashMap() {
+		IntUserMap map = new IntUserMap(2);
+		Map<Integer, User> expected = new HashMap<>();
+		Random random = new Random(42);
+
+		for (int i = 0; i < 200000; i++) {
+			int key = random.nextInt(5000);
+			User user = new User();
+			switch (random.nextInt(4)) {
+			case 0:
+				Assert.assertSame(expected.putIfAbsent(key, user),
+						map.putIfAbsent(key, user));
+				break;
+			case 1:
+				Assert.assertSame(expected.replace(key, user),
+						map.replace(key, user));
+				break;
+			case 2:
+				Assert.assertSame(expected.remove(key), map.remove(key));
+				break;
+			default:
+				Assert.assertSame(expected.get(key), map.get(key));
+			}
+		}
+
+		Assert.assertEquals("El tamaño no es correcto", expected.size(),
+				map.size());
+		Map<Integer, User> actual = new HashMap<>();
+		map.forEach((user, id) -> actual.put(id, user));
+		Assert.assertEquals("El contenido no es correcto", expected, actual);
+	}
+
+	/**
+	 * Verifica que el recorrido desde una llave siga el orden de las llaves,
+	 * incluyendo llaves negativas, dispersas y eliminadas.
+	 */
+	@Test
+	public void iteratesInKeyOrder() {
+		IntUserMap map = new IntUserMap(4);
+		TreeMap<Integer, User> expected = new TreeMap<>();
+		Random random = new Random(7);
+		for (int i = 0; i < 20000; i++) {
+			int key = random.nextBoolean() ? random.nextInt(3000) - 1000
+					: random.nextInt();
+			User user = new User();
+			if (random.nextInt(3) == 0) {
+				Assert.assertSame(expected.remove(key), map.remove(key));
+			} else {
+				Assert.assertSame(expected.putIfAbsent(key, user),
+						map.putIfAbsent(key, user));
+			}
+		}
+		map.putIfAbsent(Integer.MIN_VALUE, new User());
+		map.putIfAbsent(Integer.MAX_VALUE, new User());
+		expected.put(Integer.MIN_VALUE, map.get(Integer.MIN_VALUE));
+		expected.put(Integer.MAX_VALUE, map.get(Integer.MAX_VALUE));
+
+		for (int after : new int[] { Integer.MIN_VALUE, -1001, -1, 0, 500,
+				random.nextInt(), Integer.MAX_VALUE - 1 }) {
+			List<Integer> actual = new ArrayList<>();
+			map.forEachAfter(after, 50, (user, id) -> {
+				Assert.assertSame("El usuario no corresponde a la llave",
+						expected.get(id), user);
+				actual.add(id);
+			});
+			List<Integer> keys = new ArrayList<>(expected.tailMap(after,
+					false).keySet());
+			Assert.assertEquals("La página después de " + after
+					+ " no es correcta", keys.subList(0, Math.min(50,
+					keys.size())), actual);
+		}
+
+		List<Integer> all = new ArrayList<>();
+		map.forEachAfter(Integer.MIN_VALUE, Integer.MAX_VALUE,
+				(user, id) -> all.add(id));
+		Assert.assertEquals("El recorrido completo no es correcto",
+				new ArrayList<>(expected.tailMap(Integer.MIN_VALUE, false)
+						.keySet()), all);
+	}
+
+	/**
+	 * Verifica que las llaves se repartan en todos los segmentos aunque sean
+	 * más de 256.
+	 */
+	@Test
+	public void usesAllSegments() {
+		IntUserMap map = new IntUserMap(1024);
+		for (int key = 0; key < 100000; key++) {
+			map.putIfAbsent(key, new User());
+		}
+		Assert.assertEquals("No se usaron todos los segmentos", 1024,
+				map.usedSegments());
+	}
+
+	/**
+	 * Mide los bytes asignados por usuario al llenar un
+	 * {@code HashMap<Integer, User>} y un {@link IntUserMap} dimensionados
+	 * para la misma cantidad de usuarios, y verifica que el mapa con llaves
+	 * primitivas use menos de la mitad.
+	 */
+	@Test
+	public void usesLessMemoryThanHashMap() {
+		Object bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue("La JVM no mide los bytes asignados por hilo",
+				bean instanceof ThreadMXBean);
+		ThreadMXBean threads = (ThreadMXBean) bean;
+		Assume.assumeTrue("La JVM no mide los bytes asignados por hilo",
+				threads.isThreadAllocatedMemorySupported()
+						&& threads.isThreadAllocatedMemoryEnabled());
+		long thread = Thread.currentThread().getId();
+		User[] users = new User[USERS];
+		for (int i = 0; i < USERS; i++) {
+			users[i] = new User();
+		}
+
+		long start = threads.getThreadAllocatedBytes(thread);
+		Map<Integer, User> boxed = new HashMap<>(USERS * 4 / 3 + 1);
+		for (int i = 0; i < USERS; i++) {
+			boxed.put(i + 1000, users[i]);
+		}
+		long boxedBytes = threads.getThreadAllocatedBytes(thread) - start;
+
+		start = threads.getThreadAllocatedBytes(thread);
+		IntUserMap primitive = new IntUserMap(16, USERS);
+		for (int i = 0; i < USERS; i++) {
+			primitive.putIfAbsent(i + 1000, users[i]);
+		}
+		long primitiveBytes = threads.getThreadAllocatedBytes(thread) - start;
+
+		Assert.assertEquals("No se almacenaron los usuarios", boxed.size(),
+				primitive.size());
+		Assert.assertTrue("El mapa usa " + primitiveBytes / USERS
+				+ " bytes por usuario y HashMap " + boxedBytes / USERS,
+				primitiveBytes * 2 < boxedBytes);
+		Assert.assertTrue("El mapa usa " + primitiveBytes / USERS
+				+ " bytes por usuario", primitiveBytes / USERS <= 24);
+	}
+
+}
@@ -0,0 +1,367 @@
+package com.drimersion.spark_simple_api.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.drimersion.spark_simple_api.model.User;
+import com.drimersion.spark_simple_api.persistence.WriteAheadLog;
+
+/**
+ *
+ * Clase que contiene las pruebas para el repositorio de usuarios durable.
+ */
+public class PersistentUserRepositoryTest {
+
+	/**
+	 * Directorio temporal de los datos.
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 *
+	 * Verifica que las escrituras concurrentes se recuperen al abrir de nuevo
+	 * el repositorio, antes y después de un snapshot.
+	 *
+	 * @throws Exception
+	 *             Si no es posible escribir o recuperar los datos
+	 */
+	@Test
+	public void canRecoverWritesAndSnapshots() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try (PersistentUserRepository users = PersistentUserRepository.open(
+				directory, Long.MAX_VALUE)) {
+			Assert.assertTrue("El repositorio debe ser nuevo", users.isFresh());
+			ExecutorService executor = Executors.newFixedThreadPool(8);
+			try {
+				List<Callable<Void>> tasks = new ArrayList<>();
+				for (int id = 0; id < 400; id++) {
+					final int key = id;
+					tasks.add(() -> {
+						users.createIfAbsent(key, new User(key, "Juan", "R"
+								+ key, null));
+						return null;
+					});
+				}
+				for (Future<Void> result : executor.invokeAll(tasks)) {
+					result.get();
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+
+			users.snapshot();
+			users.replaceIfPresent(1, new User(1, "Daniel", "Arbelaez", "1"));
+			users.remove(2);
+		}
+
+		try (PersistentUserRepository users = PersistentUserRepository.open(
+				directory, Long.MAX_VALUE)) {
+			Assert.assertFalse("El repositorio no debe ser nuevo",
+					users.isFresh());
+			Assert.assertEquals("La cantidad de usuarios no es correcta", 399,
+					users.size());
+			Assert.assertEquals("La actualización no se recuperó", "Daniel",
+					users.find(1).getName());
+			Assert.assertNull("La eliminación no se recuperó", users.find(2));
+			Assert.assertEquals("El usuario no se recuperó", "R399",
+					users.find(399).getLastName());
+			Assert.assertNull("Los campos null deben conservarse",
+					users.find(399).getDocument());
+		}
+	}
+
+	/**
+	 *
+	 * Verifica que las versiones continúen desde la reserva anterior al abrir
+	 * de nuevo el repositorio, sin depender del reloj.
+	 *
+	 * @throws Exception
+	 *             Si no es posible escribir o recuperar los datos
+	 */
+	@Test
+	public void versionsContinueAfterReopen() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		long version;
+		long userVersion;
+		try (PersistentUserRepository users = PersistentUserRepository.open(
+				directory, Long.MAX_VALUE)) {
+			users.createIfAbsent(1, new User(1, "Juan", "Ramírez", "1"));
+			version = users.version();
+			userVersion = users.find(1).getVersion();
+		}
+
+		try (PersistentUserRepository users = PersistentUserRepository.open(
+				directory, Long.MAX_VALUE)) {
+			/* La reserva supera lo que avanza el reloj entre ambas ejecuciones */
+			Assert.assertTrue("La versión no continúa desde la reserva",
+					users.version() - version > 1L << 39);
+			Assert.assertTrue("La versión del usuario no continúa de la reserva",
+					users.find(1).getVersion() - userVersion > 1L << 39);
+		}
+	}
+
+	/**
+	 *
+	 * Verifica que un registro incompleto al final del log se descarte.
+	 *
+	 * @throws Exception
+	 *             Si no es posible escribir o recuperar los datos
+	 */
+	@Test
+	public void canDiscardTornWrite() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try (PersistentUserRepository users = PersistentUserRepository.open(
+				directory, Long.MAX_VALUE)) {
+			users.createIfAbsent(1, new User(1, "Juan", "Ramírez", "1"));
+			users.createIfAbsent(2, new User(2, "José", "Ortiz", "2"));
+		}
+
+		/* Se simula una escritura interrumpida del segundo registro */
+		List<Path> segments = WriteAheadLog.segments(directory);
+		try (FileChannel channel = FileChannel.open(
+				segments.get(segments.size() - 1), StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+			channel.write(ByteBuffer.wrap(new byte[] { 7 }), channel.size());
+		}
+
+		try (PersistentUserRepository users = PersistentUserRepository.open(
+				directory, Long.MAX_VALUE)) {
+			Assert.assertEquals("Solo el primer registro es válido", 1,
+					users.size());
+			users.createIfAbsent(3, new User(3, "Carlos", "Ariza", "3"));
+		}
+
+		try (PersistentUserRepository users = PersistentUserRepository.open(
+				directory, Long.MAX_VALUE)) {
+			Assert.assertEquals("Las escrituras posteriores deben recuperarse",
+					2, users.size());
+			Assert.assertNotNull("El usuario no se recuperó", users.find(3));
+		}
+	}
+
+	/**
+	 *
+	 * Verifica que al fallar el disco se deshagan las escrituras que no se
+	 * hicieron durables y se rechacen las siguientes sin modificar los
+	 * usuarios en memoria.
+	 *
+	 * @throws Exception
+	 *             Si no es posible escribir o recuperar los datos
+	 */
+	@Test
+	public void rejectsWritesAfterLogFailure() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		List<FailingChannel> channels = new ArrayList<>();
+		try (PersistentUserRepository users = PersistentUserRepository.open(
+				directory, Long.MAX_VALUE, null, id -> true, channel -> {
+					FailingChannel failing = new FailingChannel(channel);
+					channels.add(failing);
+					return failing;
+				})) {
+			users.createIfAbsent(1, new User(1, "Juan", "Ramírez", "1"));
+			users.createIfAbsent(2, new User(2, "José", "Ortiz", "2"));
+			channels.get(channels.size() - 1).failing = true;
+
+			try {
+				users.batch(() -> {
+					users.createIfAbsent(3, new User(3, "Carlos", "Ariza",
+							"3"));
+					users.replaceIfPresent(1, new User(1, "Daniel",
+							"Arbelaez", "4"));
+					users.remove(2);
+				});
+				Assert.fail("El lote no debe ser durable");
+			} catch (ReadOnlyRepositoryException e) {
+				/* Esperado */
+			}
+			Assert.assertNull("La creación no se deshizo", users.find(3));
+			Assert.assertEquals("La actualización no se deshizo", "Juan",
+					users.find(1).getName());
+			Assert.assertNotNull("La eliminación no se deshizo",
+					users.find(2));
+			Assert.assertEquals("El documento no se restauró", 1, users
+					.findByDocument("1").getId());
+
+			try {
+				users.replaceIfPresent(1, new User(1, "Daniel", "Arbelaez",
+						"1"));
+				Assert.fail("La escritura debe rechazarse");
+			} catch (ReadOnlyRepositoryException e) {
+				/* Esperado */
+			}
+			Assert.assertEquals("La escritura rechazada modificó el usuario",
+					"Juan", users.find(1).getName());
+			Assert.assertEquals("La cantidad de usuarios no es correcta", 2,
+					users.size());
+		}
+
+		try (PersistentUserRepository users = PersistentUserRepository.open(
+				directory, Long.MAX_VALUE)) {
+			Assert.assertEquals("Solo las escrituras durables se recuperan",
+					2, users.size());
+			Assert.assertEquals("La actualización no durable se recuperó",
+					"Juan", users.find(1).getName());
+		}
+	}
+
+	/**
+	 *
+	 * Canal de un segmento del log que falla al escribir cuando se indica.
+	 */
+	private static final class FailingChannel extends FileChannel {
+
+		/**
+		 * Canal del segmento.
+		 */
+		private final FileChannel channel;
+
+		/**
+		 * Indica si las escrituras fallan.
+		 */
+		private volatile boolean failing;
+
+		/**
+		 *
+		 * Constructor.
+		 *
+		 * @param channel
+		 *            canal del segmento
+		 */
+		private FailingChannel(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 *
+		 * Lanza la falla del disco si las escrituras fallan.
+		 *
+		 * @throws IOException
+		 *             Si las escrituras fallan
+		 */
+		private void check() throws IOException {
+			if (failing) {
+				throw new IOException("No queda espacio en el disco.");
+			}
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			return channel.read(dst);
+		}
+
+		@Override
+		public long read(ByteBuffer[] dsts, int offset, int length)
+				throws IOException {
+			return channel.read(dsts, offset, length);
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			check();
+			return channel.write(src);
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length)
+				throws IOException {
+			check();
+			return channel.write(srcs, offset, length);
+		}
+
+		@Override
+		public long position() throws IOException {
+			return channel.position();
+		}
+
+		@Override
+		public FileChannel position(long newPosition) throws IOException {
+			channel.position(newPosition);
+			return this;
+		}
+
+		@Override
+		public long size() throws IOException {
+			return channel.size();
+		}
+
+		@Override
+		public FileChannel truncate(long size) throws IOException {
+			channel.truncate(size);
+			return this;
+		}
+
+		@Override
+		public void force(boolean metaData) throws IOException {
+			check();
+			channel.force(metaData);
+		}
+
+		@Override
+		public long transferTo(long position, long count,
+				WritableByteChannel target) throws IOException {
+			return channel.transferTo(position, count, target);
+		}
+
+		@Override
+		public long transferFrom(ReadableByteChannel src, long position,
+				long count) throws IOException {
+			check();
+			return channel.transferFrom(src, position, count);
+		}
+
+		@Override
+		public int read(ByteBuffer dst, long position) throws IOException {
+			return channel.read(dst, position);
+		}
+
+		@Override
+		public int write(ByteBuffer src, long position) throws IOException {
+			check();
+			return channel.write(src, position);
+		}
+
+		@Override
+		public MappedByteBuffer map(MapMode mode, long position, long size)
+				throws IOException {
+			return channel.map(mode, position, size);
+		}
+
+		@Override
+		public FileLock lock(long position, long size, boolean shared)
+				throws IOException {
+			return channel.lock(position, size, shared);
+		}
+
+		@Override
+		public FileLock tryLock(long position, long size, boolean shared)
+				throws IOException {
+			return channel.tryLock(position, size, shared);
+		}
+
+		@Override
+		protected void implCloseChannel() throws IOException {
+			channel.close();
+		}
+
+	}
+
+}
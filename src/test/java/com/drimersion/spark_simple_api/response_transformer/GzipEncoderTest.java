@@ -0,0 +1,99 @@
+package com.drimersion.spark_simple_api.response_transformer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * Clase que contiene las pruebas para la compresión gzip de las respuestas.
+ */
+public class GzipEncoderTest {
+
+	/**
+	 * Verifica que las respuestas comprimidas completas y por partes se
+	 * puedan descomprimir, reutilizando los deflaters del pool.
+	 *
+	 * @throws IOException
+	 *             Si no puede descomprimir la respuesta
+	 */
+	@Test
+	public void compressesWithPooledDeflaters() throws IOException {
+		GzipEncoder encoder = new GzipEncoder(100, 6, 1);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			sb.append("{\"id\":").append(i).append(",\"name\":\"Juan\"},");
+		}
+		byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+		for (int i = 0; i < 3; i++) {
+			byte[] compressed = encoder.compressIfLarge(bytes);
+			Assert.assertTrue("La respuesta no se comprimió",
+					compressed.length < bytes.length / 4);
+			Assert.assertArrayEquals("La respuesta no es la original", bytes,
+					decompress(compressed));
+		}
+		Assert.assertNull("Se comprimió una respuesta pequeña",
+				encoder.compressIfLarge(new byte[99]));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (OutputStream gzip = encoder.stream(out)) {
+			for (int offset = 0; offset < bytes.length; offset += 1000) {
+				gzip.write(bytes, offset, Math.min(1000, bytes.length - offset));
+				gzip.flush();
+			}
+		}
+		Assert.assertArrayEquals("La respuesta por partes no es la original",
+				bytes, decompress(out.toByteArray()));
+	}
+
+	/**
+	 * Verifica la negociación con el header Accept-Encoding.
+	 */
+	@Test
+	public void negotiatesAcceptEncoding() {
+		GzipEncoder encoder = new GzipEncoder(0, 6, 1);
+		Assert.assertTrue("No se aceptó gzip", encoder.accepts("gzip"));
+		Assert.assertTrue("No se aceptó gzip",
+				encoder.accepts("deflate, GZIP;q=0.5, br"));
+		Assert.assertTrue("No se aceptó el comodín", encoder.accepts("*"));
+		Assert.assertFalse("Se aceptó gzip con calidad 0",
+				encoder.accepts("gzip;q=0, identity"));
+		Assert.assertFalse("Se aceptó otra codificación",
+				encoder.accepts("br, deflate"));
+		Assert.assertFalse("Se aceptó sin header", encoder.accepts(null));
+		Assert.assertFalse("Se aceptó con la compresión deshabilitada",
+				new GzipEncoder(-1, 6, 1).accepts("gzip"));
+	}
+
+	/**
+	 *
+	 * Descomprime una respuesta gzip.
+	 *
+	 * @param compressed
+	 *            respuesta comprimida
+	 * @return respuesta original
+	 * @throws IOException
+	 *             Si la respuesta no es gzip válido
+	 */
+	private static byte[] decompress(byte[] compressed) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(
+				compressed))) {
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+		}
+		return out.toByteArray();
+	}
+
+}
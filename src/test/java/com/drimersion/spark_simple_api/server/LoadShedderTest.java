@@ -0,0 +1,95 @@
+package com.drimersion.spark_simple_api.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * Clase que contiene las pruebas para el limitador de carga.
+ */
+public class LoadShedderTest {
+
+	/**
+	 * Verifica que las peticiones en proceso y las tareas en cola cuenten
+	 * para el límite y que las peticiones rechazadas no ocupen un lugar.
+	 */
+	@Test
+	public void shedsAboveLimit() {
+		AtomicInteger queued = new AtomicInteger();
+		LoadShedder shedder = new LoadShedder(3, queued::get);
+
+		Assert.assertTrue("No se admitió la petición", shedder.tryAcquire());
+		Assert.assertTrue("No se admitió la petición", shedder.tryAcquire());
+		queued.set(1);
+		Assert.assertFalse("Se admitió una petición con la cola llena",
+				shedder.tryAcquire());
+		Assert.assertEquals("La petición rechazada ocupa un lugar", 2,
+				shedder.getInFlight());
+
+		shedder.release();
+		Assert.assertTrue("No se admitió la petición liberada",
+				shedder.tryAcquire());
+		Assert.assertEquals("Las peticiones rechazadas no son correctas", 1,
+				shedder.getShed());
+	}
+
+	/**
+	 * Verifica que el límite adaptativo se reduzca cuando sube la latencia,
+	 * sin bajar del mínimo, y vuelva a crecer cuando se recupera.
+	 */
+	@Test
+	public void adaptsLimitToLatency() {
+		AtomicLong clock = new AtomicLong();
+		LoadShedder shedder = new LoadShedder(100, () -> 0, 10, clock::get);
+		window(shedder, clock, 1);
+		Assert.assertEquals("El límite cambió con la latencia estable", 100,
+				shedder.getAdaptiveLimit());
+
+		for (int i = 0; i < 30; i++) {
+			window(shedder, clock, 20);
+		}
+		int reduced = shedder.getAdaptiveLimit();
+		Assert.assertTrue("El límite no se redujo: " + reduced, reduced < 50);
+		Assert.assertTrue("El límite bajó del mínimo", reduced >= 10);
+
+		for (int i = 0; i < reduced; i++) {
+			Assert.assertTrue("No se admitió la petición", shedder.tryAcquire());
+		}
+		Assert.assertFalse("Se admitió una petición sobre el límite",
+				shedder.tryAcquire());
+		for (int i = 0; i < reduced; i++) {
+			shedder.release();
+		}
+
+		for (int i = 0; i < 60; i++) {
+			window(shedder, clock, 1);
+		}
+		Assert.assertTrue("El límite no creció al recuperarse la latencia",
+				shedder.getAdaptiveLimit() > reduced);
+	}
+
+	/**
+	 *
+	 * Registra una ventana completa de peticiones con la misma latencia.
+	 *
+	 * @param shedder
+	 *            limitador de carga
+	 * @param clock
+	 *            reloj del limitador en nanosegundos
+	 * @param latencyMillis
+	 *            latencia de las peticiones
+	 */
+	private static void window(LoadShedder shedder, AtomicLong clock,
+			long latencyMillis) {
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+		for (int i = 0; i < 20; i++) {
+			Assert.assertTrue("No se admitió la petición", shedder.tryAcquire());
+			shedder.release(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+		}
+	}
+
+}
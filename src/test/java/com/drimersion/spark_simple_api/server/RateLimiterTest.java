@@ -0,0 +1,83 @@
+package com.drimersion.spark_simple_api.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * Clase que contiene las pruebas para el limitador de peticiones por
+ * cliente.
+ */
+public class RateLimiterTest {
+
+	/**
+	 * Verifica que cada cliente tenga su ráfaga y su tasa, y que se indique
+	 * el tiempo de espera al rechazar.
+	 */
+	@Test
+	public void limitsEachClient() {
+		AtomicLong clock = new AtomicLong(TimeUnit.SECONDS.toNanos(1));
+		RateLimiter limiter = new RateLimiter(10, 3, 100, clock::get, false);
+
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals("No se admitió la ráfaga", 0,
+					limiter.tryAcquire("a"));
+		}
+		Assert.assertEquals("No se indicó la espera de un permiso", 100,
+				limiter.tryAcquire("a"));
+		Assert.assertEquals("Un cliente afectó a otro", 0,
+				limiter.tryAcquire("b"));
+
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+		Assert.assertEquals("No se recuperó un permiso", 0,
+				limiter.tryAcquire("a"));
+		Assert.assertTrue("Se admitió más de la tasa",
+				limiter.tryAcquire("a") > 0);
+		Assert.assertEquals("Las peticiones rechazadas no son correctas", 2,
+				limiter.getLimited());
+
+		/* Un bucket lleno no acumula más de la ráfaga */
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(60));
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals("No se admitió la ráfaga", 0,
+					limiter.tryAcquire("b"));
+		}
+		Assert.assertTrue("La ráfaga superó el máximo",
+				limiter.tryAcquire("b") > 0);
+	}
+
+	/**
+	 * Verifica que se eliminen los buckets llenos y que los clientes por
+	 * encima del máximo compartan un bucket.
+	 */
+	@Test
+	public void evictsIdleClients() {
+		AtomicLong clock = new AtomicLong(TimeUnit.SECONDS.toNanos(1));
+		RateLimiter limiter = new RateLimiter(1, 1, 2, clock::get, false);
+
+		Assert.assertEquals("No se admitió el cliente", 0,
+				limiter.tryAcquire("a"));
+		Assert.assertEquals("No se admitió el cliente", 0,
+				limiter.tryAcquire("b"));
+		Assert.assertEquals("No se admitió el primer cliente adicional", 0,
+				limiter.tryAcquire("c"));
+		Assert.assertTrue("Los clientes adicionales no comparten el bucket",
+				limiter.tryAcquire("d") > 0);
+		Assert.assertEquals("Se creó un bucket sobre el máximo", 2,
+				limiter.getClients());
+
+		limiter.evict();
+		Assert.assertEquals("Se eliminó un bucket que no está lleno", 2,
+				limiter.getClients());
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		limiter.evict();
+		Assert.assertEquals("No se eliminaron los buckets llenos", 0,
+				limiter.getClients());
+		Assert.assertEquals("No se admitió el cliente nuevo", 0,
+				limiter.tryAcquire("d"));
+	}
+
+}
@@ -0,0 +1,85 @@
+package com.drimersion.spark_simple_api.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.drimersion.spark_simple_api.codec.MessagePackReader;
+import com.google.gson.GsonBuilder;
+
+/**
+ *
+ * Clase que contiene las pruebas de los cuerpos pre-serializados de los
+ * códigos de error.
+ */
+public class HttpStatusCodeTest {
+
+	/**
+	 * Verifica que el cuerpo json de cada código y su longitud coincidan con
+	 * la serialización del identificador y el mensaje.
+	 *
+	 * @throws IOException
+	 *             Si no puede escribir el cuerpo
+	 */
+	@Test
+	public void rendersJsonBodies() throws IOException {
+		for (HttpStatusCode status : HttpStatusCode.values()) {
+			Map<String, String> error = new LinkedHashMap<>();
+			error.put("id", status.getId());
+			error.put("message", status.getMessage());
+			byte[] expected = new GsonBuilder().disableHtmlEscaping().create()
+					.toJson(error).getBytes(StandardCharsets.UTF_8);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			status.writeBody(out);
+			Assert.assertArrayEquals("El cuerpo json de " + status.getCode()
+					+ " no es el esperado", expected, out.toByteArray());
+			Assert.assertArrayEquals("La copia del cuerpo de "
+					+ status.getCode() + " no es la esperada", expected,
+					status.getBody());
+			Assert.assertEquals("La longitud del cuerpo de " + status.getCode()
+					+ " no es la esperada", expected.length,
+					status.getBodyLength());
+		}
+	}
+
+	/**
+	 * Verifica que el cuerpo MessagePack de cada código se lea como un mapa
+	 * con el identificador y el mensaje, y que su longitud coincida.
+	 *
+	 * @throws IOException
+	 *             Si no puede leer el cuerpo
+	 */
+	@Test
+	public void rendersMessagePackBodies() throws IOException {
+		for (HttpStatusCode status : HttpStatusCode.values()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			status.writeMessagePackBody(out);
+			byte[] bytes = out.toByteArray();
+			Assert.assertEquals("La longitud del cuerpo de " + status.getCode()
+					+ " no es la esperada", bytes.length,
+					status.getMessagePackBodyLength());
+
+			MessagePackReader reader = new MessagePackReader(bytes, 0,
+					bytes.length);
+			Assert.assertEquals("El cuerpo no es un mapa de dos campos", 2,
+					reader.readMapHeader());
+			Assert.assertEquals("El primer campo no es id", "id",
+					reader.readString());
+			Assert.assertEquals("El identificador no es el esperado",
+					status.getId(), reader.readString());
+			Assert.assertEquals("El segundo campo no es message", "message",
+					reader.readString());
+			Assert.assertEquals("El mensaje no es el esperado",
+					status.getMessage(), reader.readString());
+			Assert.assertFalse("El cuerpo tiene bytes sobrantes",
+					reader.hasNext());
+		}
+	}
+
+}